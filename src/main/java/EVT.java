@@ -26,6 +26,7 @@
 
 
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
@@ -37,8 +38,13 @@ import java.util.HashMap;
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
 import org.alfresco.extension.environment.validation.validators.AllValidators;
+import org.alfresco.extension.environment.validation.validators.ClusterValidator;
+import org.alfresco.extension.environment.validation.validators.ContentStoreValidator;
 import org.alfresco.extension.environment.validation.validators.DBValidator;
+import org.alfresco.extension.environment.validation.validators.DNSValidator;
 import org.alfresco.extension.environment.validation.validators.IndexDiskSpeedValidator;
+import org.alfresco.extension.environment.validation.validators.NetworkAgent;
+import org.alfresco.extension.environment.validation.validators.NetworkValidator;
 import org.alfresco.extension.util.PropertiesUtil;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
@@ -66,6 +72,20 @@ public class EVT
         put("-l", DBValidator.PARAMETER_DATABASE_LOGIN);
         put("-p", DBValidator.PARAMETER_DATABASE_PASSWORD);
         put("-i", IndexDiskSpeedValidator.PARAMETER_DISK_LOCATION);
+        put("-c", ContentStoreValidator.PARAMETER_CONTENT_STORE_LOCATION);
+        put("-b", NetworkValidator.PARAMETER_BIND_ADDRESS);
+        put("-ah", NetworkAgent.PARAMETER_AGENT_HOSTNAME);
+        put("-ap", NetworkAgent.PARAMETER_AGENT_PORT);
+        put("-n", ClusterValidator.PARAMETER_PEERS);
+        put("-m", ClusterValidator.PARAMETER_MULTICAST);
+        put("-dh", DNSValidator.PARAMETER_HOSTNAMES);
+        put("-ls", NetworkValidator.PARAMETER_SAMPLE_MINUTES);
+    }};
+    
+    // Map of "shortcut" flags (which take no value) to "long form" parameters
+    private static final Map FLAG_MAP = new HashMap()
+    {{
+        put("-x", DBValidator.PARAMETER_DATABASE_STRESS);
     }};
     
     public static Configuration config = null;
@@ -105,6 +125,12 @@ public class EVT
         System.out.println("\nAlfresco Environment Validation Tool (for Alfresco Enterprise " + supportedVersions + ")");
         System.out.println("------------------------------------------------------------------");
 
+        if (parameters.containsKey("--agent"))
+        {
+            runAgent(parameters);
+            return;
+        }
+
         if (parameters.isEmpty()                                             ||
             parameters.containsKey("-?")                                     ||
             parameters.containsKey("--help")                                 ||
@@ -119,6 +145,10 @@ public class EVT
             System.out.println("usage: evt[.sh|.cmd] [-?|--help] [-v] [-V|-vv]");
             System.out.println("            -a alfrescoversion -t databaseType -h databaseHost [-r databasePort]");
             System.out.println("            [-d databaseName] -l databaseLogin [-p databasePassword] -i indexlocation");
+            System.out.println("            [-c contentstorelocation] [-b bindaddress] [-ah agentHost] [-ap agentPort]");
+            System.out.println("            [-n clusterPeers] [-m multicastGroup] [-dh otherHosts] [-ls sampleMinutes]");
+            System.out.println("            [-x]");
+            System.out.println("   or: evt[.sh|.cmd] --agent [-ap agentPort] [-n clusterPeers]");
             System.out.println("");
             System.out.println("where:      -?|--help        - display this help");
             System.out.println("            -v               - produce verbose output");
@@ -136,6 +166,29 @@ public class EVT
             System.out.println("                               database");
             System.out.println("            databasePassword - the password for that user (optional)");
             System.out.println("            indexlocation    - a path to a folder that will contain Alfresco indexes");
+            System.out.println("            contentstorelocation - a path to a folder that will contain the Alfresco");
+            System.out.println("                               content store (optional)");
+            System.out.println("            bindaddress      - the address Alfresco will listen on (optional -");
+            System.out.println("                               defaults to the address of the local hostname)");
+            System.out.println("            agentHost        - the host an EVT agent is running on (optional -");
+            System.out.println("                               defaults to databaseHost)");
+            System.out.println("            agentPort        - the port the EVT agent listens on (optional -");
+            System.out.println("                               defaults to " + NetworkAgent.DEFAULT_PORT + ")");
+            System.out.println("            clusterPeers     - comma separated list of the other cluster nodes, each");
+            System.out.println("                               running an EVT agent (optional - host[:agentPort]).");
+            System.out.println("                               With --agent, the only nodes the agent will probe");
+            System.out.println("                               (besides the client that asks it to)");
+            System.out.println("            multicastGroup   - the multicast group the cluster uses (optional -");
+            System.out.println("                               group:port)");
+            System.out.println("            otherHosts       - comma separated list of other hosts Alfresco will connect");
+            System.out.println("                               to, eg. Solr or LDAP servers (optional)");
+            System.out.println("            sampleMinutes    - sample database network latency for this many minutes,");
+            System.out.println("                               to detect periodic spikes (optional) - needs an agent on");
+            System.out.println("                               the database server, or -x");
+            System.out.println("            -x               - also run stress tests against the database server");
+            System.out.println("                               (connection churn and capacity, and write throughput in");
+            System.out.println("                               a scratch table) - not for use against production");
+            System.out.println("            --agent          - run as an agent, for network tests from other servers");
             System.out.println("");
             System.out.println("The tool must be run as the OS user that Alfreso will run as.  In particular");
             System.out.println("it will report erroneous results if run as \"root\" (or equivalent on other");
@@ -158,6 +211,34 @@ public class EVT
     }
     
     
+    /*
+     * Runs the network agent until the process is killed.
+     */
+    private static void runAgent(final Map parameters)
+    {
+        NetworkAgent agent = new NetworkAgent(null, NetworkAgent.getAgentPort(parameters));
+        
+        try
+        {
+            agent.addProbeTargets((String)parameters.get(ClusterValidator.PARAMETER_PEERS));
+            agent.bind();
+            
+            System.out.println("\nEVT agent listening on port " + agent.getLocalPort() + " (press Ctrl-C to stop)");
+            
+            agent.run();
+        }
+        catch (IOException ioe)
+        {
+            System.out.println("\nUnable to start EVT agent: " + ioe.getMessage());
+            System.exit(1);
+        }
+        finally
+        {
+            agent.close();
+        }
+    }
+    
+    
     private static Map parseParameters(final String[] args) 
     {
         Map result = new HashMap();
@@ -175,6 +256,10 @@ public class EVT
                     i++;  // Skip one
                 }
             }
+            else if (FLAG_MAP.containsKey(args[i]))
+            {
+                result.put(FLAG_MAP.get(args[i]), Boolean.TRUE.toString());
+            }
             else
             {
                 // Unmapped parameter, just put it in as is, without a value
@@ -26,6 +26,7 @@
 package org.alfresco.extension.environment.validation;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
@@ -36,7 +37,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import org.hyperic.sigar.FileSystem;
 import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
 
 import org.alfresco.extension.util.ProcessInvoker;
 import org.alfresco.extension.util.Quad;
@@ -113,6 +116,36 @@ public abstract class AbstractValidator
     }
     
     
+    /**
+     * Finds the file system (mount point) that contains the given path.
+     * 
+     * @param path The path to look up <i>(may be null)</i>.
+     * @return The file system containing that path <i>(will be null if it can't be determined)</i>.
+     */
+    protected FileSystem findFileSystem(final String path)
+    {
+        FileSystem result = null;
+        
+        if (path != null && path.trim().length() > 0)
+        {
+            try
+            {
+                result = sigar.getFileSystemMap().getMountPoint(new File(path).getCanonicalPath());
+            }
+            catch (IOException ioe)
+            {
+                result = null;
+            }
+            catch (SigarException se)
+            {
+                result = null;
+            }
+        }
+        
+        return(result);
+    }
+    
+    
     protected Triple executeCommand(final String[] commandAndParameters)
         throws IOException,
                InterruptedException
@@ -46,10 +46,20 @@ public class AllValidators
                                                       //new JVMValidator(), --> replaced
                                                       new OSValidator(),
                                                       new ServerHardwareValidator(),
+                                                      new DNSValidator(),
                                                       new NetworkValidator(),
+                                                      new NetworkBandwidthValidator(),
+                                                      new ClusterValidator(),
+                                                      new TcpTuningValidator(),
+                                                      new HttpLoadValidator(),
+                                                      new ConnectionChurnValidator(),
                                                       new ThirdPartyApplicationValidator(),
                                                       new DBValidator(),
-                                                      new IndexDiskSpeedValidator()
+                                                      new IndexDiskSpeedValidator(),
+                                                      new IndexCacheValidator(),
+                                                      new ContentStoreValidator(),
+                                                      new SharedContentStoreValidator(),
+                                                      new TempDirectoryValidator()
                                                   };
 
     /**
@@ -0,0 +1,549 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+import org.alfresco.extension.util.Pair;
+
+
+/**
+ * This class validates the network between the nodes of an Alfresco cluster, using EVT agents
+ * (<code>evt --agent</code>) running on each of the other nodes.  It reports a TCP round trip time matrix between
+ * all of the nodes (each agent measures its own row), plus UDP round trip time, multicast reachability and
+ * throughput between this node and each of the others.  If no other nodes are provided, the same measurements are
+ * taken against a loopback stand-in, but only reported for information.
+ *
+ */
+public class ClusterValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Cluster";
+
+    // Parameters to this validator
+    public final static String PARAMETER_PEERS     = VALIDATION_TOPIC + ".peers";
+    public final static String PARAMETER_MULTICAST = VALIDATION_TOPIC + ".multicast";
+
+    private final static String LOCAL_NODE_NAME            = "local";
+    private final static String LOOPBACK_NODE_NAME         = "loopback";
+
+    private final static int    DEFAULT_SAMPLES            = 50;
+    private final static double DEFAULT_MAXIMUM_AVG_MS     = 2.0;
+    private final static double DEFAULT_MAXIMUM_P99_MS     = 10.0;
+    private final static int    DEFAULT_UDP_TIMEOUT_MS     = 1000;
+    private final static int    DEFAULT_MULTICAST_TIMEOUT  = 3000;
+    private final static long   DEFAULT_TRANSFER_MB        = 32;
+    private final static double DEFAULT_WARN_MBS           = 50.0;
+    private final static double DEFAULT_FAIL_MBS           = 10.0;
+    private final static int    TRANSFER_BUFFER_SIZE       = 64 * 1024;
+
+    private final static long   BYTES_PER_MB               = 1024L * 1024L;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        String       peers      = (String)parameters.get(PARAMETER_PEERS);
+        NetworkAgent localAgent = null;
+
+        try
+        {
+            Pair   nodes     = null;
+            String localHost = getLocalAddress((String)parameters.get(NetworkValidator.PARAMETER_BIND_ADDRESS));
+
+            if (peers == null || peers.trim().length() == 0)
+            {
+                localAgent = new NetworkAgent(InetAddress.getByName("127.0.0.1"), 0);
+                localAgent.start();
+                nodes = validateNoPeers(callback, localAgent);
+            }
+            else
+            {
+                int agentPort = NetworkAgent.getAgentPort(parameters);
+
+                // On the agent port, so that the other nodes' agents can measure their way back to this node through the same firewall rules
+                localAgent = new NetworkAgent(null, agentPort);
+                localAgent.start();
+                nodes = validatePeers(callback, peers, agentPort);
+            }
+
+            Node local = new Node(LOCAL_NODE_NAME, localHost, localAgent.getLocalPort());
+            List all   = new ArrayList((List)nodes.getFirst());
+
+            all.add(0, local);
+
+            validateLatencyMatrix(callback, all, ((Boolean)nodes.getSecond()).booleanValue());
+
+            for (int i = 1; i < all.size(); i++)
+            {
+                Node peer = (Node)all.get(i);
+
+                validateUdpLatency(callback, peer);
+                validateMulticast(callback, peer, (String)parameters.get(PARAMETER_MULTICAST));
+                validateThroughput(callback, peer);
+            }
+        }
+        catch (IOException ioe)
+        {
+            startTest(callback, "Cluster Agent");
+
+            TestResult testResult = new TestResult();
+
+            progress(callback, "unavailable");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to start a local agent: " + ioe.getMessage();
+            testResult.ramification = "Network characteristics between cluster nodes could not be measured";
+            testResult.remedy       = "Ensure the agent port is free on this node (eg. stop any EVT agent running here, or use -ap to choose another port), or manually measure latency and throughput between cluster nodes (eg. using ping and iperf)";
+            testResult.rootCause    = ioe;
+
+            endTest(callback, testResult);
+        }
+        finally
+        {
+            if (localAgent != null)
+            {
+                localAgent.close();
+            }
+        }
+    }
+
+
+    /*
+     * Returns the address the other nodes should use to reach this node.
+     */
+    private String getLocalAddress(final String bindAddress)
+    {
+        String result = bindAddress;
+
+        if (result == null || result.trim().length() == 0)
+        {
+            try
+            {
+                result = InetAddress.getLocalHost().getHostAddress();
+            }
+            catch (UnknownHostException uhe)
+            {
+                result = "127.0.0.1";
+            }
+        }
+
+        return(result.trim());
+    }
+
+
+    /**
+     * @return Pair containing:
+     *            List:    the local loopback stand-in node
+     *            Boolean: false (the stand-in can't measure its way back to this node)
+     */
+    private Pair validateNoPeers(final ValidatorCallback callback, final NetworkAgent standIn)
+    {
+        startTest(callback, "Cluster Peers");
+
+        TestResult testResult = new TestResult();
+        List       result     = new ArrayList();
+
+        progress(callback, "none - using loopback stand-in");
+
+        result.add(new Node(LOOPBACK_NODE_NAME, "127.0.0.1", standIn.getLocalPort()));
+
+        testResult.resultType   = TestResult.INFO;
+        testResult.errorMessage = "No cluster peers were provided - measuring against a local loopback stand-in, which only exercises this server's network stack";
+        testResult.remedy       = "If Alfresco will be clustered, run 'evt --agent -n node1,node2,...' (listing the other nodes) on each of the other nodes, then rerun this tool with -n node1,node2[:agentPort],...";
+
+        endTest(callback, testResult);
+
+        return(new Pair(result, Boolean.FALSE));
+    }
+
+
+    /**
+     * @return Pair containing:
+     *            List:    the peer nodes that have a reachable agent
+     *            Boolean: true (the peers' agents can measure their own rows of the matrix)
+     */
+    private Pair validatePeers(final ValidatorCallback callback, final String peers, final int defaultPort)
+    {
+        startTest(callback, "Cluster Peers");
+
+        TestResult   testResult  = new TestResult();
+        List         result      = new ArrayList();
+        String[]     peerList    = peers.split(",");
+        StringBuffer unreachable = new StringBuffer();
+        int          total       = 0;
+
+        for (int i = 0; i < peerList.length; i++)
+        {
+            String peer = peerList[i].trim();
+
+            if (peer.length() > 0)
+            {
+                int    separator = peer.lastIndexOf(':');
+                String host      = separator > 0 ? peer.substring(0, separator) : peer;
+                int    port      = defaultPort;
+
+                if (separator > 0)
+                {
+                    try
+                    {
+                        port = Integer.parseInt(peer.substring(separator + 1));
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                        port = defaultPort;
+                    }
+                }
+
+                total++;
+
+                if (NetworkAgentClient.isReachable(host, port))
+                {
+                    result.add(new Node(host, host, port));
+                }
+                else
+                {
+                    unreachable.append((unreachable.length() == 0 ? "" : ", ") + host + ":" + port);
+                }
+            }
+        }
+
+        progress(callback, result.size() + " of " + total + " agents reachable");
+
+        if (unreachable.length() == 0)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "No EVT agent is reachable on " + unreachable;
+            testResult.ramification = "Network characteristics between this node and those nodes could not be measured";
+            testResult.remedy       = "Run 'evt --agent [-ap port] -n node1,node2,...' (listing the other nodes) on each of the other cluster nodes, and ensure the agent port is open between all nodes";
+        }
+
+        endTest(callback, testResult);
+
+        return(new Pair(result, Boolean.TRUE));
+    }
+
+
+    /*
+     * Measures TCP round trip time between every pair of nodes - this node measures its own row directly, and asks
+     * each peer's agent to measure that peer's row.
+     */
+    private void validateLatencyMatrix(final ValidatorCallback callback, final List nodes, final boolean peersMeasure)
+    {
+        int samples = PerformanceConfiguration.getInt("cluster.latency.samples", DEFAULT_SAMPLES);
+
+        for (int i = 0; i < (peersMeasure ? nodes.size() : 1); i++)
+        {
+            Node source = (Node)nodes.get(i);
+
+            for (int j = 0; j < nodes.size(); j++)
+            {
+                if (i != j)
+                {
+                    Node target = (Node)nodes.get(j);
+
+                    startTest(callback, "TCP RTT " + source.name + " -> " + target.name);
+
+                    TestResult testResult = new TestResult();
+
+                    try
+                    {
+                        LatencyStatistics latencies = i == 0 ? NetworkAgentClient.tcpEcho(target.address, samples) :
+                                                               NetworkAgentClient.remoteTcpEcho(source.address, target.host, target.port, samples);
+
+                        gradeLatency(callback, testResult, latencies, source.name, target.name, "TCP");
+                    }
+                    catch (IOException ioe)
+                    {
+                        progress(callback, "unreachable");
+
+                        testResult.resultType   = TestResult.WARN;
+                        testResult.errorMessage = "Unable to measure TCP round trip time from " + source.name + " to " + target.name + ": " + ioe.getMessage();
+                        testResult.ramification = "Cache replication between these nodes may fail";
+                        testResult.remedy       = "Ensure the nodes can reach each other (and the agent port is open between them)";
+                        testResult.rootCause    = ioe;
+                    }
+
+                    endTest(callback, testResult);
+                }
+            }
+        }
+    }
+
+
+    private void gradeLatency(final ValidatorCallback callback, final TestResult testResult, final LatencyStatistics latencies, final String source, final String target, final String protocol)
+    {
+        double maximumAvgMs = PerformanceConfiguration.getDouble("cluster.latency.avg.max.ms", DEFAULT_MAXIMUM_AVG_MS);
+        double maximumP99Ms = PerformanceConfiguration.getDouble("cluster.latency.p99.max.ms", DEFAULT_MAXIMUM_P99_MS);
+
+        if (latencies.getCount() == 0)
+        {
+            progress(callback, "unreachable");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = target + " is not reachable from " + source + " over " + protocol;
+            testResult.ramification = "Cache replication between these nodes may fail";
+            testResult.remedy       = "Ensure the nodes can reach each other (and the agent port is open between them)" +
+                                      (LOCAL_NODE_NAME.equals(source) || !"TCP".equals(protocol) ? "" : ", and that " + source + "'s agent was started with -n listing " + target);
+        }
+        else
+        {
+            progress(callback, "avg " + LatencyStatistics.format(latencies.getAverage()) + "ms, p99 " + LatencyStatistics.format(latencies.getPercentile(99.0)) + "ms");
+
+            if (LOOPBACK_NODE_NAME.equals(target))
+            {
+                progress(callback, "(loopback)");
+                reportLoopback(testResult, protocol + " round trip time over a loopback path to a local stand-in is " + latencies);
+            }
+            else if (latencies.getAverage() > maximumAvgMs)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "Average " + protocol + " round trip time from " + source + " to " + target + " exceeds " + LatencyStatistics.format(maximumAvgMs) + "ms (" + latencies + ")";
+                testResult.ramification = "Cache replication between cluster nodes will be slow, degrading the performance of the entire cluster";
+                testResult.remedy       = "Ensure cluster nodes are on the same low latency network (eg. the same data centre and subnet)";
+            }
+            else if (latencies.getPercentile(99.0) > maximumP99Ms)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "99th percentile " + protocol + " round trip time from " + source + " to " + target + " exceeds " + LatencyStatistics.format(maximumP99Ms) + "ms (" + latencies + ")";
+                testResult.ramification = "Cache replication between cluster nodes will be erratic";
+                testResult.remedy       = "Review the network connection between these nodes (eg. congestion, overloaded switches or firewalls)";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+    }
+
+
+    private void validateUdpLatency(final ValidatorCallback callback, final Node peer)
+    {
+        startTest(callback, "UDP RTT " + LOCAL_NODE_NAME + " -> " + peer.name);
+
+        TestResult testResult = new TestResult();
+        int        samples    = PerformanceConfiguration.getInt("cluster.latency.samples", DEFAULT_SAMPLES);
+        int        timeoutMs  = PerformanceConfiguration.getInt("cluster.udp.timeout.ms",  DEFAULT_UDP_TIMEOUT_MS);
+
+        try
+        {
+            Pair result = NetworkAgentClient.udpEcho(peer.address, samples, timeoutMs);
+            int  lost   = ((Integer)result.getSecond()).intValue();
+
+            gradeLatency(callback, testResult, (LatencyStatistics)result.getFirst(), LOCAL_NODE_NAME, peer.name, "UDP");
+
+            if (lost > 0 && testResult.resultType == TestResult.PASS)
+            {
+                progress(callback, ", " + lost + " lost");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = lost + " of " + samples + " UDP datagrams to " + peer.name + " were lost";
+                testResult.ramification = "UDP based cache replication between these nodes will be unreliable";
+                testResult.remedy       = "Review the network connection between these nodes for packet loss (and any firewalls for UDP filtering)";
+            }
+        }
+        catch (IOException ioe)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to measure UDP round trip time to " + peer.name + ": " + ioe.getMessage();
+            testResult.ramification = "UDP based cache replication between these nodes may fail";
+            testResult.remedy       = "Ensure UDP traffic is permitted between the cluster nodes";
+            testResult.rootCause    = ioe;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateMulticast(final ValidatorCallback callback, final Node peer, final String multicast)
+    {
+        if (multicast != null && multicast.trim().length() > 0)
+        {
+            startTest(callback, "Multicast " + LOCAL_NODE_NAME + " -> " + peer.name);
+
+            TestResult testResult = new TestResult();
+            int        separator  = multicast.lastIndexOf(':');
+
+            try
+            {
+                InetAddress group     = InetAddress.getByName(separator > 0 ? multicast.substring(0, separator).trim() : multicast.trim());
+                int         groupPort = Integer.parseInt(multicast.substring(separator + 1).trim());
+                int         timeoutMs = PerformanceConfiguration.getInt("cluster.multicast.timeout.ms", DEFAULT_MULTICAST_TIMEOUT);
+
+                if (NetworkAgentClient.multicast(peer.address, group, groupPort, timeoutMs))
+                {
+                    progress(callback, "received");
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    progress(callback, "not received");
+
+                    testResult.resultType   = TestResult.FAIL;
+                    testResult.errorMessage = "Multicast datagrams sent to " + group.getHostAddress() + ":" + groupPort + " did not reach " + peer.name + " within " + timeoutMs + "ms";
+                    testResult.ramification = "Cluster nodes using multicast discovery will not find each other";
+                    testResult.remedy       = "Enable multicast routing between the cluster nodes (eg. IGMP snooping on switches), or configure the cluster to use TCP based discovery";
+                }
+            }
+            catch (NumberFormatException nfe)
+            {
+                progress(callback, "invalid");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Invalid multicast group '" + multicast + "' - expected group:port";
+                testResult.remedy       = "Rerun the tool with -m group:port (eg. -m 230.0.0.1:4446)";
+                testResult.rootCause    = nfe;
+            }
+            catch (IOException ioe)
+            {
+                progress(callback, "unknown");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Unable to test multicast to " + peer.name + ": " + ioe.getMessage();
+                testResult.ramification = "Cluster nodes using multicast discovery may not find each other";
+                testResult.remedy       = "Manually verify multicast between the cluster nodes";
+                testResult.rootCause    = ioe;
+            }
+
+            endTest(callback, testResult);
+        }
+    }
+
+
+    private void validateThroughput(final ValidatorCallback callback, final Node peer)
+    {
+        startTest(callback, "Throughput " + LOCAL_NODE_NAME + " <-> " + peer.name);
+
+        TestResult testResult = new TestResult();
+        long       totalBytes = PerformanceConfiguration.getLong("cluster.transfer.mb", DEFAULT_TRANSFER_MB) * BYTES_PER_MB;
+        double     warnMbs    = PerformanceConfiguration.getDouble("bandwidth.warn.mbs", DEFAULT_WARN_MBS);
+        double     failMbs    = PerformanceConfiguration.getDouble("bandwidth.fail.mbs", DEFAULT_FAIL_MBS);
+
+        try
+        {
+            double upload   = NetworkAgentClient.measureThroughput(peer.address, true,  TRANSFER_BUFFER_SIZE, 1, totalBytes);
+            double download = NetworkAgentClient.measureThroughput(peer.address, false, TRANSFER_BUFFER_SIZE, 1, totalBytes);
+            double worst    = Math.min(upload, download);
+
+            progress(callback, "up " + LatencyStatistics.format(upload) + "MB/s, down " + LatencyStatistics.format(download) + "MB/s");
+
+            if (LOOPBACK_NODE_NAME.equals(peer.name))
+            {
+                progress(callback, "(loopback)");
+                reportLoopback(testResult, "Throughput over a loopback path to a local stand-in is up " + LatencyStatistics.format(upload) + "MB/s, down " + LatencyStatistics.format(download) + "MB/s");
+            }
+            else if (worst < failMbs)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "Throughput between this node and " + peer.name + " is less than " + LatencyStatistics.format(failMbs) + "MB/s";
+                testResult.ramification = "Cache replication and index tracking between cluster nodes will be slow";
+                testResult.remedy       = "Ensure the cluster nodes are connected by at least a gigabit network";
+            }
+            else if (worst < warnMbs)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Throughput between this node and " + peer.name + " is less than " + LatencyStatistics.format(warnMbs) + "MB/s";
+                testResult.ramification = "Cache replication and index tracking between cluster nodes may be slow";
+                testResult.remedy       = "Review the network connection between the cluster nodes (eg. link speed, duplex settings, congestion)";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+        catch (IOException ioe)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to measure throughput to " + peer.name + ": " + ioe.getMessage();
+            testResult.ramification = "Cache replication between cluster nodes may be slow";
+            testResult.remedy       = "Manually measure throughput between the cluster nodes (eg. using iperf)";
+            testResult.rootCause    = ioe;
+        }
+        catch (InterruptedException ie)
+        {
+            progress(callback, "interrupted");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Interrupted while measuring throughput to " + peer.name;
+            testResult.rootCause    = ie;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /*
+     * Measurements against the loopback stand-in only exercise this server's network stack, so they're reported for
+     * information rather than graded against the cluster thresholds.
+     */
+    private void reportLoopback(final TestResult testResult, final String measurement)
+    {
+        testResult.resultType   = TestResult.INFO;
+        testResult.errorMessage = measurement + " - this reflects this server's network stack only, not the network between cluster nodes";
+        testResult.remedy       = "If Alfresco will be clustered, rerun this tool with -n node1,node2[:agentPort],... to measure the network between the nodes";
+    }
+
+
+    private static class Node
+    {
+        private final String            name;
+        private final String            host;
+        private final int               port;
+        private final InetSocketAddress address;
+
+        public Node(final String name, final String host, final int port)
+        {
+            this.name    = name;
+            this.host    = host;
+            this.port    = port;
+            this.address = new InetSocketAddress(host, port);
+        }
+    }
+
+}
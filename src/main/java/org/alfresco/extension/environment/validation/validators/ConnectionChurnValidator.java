@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+import org.alfresco.extension.util.Pair;
+
+
+/**
+ * This class opens and closes TCP connections at increasing rates, as a misconfigured connection pool would, to find
+ * the rate at which this server (and any firewall in between) stops keeping up - typically because of ephemeral
+ * port exhaustion, a full connection tracking table or accept backlog overflows.  Connections are made to the
+ * database server when stress tests are enabled (<code>-x</code>), otherwise to an EVT agent or a local stand-in.
+ *
+ */
+public class ConnectionChurnValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Connection Churn";
+
+    private final static String[] DEFAULT_RATES                    = { "250", "500", "1000", "2000", "4000" };
+    private final static int      DEFAULT_STEP_SECONDS             = 2;
+    private final static int      DEFAULT_THREADS                  = 16;
+    private final static double   DEFAULT_RATE_WARN                = 1000.0;
+    private final static double   DEFAULT_DEGRADATION_WARN         = 5.0;
+    private final static double   DEFAULT_DEGRADATION_MINIMUM_MS   = 5.0;
+    private final static double   SATURATION_RATIO                 = 0.9;    // A step is saturated if less than this fraction of the target rate was achieved
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        Pair target = validateTarget(callback, parameters);
+
+        if (target != null)
+        {
+            NetworkAgent standIn = (NetworkAgent)target.getSecond();
+
+            try
+            {
+                List steps = validateRamp(callback, (InetSocketAddress)target.getFirst());
+
+                if (!steps.isEmpty())
+                {
+                    validateSustainedRate(callback, steps);
+                    validateLatencyDegradation(callback, steps);
+                }
+            }
+            finally
+            {
+                if (standIn != null)
+                {
+                    standIn.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return Pair containing:
+     *            InetSocketAddress: the address to connect to
+     *            NetworkAgent:      the local stand-in agent, if one was started <i>(may be null)</i>
+     *         or null if there's nothing to connect to.
+     */
+    private Pair validateTarget(final ValidatorCallback callback, final Map parameters)
+    {
+        startTest(callback, "Churn Target");
+
+        TestResult testResult       = new TestResult();
+        Pair       result           = null;
+        String     databaseHostname = parameters == null ? null : (String)parameters.get(DBValidator.PARAMETER_DATABASE_HOSTNAME);
+        int        databasePort     = DBValidator.getDatabasePort(parameters);
+        boolean    stress           = parameters != null && parameters.containsKey(DBValidator.PARAMETER_DATABASE_STRESS);
+        boolean    isMySql          = parameters != null && "mysql".equalsIgnoreCase((String)parameters.get(DBValidator.PARAMETER_DATABASE_TYPE));
+        String     agentHostname    = parameters == null ? null : (String)parameters.get(NetworkAgent.PARAMETER_AGENT_HOSTNAME);
+        int        agentPort        = NetworkAgent.getAgentPort(parameters);
+
+        if (agentHostname == null)
+        {
+            agentHostname = databaseHostname;
+        }
+
+        // MySQL blocks hosts that make more than max_connect_errors aborted connections, so it's never churned
+        if (stress && !isMySql && databaseHostname != null && databasePort > 0)
+        {
+            progress(callback, "database " + databaseHostname + ":" + databasePort);
+
+            result                = new Pair(new InetSocketAddress(databaseHostname, databasePort), null);
+            testResult.resultType = TestResult.PASS;
+        }
+        else if (agentHostname != null && NetworkAgentClient.isReachable(agentHostname, agentPort))
+        {
+            progress(callback, "agent " + agentHostname + ":" + agentPort);
+
+            result                = new Pair(new InetSocketAddress(agentHostname, agentPort), null);
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            NetworkAgent standIn = null;
+
+            try
+            {
+                standIn = new NetworkAgent(InetAddress.getByName("127.0.0.1"), 0);
+                standIn.start();
+
+                progress(callback, "local stand-in");
+
+                result                  = new Pair(new InetSocketAddress("127.0.0.1", standIn.getLocalPort()), standIn);
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "Connection churn is being measured against a local stand-in, which only exercises this server's network stack (not the network or firewalls between it and the database server)";
+                testResult.remedy       = isMySql ? "Run 'evt --agent' on the database server, then rerun this tool" :
+                                                    "Rerun this tool with -x to churn connections to the database server, or run 'evt --agent' on the database server";
+            }
+            catch (IOException ioe)
+            {
+                if (standIn != null)
+                {
+                    standIn.close();
+                }
+
+                progress(callback, "unavailable");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Unable to start a local stand-in agent: " + ioe.getMessage();
+                testResult.ramification = "The connection churn rate this server can sustain could not be measured";
+                testResult.remedy       = "Ensure Alfresco's database connection pool is sized so that connections are reused rather than churned";
+                testResult.rootCause    = ioe;
+            }
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    /*
+     * Steps up through the configured rates, stopping at the first step that sees errors or can't reach its target
+     * rate (pushing further would only pile up TIME_WAIT sockets for no extra information).
+     */
+    private List validateRamp(final ValidatorCallback callback, final InetSocketAddress address)
+    {
+        startTest(callback, "Churn Ramp");
+
+        TestResult testResult  = new TestResult();
+        List       result      = new ArrayList();
+        int[]      rates       = PerformanceConfiguration.getPositiveIntArray("churn.rates", DEFAULT_RATES);
+        long       durationMs  = PerformanceConfiguration.getInt("churn.step.seconds", DEFAULT_STEP_SECONDS) * 1000L;
+        int        threads     = Math.max(1, PerformanceConfiguration.getInt("churn.threads", DEFAULT_THREADS));
+        ChurnStep  step        = null;
+        boolean    done        = false;
+
+        try
+        {
+            for (int i = 0; !done && i < rates.length; i++)
+            {
+                step = new ChurnStep(rates[i]);
+                step.run(address, durationMs, threads);
+                result.add(step);
+
+                progress(callback, step.targetRate + ":" + LatencyStatistics.format(step.getAchievedRate()) + "/s ");
+
+                done = step.errors.get() > 0 || step.isSaturated();
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.rootCause = ie;
+        }
+
+        if (step != null && step.errors.get() > 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = step.errors.get() + " connections failed at " + step.targetRate + " connections per second (" + step.firstError + ")";
+            testResult.ramification = "If Alfresco's connection pool churns connections (eg. a low maxIdle), connections to the database will fail under load";
+            testResult.remedy       = "Review ephemeral ports (net.ipv4.ip_local_port_range, tcp_tw_reuse), connection tracking (nf_conntrack_max) on this server and any firewall, and the listen backlog on the target";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    private void validateSustainedRate(final ValidatorCallback callback, final List steps)
+    {
+        startTest(callback, "Sustained Churn");
+
+        TestResult testResult = new TestResult();
+        double     rateWarn   = PerformanceConfiguration.getDouble("churn.rate.warn", DEFAULT_RATE_WARN);
+        double     sustained  = 0.0;
+
+        for (int i = 0; i < steps.size(); i++)
+        {
+            ChurnStep step = (ChurnStep)steps.get(i);
+
+            if (step.errors.get() == 0)
+            {
+                sustained = Math.max(sustained, step.getAchievedRate());
+            }
+        }
+
+        progress(callback, LatencyStatistics.format(sustained) + " conn/s");
+
+        if (sustained >= rateWarn)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Only " + LatencyStatistics.format(sustained) + " connections per second could be sustained without errors (less than " + LatencyStatistics.format(rateWarn) + ")";
+            testResult.ramification = "Bursts of connection churn (eg. after a database failover, or from a pool that doesn't retain idle connections) will be throttled or fail";
+            testResult.remedy       = "Configure Alfresco's connection pool to retain connections (db.pool.min / maxIdle), and review connection tracking and firewall rate limits between this server and the database server";
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /*
+     * Compares connect latency at the busiest error free step with the first step - a sharp rise shows a queue
+     * (accept backlog, firewall or conntrack) filling up before connections start failing outright.
+     */
+    private void validateLatencyDegradation(final ValidatorCallback callback, final List steps)
+    {
+        startTest(callback, "Connect Latency Degradation");
+
+        TestResult testResult  = new TestResult();
+        double     warnRatio   = PerformanceConfiguration.getDouble("churn.latency.degradation.warn",   DEFAULT_DEGRADATION_WARN);
+        double     minimumMs   = PerformanceConfiguration.getDouble("churn.latency.degradation.min.ms", DEFAULT_DEGRADATION_MINIMUM_MS);
+        ChurnStep  first       = (ChurnStep)steps.get(0);
+        ChurnStep  busiest     = first;
+
+        for (int i = 1; i < steps.size(); i++)
+        {
+            ChurnStep step = (ChurnStep)steps.get(i);
+
+            if (step.errors.get() == 0 && step.latencies.getCount() > 0)
+            {
+                busiest = step;
+            }
+        }
+
+        double baselineP99 = first.latencies.getPercentile(99.0);
+        double busiestP99  = busiest.latencies.getPercentile(99.0);
+
+        progress(callback, "p99 " + LatencyStatistics.format(baselineP99) + "ms at " + first.targetRate + "/s, " + LatencyStatistics.format(busiestP99) + "ms at " + busiest.targetRate + "/s");
+
+        if (busiestP99 > baselineP99 * warnRatio && busiestP99 > minimumMs)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "99th percentile connect time rose from " + LatencyStatistics.format(baselineP99) + "ms to " + LatencyStatistics.format(busiestP99) + "ms as the churn rate increased: " + busiest.latencies;
+            testResult.ramification = "Connection churn will add latency to database requests well before connections start failing";
+            testResult.remedy       = "Configure Alfresco's connection pool to retain connections, and review the listen backlog on the target and any firewall between this server and the database server";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /*
+     * One step of the ramp - each thread opens and closes connections on a fixed schedule (skipping, rather than
+     * bursting to catch up on, slots it falls behind on), so the achieved rate shows when the target can't keep up.
+     */
+    private static class ChurnStep
+    {
+        private final int               targetRate;
+        private final LatencyStatistics latencies;
+        private final AtomicLong        errors       = new AtomicLong();
+        private volatile String         firstError   = null;
+        private long                    elapsedNanos = 0;
+
+        public ChurnStep(final int targetRate)
+        {
+            this.targetRate = targetRate;
+            this.latencies  = new LatencyStatistics(targetRate * 4);
+        }
+
+        public void run(final InetSocketAddress address, final long durationMs, final int threadCount)
+            throws InterruptedException
+        {
+            final long  intervalNanos = (long)(threadCount * 1000000000.0 / targetRate);
+            final long  startTime     = System.nanoTime();
+            final long  endTime       = startTime + durationMs * 1000000L;
+            Thread[]    threads       = new Thread[threadCount];
+
+            for (int i = 0; i < threadCount; i++)
+            {
+                final long offset = intervalNanos * i / threadCount;
+
+                threads[i] = new Thread(VALIDATION_TOPIC + " " + i)
+                {
+                    public void run()
+                    {
+                        churn(address, startTime + offset, endTime, intervalNanos);
+                    }
+                };
+                threads[i].start();
+            }
+
+            for (int i = 0; i < threadCount; i++)
+            {
+                threads[i].join();
+            }
+
+            elapsedNanos = System.nanoTime() - startTime;
+        }
+
+        private void churn(final InetSocketAddress address, final long firstConnect, final long endTime, final long intervalNanos)
+        {
+            long next = firstConnect;
+
+            try
+            {
+                while (next < endTime)
+                {
+                    long wait = next - System.nanoTime();
+
+                    if (wait > 0)
+                    {
+                        Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+                    }
+
+                    connect(address);
+                    next = Math.max(next + intervalNanos, System.nanoTime());
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                // Stop
+            }
+        }
+
+        private void connect(final InetSocketAddress address)
+        {
+            Socket socket    = new Socket();
+            long   startTime = System.nanoTime();
+
+            try
+            {
+                // An ordinary close (as a connection pool would), so this server accumulates TIME_WAIT sockets
+                socket.connect(address, NetworkAgentClient.CONNECT_TIMEOUT_MS);
+                latencies.addNanos(startTime, System.nanoTime());
+            }
+            catch (IOException ioe)
+            {
+                errors.incrementAndGet();
+
+                if (firstError == null)
+                {
+                    firstError = ioe.getClass().getName() + ": " + ioe.getMessage();
+                }
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException ioe)
+                {
+                    // Ignore it and move on
+                }
+            }
+        }
+
+        public double getAchievedRate()
+        {
+            return(latencies.getCount() / (Math.max(elapsedNanos, 1) / 1000000000.0));
+        }
+
+        public boolean isSaturated()
+        {
+            return(getAchievedRate() < targetRate * SATURATION_RATIO);
+        }
+    }
+
+}
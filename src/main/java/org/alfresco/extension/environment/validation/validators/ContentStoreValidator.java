@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.hyperic.sigar.FileSystem;
+import org.hyperic.sigar.FileSystemUsage;
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+
+
+/**
+ * This class validates that the volume that will hold the Alfresco content store has enough inodes for
+ * the planned number of content files, and that directory operations on it don't degrade as directories
+ * grow large.
+ *
+ */
+public class ContentStoreValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Content Store";
+
+    // Parameters to this validator
+    public final static String PARAMETER_CONTENT_STORE_LOCATION = VALIDATION_TOPIC + ".location";
+
+    private final static long   DEFAULT_PLANNED_FILES          = 20000000L;
+    private final static long   DEFAULT_AVERAGE_FILE_SIZE_KB   = 128L;
+    private final static int    DEFAULT_DIRECTORY_MAX_ENTRIES  = 40000;
+    private final static double DEFAULT_DEGRADATION_WARN_RATIO = 3.0;
+    private final static double DEFAULT_DEGRADATION_FAIL_RATIO = 10.0;
+
+    private final static int    FIRST_CHECKPOINT_ENTRIES       = 1000;
+    private final static int    NUMBER_OF_LOOKUPS              = 1000;
+    private final static double MINIMUM_BASELINE_MICROS        = 1.0;   // Avoids absurd ratios when the baseline is below timer resolution
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        String contentStoreLocation = (String)parameters.get(PARAMETER_CONTENT_STORE_LOCATION);
+
+        if (contentStoreLocation == null || contentStoreLocation.trim().length() == 0)
+        {
+            startTest(callback, "Content Store Location");
+
+            TestResult testResult = new TestResult();
+
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "No content store location was provided - content store checks skipped";
+            testResult.remedy       = "Rerun the tool with the -c option pointing at the directory that will hold the content store";
+
+            endTest(callback, testResult);
+        }
+        else
+        {
+            FileSystemUsage usage = validateFreeInodes(callback, contentStoreLocation);
+
+            validateProjectedCapacity(callback, usage);
+            validateDirectoryScaling(callback, contentStoreLocation);
+        }
+    }
+
+
+    private FileSystemUsage validateFreeInodes(final ValidatorCallback callback, final String contentStoreLocation)
+    {
+        startTest(callback, "Free Inodes");
+
+        TestResult      testResult   = new TestResult();
+        FileSystem      fileSystem   = findFileSystem(contentStoreLocation);
+        FileSystemUsage usage        = null;
+        long            plannedFiles = PerformanceConfiguration.getLong("contentstore.planned.files", DEFAULT_PLANNED_FILES);
+
+        if (fileSystem != null)
+        {
+            try
+            {
+                usage = sigar.getFileSystemUsage(fileSystem.getDirName());
+            }
+            catch (SigarException se)
+            {
+                testResult.rootCause = se;
+            }
+        }
+
+        if (usage == null)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to determine the file system containing " + contentStoreLocation;
+            testResult.ramification = "The content store volume may run out of inodes before it runs out of space";
+            testResult.remedy       = "Manually validate that the volume has at least " + plannedFiles + " free inodes";
+        }
+        else if (usage.getFiles() <= 0)
+        {
+            progress(callback, fileSystem.getDirName() + " (" + fileSystem.getSysTypeName() + ")");
+
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "The " + fileSystem.getSysTypeName() + " file system does not report inode counts (inodes are most likely allocated dynamically)";
+        }
+        else
+        {
+            long freeInodes  = usage.getFreeFiles();
+            long freePercent = (freeInodes * 100) / usage.getFiles();
+
+            progress(callback, freeInodes + " free (" + freePercent + "%)");
+
+            if (freeInodes >= plannedFiles)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "The volume containing " + contentStoreLocation + " has " + freeInodes + " free inodes, fewer than the " + plannedFiles + " content files planned";
+                testResult.ramification = "Alfresco will be unable to write new content once the inodes are exhausted, even if free space remains";
+                testResult.remedy       = "Recreate the file system with a higher inode count (eg. mkfs.ext4 -N or -i), or locate the content store on a file system that allocates inodes dynamically";
+            }
+        }
+
+        endTest(callback, testResult);
+
+        return(usage);
+    }
+
+
+    private void validateProjectedCapacity(final ValidatorCallback callback, final FileSystemUsage usage)
+    {
+        startTest(callback, "Projected Capacity");
+
+        TestResult testResult      = new TestResult();
+        long       plannedFiles    = PerformanceConfiguration.getLong("contentstore.planned.files",        DEFAULT_PLANNED_FILES);
+        long       averageFileSize = PerformanceConfiguration.getLong("contentstore.average.file.size.kb", DEFAULT_AVERAGE_FILE_SIZE_KB);
+
+        if (usage == null || averageFileSize <= 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to determine the projected capacity of the content store volume";
+            testResult.ramification = "The content store volume may fill up sooner than expected";
+            testResult.remedy       = "Manually validate that the volume can hold " + plannedFiles + " files of " + averageFileSize + "KB on average";
+        }
+        else
+        {
+            long    filesBySpace  = usage.getAvail() / averageFileSize;   // getAvail() is in KB
+            long    filesByInodes = usage.getFiles() > 0 ? usage.getFreeFiles() : Long.MAX_VALUE;
+            long    projected     = Math.min(filesBySpace, filesByInodes);
+            boolean inodeBound    = filesByInodes < filesBySpace;
+
+            progress(callback, "~" + projected + " files");
+
+            if (projected >= plannedFiles)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "The volume can hold approximately " + projected + " more files of " + averageFileSize + "KB (limited by " +
+                                          (inodeBound ? "free inodes" : "free space") + "), fewer than the " + plannedFiles + " content files planned";
+                testResult.ramification = "The content store will fill up before reaching its planned size";
+                testResult.remedy       = inodeBound ? "Recreate the file system with a higher inode count, or plan for additional content store volumes" :
+                                                       "Increase the size of the volume, or plan for additional content store volumes";
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateDirectoryScaling(final ValidatorCallback callback, final String contentStoreLocation)
+    {
+        startTest(callback, "Directory Scaling");
+
+        TestResult       testResult = new TestResult();
+        int              maxEntries = PerformanceConfiguration.getInt(   "contentstore.directory.max.entries",          DEFAULT_DIRECTORY_MAX_ENTRIES);
+        double           warnRatio  = PerformanceConfiguration.getDouble("contentstore.directory.degradation.warn.ratio", DEFAULT_DEGRADATION_WARN_RATIO);
+        double           failRatio  = PerformanceConfiguration.getDouble("contentstore.directory.degradation.fail.ratio", DEFAULT_DEGRADATION_FAIL_RATIO);
+        File             testDir    = new File(contentStoreLocation, "evt-dirscale-" + System.currentTimeMillis());
+        String[]         fileNames  = new String[Math.max(maxEntries, FIRST_CHECKPOINT_ENTRIES)];
+        int              created    = 0;
+        DiskStatsSampler sampler    = new DiskStatsSampler(sigar, findFileSystem(contentStoreLocation));
+
+        progress(callback, "(please wait)");
+        sampler.start();
+        sampler.beginBenchmark();
+
+        try
+        {
+            if (!testDir.mkdirs())
+            {
+                throw new IOException("Unable to create directory " + testDir.getAbsolutePath());
+            }
+
+            Random random           = new Random();
+            double bestCreateMicros = -1;
+            double bestLookupMicros = -1;
+            double lastCreateMicros = -1;
+            double lastLookupMicros = -1;
+            int    checkpoint       = FIRST_CHECKPOINT_ENTRIES;
+
+            while (created < fileNames.length)
+            {
+                int  batchStart = created;
+                long startTime  = System.nanoTime();
+
+                while (created < checkpoint)
+                {
+                    fileNames[created] = UUID.randomUUID().toString() + ".bin";
+
+                    if (!new File(testDir, fileNames[created]).createNewFile())
+                    {
+                        throw new IOException("Unable to create file " + fileNames[created] + " in " + testDir.getAbsolutePath());
+                    }
+
+                    created++;
+                }
+
+                lastCreateMicros = (System.nanoTime() - startTime) / 1000.0 / (created - batchStart);
+
+                // Half the lookups hit existing entries, half miss (misses force a full search on unindexed directories)
+                startTime = System.nanoTime();
+
+                for (int i = 0; i < NUMBER_OF_LOOKUPS; i++)
+                {
+                    String name = (i % 2 == 0) ? fileNames[random.nextInt(created)] : UUID.randomUUID().toString() + ".bin";
+                    new File(testDir, name).exists();
+                }
+
+                lastLookupMicros = (System.nanoTime() - startTime) / 1000.0 / NUMBER_OF_LOOKUPS;
+
+                // The best result seen so far is the baseline - the first batch also pays for JIT compilation and cold caches
+                if (bestCreateMicros < 0 || lastCreateMicros < bestCreateMicros) bestCreateMicros = Math.max(lastCreateMicros, MINIMUM_BASELINE_MICROS);
+                if (bestLookupMicros < 0 || lastLookupMicros < bestLookupMicros) bestLookupMicros = Math.max(lastLookupMicros, MINIMUM_BASELINE_MICROS);
+
+                checkpoint = Math.min(checkpoint * 2, fileNames.length);
+            }
+
+            double createRatio = lastCreateMicros / bestCreateMicros;
+            double lookupRatio = lastLookupMicros / bestLookupMicros;
+            double worstRatio  = Math.max(createRatio, lookupRatio);
+            String summary     = "create " + formatMicros(bestCreateMicros) + "->" + formatMicros(lastCreateMicros) + "us, " +
+                                 "lookup " + formatMicros(bestLookupMicros) + "->" + formatMicros(lastLookupMicros) + "us";
+
+            progress(callback, summary);
+
+            if (worstRatio < warnRatio)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = worstRatio < failRatio ? TestResult.WARN : TestResult.FAIL;
+                testResult.errorMessage = "Per-entry directory operation latency grew " + formatRatio(worstRatio) + "x as the directory grew to " + created +
+                                          " entries (" + summary + ")";
+                testResult.ramification = "Directory operations degrade non-linearly as directories grow, so content reads and writes will slow down as the content store fills";
+                testResult.remedy       = "Use a file system with indexed directories (eg. ext4 with dir_index, XFS), or check the NAS configuration if the content store is a network mount";
+            }
+        }
+        catch (IOException ioe)
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "Unable to benchmark directory operations in " + contentStoreLocation + ": " + ioe.getMessage();
+            testResult.ramification = "Alfresco may be unable to write to the content store";
+            testResult.remedy       = "Ensure the content store location exists and is writable by the OS user Alfresco will run as";
+            testResult.rootCause    = ioe;
+        }
+        finally
+        {
+            sampler.endBenchmark();
+
+            for (int i = 0; i < created; i++)
+            {
+                new File(testDir, fileNames[i]).delete();
+            }
+
+            testDir.delete();
+            sampler.stop();
+        }
+
+        endTest(callback, testResult);
+
+        sampler.reportActivity(callback);
+    }
+
+
+    private String formatMicros(final double value)
+    {
+        return(String.valueOf(Math.round(value * 10) / 10.0));
+    }
+
+
+    private String formatRatio(final double ratio)
+    {
+        return(String.valueOf(Math.round(ratio * 100) / 100.0));
+    }
+
+}
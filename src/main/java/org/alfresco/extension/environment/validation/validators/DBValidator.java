@@ -26,15 +26,32 @@ package org.alfresco.extension.environment.validation.validators;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.extension.environment.validation.AbstractValidator;
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
 import org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator;
+import org.alfresco.extension.util.LatencyStatistics;
 
 /**
  * This class validates that the relational database is supported and configured correctly for use by Alfresco.
@@ -54,6 +71,7 @@ public class DBValidator
     public final static String PARAMETER_DATABASE_NAME     = VALIDATION_TOPIC + ".database.name";
     public final static String PARAMETER_DATABASE_LOGIN    = VALIDATION_TOPIC + ".database.login";
     public final static String PARAMETER_DATABASE_PASSWORD = VALIDATION_TOPIC + ".database.password";
+    public final static String PARAMETER_DATABASE_STRESS   = VALIDATION_TOPIC + ".database.stress";
     
     // Map of database types to JDBC drivers
     private static final Map DATABASE_TYPE_TO_JDBC_DRIVER_MAP = new HashMap()
@@ -82,6 +100,38 @@ public class DBValidator
         put("mssqlserver", "1433");
         put("db2",         "50000");
     }};
+    
+    private final static int    DEFAULT_ROUNDTRIP_SAMPLES     = 2000;
+    private final static int    DEFAULT_ROUNDTRIP_WARMUP      = 100;
+    private final static double DEFAULT_ROUNDTRIP_P50_WARN_MS = 1.0;
+    private final static double DEFAULT_ROUNDTRIP_P99_WARN_MS = 5.0;
+    private final static int    DEFAULT_QUERIES_PER_REQUEST   = 1000;
+    private final static int    DEFAULT_CONNECT_SAMPLES       = 20;
+    private final static double DEFAULT_CONNECT_P50_WARN_MS   = 50.0;
+    private final static int    DEFAULT_CONNECT_THREADS       = 8;
+    private final static int    DEFAULT_CONNECT_PER_THREAD    = 5;
+    private final static double DEFAULT_CONNECT_DEGRADATION   = 3.0;
+    private final static int    DEFAULT_POOL_MAX              = 275;   // Alfresco's default db.pool.max
+    private final static int    DEFAULT_POOL_INITIAL          = 10;    // Alfresco's default db.pool.initial
+    private final static int    DEFAULT_POOL_HEADROOM         = 75;    // Connections beyond Tomcat's threads, for background jobs (the difference between Alfresco's defaults)
+    private final static int    DEFAULT_TOMCAT_MAX_THREADS    = 200;
+    private final static int    DEFAULT_RESERVED_CONNECTIONS  = 10;
+    private final static double DEFAULT_BURST_SECONDS         = 1.0;
+    private final static int    DEFAULT_CAPACITY_STEPS        = 4;
+    private final static int    DEFAULT_CAPACITY_THREADS      = 16;
+    private final static int    DEFAULT_CAPACITY_HOLD_SECONDS = 5;
+    private final static int    DEFAULT_CAPACITY_TIMEOUT_SECS = 30;
+    
+    private final static String   SCRATCH_TABLE_PREFIX             = "EVT_SCRATCH_";
+    private final static int      SCRATCH_TYPE_QNAMES              = 50;
+    private final static int      DEFAULT_WRITE_SINGLE_ROWS        = 1000;
+    private final static double   DEFAULT_WRITE_COMMIT_P50_WARN_MS = 5.0;
+    private final static String[] DEFAULT_WRITE_BATCH_SIZES        = { "10", "100", "1000" };
+    private final static int      DEFAULT_WRITE_BATCH_ROWS         = 10000;
+    private final static double   DEFAULT_WRITE_BATCH_ROWS_WARN    = 5000.0;
+    private final static int      DEFAULT_WRITE_UPDATE_THREADS     = 8;
+    private final static int      DEFAULT_WRITE_UPDATE_SECONDS     = 5;
+    private final static double   DEFAULT_WRITE_UPDATE_P99_WARN_MS = 20.0;
 
     
 
@@ -113,7 +163,7 @@ public class DBValidator
         {
             if (validateCanLoadJdbcDriver(callback, jdbcDriver))
             {
-                validateDatabaseConnectivityAndConfiguration(callback, jdbcDriver, jdbcUrl, jdbcLogin, jdbcPassword);
+                validateDatabaseConnectivityAndConfiguration(callback, jdbcDriver, jdbcUrl, jdbcLogin, jdbcPassword, parameters);
             }
         }
     }
@@ -130,14 +180,7 @@ public class DBValidator
             result = jdbcUrlTemplate.replaceAll("\\<host\\>", (String)parameters.get(PARAMETER_DATABASE_HOSTNAME));
             
             // port
-            String port = (String)parameters.get(PARAMETER_DATABASE_PORT);
-            
-            if (port == null)
-            {
-                port = (String)DATABASE_TYPE_TO_DEFAULT_PORT_MAP.get(databaseType.toLowerCase());
-            }
-            
-            result = result.replaceAll("\\<port\\>", port);
+            result = result.replaceAll("\\<port\\>", getDatabasePortString(databaseType, parameters));
 
             // database
             String database = (String)parameters.get(PARAMETER_DATABASE_NAME);
@@ -154,6 +197,46 @@ public class DBValidator
     }
     
     
+    /**
+     * @param parameters The parameters provided to the validators <i>(may be null)</i>.
+     * @return The port the database server listens on (as provided, or the default for the database type), or -1 if it can't be determined.
+     */
+    public static int getDatabasePort(final Map parameters)
+    {
+        int result = -1;
+        
+        if (parameters != null)
+        {
+            String databaseType = (String)parameters.get(PARAMETER_DATABASE_TYPE);
+            String port         = getDatabasePortString(databaseType == null ? "" : databaseType, parameters);
+            
+            try
+            {
+                result = port == null ? -1 : Integer.parseInt(port.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                result = -1;
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    private static String getDatabasePortString(final String databaseType, final Map parameters)
+    {
+        String result = (String)parameters.get(PARAMETER_DATABASE_PORT);
+        
+        if (result == null)
+        {
+            result = (String)DATABASE_TYPE_TO_DEFAULT_PORT_MAP.get(databaseType.toLowerCase());
+        }
+        
+        return(result);
+    }
+    
+    
     private boolean validateJdbcParameters(final ValidatorCallback callback,
                                            final String            databaseType,
                                            final String            jdbcDriver,
@@ -222,7 +305,7 @@ public class DBValidator
     }
 
     
-    private void validateDatabaseConnectivityAndConfiguration(final ValidatorCallback callback, final String jdbcDriver, final String jdbcUrl, final String jdbcLogin, final String jdbcPassword)
+    private void validateDatabaseConnectivityAndConfiguration(final ValidatorCallback callback, final String jdbcDriver, final String jdbcUrl, final String jdbcLogin, final String jdbcPassword, final Map parameters)
     {
         startTest(callback, "Database Connectivity");
         
@@ -239,7 +322,26 @@ public class DBValidator
             endTest(callback, testResult);
             
             validateScrollableResultSet(callback, con);
-            validateDatabaseSpecificConfiguration(callback, jdbcDriver, con);
+            
+            int                 nodes       = getAlfrescoNodes(parameters);
+            DBSpecificValidator dbValidator = validateDatabaseSpecificConfiguration(callback, jdbcDriver, con, getPlannedConnections(nodes));
+            
+            if (dbValidator != null)
+            {
+                validateQueryRoundTrip(callback, con, dbValidator.getValidationQuery());
+                
+                LatencyStatistics sequential     = validateConnectionEstablishment(callback, jdbcUrl, jdbcLogin, jdbcPassword);
+                double            connectionRate = validateParallelConnections(callback, jdbcUrl, jdbcLogin, jdbcPassword, sequential);
+                int               maxConnections = validateMaxConnections(callback, con, dbValidator, nodes);
+                
+                validatePoolSizing(callback, maxConnections, nodes, connectionRate);
+                
+                if (parameters.containsKey(PARAMETER_DATABASE_STRESS))
+                {
+                    validateConnectionCapacity(callback, jdbcUrl, jdbcLogin, jdbcPassword, dbValidator.getValidationQuery(), nodes);
+                    validateWriteThroughput(callback, con, dbValidator, jdbcUrl, jdbcLogin, jdbcPassword);
+                }
+            }
         }
         catch (SQLException se)
         {
@@ -311,16 +413,20 @@ public class DBValidator
     }
     
     
-    private void validateDatabaseSpecificConfiguration(final ValidatorCallback callback, final String jdbcDriver, final Connection con)
+    /**
+     * @return The database-specific validator, or null if it couldn't be loaded.
+     */
+    private DBSpecificValidator validateDatabaseSpecificConfiguration(final ValidatorCallback callback, final String jdbcDriver, final Connection con, final int plannedConnections)
     {
-        String validatorClassname = "org.alfresco.extension.environment.validation.validators.database." + jdbcDriver.replace('.', '_');  // Note: this creates valid, albeit ugly, classnames
+        String              validatorClassname = "org.alfresco.extension.environment.validation.validators.database." + jdbcDriver.replace('.', '_');  // Note: this creates valid, albeit ugly, classnames
+        DBSpecificValidator result             = null;
         
         try
         {
-            Class               dbValidatorClass = Class.forName(validatorClassname);
-            DBSpecificValidator dbValidator      = (DBSpecificValidator)dbValidatorClass.newInstance();
+            Class dbValidatorClass = Class.forName(validatorClassname);
             
-            dbValidator.validate(callback, con);
+            result = (DBSpecificValidator)dbValidatorClass.newInstance();
+            result.validate(callback, con, plannedConnections);
         }
         catch (final Exception e)
         {
@@ -338,9 +444,1062 @@ public class DBValidator
             
             endTest(callback, testResult);
         }
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Alfresco issues many tiny queries per request, so the round trip time of a trivial statement (network, driver
+     * and parser overhead, with no real work) directly bounds how fast requests can be served.
+     */
+    private void validateQueryRoundTrip(final ValidatorCallback callback, final Connection con, final String query)
+    {
+        startTest(callback, "Query Round Trip");
+        
+        TestResult        testResult = new TestResult();
+        int               samples    = PerformanceConfiguration.getInt("db.roundtrip.samples",          DEFAULT_ROUNDTRIP_SAMPLES);
+        int               warmup     = PerformanceConfiguration.getInt("db.roundtrip.warmup",           DEFAULT_ROUNDTRIP_WARMUP);
+        double            p50WarnMs  = PerformanceConfiguration.getDouble("db.roundtrip.p50.warn.ms",   DEFAULT_ROUNDTRIP_P50_WARN_MS);
+        double            p99WarnMs  = PerformanceConfiguration.getDouble("db.roundtrip.p99.warn.ms",   DEFAULT_ROUNDTRIP_P99_WARN_MS);
+        int               perRequest = PerformanceConfiguration.getInt("db.roundtrip.queries.per.request", DEFAULT_QUERIES_PER_REQUEST);
+        LatencyStatistics latencies  = new LatencyStatistics(samples);
+        PreparedStatement statement  = null;
+        long              elapsed    = 0;
+        
+        progress(callback, "(please wait)");
+        
+        try
+        {
+            statement = con.prepareStatement(query);
+            
+            // Warm up the driver, statement cache and JIT before measuring
+            for (int i = 0; i < warmup; i++)
+            {
+                executeQuery(statement);
+            }
+            
+            long startTime = System.nanoTime();
+            
+            for (int i = 0; i < samples; i++)
+            {
+                long queryStart = System.nanoTime();
+                
+                executeQuery(statement);
+                latencies.addNanos(queryStart, System.nanoTime());
+            }
+            
+            elapsed = System.nanoTime() - startTime;
+            
+            double p50 = latencies.getPercentile(50.0);
+            double p99 = latencies.getPercentile(99.0);
+            
+            progress(callback, LatencyStatistics.format(samples / (Math.max(elapsed, 1) / 1000000000.0)) + " queries/s, p50 " + LatencyStatistics.format(p50) + "ms, p99 " + LatencyStatistics.format(p99) + "ms");
+            
+            if (p50 > p50WarnMs)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Median round trip time of '" + query + "' was " + LatencyStatistics.format(p50) + "ms (more than " + LatencyStatistics.format(p50WarnMs) + "ms): " + latencies;
+                testResult.ramification = "A request that issues " + perRequest + " queries will spend at least " + LatencyStatistics.format(p50 * perRequest) + "ms waiting on database round trips";
+                testResult.remedy       = "Reduce the network latency between the Alfresco server and the database server (eg. co-locate them, avoid intermediate firewalls / proxies), and review database server CPU load";
+            }
+            else if (p99 > p99WarnMs)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "99th percentile round trip time of '" + query + "' was " + LatencyStatistics.format(p99) + "ms (more than " + LatencyStatistics.format(p99WarnMs) + "ms): " + latencies;
+                testResult.ramification = "A proportion of Alfresco requests will be noticeably slower than the rest";
+                testResult.remedy       = "Review the network between the Alfresco server and the database server for congestion or packet loss, and the database server for CPU contention";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+        catch (SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to execute '" + query + "': " + se.getMessage();
+            testResult.ramification = "Database round trip time could not be measured";
+            testResult.remedy       = "Manually measure the time taken to execute a trivial query from the Alfresco server";
+            testResult.rootCause    = se;
+        }
+        finally
+        {
+            if (statement != null)
+            {
+                try
+                {
+                    statement.close();
+                }
+                catch (SQLException se)
+                {
+                    // Swallow the exception and move on - we don't care if closing the statement fails
+                }
+            }
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void executeQuery(final PreparedStatement statement)
+        throws SQLException
+    {
+        ResultSet rs = statement.executeQuery();
+        
+        try
+        {
+            rs.next();
+        }
+        finally
+        {
+            rs.close();
+        }
     }
 
     
+    /**
+     * @return The time taken to open each connection (closing them again immediately).
+     */
+    private LatencyStatistics validateConnectionEstablishment(final ValidatorCallback callback, final String jdbcUrl, final String jdbcLogin, final String jdbcPassword)
+    {
+        startTest(callback, "Connection Establishment");
+        
+        TestResult        testResult = new TestResult();
+        int               samples    = PerformanceConfiguration.getInt("db.connect.samples",        DEFAULT_CONNECT_SAMPLES);
+        double            p50WarnMs  = PerformanceConfiguration.getDouble("db.connect.p50.warn.ms", DEFAULT_CONNECT_P50_WARN_MS);
+        LatencyStatistics result     = new LatencyStatistics(samples);
+        
+        progress(callback, "(please wait)");
+        
+        try
+        {
+            for (int i = 0; i < samples; i++)
+            {
+                timeConnection(jdbcUrl, jdbcLogin, jdbcPassword, result);
+            }
+            
+            double p50 = result.getPercentile(50.0);
+            
+            progress(callback, "p50 " + LatencyStatistics.format(p50) + "ms, p99 " + LatencyStatistics.format(result.getPercentile(99.0)) + "ms");
+            
+            if (p50 <= p50WarnMs)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Median time to open a database connection was " + LatencyStatistics.format(p50) + "ms (more than " + LatencyStatistics.format(p50WarnMs) + "ms): " + result;
+                testResult.ramification = "Bursts of load that grow Alfresco's connection pool will be delayed while connections are opened";
+                testResult.remedy       = "Review authentication (eg. reverse DNS lookups of clients on the database server), TLS negotiation and listener configuration, and size db.pool.initial so the pool rarely grows under load";
+            }
+        }
+        catch (SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to repeatedly open database connections: " + se.getMessage();
+            testResult.ramification = "Alfresco's connection pool may be unable to grow under load";
+            testResult.remedy       = "Review the database server's connection limits and logs";
+            testResult.rootCause    = se;
+            result                  = null;
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    /**
+     * Opens connections from several threads at once, as a pool does when a burst of requests arrives.
+     * 
+     * @return The rate at which connections were opened (per second), or -1 if it couldn't be measured.
+     */
+    private double validateParallelConnections(final ValidatorCallback callback, final String jdbcUrl, final String jdbcLogin, final String jdbcPassword, final LatencyStatistics sequential)
+    {
+        startTest(callback, "Parallel Connections");
+        
+        TestResult              testResult     = new TestResult();
+        int                     threadCount    = PerformanceConfiguration.getInt("db.connect.parallel.threads",    DEFAULT_CONNECT_THREADS);
+        final int               perThread      = PerformanceConfiguration.getInt("db.connect.parallel.per.thread", DEFAULT_CONNECT_PER_THREAD);
+        double                  degradation    = PerformanceConfiguration.getDouble("db.connect.parallel.degradation.warn", DEFAULT_CONNECT_DEGRADATION);
+        final LatencyStatistics latencies      = new LatencyStatistics(threadCount * perThread);
+        final List              failures       = Collections.synchronizedList(new ArrayList());
+        final CountDownLatch    startGate      = new CountDownLatch(1);
+        Thread[]                threads        = new Thread[threadCount];
+        double                  result         = -1;
+        
+        progress(callback, "(please wait)");
+        
+        for (int i = 0; i < threadCount; i++)
+        {
+            threads[i] = new Thread(VALIDATION_TOPIC + " " + i)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        startGate.await();
+                        
+                        for (int j = 0; j < perThread; j++)
+                        {
+                            timeConnection(jdbcUrl, jdbcLogin, jdbcPassword, latencies);
+                        }
+                    }
+                    catch (SQLException se)
+                    {
+                        failures.add(se);
+                    }
+                    catch (InterruptedException ie)
+                    {
+                        // Stop
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        
+        try
+        {
+            long startTime = System.nanoTime();
+            
+            startGate.countDown();
+            
+            for (int i = 0; i < threadCount; i++)
+            {
+                threads[i].join();
+            }
+            
+            result = latencies.getCount() / (Math.max(System.nanoTime() - startTime, 1) / 1000000000.0);
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.rootCause = ie;
+        }
+        
+        double p50         = latencies.getPercentile(50.0);
+        double baselineP50 = sequential == null ? 0.0 : sequential.getPercentile(50.0);
+        
+        progress(callback, threadCount + " threads: " + LatencyStatistics.format(Math.max(result, 0)) + " conn/s, p50 " + LatencyStatistics.format(p50) + "ms, p99 " + LatencyStatistics.format(latencies.getPercentile(99.0)) + "ms");
+        
+        if (!failures.isEmpty())
+        {
+            SQLException first = (SQLException)failures.get(0);
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = failures.size() + " of " + threadCount + " threads were refused a connection: " + first.getMessage();
+            testResult.ramification = "Alfresco's connection pool will fail to grow when a burst of requests arrives";
+            testResult.remedy       = "Review the database server's connection limits (including per user / per host limits and connection rate throttling) and logs";
+            testResult.rootCause    = first;
+        }
+        else if (baselineP50 > 0.0 && p50 > baselineP50 * degradation)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Median time to open a connection rose from " + LatencyStatistics.format(baselineP50) + "ms to " + LatencyStatistics.format(p50) + "ms when " + threadCount + " connections were opened at once: " + latencies;
+            testResult.ramification = "Connection establishment is serialised on the database server (eg. a single listener or authentication thread), so pool growth under load will be slow";
+            testResult.remedy       = "Review the database server's listener and authentication configuration, and size db.pool.initial so the pool rarely grows under load";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    private void timeConnection(final String jdbcUrl, final String jdbcLogin, final String jdbcPassword, final LatencyStatistics latencies)
+        throws SQLException
+    {
+        long       startTime = System.nanoTime();
+        Connection con       = getConnection(jdbcUrl, jdbcLogin, jdbcPassword);
+        
+        latencies.addNanos(startTime, System.nanoTime());
+        con.close();
+    }
+    
+    
+    /**
+     * @return The database server's connection limit, or -1 if it couldn't be determined.
+     */
+    private int validateMaxConnections(final ValidatorCallback callback, final Connection con, final DBSpecificValidator dbValidator, final int nodes)
+    {
+        startTest(callback, "Max Connections");
+        
+        TestResult testResult = new TestResult();
+        int        poolMax    = PerformanceConfiguration.getInt("planned.db.pool.max",    DEFAULT_POOL_MAX);
+        int        reserved   = PerformanceConfiguration.getInt("db.connections.reserved", DEFAULT_RESERVED_CONNECTIONS);
+        int        required   = getPlannedConnections(nodes) + reserved;
+        int        result     = -1;
+        
+        try
+        {
+            result = dbValidator.getMaxConnections(con);
+        }
+        catch (SQLException se)
+        {
+            testResult.rootCause = se;
+        }
+        
+        if (result < 0)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Unable to determine the database server's maximum number of connections";
+            testResult.ramification = "The database server may refuse connections when all Alfresco nodes' connection pools are full";
+            testResult.remedy       = "Manually check that the database server accepts at least " + required + " connections (" + nodes + " node(s) x db.pool.max " + poolMax + ", plus " + reserved + " for administration)";
+        }
+        else
+        {
+            progress(callback, result + " (" + required + " needed)");
+            
+            if (result >= required)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "The database server accepts " + result + " connections, but " + nodes + " Alfresco node(s) with db.pool.max " + poolMax + " (plus " + reserved + " for administration) may need " + required;
+                testResult.ramification = "Under load, the database server will refuse connections and Alfresco requests will fail";
+                testResult.remedy       = "Increase the database server's connection limit to at least " + required + ", or reduce db.pool.max (see the Pool Sizing recommendation)";
+            }
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Recommends a db.pool.max that every node can reach at once without exceeding the server's limit, and a
+     * db.pool.initial large enough that the connections the pool can't open within a burst are opened up front.
+     */
+    private void validatePoolSizing(final ValidatorCallback callback, final int maxConnections, final int nodes, final double connectionRate)
+    {
+        startTest(callback, "Pool Sizing");
+        
+        TestResult testResult    = new TestResult();
+        int        maxThreads    = PerformanceConfiguration.getInt("planned.tomcat.maxThreads", DEFAULT_TOMCAT_MAX_THREADS);
+        int        headroom      = PerformanceConfiguration.getInt("db.pool.headroom",          DEFAULT_POOL_HEADROOM);
+        int        reserved      = PerformanceConfiguration.getInt("db.connections.reserved",   DEFAULT_RESERVED_CONNECTIONS);
+        double     burstSeconds  = PerformanceConfiguration.getDouble("db.connect.burst.seconds", DEFAULT_BURST_SECONDS);
+        int        recommendMax  = maxThreads + headroom;
+        int        recommendInit = DEFAULT_POOL_INITIAL;
+        
+        if (maxConnections > 0)
+        {
+            recommendMax = Math.max(0, Math.min(recommendMax, (maxConnections - reserved) / nodes));
+        }
+        
+        if (connectionRate > 0)
+        {
+            recommendInit = Math.max(recommendInit, recommendMax - (int)(connectionRate * burstSeconds));
+        }
+        
+        recommendInit = Math.min(recommendInit, recommendMax);
+        
+        progress(callback, "db.pool.initial=" + recommendInit + ", db.pool.max=" + recommendMax + " (" + nodes + " node(s))");
+        
+        if (recommendMax >= maxThreads)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "With " + nodes + " node(s), each node can only have " + recommendMax + " database connections, fewer than its " + maxThreads + " Tomcat threads";
+            testResult.ramification = "Under load, requests will queue waiting for a database connection";
+            testResult.remedy       = "Increase the database server's connection limit to at least " + (nodes * (maxThreads + headroom) + reserved) + ", or reduce Tomcat's maxThreads";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /*
+     * Opens connections in parallel, in steps up to the number all Alfresco nodes' pools could hold at once,
+     * keeping them all open, then holds them briefly to check none are dropped.  This occupies the database
+     * server's connection slots, so it's only run when stress tests are enabled.
+     */
+    private void validateConnectionCapacity(final ValidatorCallback callback,
+                                            final String            jdbcUrl,
+                                            final String            jdbcLogin,
+                                            final String            jdbcPassword,
+                                            final String            validationQuery,
+                                            final int               nodes)
+    {
+        startTest(callback, "Connection Capacity");
+        
+        TestResult          testResult = new TestResult();
+        int                 target     = PerformanceConfiguration.getInt("db.capacity.target",    getPlannedConnections(nodes));
+        int                 steps      = PerformanceConfiguration.getInt("db.capacity.steps",     DEFAULT_CAPACITY_STEPS);
+        int                 threads    = PerformanceConfiguration.getInt("db.capacity.threads",   DEFAULT_CAPACITY_THREADS);
+        long                holdMs     = PerformanceConfiguration.getInt("db.capacity.hold.seconds", DEFAULT_CAPACITY_HOLD_SECONDS) * 1000L;
+        int                 timeoutS   = PerformanceConfiguration.getInt("db.capacity.timeout.seconds", DEFAULT_CAPACITY_TIMEOUT_SECS);
+        final List          held       = Collections.synchronizedList(new ArrayList());
+        final AtomicBoolean closed     = new AtomicBoolean(false);
+        ExecutorService     executor   = Executors.newFixedThreadPool(Math.max(1, threads));
+        Throwable           refusal    = null;
+        int                 dropped    = 0;
+        
+        try
+        {
+            for (int step = 1; refusal == null && step <= steps; step++)
+            {
+                final LatencyStatistics latencies = new LatencyStatistics();
+                List                    futures   = new ArrayList();
+                int                     level     = target * step / steps;
+                
+                for (int i = held.size(); i < level; i++)
+                {
+                    futures.add(executor.submit(new Callable()
+                    {
+                        public Object call()
+                            throws SQLException
+                        {
+                            long       startTime = System.nanoTime();
+                            Connection con       = getConnection(jdbcUrl, jdbcLogin, jdbcPassword);
+                            
+                            latencies.addNanos(startTime, System.nanoTime());
+                            
+                            // A connect that completes after the test has finished (eg. it hung, or was interrupted) is closed straight away
+                            synchronized(held)
+                            {
+                                if (closed.get())
+                                {
+                                    closeQuietly(con);
+                                }
+                                else
+                                {
+                                    held.add(con);
+                                }
+                            }
+                            
+                            return(null);
+                        }
+                    }));
+                }
+                
+                for (int i = 0; i < futures.size(); i++)
+                {
+                    try
+                    {
+                        ((Future)futures.get(i)).get(timeoutS, TimeUnit.SECONDS);
+                    }
+                    catch (ExecutionException ee)
+                    {
+                        if (refusal == null)
+                        {
+                            refusal = ee.getCause();
+                        }
+                    }
+                    catch (TimeoutException te)
+                    {
+                        ((Future)futures.get(i)).cancel(true);
+                        
+                        if (refusal == null)
+                        {
+                            refusal = new TimeoutException("a connection attempt didn't complete within " + timeoutS + " seconds");
+                        }
+                    }
+                }
+                
+                progress(callback, held.size() + " (p99 " + LatencyStatistics.format(latencies.getPercentile(99.0)) + "ms) ");
+            }
+            
+            if (refusal == null)
+            {
+                progress(callback, "holding");
+                Thread.sleep(holdMs);
+                
+                // Check every connection is still usable
+                for (int i = 0; i < held.size(); i++)
+                {
+                    Statement statement = null;
+                    
+                    try
+                    {
+                        statement = ((Connection)held.get(i)).createStatement();
+                        statement.execute(validationQuery);
+                    }
+                    catch (SQLException se)
+                    {
+                        dropped++;
+                    }
+                    finally
+                    {
+                        closeQuietly(statement);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            testResult.rootCause = ie;
+        }
+        finally
+        {
+            executor.shutdownNow();
+            
+            synchronized(held)
+            {
+                closed.set(true);
+                
+                for (int i = 0; i < held.size(); i++)
+                {
+                    closeQuietly((Connection)held.get(i));
+                }
+            }
+        }
+        
+        if (refusal != null)
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "The database server refused a connection with " + held.size() + " of " + target + " connections open: " + refusal.getMessage();
+            testResult.ramification = "When every Alfresco node's connection pool is full, further connections will be refused and requests will fail";
+            testResult.remedy       = "Increase the database server's connection limit (and any per user or per host limit) to at least " + target + " plus connections for administration, or reduce db.pool.max";
+            testResult.rootCause    = refusal;
+        }
+        else if (dropped > 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = dropped + " of " + held.size() + " connections were dropped while being held open for " + (holdMs / 1000) + " seconds";
+            testResult.ramification = "Pooled connections will fail unpredictably when many are open";
+            testResult.remedy       = "Review the database server's resource limits (eg. memory per connection, process limits) and any firewall idle timeouts";
+        }
+        else if (testResult.rootCause == null)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Interrupted with " + held.size() + " of " + target + " connections open";
+            testResult.ramification = "The database server's connection capacity could not be verified";
+            testResult.remedy       = "Rerun the validation tool";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /*
+     * Measures write throughput in a scratch table shaped like alf_node - single row inserts (each one a commit,
+     * as when Alfresco creates nodes one request at a time), batched inserts (bulk import) and concurrent updates by
+     * primary key (property changes).  The table is always dropped afterwards.
+     */
+    private void validateWriteThroughput(final ValidatorCallback   callback,
+                                         final Connection          con,
+                                         final DBSpecificValidator dbValidator,
+                                         final String              jdbcUrl,
+                                         final String              jdbcLogin,
+                                         final String              jdbcPassword)
+    {
+        String tableName = SCRATCH_TABLE_PREFIX + (System.currentTimeMillis() % 100000000L);
+        
+        if (validateScratchTable(callback, con, dbValidator.getScratchTableDdl(tableName)))
+        {
+            try
+            {
+                long nextId = 1;
+                
+                // Each step builds on the rows inserted by the one before, so later steps aren't run once one fails
+                nextId = validateSingleRowInserts(callback, con, tableName, nextId);
+                
+                if (nextId < 0)
+                {
+                    skipTest(callback, "Batched Inserts", "single row inserts failed");
+                    skipTest(callback, "Concurrent Updates", "single row inserts failed");
+                }
+                else
+                {
+                    nextId = validateBatchedInserts(callback, con, tableName, nextId);
+                    
+                    if (nextId < 0)
+                    {
+                        skipTest(callback, "Concurrent Updates", "batched inserts failed");
+                    }
+                    else
+                    {
+                        validateConcurrentUpdates(callback, tableName, nextId - 1, jdbcUrl, jdbcLogin, jdbcPassword);
+                    }
+                }
+            }
+            finally
+            {
+                dropScratchTable(callback, con, tableName);
+            }
+        }
+    }
+    
+    
+    private boolean validateScratchTable(final ValidatorCallback callback, final Connection con, final String ddl)
+    {
+        startTest(callback, "Scratch Table");
+        
+        TestResult testResult = new TestResult();
+        Statement  statement  = null;
+        
+        try
+        {
+            statement = con.createStatement();
+            statement.execute(ddl);
+            
+            progress(callback, "created");
+            testResult.resultType = TestResult.PASS;
+        }
+        catch (SQLException se)
+        {
+            progress(callback, "unable to create");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to create a scratch table: " + se.getMessage();
+            testResult.ramification = "Database write throughput could not be measured";
+            testResult.remedy       = "Rerun the validation tool as a database user that can create tables (as Alfresco's database user must)";
+            testResult.rootCause    = se;
+        }
+        finally
+        {
+            closeQuietly(statement);
+        }
+        
+        endTest(callback, testResult);
+        
+        return(testResult.resultType == TestResult.PASS);
+    }
+    
+    
+    /**
+     * @return The next unused ID, or -1 if the inserts failed.
+     */
+    private long validateSingleRowInserts(final ValidatorCallback callback, final Connection con, final String tableName, final long firstId)
+    {
+        startTest(callback, "Single Row Inserts");
+        
+        TestResult        testResult = new TestResult();
+        int               rows       = PerformanceConfiguration.getInt("db.write.single.rows",         DEFAULT_WRITE_SINGLE_ROWS);
+        double            p50WarnMs  = PerformanceConfiguration.getDouble("db.write.commit.p50.warn.ms", DEFAULT_WRITE_COMMIT_P50_WARN_MS);
+        LatencyStatistics latencies  = new LatencyStatistics(rows);
+        PreparedStatement statement  = null;
+        long              result     = firstId;
+        
+        progress(callback, "(please wait)");
+        
+        try
+        {
+            statement = con.prepareStatement(insertSql(tableName));
+            
+            long startTime = System.nanoTime();
+            
+            for (int i = 0; i < rows; i++)
+            {
+                long insertStart = System.nanoTime();
+                
+                bindInsert(statement, result++);
+                statement.executeUpdate();   // Auto-commit, so this includes the commit
+                latencies.addNanos(insertStart, System.nanoTime());
+            }
+            
+            double rate = rows / (Math.max(System.nanoTime() - startTime, 1) / 1000000000.0);
+            double p50  = latencies.getPercentile(50.0);
+            
+            progress(callback, LatencyStatistics.format(rate) + " rows/s, commit p50 " + LatencyStatistics.format(p50) + "ms, p99 " + LatencyStatistics.format(latencies.getPercentile(99.0)) + "ms");
+            
+            if (p50 <= p50WarnMs)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Median time to insert and commit a single row was " + LatencyStatistics.format(p50) + "ms (more than " + LatencyStatistics.format(p50WarnMs) + "ms): " + latencies;
+                testResult.ramification = "Every Alfresco write transaction will wait this long (at least) to commit, limiting ingestion rates";
+                testResult.remedy       = "Review the storage the database server's transaction log is on (it should have a battery / flash backed write cache), and the log flush settings";
+            }
+        }
+        catch (SQLException se)
+        {
+            progress(callback, "failed");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to insert into the scratch table: " + se.getMessage();
+            testResult.ramification = "Database write throughput could not be measured";
+            testResult.remedy       = "Review the database server's logs";
+            testResult.rootCause    = se;
+            result                  = -1;
+        }
+        finally
+        {
+            closeQuietly(statement);
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @return The next unused ID, or -1 if the inserts failed.
+     */
+    private long validateBatchedInserts(final ValidatorCallback callback, final Connection con, final String tableName, final long firstId)
+    {
+        startTest(callback, "Batched Inserts");
+        
+        TestResult        testResult = new TestResult();
+        int[]             batchSizes = PerformanceConfiguration.getPositiveIntArray("db.write.batch.sizes", DEFAULT_WRITE_BATCH_SIZES);
+        int               rows       = Math.max(1, PerformanceConfiguration.getInt("db.write.batch.rows", DEFAULT_WRITE_BATCH_ROWS));
+        double            rateWarn   = PerformanceConfiguration.getDouble("db.write.batch.rows.warn",  DEFAULT_WRITE_BATCH_ROWS_WARN);
+        PreparedStatement statement  = null;
+        long              result     = firstId;
+        double            best       = 0.0;
+        int               bestSize   = 0;
+        
+        try
+        {
+            con.setAutoCommit(false);
+            statement = con.prepareStatement(insertSql(tableName));
+            
+            for (int i = 0; i < batchSizes.length; i++)
+            {
+                int               batchSize   = batchSizes[i];
+                LatencyStatistics commits     = new LatencyStatistics(rows / batchSize + 1);
+                long              sizeFirstId = result;
+                long              startTime   = System.nanoTime();
+                
+                for (int j = 0; j < rows; j += batchSize)
+                {
+                    for (int k = 0; k < batchSize; k++)
+                    {
+                        bindInsert(statement, result++);
+                        statement.addBatch();
+                    }
+                    
+                    statement.executeBatch();
+                    
+                    long commitStart = System.nanoTime();
+                    
+                    con.commit();
+                    commits.addNanos(commitStart, System.nanoTime());
+                }
+                
+                double rate = (result - sizeFirstId) / (Math.max(System.nanoTime() - startTime, 1) / 1000000000.0);
+                
+                progress(callback, batchSize + ":" + LatencyStatistics.format(rate) + " rows/s (commit p50 " + LatencyStatistics.format(commits.getPercentile(50.0)) + "ms) ");
+                
+                if (rate > best)
+                {
+                    best     = rate;
+                    bestSize = batchSize;
+                }
+            }
+            
+            if (best >= rateWarn)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "At best " + LatencyStatistics.format(best) + " rows per second were inserted (batches of " + bestSize + "), less than " + LatencyStatistics.format(rateWarn);
+                testResult.ramification = "Bulk imports and other high volume ingestion will be limited by the database";
+                testResult.remedy       = "Review the database server's storage (especially for the transaction log), CPU and memory configuration";
+            }
+        }
+        catch (SQLException se)
+        {
+            progress(callback, "failed");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to batch insert into the scratch table: " + se.getMessage();
+            testResult.ramification = "Database batch write throughput could not be measured";
+            testResult.remedy       = "Review the database server's logs";
+            testResult.rootCause    = se;
+            result                  = -1;
+        }
+        finally
+        {
+            closeQuietly(statement);
+            
+            try
+            {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            catch (SQLException se)
+            {
+                // Swallow the exception and move on - the scratch table is dropped regardless
+            }
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Each thread updates its own rows (IDs in its residue class), so this measures throughput rather than lock contention.
+     */
+    private void validateConcurrentUpdates(final ValidatorCallback callback,
+                                           final String            tableName,
+                                           final long              maxId,
+                                           final String            jdbcUrl,
+                                           final String            jdbcLogin,
+                                           final String            jdbcPassword)
+    {
+        startTest(callback, "Concurrent Updates");
+        
+        TestResult              testResult  = new TestResult();
+        final int               threadCount = PerformanceConfiguration.getInt("db.write.update.threads",    DEFAULT_WRITE_UPDATE_THREADS);
+        long                    durationMs  = PerformanceConfiguration.getInt("db.write.update.seconds",    DEFAULT_WRITE_UPDATE_SECONDS) * 1000L;
+        double                  p99WarnMs   = PerformanceConfiguration.getDouble("db.write.update.p99.warn.ms", DEFAULT_WRITE_UPDATE_P99_WARN_MS);
+        final long              deadline    = System.currentTimeMillis() + durationMs;
+        final LatencyStatistics latencies   = new LatencyStatistics();
+        final AtomicLong        updated     = new AtomicLong(0);
+        final List              failures    = Collections.synchronizedList(new ArrayList());
+        Thread[]                threads     = new Thread[threadCount];
+        long                    elapsed     = 0;
+        
+        progress(callback, "(please wait)");
+        
+        long startTime = System.nanoTime();
+        
+        for (int i = 0; i < threadCount; i++)
+        {
+            final int threadNumber = i;
+            
+            threads[i] = new Thread(VALIDATION_TOPIC + " " + i)
+            {
+                public void run()
+                {
+                    Connection        con       = null;
+                    PreparedStatement statement = null;
+                    
+                    try
+                    {
+                        con       = getConnection(jdbcUrl, jdbcLogin, jdbcPassword);
+                        statement = con.prepareStatement("UPDATE " + tableName + " SET VERSION = VERSION + 1, AUDIT_MODIFIED = ? WHERE ID = ?");
+                        
+                        for (long id = threadNumber + 1; System.currentTimeMillis() < deadline; id += threadCount)
+                        {
+                            long updateStart = System.nanoTime();
+                            
+                            if (id > maxId)
+                            {
+                                id = threadNumber + 1;
+                            }
+                            
+                            statement.setString(1, String.valueOf(System.currentTimeMillis()));
+                            statement.setLong(2, id);
+                            updated.addAndGet(statement.executeUpdate());
+                            latencies.addNanos(updateStart, System.nanoTime());
+                        }
+                    }
+                    catch (SQLException se)
+                    {
+                        failures.add(se);
+                    }
+                    finally
+                    {
+                        closeQuietly(statement);
+                        
+                        if (con != null)
+                        {
+                            closeQuietly(con);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        
+        try
+        {
+            for (int i = 0; i < threadCount; i++)
+            {
+                threads[i].join();
+            }
+            
+            elapsed = System.nanoTime() - startTime;
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.rootCause = ie;
+        }
+        
+        double rate = updated.get() / (Math.max(elapsed, 1) / 1000000000.0);
+        double p99  = latencies.getPercentile(99.0);
+        
+        if (updated.get() > 0)
+        {
+            progress(callback, threadCount + " threads: " + LatencyStatistics.format(rate) + " rows/s, p50 " + LatencyStatistics.format(latencies.getPercentile(50.0)) + "ms, p99 " + LatencyStatistics.format(p99) + "ms");
+        }
+        else
+        {
+            progress(callback, threadCount + " threads: no rows updated");
+        }
+        
+        if (!failures.isEmpty())
+        {
+            SQLException first = (SQLException)failures.get(0);
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = failures.size() + " of " + threadCount + " threads failed: " + first.getMessage();
+            testResult.ramification = "Concurrent database writes may fail under load";
+            testResult.remedy       = "Review the database server's logs";
+            testResult.rootCause    = first;
+        }
+        else if (updated.get() == 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = latencies.getCount() + " updates of the scratch table's rows affected no rows";
+            testResult.ramification = "Database update throughput could not be measured";
+            testResult.remedy       = "Review the database server's logs";
+        }
+        else if (p99 > p99WarnMs)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "99th percentile time to update (and commit) a row from " + threadCount + " threads was " + LatencyStatistics.format(p99) + "ms (more than " + LatencyStatistics.format(p99WarnMs) + "ms): " + latencies;
+            testResult.ramification = "Concurrent Alfresco write transactions will queue behind each other's commits";
+            testResult.remedy       = "Review the storage the database server's transaction log is on, and the database server's group commit / log flush settings";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void skipTest(final ValidatorCallback callback, final String testName, final String reason)
+    {
+        startTest(callback, testName);
+        progress(callback, "not run");
+        
+        TestResult testResult = new TestResult();
+        
+        testResult.resultType   = TestResult.INFO;
+        testResult.errorMessage = "Not run, as " + reason;
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void dropScratchTable(final ValidatorCallback callback, final Connection con, final String tableName)
+    {
+        Statement statement = null;
+        
+        try
+        {
+            statement = con.createStatement();
+            statement.execute("DROP TABLE " + tableName);
+        }
+        catch (SQLException se)
+        {
+            TestResult testResult = new TestResult();
+            
+            startTest(callback, "Scratch Table Cleanup");
+            progress(callback, "failed");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to drop scratch table " + tableName + ": " + se.getMessage();
+            testResult.ramification = "An unused table has been left in the Alfresco database";
+            testResult.remedy       = "Manually execute 'DROP TABLE " + tableName + "'";
+            testResult.rootCause    = se;
+            
+            endTest(callback, testResult);
+        }
+        finally
+        {
+            closeQuietly(statement);
+        }
+    }
+    
+    
+    private String insertSql(final String tableName)
+    {
+        return("INSERT INTO " + tableName + " (ID, VERSION, UUID, AUDIT_MODIFIED, TYPE_QNAME_ID) VALUES (?, 1, ?, ?, ?)");
+    }
+    
+    
+    private void bindInsert(final PreparedStatement statement, final long id)
+        throws SQLException
+    {
+        statement.setLong(1, id);
+        statement.setString(2, UUID.randomUUID().toString());
+        statement.setString(3, String.valueOf(System.currentTimeMillis()));
+        statement.setLong(4, id % SCRATCH_TYPE_QNAMES);
+    }
+    
+    
+    private void closeQuietly(final Statement statement)
+    {
+        if (statement != null)
+        {
+            try
+            {
+                statement.close();
+            }
+            catch (SQLException se)
+            {
+                // Swallow the exception and move on - we don't care if closing the statement fails
+            }
+        }
+    }
+    
+    
+    private void closeQuietly(final Connection con)
+    {
+        try
+        {
+            con.close();
+        }
+        catch (SQLException se)
+        {
+            // Swallow the exception and move on - we don't care if closing the database connection fails
+        }
+    }
+    
+    
+    /**
+     * @return The number of Alfresco nodes that will share the database - the planned number, or the cluster size if that's larger.
+     */
+    private int getAlfrescoNodes(final Map parameters)
+    {
+        int    result = Math.max(1, PerformanceConfiguration.getInt("planned.alfresco.nodes", 1));
+        String peers  = parameters == null ? null : (String)parameters.get(ClusterValidator.PARAMETER_PEERS);
+        
+        if (peers != null && peers.trim().length() > 0)
+        {
+            result = Math.max(result, peers.split(",").length + 1);
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @return The number of connections the given number of Alfresco nodes' connection pools may open.
+     */
+    private int getPlannedConnections(final int nodes)
+    {
+        return(nodes * PerformanceConfiguration.getInt("planned.db.pool.max", DEFAULT_POOL_MAX));
+    }
+    
+    
     private Connection getConnection(final String jdbcUrl, final String login, final String password)
         throws SQLException
     {
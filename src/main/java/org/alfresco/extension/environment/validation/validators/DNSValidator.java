@@ -0,0 +1,726 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+
+
+/**
+ * This class validates name resolution for the hosts Alfresco will connect to (the database server, cluster peers,
+ * and any others provided, such as Solr or LDAP servers).  For each host it measures:
+ * <ul>
+ *   <li>first resolution and cached resolution (subsequent lookups served by the JVM's cache) - the first lookup is best
+ *       effort, as the name may already be in the JVM's cache (eg. from an earlier validator) or the OS resolver's cache</li>
+ *   <li>resolver latency, by repeatedly querying DNS directly (bypassing the JVM's cache)</li>
+ *   <li>reverse resolution latency, and whether the reverse name resolves back to the same address</li>
+ * </ul>
+ * It also checks the JVM's address cache TTLs, and whether hosts overridden by the hosts file are mapped to addresses DNS
+ * doesn't have for them.
+ *
+ */
+public class DNSValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "DNS";
+
+    // Parameters to this validator
+    public final static String PARAMETER_HOSTNAMES = VALIDATION_TOPIC + ".hostnames";
+
+    private final static String SECURITY_PROPERTY_CACHE_TTL          = "networkaddress.cache.ttl";
+    private final static String SECURITY_PROPERTY_NEGATIVE_CACHE_TTL = "networkaddress.cache.negative.ttl";
+    private final static String SYSTEM_PROPERTY_CACHE_TTL            = "sun.net.inetaddr.ttl";
+    private final static int    DEFAULT_CACHE_TTL_SECONDS            = 30;    // The JVM's default when no security manager is installed
+    private final static int    MAXIMUM_CACHE_TTL_SECONDS            = 300;
+
+    private final static String UNIX_HOSTS_FILE                      = "/etc/hosts";
+    private final static String WINDOWS_HOSTS_FILE                   = "\\System32\\drivers\\etc\\hosts";
+
+    private final static int    DEFAULT_SAMPLES                      = 20;
+    private final static double DEFAULT_LOOKUP_WARN_MS               = 20.0;
+    private final static double DEFAULT_COLD_LOOKUP_WARN_MS          = 200.0;
+    private final static int    DNS_TIMEOUT_MS                       = 2000;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        List hostnames = getHostnames(parameters);
+        Map  hostsFile = readHostsFile();
+        Set  reversed  = new HashSet();
+
+        validateCacheTtl(callback);
+        validateHostsFile(callback, hostnames, hostsFile);
+
+        for (int i = 0; i < hostnames.size(); i++)
+        {
+            String      hostname = (String)hostnames.get(i);
+            InetAddress address  = validateForwardLookup(callback, hostname);
+
+            if (address != null && reversed.add(address))
+            {
+                validateReverseLookup(callback, hostname, address);
+            }
+        }
+    }
+
+
+    /*
+     * Returns the distinct hostnames (excluding IP addresses) Alfresco will connect to.
+     */
+    private List getHostnames(final Map parameters)
+    {
+        List   result = new ArrayList();
+        Set    seen   = new HashSet();
+        String local  = null;
+
+        try
+        {
+            local = sigar.getNetInfo().getHostName();   // Doesn't resolve the name, unlike InetAddress.getLocalHost()
+        }
+        catch (SigarException se)
+        {
+            local = null;
+        }
+
+        addHostnames(result, seen, local);
+        addHostnames(result, seen, (String)parameters.get(DBValidator.PARAMETER_DATABASE_HOSTNAME));
+        addHostnames(result, seen, (String)parameters.get(NetworkAgent.PARAMETER_AGENT_HOSTNAME));
+        addHostnames(result, seen, (String)parameters.get(ClusterValidator.PARAMETER_PEERS));
+        addHostnames(result, seen, (String)parameters.get(PARAMETER_HOSTNAMES));
+
+        return(result);
+    }
+
+
+    /*
+     * Adds the hostnames in a comma separated list of host[:port] entries.
+     */
+    private void addHostnames(final List hostnames, final Set seen, final String list)
+    {
+        if (list != null)
+        {
+            StringTokenizer tokens = new StringTokenizer(list, ",");
+
+            while (tokens.hasMoreTokens())
+            {
+                String hostname  = tokens.nextToken().trim();
+                int    separator = hostname.indexOf(':');
+
+                if (separator > 0 && separator == hostname.lastIndexOf(':'))
+                {
+                    hostname = hostname.substring(0, separator);
+                }
+
+                if (hostname.length() > 0 && !isIpAddress(hostname) && seen.add(hostname.toLowerCase()))
+                {
+                    hostnames.add(hostname);
+                }
+            }
+        }
+    }
+
+
+    private boolean isIpAddress(final String hostname)
+    {
+        return(hostname.indexOf(':') >= 0 || hostname.matches("[0-9.]+"));
+    }
+
+
+    private String getHostsFilePath()
+    {
+        return(isWindows() ? System.getenv("SystemRoot") + WINDOWS_HOSTS_FILE : UNIX_HOSTS_FILE);
+    }
+
+
+    /*
+     * Returns a map of (lower case) hostname to the list of addresses it's mapped to in the hosts file, or null if the hosts
+     * file couldn't be read.
+     */
+    private Map readHostsFile()
+    {
+        Map    result    = new HashMap();
+        String hostsFile = getHostsFilePath();
+
+        if (new File(hostsFile).canRead())
+        {
+            BufferedReader reader = null;
+
+            try
+            {
+                reader = new BufferedReader(new FileReader(hostsFile));
+
+                String line = null;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    int comment = line.indexOf('#');
+
+                    if (comment >= 0)
+                    {
+                        line = line.substring(0, comment);
+                    }
+
+                    StringTokenizer tokens = new StringTokenizer(line);
+
+                    if (tokens.countTokens() > 1)
+                    {
+                        String address = tokens.nextToken();
+
+                        while (tokens.hasMoreTokens())
+                        {
+                            String hostname  = tokens.nextToken().toLowerCase();
+                            List   addresses = (List)result.get(hostname);
+
+                            if (addresses == null)
+                            {
+                                addresses = new ArrayList();
+                                result.put(hostname, addresses);
+                            }
+
+                            addresses.add(address);
+                        }
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                result = null;
+            }
+            finally
+            {
+                if (reader != null)
+                {
+                    try
+                    {
+                        reader.close();
+                    }
+                    catch (IOException ioe)
+                    {
+                        // Ignore it and move on
+                    }
+                }
+            }
+        }
+        else
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    private void validateCacheTtl(final ValidatorCallback callback)
+    {
+        startTest(callback, "Address Cache TTL");
+
+        TestResult testResult  = new TestResult();
+        String     ttl         = Security.getProperty(SECURITY_PROPERTY_CACHE_TTL);
+        String     negativeTtl = Security.getProperty(SECURITY_PROPERTY_NEGATIVE_CACHE_TTL);
+        int        ttlSeconds  = DEFAULT_CACHE_TTL_SECONDS;
+        Integer    parsedTtl   = null;
+
+        if (ttl == null)
+        {
+            ttl = System.getProperty(SYSTEM_PROPERTY_CACHE_TTL);
+        }
+
+        if (ttl != null)
+        {
+            parsedTtl = stringToInteger(ttl.trim());
+        }
+
+        if (parsedTtl != null)
+        {
+            ttlSeconds = parsedTtl.intValue();
+        }
+
+        progress(callback, (ttlSeconds < 0 ? "forever" : ttlSeconds + "s") + (negativeTtl == null ? "" : " (negative " + negativeTtl.trim() + "s)"));
+
+        if (ttlSeconds < 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "The JVM caches successful name lookups forever (" + SECURITY_PROPERTY_CACHE_TTL + "=" + ttl + ")";
+            testResult.ramification = "Alfresco will not follow DNS changes (eg. database failover to another address) until it is restarted";
+            testResult.remedy       = "Set " + SECURITY_PROPERTY_CACHE_TTL + " in the JRE's java.security file to a value between 1 and " + MAXIMUM_CACHE_TTL_SECONDS + " seconds";
+        }
+        else if (ttlSeconds == 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "The JVM doesn't cache name lookups (" + SECURITY_PROPERTY_CACHE_TTL + "=0)";
+            testResult.ramification = "Every new connection will wait on the resolver, and a slow or unavailable DNS server will stall Alfresco";
+            testResult.remedy       = "Set " + SECURITY_PROPERTY_CACHE_TTL + " in the JRE's java.security file to a value between 1 and " + MAXIMUM_CACHE_TTL_SECONDS + " seconds";
+        }
+        else if (ttlSeconds > MAXIMUM_CACHE_TTL_SECONDS)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "The JVM caches successful name lookups for " + ttlSeconds + " seconds";
+            testResult.ramification = "Alfresco will be slow to follow DNS changes (eg. database failover to another address)";
+            testResult.remedy       = "Set " + SECURITY_PROPERTY_CACHE_TTL + " in the JRE's java.security file to a value between 1 and " + MAXIMUM_CACHE_TTL_SECONDS + " seconds";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateHostsFile(final ValidatorCallback callback, final List hostnames, final Map hostsFile)
+    {
+        startTest(callback, "Hosts File");
+
+        TestResult testResult = new TestResult();
+
+        if (hostsFile == null)
+        {
+            progress(callback, "unreadable");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to read the hosts file " + getHostsFilePath();
+            testResult.ramification = "Hosts file entries that override DNS for the hosts Alfresco connects to can't be checked";
+            testResult.remedy       = "Run the validator as a user who can read " + getHostsFilePath() + ", or manually check its entries against DNS";
+        }
+        else
+        {
+            StringBuffer mismatched = new StringBuffer();
+            int          count      = 0;
+            DirContext   context    = createDnsContext();
+
+            for (int i = 0; i < hostnames.size(); i++)
+            {
+                String hostname  = (String)hostnames.get(i);
+                List   addresses = (List)hostsFile.get(hostname.toLowerCase());
+
+                if (addresses != null)
+                {
+                    count++;
+
+                    // Hosts file entries don't depend on DNS, so are only a problem if DNS says otherwise (a host that isn't in DNS is fine)
+                    Set dnsAddresses = lookupAllDns(context, hostname);
+
+                    if (!dnsAddresses.isEmpty() && !containsAny(dnsAddresses, addresses))
+                    {
+                        mismatched.append((mismatched.length() == 0 ? "" : ", ") + hostname + " (hosts file " + addresses + ", DNS " + dnsAddresses + ")");
+                    }
+                }
+            }
+
+            closeDnsContext(context);
+
+            progress(callback, count + " of " + hostnames.size() + " hosts listed");
+
+            if (mismatched.length() > 0)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Hosts file entries don't match DNS: " + mismatched;
+                testResult.ramification = "This server will connect to a different address than other servers (eg. after a database failover)";
+                testResult.remedy       = "Remove the stale hosts file entries, or update them to match DNS";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private boolean containsAny(final Set set, final List values)
+    {
+        boolean result = false;
+
+        for (int i = 0; !result && i < values.size(); i++)
+        {
+            result = set.contains(normaliseAddress((String)values.get(i)));
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The address of the host, or null if it couldn't be resolved.
+     */
+    private InetAddress validateForwardLookup(final ValidatorCallback callback, final String hostname)
+    {
+        startTest(callback, "Lookup " + hostname);
+
+        TestResult        testResult = new TestResult();
+        InetAddress       result     = null;
+        int               samples    = PerformanceConfiguration.getInt("dns.samples", DEFAULT_SAMPLES);
+        double            warnMs     = PerformanceConfiguration.getDouble("dns.lookup.warn.ms",      DEFAULT_LOOKUP_WARN_MS);
+        double            coldWarnMs = PerformanceConfiguration.getDouble("dns.cold.lookup.warn.ms", DEFAULT_COLD_LOOKUP_WARN_MS);
+        LatencyStatistics cached     = new LatencyStatistics(samples);
+        LatencyStatistics resolver   = new LatencyStatistics(samples);
+        int               failures   = 0;
+        double            coldMs     = 0.0;
+
+        try
+        {
+            long startTime = System.nanoTime();
+
+            // Best effort - the name may already be cached by the JVM (eg. by an earlier validator) or the OS's resolver
+            result = InetAddress.getByName(hostname);
+            coldMs = (System.nanoTime() - startTime) / 1000000.0;
+
+            for (int i = 0; i < samples; i++)
+            {
+                startTime = System.nanoTime();
+                InetAddress.getByName(hostname);
+                cached.addNanos(startTime, System.nanoTime());
+            }
+        }
+        catch (UnknownHostException uhe)
+        {
+            progress(callback, "unresolvable");
+
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "Unable to resolve " + hostname;
+            testResult.ramification = "Alfresco will be unable to connect to " + hostname;
+            testResult.remedy       = "Fix the DNS configuration (or add " + hostname + " to the hosts file)";
+            testResult.rootCause    = uhe;
+
+            endTest(callback, testResult);
+
+            return(null);
+        }
+
+        // Query DNS directly, as the JVM's cache hides the resolver's behaviour after the first lookup (note: names are
+        // looked up as given, without the resolver's search domains, so unqualified names will usually not be found)
+        DirContext context = createDnsContext();
+
+        for (int i = 0; context != null && i < samples; i++)
+        {
+            long startTime = System.nanoTime();
+
+            try
+            {
+                lookupDns(context, hostname);
+                resolver.addNanos(startTime, System.nanoTime());
+            }
+            catch (NamingException ne)
+            {
+                failures++;
+
+                if (resolver.getCount() == 0)
+                {
+                    break;   // Not in DNS (eg. only in the hosts file) or DNS is unreachable - don't wait on repeated timeouts
+                }
+            }
+        }
+
+        closeDnsContext(context);
+
+        progress(callback, "first " + LatencyStatistics.format(coldMs) + "ms (best effort), cached " + LatencyStatistics.format(cached.getAverage()) + "ms, " +
+                           (resolver.getCount() == 0 ? "not in DNS" : "DNS avg " + LatencyStatistics.format(resolver.getAverage()) + "ms p99 " + LatencyStatistics.format(resolver.getPercentile(99.0)) + "ms"));
+
+        if (resolver.getCount() > 0 && failures > 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = failures + " of " + samples + " DNS lookups of " + hostname + " failed";
+            testResult.ramification = "Alfresco may intermittently be unable to connect to " + hostname + ", or may stall while connecting";
+            testResult.remedy       = "Review the DNS servers' health and the resolver configuration (eg. unreachable nameservers listed in resolv.conf)";
+        }
+        else if (resolver.getCount() > 0 && resolver.getAverage() > warnMs)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Average DNS lookup time for " + hostname + " exceeds " + LatencyStatistics.format(warnMs) + "ms (" + resolver + ")";
+            testResult.ramification = "Alfresco may stall whenever the JVM's cached address for " + hostname + " expires";
+            testResult.remedy       = "Use a closer / faster DNS server, or a local caching resolver (eg. nscd, dnsmasq)";
+        }
+        else if (coldMs > coldWarnMs)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "First lookup of " + hostname + " took " + LatencyStatistics.format(coldMs) + "ms (more than " + LatencyStatistics.format(coldWarnMs) + "ms), " +
+                                      "even though it may have been served from a cache";
+            testResult.ramification = "Alfresco may stall whenever the JVM's cached address for " + hostname + " expires";
+            testResult.remedy       = "Review the resolver configuration (eg. search domains, IPv6 (AAAA) lookups timing out, unreachable nameservers)";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    private void validateReverseLookup(final ValidatorCallback callback, final String hostname, final InetAddress address)
+    {
+        startTest(callback, "Reverse " + address.getHostAddress());
+
+        TestResult        testResult  = new TestResult();
+        int               samples     = PerformanceConfiguration.getInt("dns.samples", DEFAULT_SAMPLES);
+        double            warnMs      = PerformanceConfiguration.getDouble("dns.lookup.warn.ms", DEFAULT_LOOKUP_WARN_MS);
+        LatencyStatistics latencies   = new LatencyStatistics(samples);
+        String            reverseName = null;
+
+        try
+        {
+            for (int i = 0; i < samples; i++)
+            {
+                // A new InetAddress each time, as the reverse name is cached in the InetAddress instance
+                InetAddress uncached  = InetAddress.getByAddress(address.getAddress());
+                long        startTime = System.nanoTime();
+
+                reverseName = uncached.getCanonicalHostName();
+                latencies.addNanos(startTime, System.nanoTime());
+            }
+
+            progress(callback, reverseName + ", avg " + LatencyStatistics.format(latencies.getAverage()) + "ms");
+
+            if (reverseName.equals(address.getHostAddress()))
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "No reverse (PTR) record for " + address.getHostAddress() + " (" + hostname + ")";
+                testResult.ramification = "Servers that perform reverse lookups on incoming connections (eg. MySQL, LDAP) may be slow to accept connections from this address";
+                testResult.remedy       = "Add a reverse (PTR) record for " + address.getHostAddress() + " to DNS";
+            }
+            else if (!resolvesTo(reverseName, address))
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = address.getHostAddress() + " reverse resolves to " + reverseName + ", which doesn't resolve back to " + address.getHostAddress();
+                testResult.ramification = "Forward and reverse DNS are inconsistent - hostname based access controls (eg. in the database) may fail";
+                testResult.remedy       = "Make the forward and reverse DNS records for " + hostname + " consistent";
+            }
+            else if (latencies.getAverage() > warnMs)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Average reverse lookup time for " + address.getHostAddress() + " exceeds " + LatencyStatistics.format(warnMs) + "ms (" + latencies + ")";
+                testResult.ramification = "Servers that perform reverse lookups on incoming connections (eg. MySQL, LDAP) may be slow to accept connections";
+                testResult.remedy       = "Use a closer / faster DNS server, or a local caching resolver (eg. nscd, dnsmasq)";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+        catch (UnknownHostException uhe)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to reverse resolve " + address.getHostAddress() + " (" + hostname + ")";
+            testResult.ramification = "Hostname based checks on connections from this address (eg. database or LDAP access controls, and reverse lookups by MySQL) may be slow or fail";
+            testResult.remedy       = "Ensure this server's DNS servers are reachable, and add a reverse (PTR) record for " + address.getHostAddress() + " to DNS";
+            testResult.rootCause    = uhe;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private boolean resolvesTo(final String hostname, final InetAddress address)
+    {
+        boolean result = false;
+
+        try
+        {
+            InetAddress[] addresses = InetAddress.getAllByName(hostname);
+
+            for (int i = 0; !result && i < addresses.length; i++)
+            {
+                result = addresses[i].equals(address);
+            }
+        }
+        catch (UnknownHostException uhe)
+        {
+            result = false;
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Creates a JNDI DNS context that uses the OS's nameservers.  Returns null if the JNDI DNS provider isn't available.
+     */
+    private DirContext createDnsContext()
+    {
+        DirContext result = null;
+        Hashtable  env    = new Hashtable();
+
+        env.put(Context.INITIAL_CONTEXT_FACTORY,       "com.sun.jndi.dns.DnsContextFactory");
+        env.put("com.sun.jndi.dns.timeout.initial", String.valueOf(DNS_TIMEOUT_MS));
+        env.put("com.sun.jndi.dns.timeout.retries", "1");
+
+        try
+        {
+            result = new InitialDirContext(env);
+        }
+        catch (NamingException ne)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    private void closeDnsContext(final DirContext context)
+    {
+        if (context != null)
+        {
+            try
+            {
+                context.close();
+            }
+            catch (NamingException ne)
+            {
+                // Ignore it and move on
+            }
+        }
+    }
+
+
+    /*
+     * Returns all of the A and AAAA records of the given host (the JVM's resolver can't be used, as it consults the hosts file
+     * first).  Returns an empty set if DNS is unavailable or has no records for the host.
+     */
+    private Set lookupAllDns(final DirContext context, final String hostname)
+    {
+        Set result = new HashSet();
+
+        if (context != null)
+        {
+            try
+            {
+                Attributes attributes = context.getAttributes(hostname, new String[] { "A", "AAAA" });
+                String[]   types      = { "A", "AAAA" };
+
+                for (int i = 0; i < types.length; i++)
+                {
+                    Attribute attribute = attributes.get(types[i]);
+
+                    if (attribute != null)
+                    {
+                        NamingEnumeration values = attribute.getAll();
+
+                        while (values.hasMore())
+                        {
+                            result.add(normaliseAddress(String.valueOf(values.next())));
+                        }
+                    }
+                }
+            }
+            catch (NamingException ne)
+            {
+                result.clear();
+            }
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * Normalises the textual form of an address (eg. IPv6 zero compression), so that hosts file and DNS addresses can be compared.
+     */
+    private String normaliseAddress(final String address)
+    {
+        String result = address;
+
+        try
+        {
+            result = InetAddress.getByName(address).getHostAddress();   // Literal addresses are parsed, not resolved
+        }
+        catch (UnknownHostException uhe)
+        {
+            result = address;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The first A (or AAAA) record of the given host.
+     */
+    private String lookupDns(final DirContext context, final String hostname)
+        throws NamingException
+    {
+        String     result     = null;
+        Attributes attributes = context.getAttributes(hostname, new String[] { "A", "AAAA" });
+        Attribute  attribute  = attributes.get("A") == null ? attributes.get("AAAA") : attributes.get("A");
+
+        if (attribute != null)
+        {
+            NamingEnumeration values = attribute.getAll();
+
+            if (values.hasMore())
+            {
+                result = String.valueOf(values.next());
+            }
+        }
+
+        if (result == null)
+        {
+            throw new NamingException("No address records for " + hostname);
+        }
+
+        return(result);
+    }
+
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.hyperic.sigar.DiskUsage;
+import org.hyperic.sigar.FileSystem;
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.environment.validation.ValidatorCallbackHelper;
+
+
+/**
+ * This class samples the I/O counters of the device backing a file system while a disk benchmark runs, so
+ * that a poor benchmark result can be attributed to either the device being saturated or to other processes
+ * competing for it.  Counters are read from /proc/diskstats on Linux (with the tool's own I/O taken from
+ * /proc/self/io), and from sigar elsewhere (in which case only throughput is available).
+ * <p>
+ * Typical usage: start(), beginBenchmark(), (run the benchmark), endBenchmark(), stop(), reportActivity().
+ * The periods between start() and beginBenchmark(), and between endBenchmark() and stop(), show the activity
+ * on the device before and after the benchmark.
+ *
+ */
+public class DiskStatsSampler
+    extends ValidatorCallbackHelper
+{
+    private final static String PROC_DISKSTATS    = "/proc/diskstats";
+    private final static String PROC_SELF_IO      = "/proc/self/io";
+    private final static String SYS_CLASS_BLOCK   = "/sys/class/block/";
+    private final static long   BYTES_PER_SECTOR  = 512;
+    private final static long   BYTES_PER_MB      = 1024L * 1024L;
+
+    private final static long   DEFAULT_INTERVAL_MS        = 1000;
+    private final static long   DEFAULT_IDLE_WINDOW_MS     = 2000;
+    private final static double DEFAULT_FOREIGN_WARN_RATIO = 0.2;
+    private final static double SATURATED_UTILISATION      = 0.9;
+
+    private final Sigar   sigar;
+    private final String  sigarDeviceName;
+    private final String  diskstatsDeviceName;
+
+    private final List    samples = new ArrayList();   // Of Snapshot, in time order
+    private Snapshot      beforeStart;
+    private Snapshot      benchmarkStart;
+    private Snapshot      benchmarkEnd;
+    private Snapshot      afterEnd;
+
+    private ScheduledExecutorService scheduler = null;
+
+
+    /**
+     * @param sigar      The sigar instance to use when /proc/diskstats is unavailable <i>(must not be null)</i>.
+     * @param fileSystem The file system being benchmarked <i>(may be null, in which case nothing is sampled)</i>.
+     */
+    public DiskStatsSampler(final Sigar sigar, final FileSystem fileSystem)
+    {
+        this.sigar               = sigar;
+        this.sigarDeviceName     = fileSystem == null ? null : fileSystem.getDevName();
+        this.diskstatsDeviceName = fileSystem == null ? null : toDiskstatsDeviceName(fileSystem.getDevName());
+    }
+
+
+    /**
+     * Starts sampling, then waits for the idle window so that activity before the benchmark is captured.
+     */
+    public void start()
+    {
+        synchronized(this)
+        {
+            beforeStart = sample();
+
+            if (beforeStart != null)
+            {
+                long interval = PerformanceConfiguration.getLong("disk.stats.interval.ms", DEFAULT_INTERVAL_MS);
+
+                scheduler = Executors.newSingleThreadScheduledExecutor();
+                scheduler.scheduleAtFixedRate(new Runnable()
+                {
+                    public void run()
+                    {
+                        sample();
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        waitForIdleWindow();
+    }
+
+
+    public void beginBenchmark()
+    {
+        benchmarkStart = sample();
+    }
+
+
+    public void endBenchmark()
+    {
+        benchmarkEnd = sample();
+    }
+
+
+    /**
+     * Waits for the idle window so that activity after the benchmark (eg. write back) is captured, then stops sampling.
+     */
+    public void stop()
+    {
+        waitForIdleWindow();
+
+        synchronized(this)
+        {
+            if (scheduler != null)
+            {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+
+            afterEnd = sample();
+        }
+    }
+
+
+    private void waitForIdleWindow()
+    {
+        if (beforeStart != null)
+        {
+            try
+            {
+                Thread.sleep(PerformanceConfiguration.getLong("disk.stats.idle.window.ms", DEFAULT_IDLE_WINDOW_MS));
+            }
+            catch (InterruptedException ie)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Reports the device activity observed during the benchmark as a test.
+     *
+     * @param callback The callback to report to <i>(may be null)</i>.
+     */
+    public void reportActivity(final ValidatorCallback callback)
+    {
+        startTest(callback, "Disk Activity");
+
+        TestResult testResult = new TestResult();
+
+        if (beforeStart == null || benchmarkStart == null || benchmarkEnd == null)
+        {
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Disk I/O counters are not available for " + (sigarDeviceName == null ? "this file system" : sigarDeviceName);
+        }
+        else if (!benchmarkEnd.detailed)
+        {
+            long deviceMb = (benchmarkEnd.bytes() - benchmarkStart.bytes()) / BYTES_PER_MB;
+
+            progress(callback, deviceMb + "MB transferred");
+
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Device " + sigarDeviceName + " transferred " + deviceMb + "MB during the benchmark (utilisation and queue statistics are only available on Linux)";
+        }
+        else
+        {
+            double   during        = benchmarkEnd.utilisation(benchmarkStart);
+            double   queue         = benchmarkEnd.averageQueue(benchmarkStart);
+            double   await         = benchmarkEnd.await(benchmarkStart);
+            double   peak          = peakUtilisation();
+            double   before        = benchmarkStart.utilisation(beforeStart);
+            double   after         = afterEnd == null ? 0.0 : afterEnd.utilisation(benchmarkEnd);
+            Snapshot last          = afterEnd == null ? benchmarkEnd : afterEnd;   // The tool's writes are counted when dirtied, so include the write back that follows
+            long     deviceBytes   = last.bytes()     - benchmarkStart.bytes();
+            long     toolBytes     = last.selfBytes() - benchmarkStart.selfBytes();
+            long     foreignBytes  = Math.max(deviceBytes - toolBytes, 0);
+            double   foreignRatio  = deviceBytes == 0 ? 0.0 : (double)foreignBytes / deviceBytes;
+            double   warnRatio     = PerformanceConfiguration.getDouble("disk.stats.foreign.warn.ratio", DEFAULT_FOREIGN_WARN_RATIO);
+            String   summary       = "device " + diskstatsDeviceName + ": utilisation " + percent(during) + " (peak " + percent(peak) + ", before " + percent(before) + ", after " + percent(after) + ")" +
+                                     ", average queue " + round(queue) + ", await " + round(await) + "ms" +
+                                     ", " + (deviceBytes / BYTES_PER_MB) + "MB transferred (including write back) of which " + (foreignBytes / BYTES_PER_MB) + "MB by other processes";
+
+            progress(callback, percent(during) + " busy, " + (foreignBytes / BYTES_PER_MB) + "MB foreign");
+
+            if (foreignRatio > warnRatio || before > SATURATED_UTILISATION / 2)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Other processes were using the disk during the benchmark (" + summary + ")";
+                testResult.ramification = "The disk speed results above understate the speed of the disk, but Alfresco would also compete with that activity";
+                testResult.remedy       = "Identify the processes using the disk (eg. with iotop) and rerun the tool when they are idle, or locate Alfresco's data on a dedicated disk";
+            }
+            else if (during >= SATURATED_UTILISATION)
+            {
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "The disk was saturated by the benchmark, so the results above reflect the capability of the device (" + summary + ")";
+            }
+            else
+            {
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "The disk was not saturated by the benchmark, so the results above may be limited by the CPU, the page cache or the file system (" + summary + ")";
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private synchronized double peakUtilisation()
+    {
+        double   result   = 0.0;
+        Snapshot previous = null;
+
+        for (int i = 0; i < samples.size(); i++)
+        {
+            Snapshot current = (Snapshot)samples.get(i);
+
+            if (previous != null && current.time > benchmarkStart.time && current.time <= benchmarkEnd.time)
+            {
+                result = Math.max(result, current.utilisation(previous));
+            }
+
+            previous = current;
+        }
+
+        return(result);
+    }
+
+
+    private synchronized Snapshot sample()
+    {
+        Snapshot result = null;
+
+        if (diskstatsDeviceName != null && new File(PROC_DISKSTATS).canRead())
+        {
+            result = readDiskstats();
+        }
+        else if (sigarDeviceName != null)
+        {
+            result = readSigar();
+        }
+
+        if (result != null)
+        {
+            samples.add(result);
+        }
+
+        return(result);
+    }
+
+
+    private Snapshot readDiskstats()
+    {
+        Snapshot result = null;
+
+        try
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(PROC_DISKSTATS));
+
+            try
+            {
+                String line = null;
+
+                while (result == null && (line = reader.readLine()) != null)
+                {
+                    StringTokenizer tokens = new StringTokenizer(line);
+
+                    if (tokens.countTokens() >= 14)
+                    {
+                        tokens.nextToken();   // Major
+                        tokens.nextToken();   // Minor
+
+                        if (diskstatsDeviceName.equals(tokens.nextToken()))
+                        {
+                            result = new Snapshot();
+
+                            result.detailed     = true;
+                            result.reads        = Long.parseLong(tokens.nextToken());
+                            tokens.nextToken();   // Reads merged
+                            result.readBytes    = Long.parseLong(tokens.nextToken()) * BYTES_PER_SECTOR;
+                            result.readMs       = Long.parseLong(tokens.nextToken());
+                            result.writes       = Long.parseLong(tokens.nextToken());
+                            tokens.nextToken();   // Writes merged
+                            result.writeBytes   = Long.parseLong(tokens.nextToken()) * BYTES_PER_SECTOR;
+                            result.writeMs      = Long.parseLong(tokens.nextToken());
+                            tokens.nextToken();   // I/Os currently in progress
+                            result.ioMs         = Long.parseLong(tokens.nextToken());
+                            result.weightedIoMs = Long.parseLong(tokens.nextToken());
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+
+            if (result != null)
+            {
+                readSelfIo(result);
+            }
+        }
+        catch (IOException ioe)
+        {
+            result = null;
+        }
+        catch (NumberFormatException nfe)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    private void readSelfIo(final Snapshot snapshot)
+        throws IOException
+    {
+        if (new File(PROC_SELF_IO).canRead())
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(PROC_SELF_IO));
+
+            try
+            {
+                String line = null;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    int    index = line.indexOf(':');
+                    String key   = index > 0 ? line.substring(0, index).trim() : "";
+                    String value = index > 0 ? line.substring(index + 1).trim() : "";
+
+                    if ("read_bytes".equals(key))
+                    {
+                        snapshot.selfReadBytes = Long.parseLong(value);
+                    }
+                    else if ("write_bytes".equals(key))
+                    {
+                        snapshot.selfWriteBytes += Long.parseLong(value);
+                    }
+                    else if ("cancelled_write_bytes".equals(key))
+                    {
+                        snapshot.selfWriteBytes -= Long.parseLong(value);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+    }
+
+
+    private Snapshot readSigar()
+    {
+        Snapshot result = null;
+
+        try
+        {
+            DiskUsage usage = sigar.getDiskUsage(sigarDeviceName);
+
+            result = new Snapshot();
+
+            result.detailed   = false;
+            result.reads      = usage.getReads();
+            result.writes     = usage.getWrites();
+            result.readBytes  = usage.getReadBytes();
+            result.writeBytes = usage.getWriteBytes();
+        }
+        catch (SigarException se)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Converts a device path (eg. /dev/sda1, /dev/mapper/vg-root) to the name of the whole disk it lives on,
+     * as listed in /proc/diskstats (eg. sda, dm-0).  The whole disk is used so that I/O to other partitions,
+     * which competes for the same spindles, is included.
+     */
+    private static String toDiskstatsDeviceName(final String devName)
+    {
+        String result = null;
+
+        if (devName != null && devName.startsWith("/dev/"))
+        {
+            try
+            {
+                result = new File(devName).getCanonicalFile().getName();   // Resolves /dev/mapper/* and /dev/disk/by-* symlinks
+
+                if (new File(SYS_CLASS_BLOCK + result + "/partition").exists())
+                {
+                    result = new File(SYS_CLASS_BLOCK + result).getCanonicalFile().getParentFile().getName();
+                }
+            }
+            catch (IOException ioe)
+            {
+                result = devName.substring("/dev/".length());
+            }
+        }
+
+        return(result);
+    }
+
+
+    private static String percent(final double ratio)
+    {
+        return(Math.round(Math.min(ratio, 1.0) * 100) + "%");
+    }
+
+
+    private static String round(final double value)
+    {
+        return(String.valueOf(Math.round(value * 10) / 10.0));
+    }
+
+
+    private static class Snapshot
+    {
+        long    time = System.currentTimeMillis();
+        boolean detailed;
+        long    reads;
+        long    readBytes;
+        long    readMs;
+        long    writes;
+        long    writeBytes;
+        long    writeMs;
+        long    ioMs;
+        long    weightedIoMs;
+        long    selfReadBytes;
+        long    selfWriteBytes;
+
+        long bytes()
+        {
+            return(readBytes + writeBytes);
+        }
+
+        long selfBytes()
+        {
+            return(selfReadBytes + selfWriteBytes);
+        }
+
+        double utilisation(final Snapshot earlier)
+        {
+            long elapsed = time - earlier.time;
+
+            return(elapsed <= 0 ? 0.0 : (double)(ioMs - earlier.ioMs) / elapsed);
+        }
+
+        double averageQueue(final Snapshot earlier)
+        {
+            long elapsed = time - earlier.time;
+
+            return(elapsed <= 0 ? 0.0 : (double)(weightedIoMs - earlier.weightedIoMs) / elapsed);
+        }
+
+        double await(final Snapshot earlier)
+        {
+            long ios = (reads + writes) - (earlier.reads + earlier.writes);
+
+            return(ios <= 0 ? 0.0 : (double)((readMs + writeMs) - (earlier.readMs + earlier.writeMs)) / ios);
+        }
+    }
+
+}
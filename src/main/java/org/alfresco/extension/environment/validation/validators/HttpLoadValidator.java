@@ -0,0 +1,596 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+
+
+/**
+ * This class load tests the host's ability to accept and serve HTTP connections, by briefly running an embedded
+ * HTTP server on Alfresco's HTTP port (or an ephemeral port, if that's in use) and driving it from a local load
+ * generator, both with keep-alive connections (request throughput) and with a new connection per request
+ * (connection acceptance rate - where kernel backlog, firewall and connection tracking limits show up).
+ *
+ */
+public class HttpLoadValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "HTTP Load";
+
+    private final static String PROC_CONNTRACK_COUNT       = "/proc/sys/net/netfilter/nf_conntrack_count";
+    private final static String PROC_CONNTRACK_MAX         = "/proc/sys/net/netfilter/nf_conntrack_max";
+
+    private final static int    DEFAULT_PORT               = 8080;
+    private final static int    DEFAULT_CLIENTS            = 16;
+    private final static int    DEFAULT_DURATION_SECONDS   = 3;
+    private final static int    DEFAULT_RESPONSE_SIZE      = 1024;
+    private final static double DEFAULT_REQUESTS_WARN      = 2000.0;
+    private final static double DEFAULT_CONNECTIONS_WARN   = 500.0;
+    private final static double DEFAULT_P99_WARN_MS        = 50.0;
+    private final static double DEFAULT_CONNTRACK_WARN     = 0.8;
+    private final static int    DEFAULT_MAX_THREADS        = 200;
+    private final static int    DEFAULT_ACCEPT_COUNT       = 100;
+    private final static int    SOCKET_TIMEOUT_MS          = 5000;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        InetAddress        target = getTargetAddress((String)parameters.get(NetworkValidator.PARAMETER_BIND_ADDRESS));
+        EmbeddedHttpServer server = validateServer(callback, target);
+
+        if (server != null)
+        {
+            try
+            {
+                InetSocketAddress address = new InetSocketAddress(target, server.getLocalPort());
+
+                validateLoad(callback, address, true);
+                validateLoad(callback, address, false);
+                validateConntrack(callback);
+            }
+            finally
+            {
+                server.close();
+            }
+        }
+    }
+
+
+    /*
+     * The server only listens on the address being tested, so it isn't exposed on every interface while the test runs.
+     */
+    private EmbeddedHttpServer validateServer(final ValidatorCallback callback, final InetAddress address)
+    {
+        startTest(callback, "HTTP Server");
+
+        TestResult         testResult  = new TestResult();
+        EmbeddedHttpServer result      = null;
+        int                port        = PerformanceConfiguration.getInt("http.load.port", DEFAULT_PORT);
+        int                threads     = PerformanceConfiguration.getInt("planned.tomcat.maxThreads",  DEFAULT_MAX_THREADS);
+        int                acceptCount = PerformanceConfiguration.getInt("planned.tomcat.acceptCount", DEFAULT_ACCEPT_COUNT);
+        int                size        = PerformanceConfiguration.getInt("http.load.response.bytes",   DEFAULT_RESPONSE_SIZE);
+
+        try
+        {
+            try
+            {
+                result = new EmbeddedHttpServer(address, port, acceptCount, threads, size);
+                progress(callback, address.getHostAddress() + ":" + result.getLocalPort());
+            }
+            catch (IOException ioe)
+            {
+                // The port's in use (which NetworkValidator reports) - measure on an ephemeral port instead
+                result = new EmbeddedHttpServer(address, 0, acceptCount, threads, size);
+                progress(callback, address.getHostAddress() + ":" + result.getLocalPort() + " (" + port + " in use)");
+            }
+
+            result.start();
+            testResult.resultType = TestResult.PASS;
+        }
+        catch (IOException ioe)
+        {
+            progress(callback, "unavailable");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to start an embedded HTTP server: " + ioe.getMessage();
+            testResult.ramification = "HTTP connection handling capacity could not be measured";
+            testResult.remedy       = "Manually load test the server (eg. using ab or JMeter)";
+            testResult.rootCause    = ioe;
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    /*
+     * Connects via the address Alfresco will be accessed on (rather than loopback) where possible, so that firewall
+     * rules for that address are exercised.
+     */
+    private InetAddress getTargetAddress(final String bindAddress)
+    {
+        InetAddress result = null;
+
+        try
+        {
+            result = bindAddress != null && bindAddress.trim().length() > 0 ? InetAddress.getByName(bindAddress.trim()) : InetAddress.getLocalHost();
+        }
+        catch (UnknownHostException uhe)
+        {
+            result = null;
+        }
+
+        if (result == null || result.isAnyLocalAddress())
+        {
+            try
+            {
+                result = InetAddress.getByName("127.0.0.1");
+            }
+            catch (UnknownHostException uhe)
+            {
+                // Can't happen - IP addresses aren't resolved
+            }
+        }
+
+        return(result);
+    }
+
+
+    private void validateLoad(final ValidatorCallback callback, final InetSocketAddress address, final boolean keepAlive)
+    {
+        startTest(callback, keepAlive ? "Keep-Alive Requests" : "New Connections");
+
+        TestResult        testResult = new TestResult();
+        int               clients    = PerformanceConfiguration.getInt("http.load.clients", DEFAULT_CLIENTS);
+        long              durationMs = PerformanceConfiguration.getInt("http.load.seconds", DEFAULT_DURATION_SECONDS) * 1000L;
+        double            rateWarn   = keepAlive ? PerformanceConfiguration.getDouble("http.load.requests.warn",    DEFAULT_REQUESTS_WARN) :
+                                                   PerformanceConfiguration.getDouble("http.load.connections.warn", DEFAULT_CONNECTIONS_WARN);
+        double            p99WarnMs  = PerformanceConfiguration.getDouble("http.load.p99.warn.ms", DEFAULT_P99_WARN_MS);
+        LatencyStatistics latencies  = new LatencyStatistics(100000);
+        AtomicLong        errors     = new AtomicLong();
+        CountDownLatch    startGate  = new CountDownLatch(1);
+        Thread[]          threads    = new Thread[clients];
+        long              elapsed    = 0;
+
+        progress(callback, "(please wait)");
+
+        try
+        {
+            long deadline = System.currentTimeMillis() + durationMs;
+
+            for (int i = 0; i < clients; i++)
+            {
+                threads[i] = new Thread(new LoadClient(address, keepAlive, deadline, startGate, latencies, errors));
+                threads[i].start();
+            }
+
+            long startTime = System.nanoTime();
+
+            startGate.countDown();
+
+            for (int i = 0; i < clients; i++)
+            {
+                threads[i].join();
+            }
+
+            elapsed = System.nanoTime() - startTime;
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.rootCause = ie;
+        }
+
+        double rate = latencies.getCount() / (Math.max(elapsed, 1) / 1000000000.0);
+        double p99  = latencies.getPercentile(99.0);
+
+        progress(callback, LatencyStatistics.format(rate) + (keepAlive ? " req/s" : " conn/s") + ", p50 " + LatencyStatistics.format(latencies.getPercentile(50.0)) +
+                           "ms, p99 " + LatencyStatistics.format(p99) + "ms" + (errors.get() == 0 ? "" : ", " + errors.get() + " errors"));
+
+        if (errors.get() > 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = errors.get() + " of " + (errors.get() + latencies.getCount()) + " requests failed" + (keepAlive ? "" : " (refused, reset or timed out connections)");
+            testResult.ramification = "Clients will see connection failures or multi-second delays (SYN retransmits) under load";
+            testResult.remedy       = "Review the listen backlog (net.core.somaxconn, tcp_max_syn_backlog), connection tracking limits (nf_conntrack_max) and any firewall rate limiting";
+        }
+        else if (rate < rateWarn)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Only " + LatencyStatistics.format(rate) + (keepAlive ? " requests" : " new connections") + " per second were served (less than " + LatencyStatistics.format(rateWarn) + ")";
+            testResult.ramification = "The host may be unable to sustain Alfresco's peak " + (keepAlive ? "request" : "connection") + " rate";
+            testResult.remedy       = keepAlive ? "Review CPU capacity and contention (eg. virtualisation overcommit)" :
+                                                  "Review firewall and connection tracking overhead, and ensure clients / load balancers use keep-alive";
+        }
+        else if (p99 > p99WarnMs)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "99th percentile " + (keepAlive ? "request" : "connection and request") + " time was " + LatencyStatistics.format(p99) + "ms (more than " + LatencyStatistics.format(p99WarnMs) + "ms): " + latencies;
+            testResult.ramification = "A proportion of requests will be delayed before Alfresco even starts processing them";
+            testResult.remedy       = "Review CPU capacity and contention (eg. virtualisation overcommit), and the listen backlog";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateConntrack(final ValidatorCallback callback)
+    {
+        Integer count = readProcInteger(PROC_CONNTRACK_COUNT);
+        Integer max   = readProcInteger(PROC_CONNTRACK_MAX);
+
+        // Only present when connection tracking (eg. a stateful iptables firewall) is in use
+        if (count != null && max != null && max.intValue() > 0)
+        {
+            startTest(callback, "Conntrack Table");
+
+            TestResult testResult = new TestResult();
+            double     ratio      = (double)count.intValue() / max.intValue();
+            double     warnRatio  = PerformanceConfiguration.getDouble("http.load.conntrack.warn.ratio", DEFAULT_CONNTRACK_WARN);
+
+            progress(callback, count + " of " + max + " entries");
+
+            if (ratio <= warnRatio)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "The connection tracking table is " + LatencyStatistics.format(ratio * 100.0) + "% full";
+                testResult.ramification = "When the table fills, the kernel drops new connections (\"nf_conntrack: table full, dropping packet\")";
+                testResult.remedy       = "Raise net.netfilter.nf_conntrack_max in /etc/sysctl.conf, or exempt Alfresco's ports from connection tracking";
+            }
+
+            endTest(callback, testResult);
+        }
+    }
+
+
+    private Integer readProcInteger(final String fileName)
+    {
+        Integer result = null;
+
+        try
+        {
+            String value = readFile(fileName);
+
+            result = value == null ? null : stringToInteger(value.trim());
+        }
+        catch (IOException ioe)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    /*
+     * A minimal HTTP/1.1 server - a fixed pool of worker threads (like Tomcat's blocking connector), each serving a
+     * fixed size response to every request on a connection until the client closes it or asks for it to be closed.
+     */
+    private static class EmbeddedHttpServer
+        implements Runnable
+    {
+        private final ServerSocket    serverSocket;
+        private final ExecutorService workers;
+        private final byte[]          response;
+
+        public EmbeddedHttpServer(final InetAddress address, final int port, final int backlog, final int threads, final int responseSize)
+            throws IOException
+        {
+            byte[] header = ("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: " + responseSize + "\r\n\r\n").getBytes("US-ASCII");
+
+            this.response     = new byte[header.length + responseSize];
+            this.serverSocket = new ServerSocket();
+
+            System.arraycopy(header, 0, response, 0, header.length);
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(address, port), backlog);
+
+            this.workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        }
+
+        public int getLocalPort()
+        {
+            return(serverSocket.getLocalPort());
+        }
+
+        public void start()
+        {
+            Thread acceptor = new Thread(this, VALIDATION_TOPIC);
+
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    final Socket socket = serverSocket.accept();
+
+                    workers.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            serve(socket);
+                        }
+                    });
+                }
+            }
+            catch (IOException ioe)
+            {
+                // The server was closed
+            }
+        }
+
+        private void serve(final Socket socket)
+        {
+            try
+            {
+                socket.setTcpNoDelay(true);
+
+                InputStream  in   = new BufferedInputStream(socket.getInputStream());
+                OutputStream out  = socket.getOutputStream();
+                String       line = readLine(in);
+
+                while (line != null)
+                {
+                    boolean close = false;
+
+                    // Skip the headers, noting whether the client asked for the connection to be closed
+                    while (line != null && line.length() > 0)
+                    {
+                        close = close || line.toLowerCase().startsWith("connection: close");
+                        line  = readLine(in);
+                    }
+
+                    if (line != null)
+                    {
+                        out.write(response);
+                        out.flush();
+                        line = close ? null : readLine(in);
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                // The client went away
+            }
+            finally
+            {
+                try
+                {
+                    socket.close();   // The server closes first, so TIME_WAIT doesn't consume the load generator's ephemeral ports
+                }
+                catch (IOException ioe)
+                {
+                    // Ignore it and move on
+                }
+            }
+        }
+
+        public void close()
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+
+            workers.shutdownNow();
+        }
+    }
+
+
+    /*
+     * A load generator thread - issues requests back to back until the deadline, on a single keep-alive connection
+     * or on a new connection per request.  Each sample includes connection setup when keep-alive isn't used.
+     */
+    private static class LoadClient
+        implements Runnable
+    {
+        private final InetSocketAddress address;
+        private final boolean           keepAlive;
+        private final long              deadline;
+        private final CountDownLatch    startGate;
+        private final LatencyStatistics latencies;
+        private final AtomicLong        errors;
+        private final byte[]            request;
+
+        public LoadClient(final InetSocketAddress address, final boolean keepAlive, final long deadline, final CountDownLatch startGate, final LatencyStatistics latencies, final AtomicLong errors)
+        {
+            this.address   = address;
+            this.keepAlive = keepAlive;
+            this.deadline  = deadline;
+            this.startGate = startGate;
+            this.latencies = latencies;
+            this.errors    = errors;
+            this.request   = ("GET / HTTP/1.1\r\nHost: " + address.getAddress().getHostAddress() + "\r\n" + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes();
+        }
+
+        public void run()
+        {
+            Socket      socket = null;
+            InputStream in     = null;
+
+            try
+            {
+                startGate.await();
+
+                while (System.currentTimeMillis() < deadline)
+                {
+                    long startTime = System.nanoTime();
+
+                    try
+                    {
+                        if (socket == null)
+                        {
+                            socket = new Socket();
+                            socket.setTcpNoDelay(true);
+                            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+                            socket.connect(address, SOCKET_TIMEOUT_MS);
+                            in = new BufferedInputStream(socket.getInputStream());
+                        }
+
+                        socket.getOutputStream().write(request);
+                        readResponse(in);
+                        latencies.addNanos(startTime, System.nanoTime());
+
+                        if (!keepAlive)
+                        {
+                            // Wait for the server to close, so that TIME_WAIT ends up on the server side
+                            while (in.read() >= 0)
+                            {
+                                // Discard
+                            }
+
+                            closeQuietly(socket);
+                            socket = null;
+                        }
+                    }
+                    catch (IOException ioe)
+                    {
+                        errors.incrementAndGet();
+                        closeQuietly(socket);
+                        socket = null;
+                    }
+                }
+            }
+            catch (InterruptedException ie)
+            {
+                // Stop
+            }
+            finally
+            {
+                closeQuietly(socket);
+            }
+        }
+
+        private void readResponse(final InputStream in)
+            throws IOException
+        {
+            String line          = readLine(in);
+            int    contentLength = 0;
+
+            if (line == null || !line.startsWith("HTTP/1.1 200"))
+            {
+                throw new IOException("Unexpected response: " + line);
+            }
+
+            while ((line = readLine(in)) != null && line.length() > 0)
+            {
+                if (line.toLowerCase().startsWith("content-length:"))
+                {
+                    contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+                }
+            }
+
+            for (int i = 0; i < contentLength; i++)
+            {
+                if (in.read() < 0)
+                {
+                    throw new IOException("Truncated response");
+                }
+            }
+        }
+
+        private void closeQuietly(final Socket socket)
+        {
+            if (socket != null)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException ioe)
+                {
+                    // Ignore it and move on
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return The next CRLF (or LF) terminated line, without the terminator, or null at the end of the stream.
+     */
+    private static String readLine(final InputStream in)
+        throws IOException
+    {
+        StringBuffer line = new StringBuffer();
+        int          c    = in.read();
+        boolean      eof  = c < 0;
+
+        while (c >= 0 && c != '\n')
+        {
+            if (c != '\r')
+            {
+                line.append((char)c);
+            }
+
+            c = in.read();
+        }
+
+        return(eof ? null : line.toString());
+    }
+
+}
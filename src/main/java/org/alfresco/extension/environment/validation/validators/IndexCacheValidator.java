@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.File;
+import java.util.Map;
+
+import org.hyperic.sigar.Mem;
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.ParallelDirectoryWalker;
+import org.alfresco.extension.util.Triple;
+
+
+/**
+ * This class estimates how much of the search index will fit in the OS page cache once the planned JVM
+ * heaps have been allocated.  Search latency degrades sharply once index reads start hitting the disk.
+ *
+ */
+public class IndexCacheValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Index Page Cache";
+
+    private final static long   DEFAULT_PLANNED_HEAP_ALFRESCO_MB = 4096;
+    private final static long   DEFAULT_PLANNED_HEAP_SOLR_MB     = 2048;
+    private final static long   DEFAULT_PLANNED_INDEX_SIZE_MB    = 0;
+    private final static double DEFAULT_COVERAGE_WARN_RATIO      = 0.8;
+
+    private final static long   BYTES_PER_MB                     = 1024L * 1024L;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        long indexSizeMb = validateIndexSize(callback, (String)parameters.get(IndexDiskSpeedValidator.PARAMETER_DISK_LOCATION));
+
+        validateCacheCoverage(callback, indexSizeMb);
+    }
+
+
+    private long validateIndexSize(final ValidatorCallback callback, final String indexLocation)
+    {
+        startTest(callback, "Index Size");
+
+        TestResult testResult    = new TestResult();
+        long       plannedSizeMb = PerformanceConfiguration.getLong("index.planned.size.mb", DEFAULT_PLANNED_INDEX_SIZE_MB);
+        long       result        = -1;
+
+        if (indexLocation == null || !new File(indexLocation).isDirectory())
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Index location " + indexLocation + " is not a directory";
+            testResult.ramification = "The size of the index, and therefore how much of it can be cached, can't be determined";
+            testResult.remedy       = "Provide the location of an existing index with -i, or set index.planned.size.mb in performance.properties";
+
+            result = plannedSizeMb > 0 ? plannedSizeMb : -1;
+        }
+        else
+        {
+            try
+            {
+                ParallelDirectoryWalker walker       = new ParallelDirectoryWalker(Runtime.getRuntime().availableProcessors() * 2);
+                Triple                  sizeAndCount = walker.walk(new File(indexLocation));
+                long                    measuredMb   = ((Long)sizeAndCount.getFirst()).longValue() / BYTES_PER_MB;
+
+                progress(callback, measuredMb + "MB in " + sizeAndCount.getSecond() + " files");
+
+                testResult.resultType = TestResult.PASS;
+
+                if (plannedSizeMb > measuredMb)
+                {
+                    testResult.resultType   = TestResult.INFO;
+                    testResult.errorMessage = "Using the planned index size of " + plannedSizeMb + "MB rather than the " + measuredMb + "MB currently in " + indexLocation;
+                }
+
+                result = Math.max(measuredMb, plannedSizeMb);
+            }
+            catch (InterruptedException ie)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Interrupted while measuring the size of " + indexLocation;
+                testResult.ramification = "The size of the index, and therefore how much of it can be cached, can't be determined";
+                testResult.remedy       = "Rerun the tool";
+                testResult.rootCause    = ie;
+            }
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    private void validateCacheCoverage(final ValidatorCallback callback, final long indexSizeMb)
+    {
+        startTest(callback, "Page Cache Headroom");
+
+        TestResult testResult    = new TestResult();
+        long       plannedHeapMb = PerformanceConfiguration.getLong("planned.heap.alfresco.mb", DEFAULT_PLANNED_HEAP_ALFRESCO_MB) +
+                                   PerformanceConfiguration.getLong("planned.heap.solr.mb",     DEFAULT_PLANNED_HEAP_SOLR_MB);
+        double     warnRatio     = PerformanceConfiguration.getDouble("index.cache.coverage.warn.ratio", DEFAULT_COVERAGE_WARN_RATIO);
+        Mem        memoryInfo    = null;
+
+        try
+        {
+            memoryInfo = sigar.getMem();
+        }
+        catch (final SigarException se)
+        {
+            testResult.rootCause = se;
+        }
+
+        if (memoryInfo == null || indexSizeMb < 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to determine " + (memoryInfo == null ? "available memory" : "the size of the index");
+            testResult.ramification = "Search performance may suffer if the index does not fit in the OS page cache";
+            testResult.remedy       = "Manually validate that free memory, after allocating " + plannedHeapMb + "MB of JVM heap, exceeds the size of the index";
+        }
+        else
+        {
+            // "Actual free" includes memory currently used by the page cache and buffers, since the OS will reclaim it as needed
+            long cacheMb = memoryInfo.getActualFree() / BYTES_PER_MB - plannedHeapMb;
+
+            if (cacheMb <= 0)
+            {
+                progress(callback, "no headroom");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "The planned JVM heaps (" + plannedHeapMb + "MB) exceed the " + (memoryInfo.getActualFree() / BYTES_PER_MB) + "MB of memory currently available";
+                testResult.ramification = "None of the index can stay in the OS page cache, and the server may swap";
+                testResult.remedy       = "Add RAM, or reduce the planned heap sizes in performance.properties to match the intended JVM settings";
+            }
+            else if (indexSizeMb == 0)
+            {
+                progress(callback, cacheMb + "MB available");
+
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "The index is empty - " + cacheMb + "MB of page cache will be available once the planned JVM heaps (" + plannedHeapMb + "MB) are allocated";
+            }
+            else
+            {
+                double coverage        = (double)cacheMb / indexSizeMb;
+                long   coveragePercent = Math.min(Math.round(coverage * 100), 100);
+
+                progress(callback, cacheMb + "MB, " + coveragePercent + "% of index");
+
+                if (coverage >= warnRatio)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType   = TestResult.WARN;
+                    testResult.errorMessage = "Only " + coveragePercent + "% of the " + indexSizeMb + "MB index can stay in the OS page cache after allocating " + plannedHeapMb +
+                                              "MB of JVM heap (at least " + Math.round(warnRatio * 100) + "% is recommended)";
+                    testResult.ramification = "Searches will regularly read the index from disk, increasing search latency";
+                    testResult.remedy       = "Add at least " + (Math.round(indexSizeMb * warnRatio) - cacheMb) + "MB of RAM, reduce the JVM heap sizes, or move the search index to a dedicated server";
+                }
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+}
@@ -46,9 +46,13 @@ public class IndexDiskSpeedValidator extends AbstractValidator
         startTest(callback, thresholdIndication);
         long speed= -1;
         String indexLocation = (String)parameters.get(PARAMETER_DISK_LOCATION);
+        // sample the device's I/O counters, so that a bad grade can be attributed to saturation or to other processes
+        DiskStatsSampler sampler = new DiskStatsSampler(sigar, findFileSystem(indexLocation));
         try
         {
             progress(callback, "(please wait)");
+            sampler.start();
+            sampler.beginBenchmark();
             String content = "A";
             File file = new File(indexLocation + "/test.txt");
 
@@ -97,6 +101,11 @@ public class IndexDiskSpeedValidator extends AbstractValidator
         {
             e.printStackTrace();
         }
+        finally
+        {
+            sampler.endBenchmark();
+            sampler.stop();
+        }
 
 
         TestResult testResult = new TestResult();
@@ -132,5 +141,6 @@ public class IndexDiskSpeedValidator extends AbstractValidator
 
         endTest(callback, testResult);
 
+        sampler.reportActivity(callback);
     }
 }
@@ -0,0 +1,556 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.alfresco.extension.util.LatencyStatistics;
+
+
+/**
+ * This class is the EVT agent - a small server that is run (via <code>evt --agent</code>) on a remote host, such as
+ * the database server or another cluster node, so that network characteristics between that host and the Alfresco
+ * server can be measured.  It can also be run within the tool as a local stand-in, when no remote agent is
+ * available.
+ * <p>
+ * Clients send a sequence of commands over a TCP connection; each command is a single byte followed by its
+ * arguments:
+ * <pre>
+ *   U bytes                   - the client sends <i>bytes</i> bytes, the agent replies with the number of bytes received
+ *   D bytes bufferSize        - the agent sends <i>bytes</i> bytes, in writes of <i>bufferSize</i> bytes
+ *                               (for both U and D, the agent drops the connection if <i>bytes</i> is more than
+ *                               {@link #MAXIMUM_TRANSFER_BYTES})
+ *   E size data               - the agent echoes the <i>size</i> bytes of data back
+ *   P host port samples       - the agent measures TCP round trip time to the agent at <i>host</i>:<i>port</i>, and
+ *                               replies with the number of successful samples followed by each sample (in ms) -
+ *                               only the requesting client and the hosts given to {@link #addProbeTargets(String)}
+ *                               may be probed, so the agent can't be used to connect to arbitrary hosts
+ *   M group port timeoutMs    - the agent joins the multicast group, replies with a single byte once it has joined,
+ *                               then replies with a boolean once a datagram arrives on the group (or the timeout expires)
+ * </pre>
+ * The agent also echoes UDP datagrams sent to the same port number, but only back to hosts that have connected to it
+ * over TCP (or that may be probed), so that it can't be used to reflect datagrams at arbitrary hosts.  Connections
+ * that are idle for {@link #CLIENT_TIMEOUT_MS} are dropped.
+ *
+ */
+public class NetworkAgent
+    implements Runnable
+{
+    private final static String AGENT_NAME = "Network Agent";
+
+    // Parameters to the agent (and to the validators that use it)
+    public final static String PARAMETER_AGENT_HOSTNAME = AGENT_NAME + ".hostname";
+    public final static String PARAMETER_AGENT_PORT     = AGENT_NAME + ".port";
+
+    public final static int    DEFAULT_PORT             = 17017;
+    public final static long   MAXIMUM_TRANSFER_BYTES   = 1024L * 1024L * 1024L;   // Well above the largest transfer the validators request
+    public final static int    CLIENT_TIMEOUT_MS        = 60000;
+
+    public final static byte   COMMAND_UPLOAD           = (byte)'U';
+    public final static byte   COMMAND_DOWNLOAD         = (byte)'D';
+    public final static byte   COMMAND_ECHO             = (byte)'E';
+    public final static byte   COMMAND_PROBE            = (byte)'P';
+    public final static byte   COMMAND_MULTICAST        = (byte)'M';
+
+    private final static int   MAXIMUM_BUFFER_SIZE      = 4 * 1024 * 1024;
+    private final static int   MAXIMUM_PROBE_SAMPLES    = 1000;
+    private final static int   MAXIMUM_DATAGRAM_SIZE    = 64 * 1024;
+
+    private final InetAddress bindAddress;
+    private final int         port;
+    private final Set         probeTargets   = new HashSet();
+    private final Set         clients        = new HashSet();
+    private ServerSocket      serverSocket   = null;
+    private DatagramSocket    datagramSocket = null;
+
+
+    /**
+     * @param bindAddress The address to listen on <i>(may be null, meaning all addresses)</i>.
+     * @param port        The port to listen on <i>(may be 0, meaning an ephemeral port)</i>.
+     */
+    public NetworkAgent(final InetAddress bindAddress, final int port)
+    {
+        this.bindAddress = bindAddress;
+        this.port        = port;
+    }
+
+
+    /**
+     * @return The agent port provided in the parameters, or the default port if none (or an invalid one) was provided.
+     */
+    public static int getAgentPort(final Map parameters)
+    {
+        int    result = DEFAULT_PORT;
+        String value  = parameters == null ? null : (String)parameters.get(PARAMETER_AGENT_PORT);
+
+        if (value != null)
+        {
+            try
+            {
+                result = Integer.parseInt(value.trim());
+            }
+            catch (NumberFormatException nfe)
+            {
+                result = DEFAULT_PORT;
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Allows the given hosts (eg. the other cluster nodes) to be probed via the P command.
+     *
+     * @param hosts A comma separated list of host[:port] entries - the ports are ignored <i>(may be null)</i>.
+     */
+    public void addProbeTargets(final String hosts)
+    {
+        if (hosts != null)
+        {
+            StringTokenizer tokens = new StringTokenizer(hosts, ",");
+
+            while (tokens.hasMoreTokens())
+            {
+                String host      = tokens.nextToken().trim();
+                int    separator = host.lastIndexOf(':');
+
+                if (separator > 0 && separator == host.indexOf(':'))
+                {
+                    host = host.substring(0, separator);
+                }
+
+                try
+                {
+                    InetAddress[] addresses = InetAddress.getAllByName(host);
+
+                    synchronized(probeTargets)
+                    {
+                        for (int i = 0; i < addresses.length; i++)
+                        {
+                            probeTargets.add(addresses[i]);
+                        }
+                    }
+                }
+                catch (UnknownHostException uhe)
+                {
+                    System.err.println(AGENT_NAME + ": unable to resolve " + host + " - it won't be probed");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return True if the given host may be probed on behalf of the given client.
+     */
+    private boolean isProbeTarget(final String host, final InetAddress client)
+    {
+        boolean result = false;
+
+        try
+        {
+            InetAddress target = InetAddress.getByName(host);
+
+            synchronized(probeTargets)
+            {
+                result = target.equals(client) || probeTargets.contains(target);
+            }
+        }
+        catch (UnknownHostException uhe)
+        {
+            result = false;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return True if datagrams may be echoed back to the given address.
+     */
+    private boolean isKnownClient(final InetAddress address)
+    {
+        boolean result = address.isLoopbackAddress();
+
+        if (!result)
+        {
+            synchronized(clients)
+            {
+                result = clients.contains(address);
+            }
+        }
+
+        if (!result)
+        {
+            synchronized(probeTargets)
+            {
+                result = probeTargets.contains(address);
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Starts listening, without accepting connections (that's done by {@link #run()}).
+     */
+    public void bind()
+        throws IOException
+    {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+
+        try
+        {
+            datagramSocket = new DatagramSocket(new InetSocketAddress(bindAddress, serverSocket.getLocalPort()));
+        }
+        catch (IOException ioe)
+        {
+            close();
+            throw ioe;
+        }
+    }
+
+
+    /**
+     * Starts the agent in a background (daemon) thread, for use as a local stand-in.
+     */
+    public void start()
+        throws IOException
+    {
+        bind();
+
+        Thread thread = new Thread(this, AGENT_NAME);
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * @return The port the agent is listening on.
+     */
+    public int getLocalPort()
+    {
+        return(serverSocket == null ? port : serverSocket.getLocalPort());
+    }
+
+
+    public void close()
+    {
+        if (serverSocket != null)
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+        }
+
+        if (datagramSocket != null)
+        {
+            datagramSocket.close();
+        }
+    }
+
+
+    /**
+     * Accepts connections until the agent is closed, handling each one in its own thread.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        Thread echoer = new Thread(AGENT_NAME + " UDP")
+        {
+            public void run()
+            {
+                echoDatagrams();
+            }
+        };
+
+        echoer.setDaemon(true);
+        echoer.start();
+
+        try
+        {
+            while (!serverSocket.isClosed())
+            {
+                final Socket socket = serverSocket.accept();
+
+                synchronized(clients)
+                {
+                    clients.add(socket.getInetAddress());
+                }
+
+                Thread handler = new Thread(AGENT_NAME + " " + socket.getRemoteSocketAddress())
+                {
+                    public void run()
+                    {
+                        handle(socket);
+                    }
+                };
+
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+        catch (SocketException se)
+        {
+            // The agent was closed
+        }
+        catch (IOException ioe)
+        {
+            System.err.println(AGENT_NAME + ": " + ioe.getMessage());
+        }
+    }
+
+
+    private void handle(final Socket socket)
+    {
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CLIENT_TIMEOUT_MS);
+
+            DataInputStream  in  = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            while (true)
+            {
+                byte command = in.readByte();
+
+                if (command == COMMAND_UPLOAD)
+                {
+                    long   bytes  = in.readLong();
+                    byte[] buffer = new byte[64 * 1024];
+                    long   read   = 0;
+
+                    if (!isValidTransfer(bytes, socket))
+                    {
+                        break;
+                    }
+
+                    while (read < bytes)
+                    {
+                        int count = in.read(buffer, 0, (int)Math.min(buffer.length, bytes - read));
+
+                        if (count < 0)
+                        {
+                            throw new EOFException();
+                        }
+
+                        read += count;
+                    }
+
+                    out.writeLong(read);
+                    out.flush();
+                }
+                else if (command == COMMAND_DOWNLOAD)
+                {
+                    long   bytes   = in.readLong();
+                    int    size    = Math.max(1, Math.min(in.readInt(), MAXIMUM_BUFFER_SIZE));
+                    byte[] buffer  = new byte[size];
+                    long   written = 0;
+
+                    if (!isValidTransfer(bytes, socket))
+                    {
+                        break;
+                    }
+
+                    while (written < bytes)
+                    {
+                        int count = (int)Math.min(buffer.length, bytes - written);
+
+                        out.write(buffer, 0, count);
+                        written += count;
+                    }
+
+                    out.flush();
+                }
+                else if (command == COMMAND_ECHO)
+                {
+                    byte[] buffer = new byte[Math.max(0, Math.min(in.readInt(), MAXIMUM_BUFFER_SIZE))];
+
+                    in.readFully(buffer);
+                    out.write(buffer);
+                    out.flush();
+                }
+                else if (command == COMMAND_PROBE)
+                {
+                    String            host       = in.readUTF();
+                    int               targetPort = in.readInt();
+                    int               samples    = Math.max(0, Math.min(in.readInt(), MAXIMUM_PROBE_SAMPLES));
+                    LatencyStatistics latencies  = new LatencyStatistics(0);
+
+                    if (isProbeTarget(host, socket.getInetAddress()))
+                    {
+                        try
+                        {
+                            latencies = NetworkAgentClient.tcpEcho(new InetSocketAddress(host, targetPort), samples);
+                        }
+                        catch (IOException ioe)
+                        {
+                            latencies = new LatencyStatistics(0);
+                        }
+                    }
+                    else
+                    {
+                        System.err.println(AGENT_NAME + ": refused to probe " + host + ":" + targetPort + " for " + socket.getInetAddress().getHostAddress() + " (not a probe target)");
+                    }
+
+                    double[] values = latencies.getSamples();
+
+                    out.writeInt(values.length);
+
+                    for (int i = 0; i < values.length; i++)
+                    {
+                        out.writeDouble(values[i]);
+                    }
+
+                    out.flush();
+                }
+                else if (command == COMMAND_MULTICAST)
+                {
+                    InetAddress     group     = InetAddress.getByName(in.readUTF());
+                    int             groupPort = in.readInt();
+                    int             timeoutMs = in.readInt();
+                    MulticastSocket multicast = new MulticastSocket(groupPort);
+                    boolean         received  = false;
+
+                    try
+                    {
+                        multicast.joinGroup(group);
+                        multicast.setSoTimeout(Math.max(1, timeoutMs));
+                        out.writeByte(1);
+                        out.flush();
+
+                        multicast.receive(new DatagramPacket(new byte[MAXIMUM_DATAGRAM_SIZE], MAXIMUM_DATAGRAM_SIZE));
+                        received = true;
+                    }
+                    catch (SocketTimeoutException ste)
+                    {
+                        received = false;
+                    }
+                    finally
+                    {
+                        multicast.close();
+                    }
+
+                    out.writeBoolean(received);
+                    out.flush();
+                }
+                else
+                {
+                    break;   // Unknown command - drop the connection
+                }
+            }
+        }
+        catch (EOFException eofe)
+        {
+            // The client closed the connection
+        }
+        catch (IOException ioe)
+        {
+            // The client went away - nothing else to do
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+        }
+    }
+
+
+    private boolean isValidTransfer(final long bytes, final Socket socket)
+    {
+        boolean result = bytes >= 0 && bytes <= MAXIMUM_TRANSFER_BYTES;
+
+        if (!result)
+        {
+            System.err.println(AGENT_NAME + ": refused to transfer " + bytes + " bytes for " + socket.getInetAddress().getHostAddress() + " (more than " + MAXIMUM_TRANSFER_BYTES + ")");
+        }
+
+        return(result);
+    }
+
+
+    private void echoDatagrams()
+    {
+        DatagramPacket packet = new DatagramPacket(new byte[MAXIMUM_DATAGRAM_SIZE], MAXIMUM_DATAGRAM_SIZE);
+
+        try
+        {
+            while (!datagramSocket.isClosed())
+            {
+                packet.setLength(MAXIMUM_DATAGRAM_SIZE);
+                datagramSocket.receive(packet);
+
+                if (isKnownClient(packet.getAddress()))
+                {
+                    datagramSocket.send(packet);
+                }
+            }
+        }
+        catch (IOException ioe)
+        {
+            // The agent was closed
+        }
+    }
+
+}
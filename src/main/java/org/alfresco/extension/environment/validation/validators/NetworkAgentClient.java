@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CountDownLatch;
+
+import org.alfresco.extension.util.LatencyStatistics;
+import org.alfresco.extension.util.Pair;
+
+
+/**
+ * This class contains the client side of the {@link NetworkAgent} protocol, for use by the network related validators
+ * (and by agents, when asked to probe another agent).
+ *
+ */
+public final class NetworkAgentClient
+{
+    public final static int   CONNECT_TIMEOUT_MS    = 2000;
+    public final static int   ECHO_SIZE             = 64;
+
+    private final static long BYTES_PER_MB          = 1024L * 1024L;
+    private final static long MULTICAST_INTERVAL_MS = 100;
+    private final static long MINIMUM_BYTES_PER_MS  = BYTES_PER_MB / 1000;   // Transfers slower than 1MB/s are abandoned
+
+
+    private NetworkAgentClient()
+    {
+    }
+
+
+    /**
+     * @return True if an agent (or anything else) is listening on the given host and port.
+     */
+    public static boolean isReachable(final String hostname, final int port)
+    {
+        boolean result = false;
+        Socket  socket = new Socket();
+
+        try
+        {
+            socket.connect(new InetSocketAddress(hostname, port), CONNECT_TIMEOUT_MS);
+            result = true;
+        }
+        catch (IOException ioe)
+        {
+            result = false;
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Measures TCP round trip time to an agent, by echoing small messages over a single connection (so that
+     * connection setup isn't included).
+     *
+     * @return The round trip time of each echo.
+     */
+    public static LatencyStatistics tcpEcho(final InetSocketAddress address, final int samples)
+        throws IOException
+    {
+        LatencyStatistics result = new LatencyStatistics(samples);
+        Socket            socket = new Socket();
+        byte[]            buffer = new byte[ECHO_SIZE];
+
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+
+            DataInputStream  in  = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            for (int i = 0; i < samples; i++)
+            {
+                long startTime = System.nanoTime();
+
+                out.writeByte(NetworkAgent.COMMAND_ECHO);
+                out.writeInt(buffer.length);
+                out.write(buffer);
+                out.flush();
+                in.readFully(buffer);
+
+                result.addNanos(startTime, System.nanoTime());
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Asks an agent to measure TCP round trip time to another agent.
+     *
+     * @return The round trip time of each echo, as measured by the agent <i>(empty if the agent couldn't reach the target)</i>.
+     */
+    public static LatencyStatistics remoteTcpEcho(final InetSocketAddress agent, final String targetHost, final int targetPort, final int samples)
+        throws IOException
+    {
+        LatencyStatistics result = new LatencyStatistics(samples);
+        Socket            socket = new Socket();
+
+        try
+        {
+            socket.connect(agent, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS * (samples + 1));
+
+            DataInputStream  in  = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            out.writeByte(NetworkAgent.COMMAND_PROBE);
+            out.writeUTF(targetHost);
+            out.writeInt(targetPort);
+            out.writeInt(samples);
+            out.flush();
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++)
+            {
+                result.add(in.readDouble());
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Measures UDP round trip time to an agent.
+     *
+     * @return Pair, containing:
+     *            LatencyStatistics: the round trip time of each datagram that was echoed
+     *            Integer:           the number of datagrams that weren't echoed within the timeout
+     */
+    public static Pair udpEcho(final InetSocketAddress address, final int samples, final int timeoutMs)
+        throws IOException
+    {
+        LatencyStatistics latencies = new LatencyStatistics(samples);
+        int               lost      = 0;
+        DatagramSocket    socket    = new DatagramSocket();
+
+        try
+        {
+            DatagramPacket request  = new DatagramPacket(new byte[ECHO_SIZE], ECHO_SIZE, address);
+            DatagramPacket response = new DatagramPacket(new byte[ECHO_SIZE], ECHO_SIZE);
+
+            socket.setSoTimeout(timeoutMs);
+
+            for (int i = 0; i < samples; i++)
+            {
+                // Each datagram carries its sequence number, so that late echoes of earlier datagrams are ignored
+                request.getData()[0] = (byte)i;
+
+                long startTime = System.nanoTime();
+
+                socket.send(request);
+
+                try
+                {
+                    do
+                    {
+                        response.setLength(ECHO_SIZE);
+                        socket.receive(response);
+                    }
+                    while (response.getData()[0] != (byte)i);
+
+                    latencies.addNanos(startTime, System.nanoTime());
+                }
+                catch (SocketTimeoutException ste)
+                {
+                    lost++;
+                }
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+
+        return(new Pair(latencies, new Integer(lost)));
+    }
+
+
+    /**
+     * Determines whether multicast datagrams sent from this server to the given group reach an agent.
+     */
+    public static boolean multicast(final InetSocketAddress agent, final InetAddress group, final int groupPort, final int timeoutMs)
+        throws IOException
+    {
+        boolean         result    = false;
+        Socket          socket    = new Socket();
+        MulticastSocket multicast = new MulticastSocket();
+
+        try
+        {
+            socket.connect(agent, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS + timeoutMs);
+
+            DataInputStream  in  = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+            out.writeByte(NetworkAgent.COMMAND_MULTICAST);
+            out.writeUTF(group.getHostAddress());
+            out.writeInt(groupPort);
+            out.writeInt(timeoutMs);
+            out.flush();
+
+            in.readByte();   // The agent has joined the group
+
+            DatagramPacket packet   = new DatagramPacket(new byte[ECHO_SIZE], ECHO_SIZE, group, groupPort);
+            long           deadline = System.currentTimeMillis() + timeoutMs;
+
+            multicast.setTimeToLive(32);
+
+            // Keep sending until the agent replies, as the first datagrams may be sent before the group membership has propagated
+            while (System.currentTimeMillis() < deadline && in.available() == 0)
+            {
+                multicast.send(packet);
+
+                try
+                {
+                    Thread.sleep(MULTICAST_INTERVAL_MS);
+                }
+                catch (InterruptedException ie)
+                {
+                    break;
+                }
+            }
+
+            result = in.readBoolean();
+        }
+        finally
+        {
+            multicast.close();
+            socket.close();
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * Streams data to (or from) an agent.  The transfer is abandoned if it doesn't complete within the time it would
+     * take at 1MB/s, so that a stalled agent (or something other than an agent listening on the port) can't hang the
+     * caller.  At most {@link NetworkAgent#MAXIMUM_TRANSFER_BYTES} are transferred, as agents refuse larger transfers.
+     *
+     * @return The aggregate throughput of the streams, in MB/s.
+     */
+    public static double measureThroughput(final InetSocketAddress address, final boolean upload, final int bufferSize, final int streams, final long totalBytes)
+        throws IOException,
+               InterruptedException
+    {
+        CountDownLatch startSignal = new CountDownLatch(1);
+        Transfer[]     transfers   = new Transfer[streams];
+        Thread[]       threads     = new Thread[streams];
+        long           streamBytes = Math.min(totalBytes, NetworkAgent.MAXIMUM_TRANSFER_BYTES) / streams;
+        long           timeoutMs   = CONNECT_TIMEOUT_MS + streamBytes * streams / MINIMUM_BYTES_PER_MS;
+        long           elapsed     = 0;
+
+        try
+        {
+            // Connect all of the streams before timing starts
+            for (int i = 0; i < streams; i++)
+            {
+                transfers[i] = new Transfer(address, upload, bufferSize, streamBytes, (int)Math.min(timeoutMs, Integer.MAX_VALUE), startSignal);
+                threads[i]   = new Thread(transfers[i]);
+                threads[i].setDaemon(true);
+                threads[i].start();
+            }
+
+            long startTime = System.nanoTime();
+            long deadline  = System.currentTimeMillis() + timeoutMs;
+
+            startSignal.countDown();
+
+            for (int i = 0; i < streams; i++)
+            {
+                threads[i].join(Math.max(1, deadline - System.currentTimeMillis()));
+
+                if (threads[i].isAlive())
+                {
+                    throw new IOException("Transfer did not complete within " + timeoutMs + "ms (less than 1MB/s)");
+                }
+            }
+
+            elapsed = System.nanoTime() - startTime;
+        }
+        finally
+        {
+            startSignal.countDown();
+
+            for (int i = 0; i < streams; i++)
+            {
+                if (transfers[i] != null)
+                {
+                    transfers[i].close();
+                }
+            }
+        }
+
+        for (int i = 0; i < streams; i++)
+        {
+            if (transfers[i].error != null)
+            {
+                throw transfers[i].error;
+            }
+        }
+
+        return((streamBytes * streams) / (double)BYTES_PER_MB / (elapsed / 1000000000.0));
+    }
+
+
+    /*
+     * A single stream - connects when constructed, then transfers its share of the data when signalled.
+     */
+    private static class Transfer
+        implements Runnable
+    {
+        private final Socket         socket;
+        private final boolean        upload;
+        private final int            bufferSize;
+        private final long           bytes;
+        private final CountDownLatch startSignal;
+        private IOException          error = null;
+
+        public Transfer(final InetSocketAddress address, final boolean upload, final int bufferSize, final long bytes, final int timeoutMs, final CountDownLatch startSignal)
+            throws IOException
+        {
+            this.socket      = new Socket();
+            this.upload      = upload;
+            this.bufferSize  = bufferSize;
+            this.bytes       = bytes;
+            this.startSignal = startSignal;
+
+            // Buffer sizes must be set before connecting, for the TCP window scale to be negotiated
+            socket.setSendBufferSize(bufferSize);
+            socket.setReceiveBufferSize(bufferSize);
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(timeoutMs);
+        }
+
+        public void run()
+        {
+            try
+            {
+                startSignal.await();
+
+                InputStream      rawIn  = socket.getInputStream();
+                OutputStream     rawOut = socket.getOutputStream();
+                DataOutputStream out    = new DataOutputStream(rawOut);
+                byte[]           buffer = new byte[bufferSize];
+
+                if (upload)
+                {
+                    out.writeByte(NetworkAgent.COMMAND_UPLOAD);
+                    out.writeLong(bytes);
+
+                    for (long written = 0; written < bytes; written += buffer.length)
+                    {
+                        rawOut.write(buffer, 0, (int)Math.min(buffer.length, bytes - written));
+                    }
+
+                    rawOut.flush();
+
+                    // Wait for the agent to acknowledge receipt of everything
+                    if (new DataInputStream(rawIn).readLong() != bytes)
+                    {
+                        throw new IOException("Agent did not receive all of the data");
+                    }
+                }
+                else
+                {
+                    out.writeByte(NetworkAgent.COMMAND_DOWNLOAD);
+                    out.writeLong(bytes);
+                    out.writeInt(bufferSize);
+                    out.flush();
+
+                    long read = 0;
+
+                    while (read < bytes)
+                    {
+                        int count = rawIn.read(buffer, 0, (int)Math.min(buffer.length, bytes - read));
+
+                        if (count < 0)
+                        {
+                            throw new EOFException("Agent closed the connection after " + read + " of " + bytes + " bytes");
+                        }
+
+                        read += count;
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                error = ioe;
+            }
+            catch (InterruptedException ie)
+            {
+                error = new IOException("Interrupted");
+            }
+        }
+
+        public void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+        }
+    }
+
+}
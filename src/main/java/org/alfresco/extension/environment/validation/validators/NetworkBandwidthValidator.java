@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+
+import org.hyperic.sigar.SigarException;
+import org.hyperic.sigar.Tcp;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+import org.alfresco.extension.util.Pair;
+
+
+/**
+ * This class validates the network bandwidth between the Alfresco server and the database server, by streaming
+ * data in both directions to an EVT agent (<code>evt --agent</code>) running on the database server.  If no agent
+ * is reachable, a local stand-in agent is used instead - that only exercises this server's network stack, but
+ * still catches misconfigured socket buffers and a saturated host.
+ *
+ */
+public class NetworkBandwidthValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Network Bandwidth";
+
+    private final static String[] DEFAULT_BUFFER_SIZES_KB       = { "8", "64", "256" };
+    private final static String[] DEFAULT_STREAMS               = { "1", "4" };
+    private final static long     DEFAULT_TRANSFER_MB           = 64;
+    private final static double   DEFAULT_WARN_MBS              = 50.0;    // Less than half of a gigabit link
+    private final static double   DEFAULT_FAIL_MBS              = 10.0;    // A 100 megabit link
+    private final static double   DEFAULT_RETRANSMIT_WARN_RATIO = 0.001;
+
+    private final static long     BYTES_PER_MB                  = 1024L * 1024L;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        Pair agent = validateAgent(callback, parameters);
+
+        if (agent != null)
+        {
+            InetSocketAddress address = (InetSocketAddress)agent.getFirst();
+            NetworkAgent      standIn = (NetworkAgent)agent.getSecond();
+            Tcp               before  = getTcp();
+
+            try
+            {
+                validateThroughput(callback, address, true,  standIn != null);
+                validateThroughput(callback, address, false, standIn != null);
+
+                // Loopback traffic is never retransmitted, so against a stand-in the counters would only reflect other traffic
+                if (standIn == null)
+                {
+                    validateRetransmits(callback, before, getTcp());
+                }
+            }
+            finally
+            {
+                if (standIn != null)
+                {
+                    standIn.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return Pair containing:
+     *            InetSocketAddress: the address of the agent
+     *            NetworkAgent:      the local stand-in agent, if one was started <i>(may be null)</i>
+     *         or null if no agent is available.
+     */
+    private Pair validateAgent(final ValidatorCallback callback, final Map parameters)
+    {
+        startTest(callback, "Bandwidth Agent");
+
+        TestResult testResult = new TestResult();
+        Pair       result     = null;
+        String     hostname   = parameters == null ? null : (String)parameters.get(NetworkAgent.PARAMETER_AGENT_HOSTNAME);
+        int        port       = NetworkAgent.getAgentPort(parameters);
+
+        if (hostname == null && parameters != null)
+        {
+            hostname = (String)parameters.get(DBValidator.PARAMETER_DATABASE_HOSTNAME);
+        }
+
+        if (hostname != null && NetworkAgentClient.isReachable(hostname, port))
+        {
+            progress(callback, hostname + ":" + port);
+
+            result                = new Pair(new InetSocketAddress(hostname, port), null);
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            NetworkAgent standIn = null;
+
+            try
+            {
+                standIn = new NetworkAgent(InetAddress.getByName("127.0.0.1"), 0);
+                standIn.start();
+
+                progress(callback, "local stand-in");
+
+                result                  = new Pair(new InetSocketAddress("127.0.0.1", standIn.getLocalPort()), standIn);
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "No EVT agent is reachable" + (hostname == null ? "" : " at " + hostname + ":" + port) + " - bandwidth is being measured against a local stand-in, which only exercises this server's network stack";
+                testResult.remedy       = "Run 'evt --agent [-ap port]' on the database server, then rerun this tool (with -ah agentHost if the agent isn't on the database server)";
+            }
+            catch (IOException ioe)
+            {
+                if (standIn != null)
+                {
+                    standIn.close();
+                }
+
+                progress(callback, "unavailable");
+
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Unable to start a local stand-in agent: " + ioe.getMessage();
+                testResult.ramification = "Network bandwidth could not be measured";
+                testResult.remedy       = "Manually measure network bandwidth between the Alfresco server and the database server (eg. using iperf)";
+                testResult.rootCause    = ioe;
+            }
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    /*
+     * Measures throughput for each combination of socket buffer size and number of parallel streams, and grades
+     * the best of them (the others are reported, as they show whether buffer sizes or parallelism are the limit).
+     * Against a loopback stand-in only this server's network stack is measured, so the result is informational.
+     */
+    private void validateThroughput(final ValidatorCallback callback, final InetSocketAddress address, final boolean upload, final boolean loopback)
+    {
+        startTest(callback, upload ? "Upload Throughput" : "Download Throughput");
+
+        TestResult   testResult   = new TestResult();
+        int[]        bufferSizes  = PerformanceConfiguration.getPositiveIntArray("bandwidth.buffer.sizes.kb", DEFAULT_BUFFER_SIZES_KB);
+        int[]        streamCounts = PerformanceConfiguration.getPositiveIntArray("bandwidth.streams",         DEFAULT_STREAMS);
+        long         totalBytes   = PerformanceConfiguration.getLong("bandwidth.transfer.mb", DEFAULT_TRANSFER_MB) * BYTES_PER_MB;
+        double       warnMbs      = PerformanceConfiguration.getDouble("bandwidth.warn.mbs",  DEFAULT_WARN_MBS);
+        double       failMbs      = PerformanceConfiguration.getDouble("bandwidth.fail.mbs",  DEFAULT_FAIL_MBS);
+        StringBuffer results      = new StringBuffer();
+        double       best         = -1.0;
+
+        try
+        {
+            for (int i = 0; i < bufferSizes.length; i++)
+            {
+                int bufferSize = bufferSizes[i] * 1024;
+
+                for (int j = 0; j < streamCounts.length; j++)
+                {
+                    int    streams = streamCounts[j];
+                    String label   = bufferSizes[i] + "KBx" + streams;
+                    double mbs     = NetworkAgentClient.measureThroughput(address, upload, bufferSize, streams, totalBytes);
+
+                    progress(callback, label + " " + LatencyStatistics.format(mbs) + "MB/s ");
+                    results.append((results.length() == 0 ? "" : ", ") + label + ": " + LatencyStatistics.format(mbs) + "MB/s");
+
+                    best = Math.max(best, mbs);
+                }
+            }
+
+            if (loopback)
+            {
+                progress(callback, "(loopback)");
+
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = (upload ? "Upload" : "Download") + " throughput over a loopback path to a local stand-in is " + LatencyStatistics.format(best) + "MB/s (" + results + ") - " +
+                                          "this reflects this server's network stack only, not the network to the database server";
+                testResult.remedy       = "Run 'evt --agent [-ap port]' on the database server, then rerun this tool to measure the network to it";
+            }
+            else if (best < failMbs)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = (upload ? "Upload" : "Download") + " throughput to the database server is " + LatencyStatistics.format(best) + "MB/s (" + results + "), less than " + LatencyStatistics.format(failMbs) + "MB/s";
+                testResult.ramification = "Alfresco's performance will be significantly degraded, particularly when loading large numbers of node properties";
+                testResult.remedy       = "Ensure the Alfresco server and database server are connected by at least a gigabit network";
+            }
+            else if (best < warnMbs)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = (upload ? "Upload" : "Download") + " throughput to the database server is " + LatencyStatistics.format(best) + "MB/s (" + results + "), less than " + LatencyStatistics.format(warnMbs) + "MB/s";
+                testResult.ramification = "Alfresco's performance may be degraded, particularly when loading large numbers of node properties";
+                testResult.remedy       = "Review the network connection between the Alfresco server and the database server (eg. link speed, duplex settings, congestion)";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+        catch (IOException ioe)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to measure " + (upload ? "upload" : "download") + " throughput: " + ioe.getMessage();
+            testResult.ramification = "Alfresco's performance may be degraded";
+            testResult.remedy       = "Manually measure network bandwidth between the Alfresco server and the database server (eg. using iperf)";
+            testResult.rootCause    = ioe;
+        }
+        catch (InterruptedException ie)
+        {
+            progress(callback, "interrupted");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Interrupted while measuring " + (upload ? "upload" : "download") + " throughput";
+            testResult.rootCause    = ie;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /*
+     * Note: the TCP counters are system wide, so other traffic on this server is included.
+     */
+    private void validateRetransmits(final ValidatorCallback callback, final Tcp before, final Tcp after)
+    {
+        startTest(callback, "TCP Retransmits");
+
+        TestResult testResult = new TestResult();
+
+        if (before != null && after != null)
+        {
+            long   sent        = after.getOutSegs()     - before.getOutSegs();
+            long   retransmits = after.getRetransSegs() - before.getRetransSegs();
+            double ratio       = sent <= 0 ? 0.0 : (double)retransmits / sent;
+            double warnRatio   = PerformanceConfiguration.getDouble("bandwidth.retransmit.warn.ratio", DEFAULT_RETRANSMIT_WARN_RATIO);
+
+            progress(callback, retransmits + " of " + sent + " segments");
+
+            if (ratio <= warnRatio)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = LatencyStatistics.format(ratio * 100.0) + "% of TCP segments were retransmitted during the bandwidth tests (more than " + LatencyStatistics.format(warnRatio * 100.0) + "%)";
+                testResult.ramification = "Packet loss will reduce throughput and cause latency spikes between Alfresco and the database";
+                testResult.remedy       = "Review the network connection for packet loss (eg. faulty cabling, duplex mismatches, overloaded switches)";
+            }
+        }
+        else
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Unable to read TCP retransmission counters on this OS";
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private Tcp getTcp()
+    {
+        Tcp result = null;
+
+        try
+        {
+            result = sigar.getTcp();
+        }
+        catch (SigarException se)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+}
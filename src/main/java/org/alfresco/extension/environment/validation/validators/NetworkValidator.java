@@ -25,16 +25,34 @@
 
 package org.alfresco.extension.environment.validation.validators;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.alfresco.extension.environment.validation.*;
+import org.alfresco.extension.util.LatencyHistogram;
+import org.alfresco.extension.util.LatencyStatistics;
 import org.alfresco.extension.util.Pair;
+import org.alfresco.extension.util.TcpConnectProbe;
 import org.alfresco.extension.util.Triple;
+import org.hyperic.sigar.NetFlags;
+import org.hyperic.sigar.NetInterfaceConfig;
+import org.hyperic.sigar.SigarException;
 
 
 /**
@@ -49,7 +67,8 @@ public class NetworkValidator
     private final static String VALIDATION_TOPIC = "Network";
     
     // Parameters to this validator
-    // None 
+    public final static String PARAMETER_BIND_ADDRESS   = VALIDATION_TOPIC + ".bindAddress";
+    public final static String PARAMETER_SAMPLE_MINUTES = VALIDATION_TOPIC + ".sampleMinutes";
     
     // Generic (non-CIFS) port number validation rules - please feel free to add others as necessary
     private final PortValidationRule[] TCP_PORTS = {
@@ -99,6 +118,31 @@ public class NetworkValidator
     private  final static BigDecimal MAXIMUM_PACKET_LOSS            = new BigDecimal(0.0);
     private  final static BigDecimal MAXIMUM_AVG_RESPONSE_TIME_MS   = new BigDecimal(10.0);
     private  final static BigDecimal MAXIMUM_STDEV_RESPONSE_TIME_MS = MAXIMUM_AVG_RESPONSE_TIME_MS.divide((new BigDecimal(10.0)), BigDecimal.ROUND_UP);    // 1/10 of the average
+    private  final static int        PORT_SCAN_THREADS              = 8;
+    private  final static int        MAXIMUM_OWNER_ARGS_LENGTH      = 120;
+    
+    // TCP connect probe
+    private  final static int        DEFAULT_PROBE_SAMPLES          = 50;
+    private  final static int        DEFAULT_PROBE_MYSQL_SAMPLES    = 8;     // MySQL blocks hosts after max_connect_errors (10 by default in 5.5) aborted handshakes
+    private  final static int        DEFAULT_PROBE_BURST            = 10;
+    private  final static long       DEFAULT_PROBE_PAUSE_MS         = 200;
+    private  final static int        DEFAULT_PROBE_TIMEOUT_MS       = 2000;
+    private  final static double     DEFAULT_MAXIMUM_P99_MS         = 20.0;
+    
+    // Long duration sampling
+    private  final static long       DEFAULT_SAMPLING_INTERVAL_MS   = 1000;
+    private  final static int        DEFAULT_SAMPLING_WINDOW_S      = 60;
+    private  final static double     DEFAULT_SPIKE_MULTIPLIER       = 5.0;
+    private  final static double     DEFAULT_SPIKE_MINIMUM_MS       = 5.0;
+    private  final static double     DEFAULT_SPIKES_PER_HOUR_WARN   = 6.0;
+    private  final static double     BASELINE_WEIGHT                = 0.05;   // Weight of each (non spike) sample in the moving baseline
+    
+    // Path MTU probing
+    private  final static int        MINIMUM_MTU                    = 576;    // The minimum IPv4 datagram size every host must accept
+    private  final static int        ICMP_HEADERS_SIZE              = 28;     // IPv4 (20 bytes) + ICMP echo (8 bytes) headers
+    private  final static int        MTU_PING_TIMEOUT_MS            = 2000;
+    private  final static int        MTU_PING_ATTEMPTS              = 3;      // A size is only "too big" if every attempt is lost, so packet loss isn't mistaken for it
+    private  final static int        MTU_ROUTE_PORT                 = 9;      // Discard - any port will do, since nothing is sent
     
     
     
@@ -112,8 +156,7 @@ public class NetworkValidator
         String databaseHostname = parameters == null ? null : (String)parameters.get(DBValidator.PARAMETER_DATABASE_HOSTNAME);
         
         validateHostname(callback);
-        validateTcpPorts(callback);
-        validateUdpPorts(callback);
+        validatePorts(callback, parameters == null ? null : (String)parameters.get(PARAMETER_BIND_ADDRESS));
         
         if (isWindows())
         {
@@ -122,32 +165,79 @@ public class NetworkValidator
         
         if (validateDatabaseParameters(callback, databaseHostname))
         {
-            validateDatabaseNetworkLatency(callback, databaseHostname); 
+            validateDatabaseNetworkLatency(callback, parameters, databaseHostname); 
+            validatePathMtu(callback, databaseHostname);
+            validateLongDurationLatency(callback, parameters, databaseHostname);
         }
     }
     
     
-    private void validateTcpPorts(final ValidatorCallback callback)
+    /*
+     * Checks all of the port rules at once - each port is bound on the wildcard address and on the specific address
+     * Alfresco will bind to, since a process listening on either one will prevent Alfresco from starting.
+     */
+    private void validatePorts(final ValidatorCallback callback, final String bindAddress)
     {
-        if (TCP_PORTS != null)
+        InetAddress[]   addresses = getBindAddresses(bindAddress);
+        ExecutorService executor  = Executors.newFixedThreadPool(PORT_SCAN_THREADS);
+        Future[]        tcpChecks = new Future[TCP_PORTS.length];
+        Future[]        udpChecks = new Future[UDP_PORTS.length];
+        
+        try
         {
             for (int i = 0; i < TCP_PORTS.length; i++)
             {
-                validateTcpPort(callback, TCP_PORTS[i].portNumber, TCP_PORTS[i].portDescription, TCP_PORTS[i].unableToBindResultType, TCP_PORTS[i].ramification, TCP_PORTS[i].remedy);
+                tcpChecks[i] = executor.submit(new PortCheck(true, TCP_PORTS[i].portNumber, addresses));
+            }
+            
+            for (int i = 0; i < UDP_PORTS.length; i++)
+            {
+                udpChecks[i] = executor.submit(new PortCheck(false, UDP_PORTS[i].portNumber, addresses));
+            }
+            
+            for (int i = 0; i < TCP_PORTS.length; i++)
+            {
+                validatePort(callback, true, TCP_PORTS[i], tcpChecks[i]);
+            }
+            
+            for (int i = 0; i < UDP_PORTS.length; i++)
+            {
+                validatePort(callback, false, UDP_PORTS[i], udpChecks[i]);
             }
         }
+        finally
+        {
+            executor.shutdownNow();
+        }
     }
-
     
-    private void validateUdpPorts(final ValidatorCallback callback)
+    
+    /*
+     * Returns the addresses to check ports on - null represents the wildcard address.  If no bind address is provided,
+     * the address of the local host is used (unless it's a loopback address).
+     */
+    private InetAddress[] getBindAddresses(final String bindAddress)
     {
-        if (UDP_PORTS != null)
+        List    result   = new ArrayList();
+        boolean provided = bindAddress != null && bindAddress.trim().length() > 0;   // An empty bind address is treated as not provided
+        
+        result.add(null);
+        
+        try
         {
-            for (int i = 0; i < UDP_PORTS.length; i++)
+            InetAddress address = provided ? InetAddress.getByName(bindAddress.trim()) : InetAddress.getLocalHost();
+            
+            if (provided || !address.isLoopbackAddress())
             {
-                validateUdpPort(callback, UDP_PORTS[i].portNumber, UDP_PORTS[i].portDescription, UDP_PORTS[i].unableToBindResultType, UDP_PORTS[i].ramification, UDP_PORTS[i].remedy);
+                result.add(address);
             }
         }
+        catch (UnknownHostException uhe)
+        {
+            // Ignore it and only check the wildcard address - the hostname tests report unresolvable hostnames
+        }
+        
+        return((InetAddress[])result.toArray(new InetAddress[result.size()]));
     }
     
     
@@ -188,18 +278,30 @@ public class NetworkValidator
     }
     
     
-    private void validateTcpPort(final ValidatorCallback callback,
-                                 final int               portNumber,
-                                 final String            portDescription,
-                                 final int               failureResultType,
-                                 final String            ramification,
-                                 final String            remedy)
+    private void validatePort(final ValidatorCallback  callback,
+                              final boolean            isTcp,
+                              final PortValidationRule rule,
+                              final Future             check)
     {
         TestResult testResult = new TestResult();
         
-        startTest(callback, "TCP " + portNumber + (portDescription == null ? "" : (" (" + portDescription + ")")));
+        startTest(callback, (isTcp ? "TCP " : "UDP ") + rule.portNumber + (rule.portDescription == null ? "" : (" (" + rule.portDescription + ")")));
+        
+        Triple result = null;
+        
+        try
+        {
+            result = (Triple)check.get();
+        }
+        catch (InterruptedException ie)
+        {
+            result = new Triple(Boolean.FALSE, null, ie);
+        }
+        catch (ExecutionException ee)
+        {
+            result = new Triple(Boolean.FALSE, null, ee.getCause());
+        }
         
-        Pair    result  = checkTcpPort(portNumber);
         boolean success = ((Boolean)result.getFirst()).booleanValue();
         
         if (success)
@@ -209,13 +311,16 @@ public class NetworkValidator
         }
         else
         {
-            progress(callback, "unavailable");
-            Exception rootCause = (Exception)result.getSecond();
+            InetAddress failedAddress = (InetAddress)result.getSecond();
+            Throwable   rootCause     = (Throwable)result.getThird();
+            String      owner         = findPortOwner(isTcp, rule.portNumber);
+            
+            progress(callback, "unavailable" + (failedAddress == null ? "" : " on " + failedAddress.getHostAddress()));
             
-            testResult.resultType   = failureResultType;
-            testResult.errorMessage = rootCause == null ? null : rootCause.getMessage();
-            testResult.ramification = ramification;
-            testResult.remedy       = remedy;
+            testResult.resultType   = rule.unableToBindResultType;
+            testResult.errorMessage = (rootCause == null ? "Unable to bind" : rootCause.getMessage()) + (owner == null ? "" : " - port is in use by " + owner);
+            testResult.ramification = rule.ramification;
+            testResult.remedy       = rule.remedy;
             testResult.rootCause    = rootCause;
         }
         
@@ -223,40 +328,59 @@ public class NetworkValidator
     }
     
     
-    private void validateUdpPort(final ValidatorCallback callback,
-                                 final int               portNumber,
-                                 final String            portDescription,
-                                 final int               failureResultType,
-                                 final String            ramification,
-                                 final String            remedy)
+    /*
+     * Returns a description of the process that has the given port open, or null if it can't be determined
+     * (eg. the port is owned by another user's process and the tool isn't running with sufficient privileges).
+     */
+    private String findPortOwner(final boolean isTcp, final int portNumber)
     {
-        TestResult testResult = new TestResult();
-        
-        startTest(callback, "UDP " + portNumber + (portDescription == null ? "" : (" (" + portDescription + ")")));
+        String result = null;
         
-        Pair    result  = checkUdpPort(portNumber);
-        boolean success = ((Boolean)result.getFirst()).booleanValue();
-        
-        if (success)
+        try
         {
-            progress(callback, "available");
-            testResult.resultType = TestResult.PASS;
+            long pid = sigar.getProcPort(isTcp ? NetFlags.CONN_TCP : NetFlags.CONN_UDP, portNumber);
+            
+            if (pid > 0)
+            {
+                StringBuffer commandLine = new StringBuffer();
+                
+                result = "process " + pid + " (" + sigar.getProcState(pid).getName() + ")";
+                
+                try
+                {
+                    String[] args = sigar.getProcArgs(pid);
+                    
+                    for (int i = 0; args != null && i < args.length; i++)
+                    {
+                        commandLine.append(i == 0 ? "" : " ");
+                        commandLine.append(args[i]);
+                    }
+                }
+                catch (SigarException se)
+                {
+                    // Ignore it - the command line is nice to have
+                }
+                
+                if (commandLine.length() > MAXIMUM_OWNER_ARGS_LENGTH)
+                {
+                    commandLine.setLength(MAXIMUM_OWNER_ARGS_LENGTH);
+                    commandLine.append("...");
+                }
+                
+                if (commandLine.length() > 0)
+                {
+                    result += ": " + commandLine;
+                }
+            }
         }
-        else
+        catch (SigarException se)
         {
-            progress(callback, "unavailable");
-            Exception rootCause = (Exception)result.getSecond();
-            
-            testResult.resultType   = failureResultType;
-            testResult.errorMessage = rootCause == null ? null : rootCause.getMessage();
-            testResult.ramification = ramification;
-            testResult.remedy       = remedy;
-            testResult.rootCause    = rootCause;
+            result = null;
         }
         
-        endTest(callback, testResult);
+        return(result);
     }
-
+    
     
     private boolean validateDatabaseParameters(final ValidatorCallback callback, final String databaseHostname)
     {
@@ -299,15 +423,682 @@ public class NetworkValidator
     }
     
     
-    private void validateDatabaseNetworkLatency(final ValidatorCallback callback, final String databaseHostname)
+    private void validateDatabaseNetworkLatency(final ValidatorCallback callback, final Map parameters, final String databaseHostname)
+    {
+        int               databasePort = DBValidator.getDatabasePort(parameters);
+        LatencyStatistics latencies    = null;
+        
+        if (databasePort > 0)
+        {
+            latencies = validateConnectFailures(callback, databaseHostname, databasePort, "mysql".equalsIgnoreCase((String)parameters.get(DBValidator.PARAMETER_DATABASE_TYPE)));
+        }
+        
+        if (latencies != null)
+        {
+            validateAvgResponseTime(callback,    toBigDecimal(latencies.getAverage()));
+            validateResponseTimePercentiles(callback, latencies);
+            validateResponseTimeStdDev(callback, toBigDecimal(latencies.getStdDev()));
+            validateResponseTimeJitter(callback, latencies);
+        }
+        else
+        {
+            // Fall back on the OS ping command (requires ICMP)
+            Triple pingStatistics = validatePacketLoss(callback, databaseHostname);
+            
+            if (pingStatistics != null)
+            {
+                validateAvgResponseTime(callback,    (BigDecimal)pingStatistics.getSecond());
+                validateResponseTimeStdDev(callback, (BigDecimal)pingStatistics.getThird());
+            }
+        }
+    }
+    
+    
+    /**
+     * Measures round trip time to the database server by timing TCP connections to the database port.
+     * 
+     * @return The connection latencies, or null if no connection could be made (in which case ping should be used instead).
+     */
+    private LatencyStatistics validateConnectFailures(final ValidatorCallback callback, final String databaseHostname, final int databasePort, final boolean isMySql)
+    {
+        startTest(callback, "Connect Failures");
+        
+        TestResult        testResult = new TestResult();
+        LatencyStatistics result     = null;
+        int               samples    = isMySql ? PerformanceConfiguration.getInt("network.latency.mysql.samples", DEFAULT_PROBE_MYSQL_SAMPLES) :
+                                                 PerformanceConfiguration.getInt("network.latency.samples",       DEFAULT_PROBE_SAMPLES);
+        int               burst      = PerformanceConfiguration.getInt( "network.latency.burst",      DEFAULT_PROBE_BURST);
+        long              pauseMs    = PerformanceConfiguration.getLong("network.latency.pause.ms",   DEFAULT_PROBE_PAUSE_MS);
+        int               timeoutMs  = PerformanceConfiguration.getInt( "network.latency.timeout.ms", DEFAULT_PROBE_TIMEOUT_MS);
+        TcpConnectProbe   probe      = new TcpConnectProbe(databaseHostname, databasePort, timeoutMs);
+        
+        progress(callback, "(please wait)");
+        
+        try
+        {
+            Pair probeResult = probe.isResolved() ? probe.probe(samples, burst, pauseMs) : null;
+            
+            if (probeResult != null && ((LatencyStatistics)probeResult.getFirst()).getCount() > 0)
+            {
+                int        failures = ((Integer)probeResult.getSecond()).intValue();
+                BigDecimal loss     = toBigDecimal(failures * 100.0 / samples);
+                
+                result = (LatencyStatistics)probeResult.getFirst();
+                progress(callback, failures + " of " + samples + " (" + loss + "%)");
+                
+                if (MAXIMUM_PACKET_LOSS.compareTo(loss) >= 0)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType   = TestResult.FAIL;
+                    testResult.errorMessage = failures + " of " + samples + " TCP connections to " + databaseHostname + ":" + databasePort + " failed or took longer than " + timeoutMs + "ms";
+                    testResult.ramification = "Alfresco's performance will be significantly degraded, and database connections may fail";
+                    testResult.remedy       = "Review the network connection (and any firewalls) between the Alfresco server and the database server for packet loss";
+                }
+            }
+            else
+            {
+                progress(callback, "no connection");
+                
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "Unable to connect to " + databaseHostname + ":" + databasePort + " (the database may not be running yet) - falling back on ping";
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Interrupted while probing " + databaseHostname + ":" + databasePort + " - falling back on ping";
+            testResult.rootCause    = ie;
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    private void validateResponseTimePercentiles(final ValidatorCallback callback, final LatencyStatistics latencies)
+    {
+        startTest(callback, "Response Time p99");
+        
+        TestResult testResult = new TestResult();
+        double     p99        = latencies.getPercentile(99.0);
+        double     maximumMs  = PerformanceConfiguration.getDouble("network.latency.p99.max.ms", DEFAULT_MAXIMUM_P99_MS);
+        
+        progress(callback, "p95 " + LatencyStatistics.format(latencies.getPercentile(95.0)) + "ms, p99 " + LatencyStatistics.format(p99) + "ms");
+        
+        if (p99 <= maximumMs)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "99th percentile response time between Alfresco server and database server exceeds " + LatencyStatistics.format(maximumMs) + "ms (" + latencies + ")";
+            testResult.ramification = "A proportion of database round trips will be slow, making Alfresco's response times erratic";
+            testResult.remedy       = "Review the network connection (eg. congestion, overloaded switches or firewalls) between the Alfresco server and the database server";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateResponseTimeJitter(final ValidatorCallback callback, final LatencyStatistics latencies)
+    {
+        startTest(callback, "Response Time Jitter");
+        
+        TestResult testResult = new TestResult();
+        BigDecimal jitter     = toBigDecimal(latencies.getJitter());
+        
+        progress(callback, jitter + "ms");
+        
+        if (MAXIMUM_STDEV_RESPONSE_TIME_MS.compareTo(jitter) >= 0)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Response time jitter (mean difference between consecutive round trips) between Alfresco server and database server exceeds " + MAXIMUM_STDEV_RESPONSE_TIME_MS + "ms";
+            testResult.ramification = "Alfresco's response times will be erratic";
+            testResult.remedy       = "Review the network connection to ensure response time jitter is <= " + MAXIMUM_STDEV_RESPONSE_TIME_MS + "ms";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /*
+     * Optionally probes the database link at a fixed rate for an extended period, to catch periodic latency spikes
+     * (eg. backups, noisy neighbours) that a short burst of probes will miss.  Samples are kept in histograms (the
+     * whole run, and one per time window) so memory use doesn't grow with the duration.
+     */
+    private void validateLongDurationLatency(final ValidatorCallback callback, final Map parameters, final String databaseHostname)
+    {
+        Integer minutes = stringToInteger((String)parameters.get(PARAMETER_SAMPLE_MINUTES));
+        
+        if (minutes != null && minutes.intValue() > 0)
+        {
+            startTest(callback, "Long Duration Sampling");
+            
+            TestResult        testResult = new TestResult();
+            String            agentHost  = (String)parameters.get(NetworkAgent.PARAMETER_AGENT_HOSTNAME);
+            int               agentPort  = NetworkAgent.getAgentPort(parameters);
+            boolean           stress     = parameters.containsKey(DBValidator.PARAMETER_DATABASE_STRESS);
+            boolean           isMySql    = "mysql".equalsIgnoreCase((String)parameters.get(DBValidator.PARAMETER_DATABASE_TYPE));
+            InetSocketAddress agent      = null;
+            TcpConnectProbe   probe      = null;
+            
+            if (agentHost == null)
+            {
+                agentHost = databaseHostname;
+            }
+            
+            // Prefer echoing to an agent on the database server, as repeated TCP connections to the database port are
+            // disruptive (eg. each one forks a PostgreSQL backend and is logged), so are only made in stress mode (-x),
+            // and never to MySQL, where they count towards max_connect_errors
+            if (NetworkAgentClient.isReachable(agentHost, agentPort))
+            {
+                agent = new InetSocketAddress(agentHost, agentPort);
+            }
+            else if (stress && !isMySql && DBValidator.getDatabasePort(parameters) > 0)
+            {
+                probe = new TcpConnectProbe(databaseHostname, DBValidator.getDatabasePort(parameters), PerformanceConfiguration.getInt("network.latency.timeout.ms", DEFAULT_PROBE_TIMEOUT_MS));
+            }
+            
+            if (agent == null && probe == null)
+            {
+                progress(callback, "skipped");
+                
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "Long duration sampling requires an EVT agent on the database server" +
+                                          (isMySql ? " (repeated connections would exceed MySQL's max_connect_errors)" : ", or -x to allow repeated connections to the database port");
+                testResult.remedy       = "Run 'evt --agent' on the database server, then rerun this tool";
+                
+                endTest(callback, testResult);
+            }
+            else
+            {
+                sampleDatabaseLatency(callback, testResult, minutes.intValue(), agent, probe);
+            }
+        }
+    }
+    
+    
+    private void sampleDatabaseLatency(final ValidatorCallback callback,
+                                       final TestResult        testResult,
+                                       final int               minutes,
+                                       final InetSocketAddress agent,
+                                       final TcpConnectProbe   probe)
+    {
+        progress(callback, minutes + " minutes via " + (agent != null ? "agent" : "TCP connect") + " (please wait)");
+        
+        long             intervalMs  = Math.max(10, PerformanceConfiguration.getLong("network.sampling.interval.ms", DEFAULT_SAMPLING_INTERVAL_MS));
+        long             windowMs    = PerformanceConfiguration.getInt("network.sampling.window.seconds", DEFAULT_SAMPLING_WINDOW_S) * 1000L;
+        double           multiplier  = PerformanceConfiguration.getDouble("network.sampling.spike.multiplier", DEFAULT_SPIKE_MULTIPLIER);
+        double           spikeMinMs  = PerformanceConfiguration.getDouble("network.sampling.spike.min.ms",     DEFAULT_SPIKE_MINIMUM_MS);
+        LatencyHistogram overall     = new LatencyHistogram();
+        List             windows     = new ArrayList();
+        long             startTime   = System.currentTimeMillis();
+        long             endTime     = startTime + minutes * 60000L;
+        long             nextSample  = startTime;
+        int              lastPercent = 0;
+        long             failures    = 0;
+        long             spikes      = 0;
+        double           baseline    = -1.0;
+        
+        try
+        {
+            while (nextSample < endTime)
+            {
+                long now = System.currentTimeMillis();
+                
+                if (nextSample > now)
+                {
+                    Thread.sleep(nextSample - now);
+                }
+                
+                double latencyMs = agent != null ? echo(agent) : probe.connect() / 1000000.0;
+                int    window    = (int)((nextSample - startTime) / windowMs);
+                
+                while (windows.size() <= window)
+                {
+                    windows.add(new SampleWindow(startTime + windows.size() * windowMs));
+                }
+                
+                SampleWindow current = (SampleWindow)windows.get(window);
+                
+                if (latencyMs < 0)
+                {
+                    failures++;
+                    current.failures++;
+                }
+                else
+                {
+                    boolean spike = baseline >= 0 && latencyMs > Math.max(baseline * multiplier, spikeMinMs);
+                    
+                    overall.add(latencyMs);
+                    current.latencies.add(latencyMs);
+                    
+                    if (spike)
+                    {
+                        spikes++;
+                        current.spikes++;
+                    }
+                    else
+                    {
+                        baseline = baseline < 0 ? latencyMs : baseline + BASELINE_WEIGHT * (latencyMs - baseline);
+                    }
+                }
+                
+                // Fixed rate - slots missed while a slow probe was outstanding are skipped
+                do
+                {
+                    nextSample += intervalMs;
+                }
+                while (nextSample < System.currentTimeMillis());
+                
+                int percent = (int)((Math.min(nextSample, endTime) - startTime) * 100 / (endTime - startTime));
+                
+                if (percent / 10 > lastPercent / 10)
+                {
+                    progress(callback, (percent / 10 * 10) + "%");
+                    lastPercent = percent;
+                }
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            progress(callback, "interrupted");
+            testResult.rootCause = ie;
+        }
+        
+        double hours = (System.currentTimeMillis() - startTime) / 3600000.0;
+        
+        if (failures == 0)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = failures + " of " + (failures + overall.getCount()) + " probes to the database server failed";
+            testResult.ramification = "Database connections may intermittently fail or stall";
+            testResult.remedy       = "Review the network connection between the Alfresco server and the database server for packet loss";
+        }
+        
+        endTest(callback, testResult);
+        
+        if (overall.getCount() > 0)
+        {
+            validateSampledLatency(callback, overall);
+            validateLatencySpikes(callback, spikes, hours);
+            validateWorstWindow(callback, windows);
+            validateSampledJitter(callback, overall);
+        }
+    }
+    
+    
+    /**
+     * @return The round trip time to the agent in ms, or -1 if the echo failed.
+     */
+    private double echo(final InetSocketAddress agent)
+    {
+        double result = -1.0;
+        
+        try
+        {
+            result = NetworkAgentClient.tcpEcho(agent, 1).getAverage();
+        }
+        catch (IOException ioe)
+        {
+            result = -1.0;
+        }
+        
+        return(result);
+    }
+    
+    
+    private void validateSampledLatency(final ValidatorCallback callback, final LatencyHistogram latencies)
     {
-        Triple pingStatistics = validatePacketLoss(callback, databaseHostname);
+        startTest(callback, "Sampled Latency");
+        
+        TestResult testResult = new TestResult();
+        double     maximumMs  = PerformanceConfiguration.getDouble("network.latency.p99.max.ms", DEFAULT_MAXIMUM_P99_MS);
+        
+        // Percentiles are histogram bucket upper bounds (eg. a p99 of 21ms is reported as <=50ms)
+        progress(callback, "p50 <=" + LatencyStatistics.format(latencies.getPercentile(50.0)) + "ms, p99 <=" + LatencyStatistics.format(latencies.getPercentile(99.0)) +
+                           "ms, p99.9 <=" + LatencyStatistics.format(latencies.getPercentile(99.9)) + "ms, max " + LatencyStatistics.format(latencies.getMax()) + "ms (percentiles are bucket upper bounds)");
         
-        if (pingStatistics != null)
+        if (latencies.getPercentile(99.0) <= maximumMs)
         {
-            validateAvgResponseTime(callback,    (BigDecimal)pingStatistics.getSecond());
-            validateResponseTimeStdDev(callback, (BigDecimal)pingStatistics.getThird());
+            testResult.resultType = TestResult.PASS;
         }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "99th percentile response time between Alfresco server and database server exceeded " + LatencyStatistics.format(maximumMs) + "ms over the sampling period " +
+                                      "(percentiles are bucket upper bounds: " + latencies + ")";
+            testResult.ramification = "A proportion of database round trips will be slow, making Alfresco's response times erratic";
+            testResult.remedy       = "Review the network connection (eg. congestion, overloaded switches or firewalls) between the Alfresco server and the database server";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateLatencySpikes(final ValidatorCallback callback, final long spikes, final double hours)
+    {
+        startTest(callback, "Latency Spikes");
+        
+        TestResult testResult     = new TestResult();
+        double     spikesPerHour  = hours <= 0 ? 0.0 : spikes / hours;
+        double     maximumPerHour = PerformanceConfiguration.getDouble("network.sampling.spikes.per.hour.warn", DEFAULT_SPIKES_PER_HOUR_WARN);
+        
+        progress(callback, spikes + " (" + LatencyStatistics.format(spikesPerHour) + "/hour)");
+        
+        if (spikesPerHour <= maximumPerHour)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Latency spikes between Alfresco server and database server occurred " + LatencyStatistics.format(spikesPerHour) + " times per hour (more than " + LatencyStatistics.format(maximumPerHour) + ")";
+            testResult.ramification = "Alfresco's response times will periodically degrade";
+            testResult.remedy       = "Correlate the spikes (see the worst window) with scheduled jobs (eg. backups) and with load on shared infrastructure (eg. virtualisation hosts, storage)";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateWorstWindow(final ValidatorCallback callback, final List windows)
+    {
+        startTest(callback, "Worst Window");
+        
+        TestResult   testResult = new TestResult();
+        SampleWindow worst      = null;
+        
+        for (int i = 0; i < windows.size(); i++)
+        {
+            SampleWindow window = (SampleWindow)windows.get(i);
+            
+            if (window.latencies.getCount() > 0 && (worst == null || window.latencies.getAverage() > worst.latencies.getAverage()))
+            {
+                worst = window;
+            }
+        }
+        
+        String start = new SimpleDateFormat("HH:mm:ss").format(new Date(worst.startTime));
+        
+        progress(callback, start + " avg " + LatencyStatistics.format(worst.latencies.getAverage()) + "ms, max " + LatencyStatistics.format(worst.latencies.getMax()) + "ms");
+        
+        if (MAXIMUM_AVG_RESPONSE_TIME_MS.compareTo(toBigDecimal(worst.latencies.getAverage())) >= 0)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Average response time between Alfresco server and database server exceeded " + MAXIMUM_AVG_RESPONSE_TIME_MS + "ms in the window starting at " + start +
+                                      " (" + worst.spikes + " spikes, " + worst.failures + " failures, " + worst.latencies + ")";
+            testResult.ramification = "Alfresco's performance will be significantly degraded during such periods";
+            testResult.remedy       = "Correlate that time with scheduled jobs (eg. backups) and with load on shared infrastructure (eg. virtualisation hosts, storage)";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateSampledJitter(final ValidatorCallback callback, final LatencyHistogram latencies)
+    {
+        startTest(callback, "Sampled Jitter");
+        
+        TestResult testResult = new TestResult();
+        BigDecimal jitter     = toBigDecimal(latencies.getJitter());
+        
+        progress(callback, jitter + "ms");
+        
+        if (MAXIMUM_STDEV_RESPONSE_TIME_MS.compareTo(jitter) >= 0)
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Response time jitter between Alfresco server and database server exceeded " + MAXIMUM_STDEV_RESPONSE_TIME_MS + "ms over the sampling period";
+            testResult.ramification = "Alfresco's response times will be erratic";
+            testResult.remedy       = "Review the network connection to ensure response time jitter is <= " + MAXIMUM_STDEV_RESPONSE_TIME_MS + "ms";
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /*
+     * Compares the MTU of the interface that traffic to the database server leaves on with the largest packet that
+     * actually reaches the database server unfragmented.
+     */
+    private void validatePathMtu(final ValidatorCallback callback, final String databaseHostname)
+    {
+        NetInterfaceConfig networkInterface = validateInterfaceMtu(callback, databaseHostname);
+        
+        // There's no path to probe if the database is on this server
+        if (networkInterface != null && (networkInterface.getFlags() & NetFlags.IFF_LOOPBACK) == 0)
+        {
+            validatePathMtu(callback, databaseHostname, networkInterface.getName(), (int)networkInterface.getMtu());
+        }
+    }
+    
+    
+    private NetInterfaceConfig validateInterfaceMtu(final ValidatorCallback callback, final String databaseHostname)
+    {
+        startTest(callback, "Interface MTU");
+        
+        TestResult         testResult = new TestResult();
+        NetInterfaceConfig result     = null;
+        
+        try
+        {
+            // "Connecting" a datagram socket sends nothing, but has the OS pick the source address for the route
+            DatagramSocket socket       = new DatagramSocket();
+            String         localAddress = null;
+            
+            try
+            {
+                socket.connect(InetAddress.getByName(databaseHostname), MTU_ROUTE_PORT);
+                localAddress = socket.getLocalAddress().getHostAddress();
+            }
+            finally
+            {
+                socket.close();
+            }
+            
+            String[] interfaceNames = sigar.getNetInterfaceList();
+            
+            for (int i = 0; result == null && i < interfaceNames.length; i++)
+            {
+                NetInterfaceConfig config = sigar.getNetInterfaceConfig(interfaceNames[i]);
+                
+                if (localAddress.equals(config.getAddress()))
+                {
+                    result = config;
+                }
+            }
+        }
+        catch (IOException ioe)
+        {
+            testResult.rootCause = ioe;
+        }
+        catch (SigarException se)
+        {
+            testResult.rootCause = se;
+        }
+        
+        if (result != null)
+        {
+            progress(callback, result.getName() + " " + result.getMtu());
+            testResult.resultType = TestResult.PASS;
+        }
+        else
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Unable to determine the network interface used to reach " + databaseHostname;
+            testResult.ramification = "MTU mismatches between the Alfresco server and database server cannot be detected";
+            testResult.remedy       = "Manually verify that the MTU of the network interfaces (eg. 'ip link' or 'ifconfig') matches on the Alfresco server, database server and the network between them";
+        }
+        
+        endTest(callback, testResult);
+        
+        return(result);
+    }
+    
+    
+    /*
+     * Binary searches for the path MTU using pings with the don't fragment bit set.  Java provides no way to set DF or
+     * to observe a TCP connection's MSS, so this requires ICMP to the database server.
+     */
+    private void validatePathMtu(final ValidatorCallback callback, final String databaseHostname, final String interfaceName, final int interfaceMtu)
+    {
+        startTest(callback, "Path MTU");
+        
+        TestResult testResult = new TestResult();
+        int        pathMtu    = -1;
+        
+        progress(callback, "(please wait)");
+        
+        try
+        {
+            int low  = MINIMUM_MTU;
+            int high = interfaceMtu;
+            
+            if (fitsPath(databaseHostname, high))
+            {
+                pathMtu = high;
+            }
+            else if (fitsPath(databaseHostname, low))
+            {
+                // Invariant: low fits, high doesn't
+                while (high - low > 1)
+                {
+                    int mid = (low + high) / 2;
+                    
+                    if (fitsPath(databaseHostname, mid))
+                    {
+                        low = mid;
+                    }
+                    else
+                    {
+                        high = mid;
+                    }
+                }
+                
+                pathMtu = low;
+            }
+        }
+        catch (IOException ioe)
+        {
+            testResult.rootCause = ioe;
+        }
+        catch (InterruptedException ie)
+        {
+            testResult.rootCause = ie;
+        }
+        
+        if (pathMtu < 0)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "Unable to probe the path MTU to " + databaseHostname + " (ping is unavailable, can't set the don't fragment bit on this OS, or ICMP is blocked)";
+            testResult.ramification = "MTU mismatches between the Alfresco server and database server cannot be detected";
+            testResult.remedy       = "Manually verify the path MTU (eg. 'ping -M do -s " + (interfaceMtu - ICMP_HEADERS_SIZE) + " " + databaseHostname + "' on Linux)";
+        }
+        else if (pathMtu < interfaceMtu)
+        {
+            progress(callback, pathMtu + " (" + interfaceName + " " + interfaceMtu + ")");
+            
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "The path MTU to " + databaseHostname + " (" + pathMtu + " bytes) is smaller than the MTU of network interface " + interfaceName + " (" + interfaceMtu + " bytes)";
+            testResult.ramification = "Large transfers (eg. big result sets) depend on path MTU discovery, and will stall or be slow if ICMP 'fragmentation needed' messages are blocked";
+            testResult.remedy       = "Configure the same MTU on the Alfresco server, the database server and every hop between them (ie. use jumbo frames end to end, or not at all)";
+        }
+        else
+        {
+            progress(callback, String.valueOf(pathMtu));
+            testResult.resultType = TestResult.PASS;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /**
+     * @return True if a packet of the given size (including IP and ICMP headers) reached the host unfragmented, in any of
+     *         MTU_PING_ATTEMPTS attempts.
+     * @throws IOException If ping couldn't be run, or doesn't support setting the don't fragment bit on this OS.
+     */
+    private boolean fitsPath(final String hostname, final int packetSize)
+        throws IOException,
+               InterruptedException
+    {
+        boolean result = false;
+        
+        for (int i = 0; !result && i < MTU_PING_ATTEMPTS; i++)
+        {
+            result = pingDontFragment(hostname, packetSize);
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @return True if a single packet of the given size (including IP and ICMP headers) reached the host and was replied to.
+     * @throws IOException If ping couldn't be run, or doesn't support setting the don't fragment bit on this OS.
+     */
+    private boolean pingDontFragment(final String hostname, final int packetSize)
+        throws IOException,
+               InterruptedException
+    {
+        String   payloadSize = String.valueOf(packetSize - ICMP_HEADERS_SIZE);
+        String[] pingCommand = null;
+        
+        if (isWindows())
+        {
+            pingCommand = new String[] { "ping", "-n", "1", "-f", "-l", payloadSize, "-w", String.valueOf(MTU_PING_TIMEOUT_MS), hostname };
+        }
+        else if (isLinux())
+        {
+            pingCommand = new String[] { "ping", "-c", "1", "-M", "do", "-s", payloadSize, "-W", String.valueOf(MTU_PING_TIMEOUT_MS / 1000), hostname };
+        }
+        else if (isMacOSX())
+        {
+            pingCommand = new String[] { "ping", "-c", "1", "-D", "-s", payloadSize, "-t", String.valueOf(MTU_PING_TIMEOUT_MS / 1000), hostname };
+        }
+        else
+        {
+            throw new IOException("Setting the don't fragment bit is not supported by ping on this OS");
+        }
+        
+        Triple  output   = executeCommand(pingCommand, MTU_PING_TIMEOUT_MS + 1000);
+        Integer exitCode = (Integer)output.getFirst();
+        String  stdout   = (String)output.getSecond();
+        
+        // Windows ping exits with 0 when "Packet needs to be fragmented but DF set", so look for an actual reply
+        return(exitCode.intValue() == 0 && (!isWindows() || (stdout != null && stdout.indexOf("TTL=") >= 0)));
+    }
+    
+    
+    private BigDecimal toBigDecimal(final double value)
+    {
+        return(new BigDecimal(value).setScale(2, BigDecimal.ROUND_HALF_UP));
     }
     
     
@@ -595,14 +1386,15 @@ public class NetworkValidator
     }
     
     
-    private Pair checkTcpPort(int portNumber)
+    private static Pair checkTcpPort(final int portNumber, final InetAddress address)
     {
-        Pair         result = null;
-        ServerSocket socket = null;
+        Pair                result  = null;
+        ServerSocketChannel channel = null;
         
         try
         {
-            socket = new ServerSocket(portNumber);
+            channel = ServerSocketChannel.open();
+            channel.socket().bind(new InetSocketAddress(address, portNumber));
             result = new Pair(Boolean.TRUE, null);
         }
         catch (Exception e)
@@ -611,12 +1403,12 @@ public class NetworkValidator
         }
         finally
         {
-            if (socket != null)
+            if (channel != null)
             {
                 try
                 {
-                    socket.close();
-                    socket = null;
+                    channel.close();
+                    channel = null;
                 }
                 catch (Exception e2)
                 {
@@ -629,14 +1421,15 @@ public class NetworkValidator
     }
 
 
-    private Pair checkUdpPort(int portNumber)
+    private static Pair checkUdpPort(final int portNumber, final InetAddress address)
     {
-        Pair           result = null;
-        DatagramSocket socket = null;
+        Pair            result  = null;
+        DatagramChannel channel = null;
         
         try
         {
-            socket = new DatagramSocket(portNumber);
+            channel = DatagramChannel.open();
+            channel.socket().bind(new InetSocketAddress(address, portNumber));
             result = new Pair(Boolean.TRUE, null);
         }
         catch (Exception e)
@@ -645,12 +1438,12 @@ public class NetworkValidator
         }
         finally
         {
-            if (socket != null)
+            if (channel != null)
             {
                 try
                 {
-                    socket.close();
-                    socket = null;
+                    channel.close();
+                    channel = null;
                 }
                 catch (Exception e2)
                 {
@@ -662,7 +1455,61 @@ public class NetworkValidator
         return(result);
     }
     
+    
+    /*
+     * Checks a single port on each of the given addresses in turn (the addresses of a single port can't be checked
+     * concurrently, as the binds would conflict with each other).
+     *
+     * Returns a Triple containing:
+     *   Boolean:     whether the port could be bound on all addresses
+     *   InetAddress: the specific address the bind failed on (null for the wildcard address)
+     *   Exception:   the reason the bind failed
+     */
+    private static class PortCheck
+        implements Callable
+    {
+        private final boolean       isTcp;
+        private final int           portNumber;
+        private final InetAddress[] addresses;
+        
+        public PortCheck(final boolean isTcp, final int portNumber, final InetAddress[] addresses)
+        {
+            this.isTcp      = isTcp;
+            this.portNumber = portNumber;
+            this.addresses  = addresses;
+        }
+        
+        public Object call()
+        {
+            for (int i = 0; i < addresses.length; i++)
+            {
+                Pair result = isTcp ? checkTcpPort(portNumber, addresses[i]) : checkUdpPort(portNumber, addresses[i]);
+                
+                if (!((Boolean)result.getFirst()).booleanValue())
+                {
+                    return(new Triple(Boolean.FALSE, addresses[i], result.getSecond()));
+                }
+            }
+            
+            return(new Triple(Boolean.TRUE, null, null));
+        }
+    }
+    
 
+    private static class SampleWindow
+    {
+        private final long             startTime;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long                   spikes    = 0;
+        private long                   failures  = 0;
+        
+        public SampleWindow(final long startTime)
+        {
+            this.startTime = startTime;
+        }
+    }
+    
+    
     // Ugh Java really is teh suck
     private class PortValidationRule
     {
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.ConversionException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+
+
+/**
+ * This class provides access to the thresholds and planned deployment values used by the performance
+ * related validators.  Values are read from performance.properties; any value that is missing (or the
+ * entire file, if it can't be loaded) falls back to the default supplied by the caller, as does any value that
+ * isn't a valid number.
+ *
+ */
+public class PerformanceConfiguration
+{
+    private final static String PROPERTIES_FILE_NAME = "org/alfresco/extension/environment/validation/validators/performance.properties";
+
+    private static Configuration config = null;
+
+    static
+    {
+        try
+        {
+            config = new PropertiesConfiguration(PROPERTIES_FILE_NAME);
+        }
+        catch (ConfigurationException ce)
+        {
+            // Ignore it and fall back on the defaults
+            config = null;
+        }
+    }
+
+
+    private PerformanceConfiguration()
+    {
+    }
+
+
+    public static int getInt(final String key, final int defaultValue)
+    {
+        int result = defaultValue;
+
+        if (config != null)
+        {
+            try
+            {
+                result = config.getInt(key, defaultValue);
+            }
+            catch (ConversionException ce)
+            {
+                result = defaultValue;
+            }
+        }
+
+        return(result);
+    }
+
+
+    public static long getLong(final String key, final long defaultValue)
+    {
+        long result = defaultValue;
+
+        if (config != null)
+        {
+            try
+            {
+                result = config.getLong(key, defaultValue);
+            }
+            catch (ConversionException ce)
+            {
+                result = defaultValue;
+            }
+        }
+
+        return(result);
+    }
+
+
+    public static double getDouble(final String key, final double defaultValue)
+    {
+        double result = defaultValue;
+
+        if (config != null)
+        {
+            try
+            {
+                result = config.getDouble(key, defaultValue);
+            }
+            catch (ConversionException ce)
+            {
+                result = defaultValue;
+            }
+        }
+
+        return(result);
+    }
+
+
+    public static String getString(final String key, final String defaultValue)
+    {
+        return(config == null ? defaultValue : config.getString(key, defaultValue));
+    }
+
+
+    /**
+     * @return The (comma separated) values of the given key, or the default if the key has no values.
+     */
+    public static String[] getStringArray(final String key, final String[] defaultValue)
+    {
+        String[] result = config == null ? null : config.getStringArray(key);
+
+        return(result == null || result.length == 0 ? defaultValue : result);
+    }
+
+
+    /**
+     * @return The (comma separated) values of the given key that are positive integers, or the default values if the
+     *         key has none <i>(eg. because of a typo)</i>.
+     */
+    public static int[] getPositiveIntArray(final String key, final String[] defaultValue)
+    {
+        int[] result = parsePositiveInts(getStringArray(key, defaultValue));
+
+        if (result.length == 0)
+        {
+            result = parsePositiveInts(defaultValue);
+        }
+
+        return(result);
+    }
+
+
+    private static int[] parsePositiveInts(final String[] values)
+    {
+        List positive = new ArrayList();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            try
+            {
+                int value = Integer.parseInt(values[i].trim());
+
+                if (value > 0)
+                {
+                    positive.add(new Integer(value));
+                }
+            }
+            catch (NumberFormatException nfe)
+            {
+                // Skip it and move on
+            }
+        }
+
+        int[] result = new int[positive.size()];
+
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = ((Integer)positive.get(i)).intValue();
+        }
+
+        return(result);
+    }
+
+}
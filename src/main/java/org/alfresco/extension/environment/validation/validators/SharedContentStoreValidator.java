@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hyperic.sigar.FileSystem;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.util.LatencyStatistics;
+import org.alfresco.extension.util.Triple;
+
+
+/**
+ * This class validates file locking and attribute cache behaviour of the content store volume, which matters
+ * when the content store is shared between cluster nodes (typically over NFS).  Several worker JVMs (see
+ * {@link SharedContentStoreWorker}) are forked against the same directory.
+ * <p>
+ * Note that the workers all run on this server, so they share a single NFS client - the visibility delays
+ * measured here are a lower bound for those seen between cluster nodes.
+ *
+ */
+public class SharedContentStoreValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Shared Content Store";
+
+    private final static int    DEFAULT_WORKERS                  = 4;
+    private final static int    DEFAULT_LOCK_ITERATIONS          = 200;
+    private final static double DEFAULT_LOCK_P95_WARN_MS         = 20.0;
+    private final static int    DEFAULT_VISIBILITY_FILES         = 25;
+    private final static long   DEFAULT_VISIBILITY_INTERVAL_MS   = 50;
+    private final static long   DEFAULT_VISIBILITY_TIMEOUT_MS    = 10000;
+    private final static double DEFAULT_VISIBILITY_P95_WARN_MS   = 1000.0;
+
+    private final static long   WORKER_STARTUP_ALLOWANCE_MS      = 30000;   // Time allowed for each worker JVM to start and exit
+    private final static long   LOCK_WAIT_TIME_MS                = 120000;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        String contentStoreLocation = (String)parameters.get(ContentStoreValidator.PARAMETER_CONTENT_STORE_LOCATION);
+
+        // The content store validator already reports a missing location
+        if (contentStoreLocation != null && contentStoreLocation.trim().length() > 0)
+        {
+            newTopic(callback, VALIDATION_TOPIC);
+
+            File testDir = new File(contentStoreLocation, "evt-shared-" + System.currentTimeMillis());
+
+            try
+            {
+                if (testDir.mkdirs())
+                {
+                    validateFileLocking(callback, contentStoreLocation, testDir);
+                    validateVisibility(callback, testDir);
+                }
+                else
+                {
+                    startTest(callback, "File Locking");
+
+                    TestResult testResult = new TestResult();
+
+                    testResult.resultType   = TestResult.FAIL;
+                    testResult.errorMessage = "Unable to create directory " + testDir.getAbsolutePath();
+                    testResult.ramification = "Alfresco may be unable to write to the content store";
+                    testResult.remedy       = "Ensure the content store location exists and is writable by the OS user Alfresco will run as";
+
+                    endTest(callback, testResult);
+                }
+            }
+            finally
+            {
+                File[] files = testDir.listFiles();
+
+                for (int i = 0; files != null && i < files.length; i++)
+                {
+                    files[i].delete();
+                }
+
+                testDir.delete();
+            }
+        }
+    }
+
+
+    private void validateFileLocking(final ValidatorCallback callback, final String contentStoreLocation, final File testDir)
+    {
+        startTest(callback, "File Locking");
+
+        TestResult testResult = new TestResult();
+        int        workers    = PerformanceConfiguration.getInt(   "sharedstore.workers",          DEFAULT_WORKERS);
+        int        iterations = PerformanceConfiguration.getInt(   "sharedstore.lock.iterations",  DEFAULT_LOCK_ITERATIONS);
+        double     warnMs     = PerformanceConfiguration.getDouble("sharedstore.lock.p95.warn.ms", DEFAULT_LOCK_P95_WARN_MS);
+        FileSystem fileSystem = findFileSystem(contentStoreLocation);
+
+        if (fileSystem != null)
+        {
+            progress(callback, fileSystem.getSysTypeName());
+        }
+
+        progress(callback, "(please wait)");
+
+        String[][] commands = new String[workers][];
+
+        for (int i = 0; i < workers; i++)
+        {
+            commands[i] = buildWorkerCommand(new String[] { SharedContentStoreWorker.MODE_LOCK, testDir.getAbsolutePath(), String.valueOf(iterations) });
+        }
+
+        String[]          outputs    = runWorkers(commands, LOCK_WAIT_TIME_MS);
+        LatencyStatistics acquire    = new LatencyStatistics(workers * iterations);
+        LatencyStatistics release    = new LatencyStatistics(workers * iterations);
+        long              firstStart = Long.MAX_VALUE;
+        long              lastEnd    = 0;
+        String            error      = null;
+
+        for (int i = 0; i < outputs.length; i++)
+        {
+            // A worker that couldn't be started (or was killed) has no output
+            String[] lines = outputs[i] == null ? null : tokenizeString(outputs[i], "\n");
+
+            for (int j = 0; lines != null && j < lines.length; j++)
+            {
+                String[] tokens = tokenizeString(lines[j], " ");
+
+                if (tokens.length == 3 && SharedContentStoreWorker.EVENT_LOCK.equals(tokens[0]))
+                {
+                    acquire.add(Long.parseLong(tokens[1]) / 1000000.0);
+                    release.add(Long.parseLong(tokens[2]) / 1000000.0);
+                }
+                else if (tokens.length == 2 && SharedContentStoreWorker.EVENT_START.equals(tokens[0]))
+                {
+                    firstStart = Math.min(firstStart, Long.parseLong(tokens[1]));
+                }
+                else if (tokens.length == 2 && SharedContentStoreWorker.EVENT_END.equals(tokens[0]))
+                {
+                    lastEnd = Math.max(lastEnd, Long.parseLong(tokens[1]));
+                }
+                else if (tokens.length > 0 && SharedContentStoreWorker.EVENT_ERROR.equals(tokens[0]) && error == null)
+                {
+                    error = lines[j].substring(tokens[0].length()).trim();
+                }
+            }
+        }
+
+        long expected  = (long)workers * iterations;
+        long counter   = readLockCounter(new File(testDir, SharedContentStoreWorker.LOCK_FILE_NAME));
+        long elapsedMs = Math.max(lastEnd - firstStart, 1);   // Excludes JVM startup, provided every worker got that far
+
+        if (error != null || acquire.getCount() == 0 || lastEnd == 0)
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "Unable to lock files in the content store: " + (error == null ? "no output from the worker processes" : error);
+            testResult.ramification = "Cluster nodes sharing this content store can't coordinate through file locks";
+            testResult.remedy       = "If the content store is on NFS, ensure the lock manager (lockd / statd, or NFSv4) is running on both client and server, and that the volume is not mounted with 'nolock'";
+        }
+        else
+        {
+            progress(callback, (acquire.getCount() * 1000 / elapsedMs) + " locks/s, p95 acquire " + LatencyStatistics.format(acquire.getPercentile(95.0)) + "ms, " +
+                               "release " + LatencyStatistics.format(release.getPercentile(95.0)) + "ms");
+
+            if (counter != expected)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "File locks were not honoured between processes: " + workers + " workers made " + expected + " locked increments of a shared counter, but it reached " + counter;
+                testResult.ramification = "Cluster nodes sharing this content store may corrupt shared files";
+                testResult.remedy       = "If the content store is on NFS, ensure the lock manager is running and the volume is not mounted with 'nolock' or 'local_lock'";
+            }
+            else if (acquire.getPercentile(95.0) <= warnMs && release.getPercentile(95.0) <= warnMs)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Locking is slow with " + workers + " contending processes (acquire " + acquire + ", release " + release + ")";
+                testResult.ramification = "Operations that lock files in the shared content store will be slow";
+                testResult.remedy       = "Check the latency to the file server and the load on its lock manager";
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateVisibility(final ValidatorCallback callback, final File testDir)
+    {
+        startTest(callback, "Attribute Visibility");
+
+        TestResult testResult = new TestResult();
+        int        workers    = PerformanceConfiguration.getInt(   "sharedstore.workers",                DEFAULT_WORKERS);
+        int        files      = PerformanceConfiguration.getInt(   "sharedstore.visibility.files",       DEFAULT_VISIBILITY_FILES);
+        long       intervalMs = PerformanceConfiguration.getLong(  "sharedstore.visibility.interval.ms", DEFAULT_VISIBILITY_INTERVAL_MS);
+        long       timeoutMs  = PerformanceConfiguration.getLong(  "sharedstore.visibility.timeout.ms",  DEFAULT_VISIBILITY_TIMEOUT_MS);
+        double     warnMs     = PerformanceConfiguration.getDouble("sharedstore.visibility.p95.warn.ms", DEFAULT_VISIBILITY_P95_WARN_MS);
+
+        progress(callback, "(please wait)");
+
+        String[][] commands = new String[workers][];
+
+        for (int i = 0; i < workers; i++)
+        {
+            commands[i] = buildWorkerCommand(new String[] { SharedContentStoreWorker.MODE_VISIBILITY,
+                                                            testDir.getAbsolutePath(),
+                                                            String.valueOf(i),
+                                                            String.valueOf(workers),
+                                                            String.valueOf(files),
+                                                            String.valueOf(intervalMs),
+                                                            String.valueOf(timeoutMs) });
+        }
+
+        String[]          outputs = runWorkers(commands, files * intervalMs + timeoutMs + WORKER_STARTUP_ALLOWANCE_MS);
+        Map               wrote   = new HashMap();
+        List              saw     = new ArrayList();
+        LatencyStatistics delays  = new LatencyStatistics(workers * (workers - 1) * files);
+        String            error   = null;
+
+        for (int i = 0; i < outputs.length; i++)
+        {
+            String[] lines = outputs[i] == null ? null : tokenizeString(outputs[i], "\n");
+
+            for (int j = 0; lines != null && j < lines.length; j++)
+            {
+                String[] tokens = tokenizeString(lines[j], " ");
+
+                if (tokens.length == 3 && SharedContentStoreWorker.EVENT_WROTE.equals(tokens[0]))
+                {
+                    wrote.put(tokens[1], Long.valueOf(tokens[2]));
+                }
+                else if (tokens.length == 3 && SharedContentStoreWorker.EVENT_SAW.equals(tokens[0]))
+                {
+                    saw.add(tokens);
+                }
+                else if (tokens.length > 0 && SharedContentStoreWorker.EVENT_ERROR.equals(tokens[0]) && error == null)
+                {
+                    error = lines[j].substring(tokens[0].length()).trim();
+                }
+            }
+        }
+
+        for (int i = 0; i < saw.size(); i++)
+        {
+            String[] tokens    = (String[])saw.get(i);
+            Long     wroteTime = (Long)wrote.get(tokens[1]);
+
+            if (wroteTime != null)
+            {
+                // A reader may notice the file before its writer gets to print the write time
+                delays.add(Math.max(Long.parseLong(tokens[2]) - wroteTime.longValue(), 0));
+            }
+        }
+
+        long expected = (long)wrote.size() * (workers - 1);   // Every file should be seen by every other worker
+        long missing  = expected - delays.getCount();
+
+        if (error != null || wrote.isEmpty())
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "Unable to write test files to the content store: " + (error == null ? "no output from the worker processes" : error);
+            testResult.ramification = "Alfresco may be unable to write to the content store";
+            testResult.remedy       = "Ensure the content store location is writable by the OS user Alfresco will run as";
+        }
+        else
+        {
+            progress(callback, "p95 " + LatencyStatistics.format(delays.getPercentile(95.0)) + "ms, max " + LatencyStatistics.format(delays.getMax()) + "ms");
+
+            if (missing > 0)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = missing + " of " + expected + " files written by one process were not visible (with their full size) to another process within " + timeoutMs + "ms";
+                testResult.ramification = "Cluster nodes may read stale or truncated content from the shared content store";
+                testResult.remedy       = "Review the attribute cache settings of the mount (eg. NFS actimeo / acregmax / lookupcache) and the file server's consistency guarantees";
+            }
+            else if (delays.getPercentile(95.0) <= warnMs)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "Files written by one process take a long time to become visible to another (" + delays + ")";
+                testResult.ramification = "Content written on one cluster node may not be readable on another straight away";
+                testResult.remedy       = "Review the attribute cache settings of the mount (eg. NFS actimeo / acregmax / lookupcache)";
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private String[] buildWorkerCommand(final String[] workerArgs)
+    {
+        List   result  = new ArrayList();
+        String extDirs = System.getProperty("java.ext.dirs");   // evt.sh puts the tool's jars on the extension path
+
+        result.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+        if (extDirs != null)
+        {
+            result.add("-Djava.ext.dirs=" + extDirs);
+        }
+
+        result.add("-cp");
+        result.add(System.getProperty("java.class.path"));
+        result.add(SharedContentStoreWorker.class.getName());
+
+        for (int i = 0; i < workerArgs.length; i++)
+        {
+            result.add(workerArgs[i]);
+        }
+
+        return((String[])result.toArray(new String[0]));
+    }
+
+
+    /**
+     * Runs all of the worker commands concurrently, returning their stdout (or ERROR lines if they couldn't be run).
+     */
+    private String[] runWorkers(final String[][] commands, final long waitTime)
+    {
+        final String[] result  = new String[commands.length];
+        Thread[]       threads = new Thread[commands.length];
+
+        for (int i = 0; i < commands.length; i++)
+        {
+            final int index = i;
+
+            threads[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        Triple output = executeCommand(commands[index], waitTime);
+
+                        result[index] = (String)output.getSecond();
+                    }
+                    catch (Exception e)
+                    {
+                        result[index] = SharedContentStoreWorker.EVENT_ERROR + " " + e.getMessage();
+                    }
+                }
+            }, "sharedContentStoreWorker" + i);
+
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            try
+            {
+                threads[i].join();
+            }
+            catch (InterruptedException ie)
+            {
+                result[i] = SharedContentStoreWorker.EVENT_ERROR + " interrupted";
+            }
+        }
+
+        return(result);
+    }
+
+
+    private long readLockCounter(final File lockFile)
+    {
+        long result = -1;
+
+        try
+        {
+            RandomAccessFile file = new RandomAccessFile(lockFile, "r");
+
+            try
+            {
+                result = file.length() >= 8 ? file.readLong() : 0;
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            result = -1;
+        }
+
+        return(result);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * This class is the entry point of the worker processes forked by {@link SharedContentStoreValidator}.  Each
+ * worker reports one event per line on stdout; the validator collates the events from all workers.
+ * <p>
+ * Usage:
+ * <pre>
+ *   lock       directory iterations
+ *   visibility directory workerId workerCount filesPerWorker intervalMs timeoutMs
+ * </pre>
+ *
+ */
+public class SharedContentStoreWorker
+{
+    public final static String MODE_LOCK          = "lock";
+    public final static String MODE_VISIBILITY    = "visibility";
+
+    public final static String LOCK_FILE_NAME     = "evt-lock.dat";
+    public final static String VISIBILITY_PREFIX  = "evt-visibility-";
+    public final static int    VISIBILITY_SIZE    = 4096;
+
+    public final static String EVENT_START        = "START";
+    public final static String EVENT_END          = "END";
+    public final static String EVENT_LOCK         = "LOCK";
+    public final static String EVENT_WROTE        = "WROTE";
+    public final static String EVENT_SAW          = "SAW";
+    public final static String EVENT_ERROR        = "ERROR";
+
+
+    public static void main(final String[] args)
+    {
+        try
+        {
+            if (args.length == 3 && MODE_LOCK.equals(args[0]))
+            {
+                lock(new File(args[1]), Integer.parseInt(args[2]));
+            }
+            else if (args.length == 7 && MODE_VISIBILITY.equals(args[0]))
+            {
+                visibility(new File(args[1]),
+                           Integer.parseInt(args[2]),
+                           Integer.parseInt(args[3]),
+                           Integer.parseInt(args[4]),
+                           Long.parseLong(args[5]),
+                           Long.parseLong(args[6]));
+            }
+            else
+            {
+                System.out.println(EVENT_ERROR + " invalid arguments");
+                System.exit(2);
+            }
+        }
+        catch (Exception e)
+        {
+            System.out.println(EVENT_ERROR + " " + e.getClass().getName() + ": " + e.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+
+    /**
+     * Repeatedly locks a shared file and increments the counter it contains, reporting the time taken to
+     * acquire and to release each lock (in ns), bracketed by the wall clock start and end times.  If locking
+     * works, the final counter equals the total number of iterations across all workers.
+     */
+    private static void lock(final File directory, final int iterations)
+        throws IOException
+    {
+        RandomAccessFile file    = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw");
+        FileChannel      channel = file.getChannel();
+
+        System.out.println(EVENT_START + " " + System.currentTimeMillis());
+
+        try
+        {
+            for (int i = 0; i < iterations; i++)
+            {
+                long     startTime = System.nanoTime();
+                FileLock lock      = channel.lock();
+                long     acquired  = System.nanoTime();
+
+                try
+                {
+                    long counter = file.length() >= 8 ? readCounter(file) : 0;
+
+                    file.seek(0);
+                    file.writeLong(counter + 1);
+                    channel.force(false);
+                }
+                finally
+                {
+                    long releaseStart = System.nanoTime();
+
+                    lock.release();
+                    System.out.println(EVENT_LOCK + " " + (acquired - startTime) + " " + (System.nanoTime() - releaseStart));
+                }
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+
+        System.out.println(EVENT_END + " " + System.currentTimeMillis());
+    }
+
+
+    private static long readCounter(final RandomAccessFile file)
+        throws IOException
+    {
+        file.seek(0);
+        return(file.readLong());
+    }
+
+
+    /**
+     * Writes files at a fixed interval, and in between polls for the files written by the other workers,
+     * reporting the wall clock time at which each file was written, and at which each of the other workers'
+     * files was first seen with its full size and a modification time.
+     */
+    private static void visibility(final File directory, final int workerId, final int workerCount, final int filesPerWorker, final long intervalMs, final long timeoutMs)
+        throws IOException,
+               InterruptedException
+    {
+        List   pending   = new ArrayList();
+        byte[] content   = new byte[VISIBILITY_SIZE];
+        int    written   = 0;
+        long   nextWrite = System.currentTimeMillis();
+        long   deadline  = nextWrite + filesPerWorker * intervalMs + timeoutMs;
+
+        for (int i = 0; i < workerCount; i++)
+        {
+            for (int j = 0; j < filesPerWorker; j++)
+            {
+                if (i != workerId)
+                {
+                    pending.add(visibilityFileName(i, j));
+                }
+            }
+        }
+
+        while ((written < filesPerWorker || !pending.isEmpty()) && System.currentTimeMillis() < deadline)
+        {
+            if (written < filesPerWorker && System.currentTimeMillis() >= nextWrite)
+            {
+                String           name = visibilityFileName(workerId, written);
+                FileOutputStream out  = new FileOutputStream(new File(directory, name));
+
+                try
+                {
+                    out.write(content);
+                }
+                finally
+                {
+                    out.close();
+                }
+
+                System.out.println(EVENT_WROTE + " " + name + " " + System.currentTimeMillis());
+                written++;
+                nextWrite += intervalMs;
+            }
+
+            for (Iterator iter = pending.iterator(); iter.hasNext(); )
+            {
+                String name = (String)iter.next();
+                File   f    = new File(directory, name);
+
+                if (f.length() == VISIBILITY_SIZE && f.lastModified() > 0)
+                {
+                    System.out.println(EVENT_SAW + " " + name + " " + System.currentTimeMillis());
+                    iter.remove();
+                }
+            }
+
+            Thread.sleep(1);
+        }
+    }
+
+
+    public static String visibilityFileName(final int workerId, final int fileNumber)
+    {
+        return(VISIBILITY_PREFIX + workerId + "-" + fileNumber + ".dat");
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.hyperic.sigar.NetStat;
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+
+
+/**
+ * This class validates the Linux TCP stack settings that limit how many connections Alfresco can accept (listen
+ * backlogs) and make (ephemeral ports), against the planned Tomcat connector and database pool sizes.
+ *
+ */
+public class TcpTuningValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "TCP Tuning";
+
+    private final static String PROC_SYS_NET                = "/proc/sys/net/";
+    private final static String SOMAXCONN                   = "core/somaxconn";
+    private final static String TCP_MAX_SYN_BACKLOG         = "ipv4/tcp_max_syn_backlog";
+    private final static String IP_LOCAL_PORT_RANGE         = "ipv4/ip_local_port_range";
+    private final static String TCP_TW_REUSE                = "ipv4/tcp_tw_reuse";
+    private final static String TCP_TW_RECYCLE              = "ipv4/tcp_tw_recycle";   // Removed in Linux 4.12
+    private final static String TCP_FIN_TIMEOUT             = "ipv4/tcp_fin_timeout";
+    private final static String RMEM_MAX                    = "core/rmem_max";
+    private final static String WMEM_MAX                    = "core/wmem_max";
+    private final static String TCP_RMEM                    = "ipv4/tcp_rmem";
+    private final static String TCP_WMEM                    = "ipv4/tcp_wmem";
+
+    private final static int    DEFAULT_TOMCAT_MAX_THREADS  = 200;
+    private final static int    DEFAULT_TOMCAT_ACCEPT_COUNT = 100;
+    private final static int    DEFAULT_DB_POOL_MAX         = 275;
+    private final static int    DEFAULT_MIN_EPHEMERAL_PORTS = 16384;
+    private final static int    DEFAULT_MAX_FIN_TIMEOUT_S   = 60;
+    private final static long   DEFAULT_MIN_BUFFER_MAX_KB   = 1024;
+    private final static int    TIME_WAIT_SECONDS           = 60;      // Fixed in the Linux kernel (TCP_TIMEWAIT_LEN) - not tcp_fin_timeout
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        if (isLinux())
+        {
+            NetStat netStat = getNetStat();
+
+            validateListenBacklog(callback);
+            validateEphemeralPorts(callback, netStat);
+            validateTimeWait(callback, netStat);
+            validateSocketBuffers(callback);
+        }
+        else
+        {
+            startTest(callback, "TCP Settings");
+
+            TestResult testResult = new TestResult();
+
+            progress(callback, "skipped");
+
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "TCP stack settings are only checked on Linux";
+            testResult.remedy       = "Manually review the OS's listen backlog, ephemeral port range and TIME_WAIT settings";
+
+            endTest(callback, testResult);
+        }
+    }
+
+
+    private void validateListenBacklog(final ValidatorCallback callback)
+    {
+        startTest(callback, "Listen Backlog");
+
+        TestResult testResult  = new TestResult();
+        int        acceptCount = PerformanceConfiguration.getInt("planned.tomcat.acceptCount", DEFAULT_TOMCAT_ACCEPT_COUNT);
+        int        somaxconn   = readSysctlInt(SOMAXCONN);
+        int        synBacklog  = readSysctlInt(TCP_MAX_SYN_BACKLOG);
+
+        if (somaxconn < 0 || synBacklog < 0)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to read " + PROC_SYS_NET + SOMAXCONN + " or " + PROC_SYS_NET + TCP_MAX_SYN_BACKLOG;
+            testResult.ramification = "Tomcat's accept queue may be smaller than configured";
+            testResult.remedy       = "Manually check that net.core.somaxconn and net.ipv4.tcp_max_syn_backlog are >= Tomcat's acceptCount (" + acceptCount + ")";
+        }
+        else
+        {
+            progress(callback, "somaxconn " + somaxconn + ", syn backlog " + synBacklog);
+
+            if (somaxconn < acceptCount)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "net.core.somaxconn (" + somaxconn + ") is less than Tomcat's acceptCount (" + acceptCount + "), so the kernel will silently truncate the accept queue";
+                testResult.ramification = "Under load, connections will be refused or delayed by SYN retransmits (1s, 3s, ...) once the accept queue fills";
+                testResult.remedy       = "Set net.core.somaxconn >= " + acceptCount + " in /etc/sysctl.conf";
+            }
+            else if (synBacklog < acceptCount)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "net.ipv4.tcp_max_syn_backlog (" + synBacklog + ") is less than Tomcat's acceptCount (" + acceptCount + ")";
+                testResult.ramification = "Under load, half open connections will be dropped, delaying clients by SYN retransmits";
+                testResult.remedy       = "Set net.ipv4.tcp_max_syn_backlog >= " + acceptCount + " in /etc/sysctl.conf";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /*
+     * Every outbound connection (database pool, plus connections made by request threads to Solr, transformation
+     * servers etc.) uses an ephemeral port, and each one closed by this server holds its port in TIME_WAIT.
+     */
+    private void validateEphemeralPorts(final ValidatorCallback callback, final NetStat netStat)
+    {
+        startTest(callback, "Ephemeral Ports");
+
+        TestResult testResult = new TestResult();
+        String[]   range      = tokenizeString(readSysctl(IP_LOCAL_PORT_RANGE), " \t");
+        int        maxThreads = PerformanceConfiguration.getInt("planned.tomcat.maxThreads", DEFAULT_TOMCAT_MAX_THREADS);
+        int        dbPoolMax  = PerformanceConfiguration.getInt("planned.db.pool.max",       DEFAULT_DB_POOL_MAX);
+        int        minPorts   = PerformanceConfiguration.getInt("tcp.ephemeral.ports.min",   DEFAULT_MIN_EPHEMERAL_PORTS);
+        int        timeWait   = netStat == null ? 0 : netStat.getTcpTimeWait();
+
+        if (range == null || range.length != 2 || stringToInteger(range[0]) == null || stringToInteger(range[1]) == null)
+        {
+            progress(callback, "unknown");
+
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to read " + PROC_SYS_NET + IP_LOCAL_PORT_RANGE;
+            testResult.ramification = "This server may run out of ephemeral ports under load";
+            testResult.remedy       = "Manually check that net.ipv4.ip_local_port_range provides at least " + minPorts + " ports";
+        }
+        else
+        {
+            int ports    = stringToInteger(range[1]).intValue() - stringToInteger(range[0]).intValue() + 1;
+            int required = dbPoolMax + maxThreads;
+
+            progress(callback, ports + " ports, " + timeWait + " in TIME_WAIT, " + (ports / TIME_WAIT_SECONDS) + " conn/s");
+
+            if (ports - timeWait < required)
+            {
+                testResult.resultType   = TestResult.FAIL;
+                testResult.errorMessage = "Only " + (ports - timeWait) + " ephemeral ports are free (range " + range[0] + "-" + range[1] + ", " + timeWait + " in TIME_WAIT), but the database pool (" + dbPoolMax + ") and Tomcat threads (" + maxThreads + ") may need " + required;
+                testResult.ramification = "Alfresco will fail to open database and other outbound connections under load (\"Cannot assign requested address\")";
+                testResult.remedy       = "Widen net.ipv4.ip_local_port_range (eg. 10240 65000) in /etc/sysctl.conf, and find what is churning connections into TIME_WAIT";
+            }
+            else if (ports < minPorts)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = "The ephemeral port range (" + range[0] + "-" + range[1] + ") only has " + ports + " ports, which sustains at most " + (ports / TIME_WAIT_SECONDS) + " new connections per second to any one destination";
+                testResult.ramification = "Connection churn (eg. an undersized database pool, or HTTP clients without keep-alive) may exhaust ephemeral ports under load";
+                testResult.remedy       = "Widen net.ipv4.ip_local_port_range (eg. 10240 65000) in /etc/sysctl.conf";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateTimeWait(final ValidatorCallback callback, final NetStat netStat)
+    {
+        startTest(callback, "TIME_WAIT Handling");
+
+        TestResult testResult = new TestResult();
+        int        twReuse    = readSysctlInt(TCP_TW_REUSE);
+        int        twRecycle  = readSysctlInt(TCP_TW_RECYCLE);
+        int        finTimeout = readSysctlInt(TCP_FIN_TIMEOUT);
+        int        maxFin     = PerformanceConfiguration.getInt("tcp.fin.timeout.max.seconds", DEFAULT_MAX_FIN_TIMEOUT_S);
+        int        timeWait   = netStat == null ? 0 : netStat.getTcpTimeWait();
+
+        progress(callback, "tw_reuse " + (twReuse < 0 ? "?" : String.valueOf(twReuse)) + ", fin_timeout " + (finTimeout < 0 ? "?" : finTimeout + "s"));
+
+        if (twRecycle > 0)
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "net.ipv4.tcp_tw_recycle is enabled";
+            testResult.ramification = "Connections from clients behind NAT (eg. load balancers, corporate proxies) will be randomly dropped";
+            testResult.remedy       = "Set net.ipv4.tcp_tw_recycle = 0 in /etc/sysctl.conf (use tcp_tw_reuse instead)";
+        }
+        else if (twReuse == 0 && timeWait > 1000)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = timeWait + " connections are in TIME_WAIT, and net.ipv4.tcp_tw_reuse is disabled";
+            testResult.ramification = "Ports held in TIME_WAIT can't be reused for new outbound connections, risking ephemeral port exhaustion";
+            testResult.remedy       = "Set net.ipv4.tcp_tw_reuse = 1 in /etc/sysctl.conf, and find what is churning connections";
+        }
+        else if (finTimeout > maxFin)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "net.ipv4.tcp_fin_timeout is " + finTimeout + "s (more than " + maxFin + "s)";
+            testResult.ramification = "Connections abandoned by clients will hold resources (in FIN_WAIT_2) for longer than necessary";
+            testResult.remedy       = "Set net.ipv4.tcp_fin_timeout <= " + maxFin + " in /etc/sysctl.conf";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateSocketBuffers(final ValidatorCallback callback)
+    {
+        startTest(callback, "Socket Buffers");
+
+        TestResult testResult = new TestResult();
+        long       minMaxKb   = PerformanceConfiguration.getLong("tcp.buffer.max.min.kb", DEFAULT_MIN_BUFFER_MAX_KB);
+        String[]   tcpRmem    = tokenizeString(readSysctl(TCP_RMEM), " \t");
+        String[]   tcpWmem    = tokenizeString(readSysctl(TCP_WMEM), " \t");
+        long       rmemMax    = readSysctlInt(RMEM_MAX);
+        long       wmemMax    = readSysctlInt(WMEM_MAX);
+        long       tcpRmemMax = tcpRmem != null && tcpRmem.length == 3 && stringToInteger(tcpRmem[2]) != null ? stringToInteger(tcpRmem[2]).longValue() : -1;
+        long       tcpWmemMax = tcpWmem != null && tcpWmem.length == 3 && stringToInteger(tcpWmem[2]) != null ? stringToInteger(tcpWmem[2]).longValue() : -1;
+
+        progress(callback, "rmem max " + (tcpRmemMax / 1024) + "KB, wmem max " + (tcpWmemMax / 1024) + "KB");
+
+        if (tcpRmemMax < 0 || tcpWmemMax < 0)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to read " + PROC_SYS_NET + TCP_RMEM + " or " + PROC_SYS_NET + TCP_WMEM;
+            testResult.ramification = "Network throughput may be limited by socket buffer sizes";
+            testResult.remedy       = "Manually check that the maximums of net.ipv4.tcp_rmem and net.ipv4.tcp_wmem are >= " + minMaxKb + "KB";
+        }
+        else if (tcpRmemMax < minMaxKb * 1024 || tcpWmemMax < minMaxKb * 1024)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "The maximum TCP receive / send buffer sizes (" + (tcpRmemMax / 1024) + "KB / " + (tcpWmemMax / 1024) + "KB) are less than " + minMaxKb + "KB";
+            testResult.ramification = "Throughput of large transfers (eg. content, index replication, database result sets) will be limited on higher latency links";
+            testResult.remedy       = "Raise the maximums of net.ipv4.tcp_rmem and net.ipv4.tcp_wmem (and net.core.rmem_max / wmem_max) in /etc/sysctl.conf";
+        }
+        else if ((rmemMax >= 0 && rmemMax < minMaxKb * 1024) || (wmemMax >= 0 && wmemMax < minMaxKb * 1024))
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "net.core.rmem_max / wmem_max (" + (rmemMax / 1024) + "KB / " + (wmemMax / 1024) + "KB) are less than " + minMaxKb + "KB";
+            testResult.ramification = "Applications that set explicit socket buffer sizes (eg. JGroups, some JDBC drivers) will be capped at these sizes";
+            testResult.remedy       = "Raise net.core.rmem_max and net.core.wmem_max in /etc/sysctl.conf";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /**
+     * @return The (trimmed) contents of the given /proc/sys/net entry, or null if it doesn't exist or can't be read.
+     */
+    private String readSysctl(final String name)
+    {
+        String result = null;
+
+        try
+        {
+            result = readFile(PROC_SYS_NET + name);
+            result = result == null ? null : result.trim();
+        }
+        catch (IOException ioe)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The integer value of the given /proc/sys/net entry, or -1 if it doesn't exist or isn't an integer.
+     */
+    private int readSysctlInt(final String name)
+    {
+        Integer result = stringToInteger(readSysctl(name));
+
+        return(result == null ? -1 : result.intValue());
+    }
+
+
+    private NetStat getNetStat()
+    {
+        NetStat result = null;
+
+        try
+        {
+            result = sigar.getNetStat();
+        }
+        catch (SigarException se)
+        {
+            result = null;
+        }
+
+        return(result);
+    }
+
+}
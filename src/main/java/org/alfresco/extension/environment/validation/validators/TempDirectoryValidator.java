@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hyperic.sigar.FileSystem;
+import org.hyperic.sigar.FileSystemUsage;
+import org.hyperic.sigar.SigarException;
+
+import org.alfresco.extension.environment.validation.AbstractValidator;
+import org.alfresco.extension.environment.validation.TestResult;
+import org.alfresco.extension.environment.validation.ValidatorCallback;
+
+
+/**
+ * This class validates the temporary directories used by Alfresco transformations - java.io.tmpdir for
+ * in-JVM transformers, and TMPDIR (TEMP / TMP on Windows) for forked transformers such as ImageMagick and
+ * OpenOffice - by running a create / write / read / delete workload representative of transformations.
+ *
+ */
+public class TempDirectoryValidator
+    extends AbstractValidator
+{
+    private final static String VALIDATION_TOPIC = "Temporary Directories";
+
+    private final static String   SYSTEM_PROPERTY_TMPDIR = "java.io.tmpdir";
+    private final static String   DEFAULT_UNIX_TMPDIR    = "/tmp";
+    private final static String   FILE_SYSTEM_TYPE_TMPFS = "tmpfs";
+
+    private final static int      DEFAULT_THREADS        = 4;
+    private final static String[] DEFAULT_FILE_SIZES_MB  = { "1", "16", "64" };
+    private final static long     DEFAULT_MIN_FREE_MB    = 10240;
+    private final static double   DEFAULT_WRITE_WARN_MBS = 50.0;
+    private final static double   DEFAULT_WRITE_FAIL_MBS = 10.0;
+
+    private final static int      BUFFER_SIZE            = 64 * 1024;
+    private final static long     BYTES_PER_MB           = 1024L * 1024L;
+
+
+    /**
+     * @see org.alfresco.extension.environment.validation.Validator#validate(java.util.Map, org.alfresco.extension.environment.validation.ValidatorCallback)
+     */
+    public void validate(final Map parameters, final ValidatorCallback callback)
+    {
+        newTopic(callback, VALIDATION_TOPIC);
+
+        List tempDirs = validateTempDirectories(callback);
+
+        for (int i = 0; i < tempDirs.size(); i++)
+        {
+            String tempDir = (String)tempDirs.get(i);
+
+            validateTempFileSystem(callback, tempDir);
+            validateTempThroughput(callback, tempDir);
+        }
+    }
+
+
+    /**
+     * @return The distinct (canonical) temporary directories in use.
+     */
+    private List validateTempDirectories(final ValidatorCallback callback)
+    {
+        startTest(callback, "Temp Directories");
+
+        TestResult testResult = new TestResult();
+        List       result     = new ArrayList();
+        String     jvmTmpDir  = System.getProperty(SYSTEM_PROPERTY_TMPDIR);
+        String     envName    = isWindows() ? "TEMP" : "TMPDIR";
+        String     osTmpDir   = System.getenv(envName);
+
+        if (osTmpDir == null && isWindows())
+        {
+            envName  = "TMP";
+            osTmpDir = System.getenv(envName);
+        }
+
+        if (osTmpDir == null && !isWindows())
+        {
+            osTmpDir = DEFAULT_UNIX_TMPDIR;   // What most forked processes fall back to
+        }
+
+        String jvmCanonical = canonicalPath(jvmTmpDir);
+        String osCanonical  = canonicalPath(osTmpDir);
+
+        progress(callback, jvmTmpDir);
+
+        if (jvmCanonical != null) result.add(jvmCanonical);
+        if (osCanonical  != null && !osCanonical.equals(jvmCanonical)) result.add(osCanonical);
+
+        if (jvmCanonical == null || !new File(jvmCanonical).canWrite())
+        {
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "The JVM's temporary directory (" + SYSTEM_PROPERTY_TMPDIR + "=" + jvmTmpDir + ") does not exist or is not writable";
+            testResult.ramification = "Transformations, uploads and many other operations will fail";
+            testResult.remedy       = "Create the directory and make it writable by the OS user Alfresco will run as, or set -D" + SYSTEM_PROPERTY_TMPDIR + " to a directory that is";
+            result.remove(jvmCanonical);
+        }
+        else if (result.size() > 1)
+        {
+            testResult.resultType   = TestResult.INFO;
+            testResult.errorMessage = "In-JVM transformations will use " + jvmCanonical + " (" + SYSTEM_PROPERTY_TMPDIR + ") but forked transformers will use " + osCanonical +
+                                      (System.getenv(envName) == null ? " (the default, since " + envName + " is not set)" : " (" + envName + ")") + " - both will be tested";
+        }
+        else
+        {
+            testResult.resultType = TestResult.PASS;
+        }
+
+        endTest(callback, testResult);
+
+        return(result);
+    }
+
+
+    private void validateTempFileSystem(final ValidatorCallback callback, final String tempDir)
+    {
+        startTest(callback, "Temp File System");
+
+        TestResult      testResult = new TestResult();
+        FileSystem      fileSystem = findFileSystem(tempDir);
+        FileSystemUsage usage      = null;
+        long            minFreeMb  = PerformanceConfiguration.getLong("temp.min.free.mb", DEFAULT_MIN_FREE_MB);
+
+        if (fileSystem != null)
+        {
+            try
+            {
+                usage = sigar.getFileSystemUsage(fileSystem.getDirName());
+            }
+            catch (SigarException se)
+            {
+                testResult.rootCause = se;
+            }
+        }
+
+        if (fileSystem == null || usage == null)
+        {
+            testResult.resultType   = TestResult.WARN;
+            testResult.errorMessage = "Unable to determine the file system containing " + tempDir;
+            testResult.ramification = "Transformations may fail or be slow if the temporary directory is small, slow or held in RAM";
+            testResult.remedy       = "Manually validate that " + tempDir + " is on a fast local disk with at least " + minFreeMb + "MB free";
+        }
+        else
+        {
+            long    freeMb = usage.getAvail() / 1024;   // getAvail() is in KB
+            boolean inRam  = FILE_SYSTEM_TYPE_TMPFS.equals(fileSystem.getSysTypeName()) || fileSystem.getType() == FileSystem.TYPE_RAM_DISK;
+
+            progress(callback, tempDir + " " + fileSystem.getSysTypeName() + ", " + freeMb + "MB free");
+
+            if (inRam)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = tempDir + " is held in RAM (" + fileSystem.getSysTypeName() + ", " + freeMb + "MB free)";
+                testResult.ramification = "Large intermediate files created by transformations will consume RAM needed by the JVM heaps and the OS page cache, and transformations of large files may fail";
+                testResult.remedy       = "Point " + SYSTEM_PROPERTY_TMPDIR + " (and TMPDIR) at a directory on a fast local disk";
+            }
+            else if (fileSystem.getType() == FileSystem.TYPE_NETWORK)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = tempDir + " is on a network file system (" + fileSystem.getSysTypeName() + ")";
+                testResult.ramification = "Transformations will be slowed down by network round trips";
+                testResult.remedy       = "Point " + SYSTEM_PROPERTY_TMPDIR + " (and TMPDIR) at a directory on a fast local disk";
+            }
+            else if (freeMb < minFreeMb)
+            {
+                testResult.resultType   = TestResult.WARN;
+                testResult.errorMessage = tempDir + " has only " + freeMb + "MB free (at least " + minFreeMb + "MB is recommended)";
+                testResult.ramification = "Transformations of large files, and concurrent transformations, may fail";
+                testResult.remedy       = "Free up space, or point " + SYSTEM_PROPERTY_TMPDIR + " (and TMPDIR) at a larger volume";
+            }
+            else
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    private void validateTempThroughput(final ValidatorCallback callback, final String tempDir)
+    {
+        startTest(callback, "Temp Throughput");
+
+        TestResult       testResult   = new TestResult();
+        int              threadCount  = Math.max(1, PerformanceConfiguration.getInt("temp.threads", DEFAULT_THREADS));
+        double           warnMbs      = PerformanceConfiguration.getDouble("temp.write.warn.mbs", DEFAULT_WRITE_WARN_MBS);
+        double           failMbs      = PerformanceConfiguration.getDouble("temp.write.fail.mbs", DEFAULT_WRITE_FAIL_MBS);
+        final long[]     fileSizes    = parseFileSizes(PerformanceConfiguration.getStringArray("temp.file.sizes.mb", DEFAULT_FILE_SIZES_MB));
+        final AtomicLong bytesWritten = new AtomicLong(0);
+        final AtomicLong writeNanos   = new AtomicLong(0);
+        final AtomicLong cycles       = new AtomicLong(0);
+        final File       testDir      = new File(tempDir, "evt-temp-" + System.currentTimeMillis());
+        final List       errors       = Collections.synchronizedList(new ArrayList());   // Added to by the worker threads
+        Thread[]         threads      = new Thread[threadCount];
+
+        progress(callback, "(please wait)");
+
+        if (!testDir.mkdirs())
+        {
+            errors.add(new IOException("Unable to create directory " + testDir.getAbsolutePath()));
+        }
+        else
+        {
+            for (int i = 0; i < threadCount; i++)
+            {
+                final int threadNumber = i;
+
+                threads[i] = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            for (int j = 0; j < fileSizes.length; j++)
+                            {
+                                File file = new File(testDir, "evt-" + threadNumber + "-" + j + ".tmp");
+
+                                writeNanos.addAndGet(writeFile(file, fileSizes[j]));
+                                bytesWritten.addAndGet(fileSizes[j]);
+                                readFile(file);   // Not timed - the file was just written, so it's read from the page cache
+
+                                if (!file.delete())
+                                {
+                                    throw new IOException("Unable to delete " + file.getAbsolutePath());
+                                }
+
+                                cycles.incrementAndGet();
+                            }
+                        }
+                        catch (IOException ioe)
+                        {
+                            errors.add(ioe);
+                        }
+                    }
+                }, "tempDirectoryWorker" + i);
+
+                threads[i].start();
+            }
+
+            for (int i = 0; i < threads.length; i++)
+            {
+                try
+                {
+                    threads[i].join();
+                }
+                catch (InterruptedException ie)
+                {
+                    errors.add(ie);
+                }
+            }
+
+            File[] leftovers = testDir.listFiles();
+
+            for (int i = 0; leftovers != null && i < leftovers.length; i++)
+            {
+                leftovers[i].delete();
+            }
+
+            testDir.delete();
+        }
+
+        if (!errors.isEmpty())
+        {
+            Exception e = (Exception)errors.get(0);
+
+            testResult.resultType   = TestResult.FAIL;
+            testResult.errorMessage = "Unable to create, write, read and delete files in " + tempDir + ": " + e.getMessage();
+            testResult.ramification = "Transformations will fail";
+            testResult.remedy       = "Ensure " + tempDir + " is writable by the OS user Alfresco will run as, and has sufficient free space";
+            testResult.rootCause    = e;
+        }
+        else
+        {
+            // Throughput is aggregated across threads, so divide by the average time each thread spent
+            double writeSeconds = Math.max(writeNanos.get() / 1000000000.0 / threadCount, 0.001);
+            double megabytes    = (double)bytesWritten.get() / BYTES_PER_MB;
+            double writeMbs     = megabytes / writeSeconds;
+
+            progress(callback, "write " + Math.round(writeMbs) + "MB/s");
+
+            if (writeMbs >= warnMbs)
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType   = writeMbs >= failMbs ? TestResult.WARN : TestResult.FAIL;
+                testResult.errorMessage = threadCount + " threads wrote " + cycles.get() + " files (" + Math.round(megabytes) + "MB) to " + tempDir + " at " + Math.round(writeMbs) +
+                                          "MB/s, slower than the recommended " + Math.round(warnMbs) + "MB/s";
+                testResult.ramification = "Transformations (thumbnails, previews, text extraction for indexing) will be slow";
+                testResult.remedy       = "Point " + SYSTEM_PROPERTY_TMPDIR + " (and TMPDIR) at a directory on a faster local disk";
+            }
+        }
+
+        endTest(callback, testResult);
+    }
+
+
+    /**
+     * Writes a file of the given size, syncing it to the device so that the device, rather than the page
+     * cache, is measured.
+     *
+     * @return The time taken, in ns.
+     */
+    private static long writeFile(final File file, final long size)
+        throws IOException
+    {
+        byte[]           buffer    = new byte[BUFFER_SIZE];
+        long             startTime = System.nanoTime();
+        FileOutputStream out       = new FileOutputStream(file);
+
+        try
+        {
+            for (long written = 0; written < size; written += buffer.length)
+            {
+                out.write(buffer, 0, (int)Math.min(buffer.length, size - written));
+            }
+
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return(System.nanoTime() - startTime);
+    }
+
+
+    /**
+     * Reads the file back, as a transformer would.
+     */
+    private static void readFile(final File file)
+        throws IOException
+    {
+        byte[]          buffer = new byte[BUFFER_SIZE];
+        FileInputStream in     = new FileInputStream(file);
+
+        try
+        {
+            while (in.read(buffer) != -1)
+            {
+                // Just read it
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    private long[] parseFileSizes(final String[] fileSizesMb)
+    {
+        List sizes = new ArrayList();
+
+        for (int i = 0; i < fileSizesMb.length; i++)
+        {
+            Integer size = stringToInteger(fileSizesMb[i].trim());
+
+            if (size != null && size.intValue() > 0)
+            {
+                sizes.add(new Long(size.longValue() * BYTES_PER_MB));
+            }
+        }
+
+        if (sizes.isEmpty())
+        {
+            sizes.add(new Long(BYTES_PER_MB));
+        }
+
+        long[] result = new long[sizes.size()];
+
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = ((Long)sizes.get(i)).longValue();
+        }
+
+        return(result);
+    }
+
+
+    private String canonicalPath(final String path)
+    {
+        String result = null;
+
+        if (path != null && path.trim().length() > 0)
+        {
+            try
+            {
+                result = new File(path).getCanonicalPath();
+            }
+            catch (IOException ioe)
+            {
+                result = new File(path).getAbsolutePath();
+            }
+        }
+
+        return(result);
+    }
+
+}
@@ -26,14 +26,18 @@
 package org.alfresco.extension.environment.validation.validators.database;
 
 
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -43,6 +47,9 @@ import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
 import org.alfresco.extension.environment.validation.ValidatorCallbackHelper;
 import org.alfresco.extension.util.ComparablePair;
+import org.hyperic.sigar.Mem;
+import org.hyperic.sigar.Sigar;
+import org.hyperic.sigar.SigarException;
 
 
 /**
@@ -55,6 +62,122 @@ abstract public class AbstractDBSpecificValidator
     extends ValidatorCallbackHelper
     implements DBSpecificValidator
 {
+    protected final static long BYTES_PER_MB = 1024L * 1024L;
+    
+    private final static int   DEFAULT_FETCH_SIZE = 100;
+    private final static Sigar sigar              = new Sigar();
+    
+    private ServerSettings serverSettings = null;
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getValidationQuery()
+     */
+    public String getValidationQuery()
+    {
+        return("SELECT 1");
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(-1);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getScratchTableDdl(java.lang.String)
+     */
+    public String getScratchTableDdl(final String tableName)
+    {
+        return("CREATE TABLE " + tableName + " (ID BIGINT NOT NULL PRIMARY KEY, VERSION BIGINT NOT NULL, UUID VARCHAR(36) NOT NULL, AUDIT_MODIFIED VARCHAR(30), TYPE_QNAME_ID BIGINT NOT NULL)");
+    }
+    
+    
+    /**
+     * @return The SQL SELECT statement that returns all of the server settings this validator needs, one per row, with the
+     *         setting name in the first column and its value in the second, or null if this validator doesn't read any settings.
+     */
+    protected String getServerSettingsQuery()
+    {
+        return(null);
+    }
+    
+    
+    /**
+     * Returns the server settings snapshot, fetching it (in a single query) the first time it's requested.  If the settings
+     * can't be fetched, every lookup against the snapshot will throw the reason why.
+     * 
+     * @param con The database connection to use <i>(must not be null)</i>.
+     * @return The server settings <i>(will not be null)</i>.
+     */
+    protected ServerSettings getServerSettings(final Connection con)
+    {
+        if (serverSettings == null)
+        {
+            try
+            {
+                serverSettings = loadServerSettings(con);
+            }
+            catch (final SQLException se)
+            {
+                serverSettings = new ServerSettings(se);
+            }
+        }
+        
+        return(serverSettings);
+    }
+    
+    
+    /**
+     * Fetches the server settings.  Subclasses whose settings query may be refused (e.g. for lack of privileges) can override
+     * this to fall back on a narrower query.
+     * 
+     * @see #getServerSettingsQuery()
+     */
+    protected ServerSettings loadServerSettings(final Connection con)
+        throws SQLException
+    {
+        String sqlSelect = getServerSettingsQuery();
+        
+        return(sqlSelect == null ? new ServerSettings() : loadServerSettings(con, sqlSelect));
+    }
+    
+    
+    /**
+     * Executes a SQL SELECT statement that returns one setting per row (name in the first column, value in the second) and
+     * indexes the result.
+     * 
+     * @param con       The database connection to use <i>(must not be null)</i>.
+     * @param sqlSelect The SQL SELECT statement to execute <i>(must not be null, empty or blank)</i>.
+     * @return The server settings <i>(will not be null)</i>.
+     * @throws SQLException
+     */
+    protected ServerSettings loadServerSettings(final Connection con, final String sqlSelect)
+        throws SQLException
+    {
+        final ServerSettings result = new ServerSettings();
+        
+        query(con, sqlSelect, new RowVisitor()
+        {
+            public boolean visit(final Row row)
+                throws SQLException
+            {
+                List columnNames = row.getColumnNames();
+                
+                result.put(row.getString((String)columnNames.get(0)), row.getString((String)columnNames.get(1)));
+                return(true);
+            }
+        });
+        
+        return(result);
+    }
+    
+    
     /**
      * Simple method for executing any arbitrary statement and ignoring the result (including any success / failure conditions).
      * 
@@ -65,22 +188,68 @@ abstract public class AbstractDBSpecificValidator
     protected void sql(final Connection con, final String sql)
         throws SQLException
     {
-        con.prepareStatement(sql).execute();
+        PreparedStatement statement = con.prepareStatement(sql);
+        
+        try
+        {
+            statement.execute();
+        }
+        finally
+        {
+            closeQuietly(statement);
+        }
     }
     
     
+    /**
+     * Executes a SQL SELECT statement and returns the first row.  The statement's maximum row count is set to 1, so that
+     * drivers that otherwise read the entire result set (eg. MySQL's by default, and PostgreSQL's in auto-commit mode)
+     * don't transfer the remaining rows.
+     * 
+     * @return The first row, as a Map of (upper case) column names to values, or null if the query returned no rows.
+     */
     protected Map singletonQuery(final Connection con, final String sqlSelect)
         throws SQLException
     {
-        Map  result    = null;
-        List resultSet = query(con, sqlSelect);
+        final Map[] result = new Map[1];
         
-        if (resultSet.size() > 0)
+        query(con, sqlSelect, 1, 1, new RowVisitor()
         {
-            result = (Map)resultSet.get(0);
+            public boolean visit(final Row row)
+                throws SQLException
+            {
+                result[0] = row.toMap();
+                return(false);
+            }
+        });
+        
+        return(result[0]);
+    }
+    
+    
+    /**
+     * @return The given column of the first row returned by the query, as a positive integer, or -1 if there's no such (positive integer) value.
+     */
+    protected int singletonQueryInt(final Connection con, final String sqlSelect, final String columnName)
+        throws SQLException
+    {
+        int    result = -1;
+        Map    row    = singletonQuery(con, sqlSelect);
+        Object value  = row == null ? null : row.get(columnName);
+        
+        if (value != null)
+        {
+            try
+            {
+                result = Math.max(-1, Integer.parseInt(String.valueOf(value).trim()));
+            }
+            catch (NumberFormatException nfe)
+            {
+                result = -1;
+            }
         }
         
-        return(result);
+        return(result == 0 ? -1 : result);
     }
     
     
@@ -95,30 +264,79 @@ abstract public class AbstractDBSpecificValidator
     protected List query(final Connection con, final String sqlSelect)
         throws SQLException
     {
-        List      result = new ArrayList();
-        ResultSet rs     = null;
+        final List result = new ArrayList();
+        
+        // Copy the entire result set to the list
+        query(con, sqlSelect, new RowVisitor()
+        {
+            public boolean visit(final Row row)
+                throws SQLException
+            {
+                result.add(row.toMap());
+                return(true);
+            }
+        });
+        
+        return(result);
+    }
+    
+    
+    /**
+     * Executes a SQL SELECT statement, streaming the result set to the visitor one row at a time, with the default fetch size.
+     * 
+     * @see #query(Connection, String, int, RowVisitor)
+     */
+    protected int query(final Connection con, final String sqlSelect, final RowVisitor visitor)
+        throws SQLException
+    {
+        return(query(con, sqlSelect, DEFAULT_FETCH_SIZE, visitor));
+    }
+    
+    
+    /**
+     * Executes a SQL SELECT statement, streaming the result set to the visitor one row at a time.  The statement and
+     * result set are always closed before this method returns.
+     * 
+     * @param con       The database connection to use <i>(must not be null)</i>.
+     * @param sqlSelect The SQL SELECT statement to execute <i>(must not be null, empty or blank)</i>.
+     * @param fetchSize The number of rows to fetch from the database server in each round trip <i>(a hint to the driver - 0 for the driver's default)</i>.
+     * @param visitor   The visitor to hand each row to <i>(must not be null)</i>.
+     * @return The number of rows visited.
+     * @throws SQLException
+     */
+    protected int query(final Connection con, final String sqlSelect, final int fetchSize, final RowVisitor visitor)
+        throws SQLException
+    {
+        return(query(con, sqlSelect, fetchSize, 0, visitor));
+    }
+    
+    
+    /**
+     * Executes a SQL SELECT statement, streaming at most the given number of rows to the visitor one row at a time.
+     * 
+     * @param maxRows The maximum number of rows the database server will return <i>(0 for no limit)</i>.
+     * @see #query(Connection, String, int, RowVisitor)
+     */
+    protected int query(final Connection con, final String sqlSelect, final int fetchSize, final int maxRows, final RowVisitor visitor)
+        throws SQLException
+    {
+        int               result    = 0;
+        PreparedStatement statement = con.prepareStatement(sqlSelect);
+        ResultSet         rs        = null;
         
         try
         {
-            rs = con.prepareStatement(sqlSelect).executeQuery();
-
-            List columnNames = getColumnNames(rs.getMetaData());
-
-            // Copy the entire result set to the list
-            while (rs.next())
+            statement.setFetchSize(fetchSize);
+            statement.setMaxRows(maxRows);
+            rs = statement.executeQuery();
+            
+            Row     row  = new Row(rs, getColumnNames(rs.getMetaData()));
+            boolean more = true;
+            
+            while (more && row.next())
             {
-                Map row = new HashMap();
-
-                // Copy the current row to the map
-                for (int i = 0; i < columnNames.size(); i++)
-                {
-                    String columnName  = (String)columnNames.get(i);
-                    Object columnValue = rs.getObject(i + 1);  // Note: columns in JDBC are 1-based
-
-                    row.put(columnName, columnValue);
-                }
-                
-                result.add(row);
+                result++;
+                more = visitor.visit(row);
             }
         }
         finally
@@ -134,12 +352,27 @@ abstract public class AbstractDBSpecificValidator
                     // Ignore this exception - we don't really care if closing the result set fails
                 }
             }
+            
+            closeQuietly(statement);
         }
         
         return(result);
     }
     
     
+    private void closeQuietly(final PreparedStatement statement)
+    {
+        try
+        {
+            statement.close();
+        }
+        catch (SQLException se)
+        {
+            // Ignore this exception - we don't really care if closing the statement fails
+        }
+    }
+    
+    
     protected List getColumnNames(final ResultSetMetaData metadata)
         throws SQLException
     {
@@ -256,6 +489,96 @@ abstract public class AbstractDBSpecificValidator
     }
     
     
+    /**
+     * @param address The IP address (or host name) of the database server, as reported by the server <i>(may be null)</i>.
+     * @return True if the address belongs to this server, in which case this server's hardware is the database server's hardware.
+     */
+    protected boolean isLocalAddress(final String address)
+    {
+        boolean result = false;
+        
+        if (address != null && address.trim().length() > 0)
+        {
+            try
+            {
+                InetAddress inetAddress = InetAddress.getByName(address.trim());
+                
+                result = inetAddress.isLoopbackAddress() || NetworkInterface.getByInetAddress(inetAddress) != null;
+            }
+            catch (final UnknownHostException uhe)
+            {
+                result = false;
+            }
+            catch (final SocketException se)
+            {
+                result = false;
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @param hostname The host name of the database server, as reported by the server <i>(may be null)</i>.
+     * @return True if the host name is this server's host name (ignoring any domain), in which case this server's hardware is the database server's hardware.
+     */
+    protected boolean isLocalHostname(final String hostname)
+    {
+        boolean result = false;
+        
+        if (hostname != null && hostname.trim().length() > 0)
+        {
+            try
+            {
+                result = shortHostname(hostname).equalsIgnoreCase(shortHostname(InetAddress.getLocalHost().getHostName()));
+            }
+            catch (final UnknownHostException uhe)
+            {
+                result = false;
+            }
+        }
+        
+        return(result);
+    }
+    
+    
+    private String shortHostname(final String hostname)
+    {
+        String result = hostname.trim();
+        int    index  = result.indexOf('.');
+        
+        if (index > 0)
+        {
+            result = result.substring(0, index);
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @return The RAM installed in this server, in MB, or -1 if it can't be determined.
+     */
+    protected long getInstalledRamMb()
+    {
+        long result = -1;
+        
+        try
+        {
+            Mem memoryInfo = sigar.getMem();
+            
+            result = memoryInfo.getRam();   // Note: Sigar reports RAM in MB
+        }
+        catch (final SigarException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
     protected ComparablePair getJDBCDriverVersion(final Connection con)
         throws SQLException
     {
@@ -26,6 +26,7 @@
 package org.alfresco.extension.environment.validation.validators.database;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 
 import org.alfresco.extension.environment.validation.ValidatorCallback;
 
@@ -38,5 +39,26 @@ import org.alfresco.extension.environment.validation.ValidatorCallback;
  */
 public interface DBSpecificValidator
 {
-    void validate(final ValidatorCallback callback, final Connection con);
+    /**
+     * @param plannedConnections The number of connections all of the planned Alfresco nodes' connection pools may open
+     *                           (the number of nodes, including any cluster peers, x db.pool.max).
+     */
+    void validate(final ValidatorCallback callback, final Connection con, final int plannedConnections);
+    
+    /**
+     * @return The cheapest possible query for this database (eg. "SELECT 1"), for measuring statement round trip time.
+     */
+    String getValidationQuery();
+    
+    /**
+     * @return The maximum number of concurrent connections the database server accepts, or -1 if it can't be determined.
+     */
+    int getMaxConnections(final Connection con)
+        throws SQLException;
+    
+    /**
+     * @param tableName The name of the table to create <i>(must not be null, empty or blank)</i>.
+     * @return The DDL to create a scratch table shaped like alf_node, with the columns ID (primary key), VERSION, UUID, AUDIT_MODIFIED and TYPE_QNAME_ID.
+     */
+    String getScratchTableDdl(final String tableName);
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators.database;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * This class is a reusable view of the current row of a result set, as passed to a {@link RowVisitor}.  Columns
+ * are looked up by name, case insensitively (unnamed columns are named COLUMN_<i>n</i>).
+ *
+ */
+public final class Row
+{
+    private final ResultSet rs;
+    private final List      columnNames;
+    private final Map       columnIndexes = new HashMap();
+    private int             rowNumber     = 0;
+
+
+    Row(final ResultSet rs, final List columnNames)
+    {
+        this.rs          = rs;
+        this.columnNames = columnNames;
+
+        for (int i = 0; i < columnNames.size(); i++)
+        {
+            columnIndexes.put(columnNames.get(i), new Integer(i + 1));   // Note: columns in JDBC are 1-based
+        }
+    }
+
+
+    /**
+     * Moves the view to the next row of the result set.
+     *
+     * @return False if there are no more rows.
+     */
+    boolean next()
+        throws SQLException
+    {
+        boolean result = rs.next();
+
+        if (result)
+        {
+            rowNumber++;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The (upper case) names of the columns, in result set order.
+     */
+    public List getColumnNames()
+    {
+        return(columnNames);
+    }
+
+
+    /**
+     * @return The 1-based number of the current row.
+     */
+    public int getRowNumber()
+    {
+        return(rowNumber);
+    }
+
+
+    public Object getObject(final String columnName)
+        throws SQLException
+    {
+        return(rs.getObject(indexOf(columnName)));
+    }
+
+
+    /**
+     * @return The value of the column as a string, or null if it's SQL NULL.
+     */
+    public String getString(final String columnName)
+        throws SQLException
+    {
+        return(rs.getString(indexOf(columnName)));
+    }
+
+
+    /**
+     * @return The value of the column as a Long, or null if it's SQL NULL.
+     */
+    public Long getLong(final String columnName)
+        throws SQLException
+    {
+        long value = rs.getLong(indexOf(columnName));
+
+        return(rs.wasNull() ? null : new Long(value));
+    }
+
+
+    /**
+     * @return The value of the column as an Integer, or null if it's SQL NULL.
+     */
+    public Integer getInteger(final String columnName)
+        throws SQLException
+    {
+        int value = rs.getInt(indexOf(columnName));
+
+        return(rs.wasNull() ? null : new Integer(value));
+    }
+
+
+    /**
+     * @return The value of the column as a Boolean, or null if it's SQL NULL.
+     */
+    public Boolean getBoolean(final String columnName)
+        throws SQLException
+    {
+        boolean value = rs.getBoolean(indexOf(columnName));
+
+        return(rs.wasNull() ? null : Boolean.valueOf(value));
+    }
+
+
+    /**
+     * @return A copy of the current row, as a Map of column names to values.
+     */
+    public Map toMap()
+        throws SQLException
+    {
+        Map result = new HashMap();
+
+        for (int i = 0; i < columnNames.size(); i++)
+        {
+            result.put(columnNames.get(i), rs.getObject(i + 1));
+        }
+
+        return(result);
+    }
+
+
+    private int indexOf(final String columnName)
+    {
+        Integer result = (Integer)columnIndexes.get(columnName.toUpperCase(Locale.ENGLISH));
+
+        if (result == null)
+        {
+            throw new IllegalArgumentException("No column named " + columnName + " (columns are " + columnNames + ")");
+        }
+
+        return(result.intValue());
+    }
+
+}
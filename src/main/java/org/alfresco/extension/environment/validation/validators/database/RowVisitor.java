@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.environment.validation.validators.database;
+
+import java.sql.SQLException;
+
+
+/**
+ * This interface defines a callback that is handed each row of a query's result set in turn, by
+ * {@link AbstractDBSpecificValidator#query(java.sql.Connection, String, RowVisitor)}.
+ *
+ */
+public interface RowVisitor
+{
+    /**
+     * @param row The current row <i>(will not be null)</i>.  Note that the same object is passed for every row - it
+     *            is a view of the result set's current row, and must not be retained after this method returns.
+     * @return True to continue to the next row, false to stop (the remaining rows are not fetched).
+     */
+    boolean visit(final Row row)
+        throws SQLException;
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.environment.validation.validators.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * This class is a snapshot of a database server's configuration settings, fetched in a single round trip and then
+ * indexed by (case insensitive) setting name, so that each check reads from the snapshot rather than querying the
+ * server again.
+ * <p>
+ * If the settings couldn't be fetched, the snapshot holds the failure instead, and every lookup rethrows it, so
+ * that each check reports the failure exactly as it would have if it had queried the server itself.
+ *
+ */
+public final class ServerSettings
+{
+    private final Map          settings = new TreeMap();
+    private final SQLException failure;
+
+
+    ServerSettings()
+    {
+        this.failure = null;
+    }
+
+
+    ServerSettings(final SQLException failure)
+    {
+        this.failure = failure;
+    }
+
+
+    void put(final String name, final String value)
+    {
+        if (name != null)
+        {
+            settings.put(name.trim().toLowerCase(Locale.ENGLISH), value);
+        }
+    }
+
+
+    /**
+     * @param name The name of the setting <i>(must not be null)</i>.
+     * @return The value of the setting, or null if the server has no such setting (or its value is null).
+     * @throws SQLException If the settings couldn't be fetched.
+     */
+    public String getValue(final String name)
+        throws SQLException
+    {
+        checkFailure();
+        return((String)settings.get(name.toLowerCase(Locale.ENGLISH)));
+    }
+
+
+    /**
+     * @param name The name of the setting <i>(must not be null)</i>.
+     * @return The value of the setting as an int, or -1 if the server has no such setting or its value isn't a positive integer.
+     * @throws SQLException If the settings couldn't be fetched.
+     */
+    public int getInt(final String name)
+        throws SQLException
+    {
+        return((int)Math.min(Integer.MAX_VALUE, getLong(name)));
+    }
+
+
+    /**
+     * @param name The name of the setting <i>(must not be null)</i>.
+     * @return The value of the setting as a long, or -1 if the server has no such setting or its value isn't a positive integer.
+     * @throws SQLException If the settings couldn't be fetched.
+     */
+    public long getLong(final String name)
+        throws SQLException
+    {
+        long   result = -1;
+        String value  = getValue(name);
+
+        if (value != null)
+        {
+            try
+            {
+                result = Math.max(-1, Long.parseLong(value.trim()));
+            }
+            catch (NumberFormatException nfe)
+            {
+                result = -1;
+            }
+        }
+
+        return(result == 0 ? -1 : result);
+    }
+
+
+    /**
+     * @param prefix The (case insensitive) prefix of the setting names <i>(must not be null)</i>.
+     * @return The (lower case) names of all settings that start with the prefix, in alphabetical order.
+     * @throws SQLException If the settings couldn't be fetched.
+     */
+    public List getNames(final String prefix)
+        throws SQLException
+    {
+        checkFailure();
+
+        List   result          = new ArrayList();
+        String lowerCasePrefix = prefix.toLowerCase(Locale.ENGLISH);
+
+        for (Iterator iter = settings.keySet().iterator(); iter.hasNext(); )
+        {
+            String name = (String)iter.next();
+
+            if (name.startsWith(lowerCasePrefix))
+            {
+                result.add(name);
+            }
+        }
+
+        return(Collections.unmodifiableList(result));
+    }
+
+
+    /**
+     * @return The number of settings in the snapshot (0 if the settings couldn't be fetched).
+     */
+    public int size()
+    {
+        return(settings.size());
+    }
+
+
+    private void checkFailure()
+        throws SQLException
+    {
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+}
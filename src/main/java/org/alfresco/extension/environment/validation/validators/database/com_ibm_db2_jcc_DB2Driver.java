@@ -27,7 +27,6 @@ package org.alfresco.extension.environment.validation.validators.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Map;
 
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
@@ -53,19 +52,77 @@ public class com_ibm_db2_jcc_DB2Driver
     private final static String[] DB2_URI                            = { "http://www-01.ibm.com/software/data/db2/linux-unix-windows/download.html" };
     private final static String[] JDBC_URI                           = DB2_URI;
     private final static String[] DB2_CONFIGURING_CHARACTER_SETS_URI = { "http://publib.boulder.ibm.com/infocenter/db2luw/v9r7/index.jsp?topic=/com.ibm.db2.luw.admin.nls.doc/doc/c0004846.html" };
+    
+    // Server settings - the SYSIBMADM views need privileges that env_get_inst_info doesn't, so fall back on the version alone
+    private final static String VERSION_SETTINGS_QUERY = "SELECT 'service_level', SERVICE_LEVEL FROM TABLE (sysproc.env_get_inst_info()) AS A";
+    private final static String ALL_SETTINGS_QUERY     = "SELECT NAME, VALUE FROM SYSIBMADM.DBCFG WHERE NAME = 'codeset' " +
+                                                         "UNION ALL SELECT NAME, VALUE FROM SYSIBMADM.DBMCFG WHERE NAME = 'max_connections' " +
+                                                         "UNION ALL " + VERSION_SETTINGS_QUERY;
 
     
     /**
-     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection)
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection, int)
      */
-    public void validate(final ValidatorCallback callback, final Connection con)
+    public void validate(final ValidatorCallback callback, final Connection con, final int plannedConnections)
     {
+        ServerSettings settings = getServerSettings(con);
+        
         validateJdbcDriverVersion(callback, con, SUPPORTED_JDBC_DRIVER_VERSIONS, JDBC_URI);
-        validateDatabaseVersion(callback, con);
-        validateEncoding(callback, con);
+        validateDatabaseVersion(callback, settings);
+        validateEncoding(callback, settings);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getValidationQuery()
+     */
+    public String getValidationQuery()
+    {
+        return("VALUES 1");
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(getServerSettings(con).getInt("max_connections"));
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#getServerSettingsQuery()
+     */
+    protected String getServerSettingsQuery()
+    {
+        return(ALL_SETTINGS_QUERY);
     }
     
-    private void validateDatabaseVersion(final ValidatorCallback callback, final Connection con)
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#loadServerSettings(java.sql.Connection)
+     */
+    protected ServerSettings loadServerSettings(final Connection con)
+        throws SQLException
+    {
+        ServerSettings result = null;
+        
+        try
+        {
+            result = super.loadServerSettings(con);
+        }
+        catch (final SQLException se)
+        {
+            // Most likely SQL0551N (no privilege on the SYSIBMADM views) - the encoding and max connections won't be known, but the version will be
+            result = loadServerSettings(con, VERSION_SETTINGS_QUERY);
+        }
+        
+        return(result);
+    }
+    
+    private void validateDatabaseVersion(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "DB2 Version");
         
@@ -73,47 +130,33 @@ public class com_ibm_db2_jcc_DB2Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT SERVICE_LEVEL FROM TABLE (sysproc.env_get_inst_info()) AS A");
+            String version = settings.getValue("service_level");
             
-            if (row != null)
+            if (version != null && version.trim().length() > 0)
             {
-                String version = (String)row.get("SERVICE_LEVEL");
+                if (version.startsWith("DB2 v"))
+                {
+                    version = version.substring("DB2 v".length());
+                }
+                
+                if (version.startsWith("DB2 "))
+                {
+                    version = version.substring("DB2 ".length());
+                }
+                
+                progress(callback, version);
                 
-                if (version != null && version.trim().length() > 0)
+                if (version.startsWith(SUPPORTED_DB2_VERSION))
                 {
-                    if (version.startsWith("DB2 v"))
-                    {
-                        version = version.substring("DB2 v".length());
-                    }
-                    
-                    if (version.startsWith("DB2 "))
-                    {
-                        version = version.substring("DB2 ".length());
-                    }
-                    
-                    progress(callback, version);
-                    
-                    if (version.startsWith(SUPPORTED_DB2_VERSION))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.FAIL;
-                        testResult.errorMessage        = "Unsupported DB2 version";
-                        testResult.ramification        = "Alfresco will not function correctly on this version";
-                        testResult.remedy              = "Install DB2 " + SUPPORTED_DB2_VERSION;
-                        testResult.urisMoreInformation = DB2_URI;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine DB2 version";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that DB2 " + SUPPORTED_DB2_VERSION + " is installed";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Unsupported DB2 version";
+                    testResult.ramification        = "Alfresco will not function correctly on this version";
+                    testResult.remedy              = "Install DB2 " + SUPPORTED_DB2_VERSION;
+                    testResult.urisMoreInformation = DB2_URI;
                 }
             }
             else
@@ -141,7 +184,7 @@ public class com_ibm_db2_jcc_DB2Driver
     }
     
     
-    private final void validateEncoding(final ValidatorCallback callback, final Connection con)
+    private final void validateEncoding(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Server Encoding");
         
@@ -149,37 +192,23 @@ public class com_ibm_db2_jcc_DB2Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT VALUE AS ENCODING FROM SYSIBMADM.DBCFG WHERE NAME = 'codeset'");
+            String encoding = settings.getValue("codeset");
             
-            if (row != null)
+            if (encoding != null && encoding.trim().length() > 0)
             {
-                String encoding = (String)row.get("ENCODING");
+                progress(callback, encoding);
                 
-                if (encoding != null && encoding.trim().length() > 0)
+                if ("UTF-8".equals(encoding))
                 {
-                    progress(callback, encoding);
-                    
-                    if ("UTF-8".equals(encoding))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.FAIL;
-                        testResult.errorMessage        = "Database character encoding must be 'UTF-8' but is not";
-                        testResult.ramification        = "Alfresco will not function correctly";
-                        testResult.remedy              = "Correct the DB2 character set configuration and rerun this test";
-                        testResult.urisMoreInformation = DB2_CONFIGURING_CHARACTER_SETS_URI;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.WARN;
-                    testResult.errorMessage = "Unable to determine database character encoding";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that the database character encoding is 'UTF-8'";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Database character encoding must be 'UTF-8' but is not";
+                    testResult.ramification        = "Alfresco will not function correctly";
+                    testResult.remedy              = "Correct the DB2 character set configuration and rerun this test";
+                    testResult.urisMoreInformation = DB2_CONFIGURING_CHARACTER_SETS_URI;
                 }
             }
             else
@@ -27,11 +27,12 @@ package org.alfresco.extension.environment.validation.validators.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.List;
 
 import org.alfresco.extension.environment.validation.AbstractValidator;
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.environment.validation.validators.PerformanceConfiguration;
 import org.alfresco.extension.util.ComparablePair;
 
 
@@ -47,6 +48,7 @@ public class net_sourceforge_jtds_jdbc_Driver
     // SQL Server product versions
     private final static ComparablePair[] SUPPORTED_JDBC_DRIVER_VERSION = { new ComparablePair(new Integer(1), new Integer(2)) };
     private final static String           MS_SQL_SERVER_2008_R2         = "10.50.";
+    private final static int              MS_SQL_SERVER_2012_MAJOR      = 11;
 
     
     // "More information" URIs
@@ -56,21 +58,151 @@ public class net_sourceforge_jtds_jdbc_Driver
     private final static String[] MS_SQL_SERVER_CONFIGURING_CHARACTER_SETS_URI = { "http://msdn.microsoft.com/en-us/library/ms144260(v=SQL.100).aspx" };
     private final static String[] SNAPSHOT_ISOLATION_URIS                      = { "http://msdn.microsoft.com/en-us/library/ms175095.aspx", "http://wiki.alfresco.com/wiki/Database_Configuration#Microsoft_SQL_Server_example" };
     private final static String[] ALFRESCO_SPM_AND_MS_SQL_SERVER_URIS          = { AbstractValidator.ALFRESCO_SUMMARY_SPM_URI_STR, MS_SQL_SERVER_URI_STR }; 
+    private final static String[] READ_COMMITTED_SNAPSHOT_URIS                 = { "http://msdn.microsoft.com/en-us/library/ms188277(v=SQL.100).aspx", "http://wiki.alfresco.com/wiki/Database_Configuration#Microsoft_SQL_Server_example" };
+    private final static String[] PARALLELISM_URI                              = { "http://msdn.microsoft.com/en-us/library/ms181007(v=SQL.100).aspx" };
+    private final static String[] SERVER_MEMORY_URI                            = { "http://msdn.microsoft.com/en-us/library/ms178067(v=SQL.100).aspx" };
+    private final static String[] STATISTICS_URI                               = { "http://msdn.microsoft.com/en-us/library/ms190397(v=SQL.100).aspx" };
+    private final static String[] AUTOGROWTH_URI                               = { "http://support.microsoft.com/kb/315512" };
+    private final static String[] TEMPDB_URI                                   = { "http://msdn.microsoft.com/en-us/library/ms175527(v=SQL.100).aspx" };
+    
+    // Server settings - the sys catalog views are SQL Server 2005+ only, and sys.dm_os_sys_info needs VIEW SERVER STATE (and
+    // reports RAM as physical_memory_in_bytes before 2012, physical_memory_kb from 2012), so the query is chosen by version and
+    // falls back on the ones before it.  Strings are collated to the database's default, as server scoped names
+    // (eg. sys.configurations) can't be UNIONed with database scoped ones if the collations differ.
+    private final static String CONFIGURATION_PREFIX   = "configuration.";
+    private final static String FILE_PREFIX            = "file.";
+    private final static String UNLIMITED_MEMORY       = "2147483647";
+    private final static String SERVER_SETTINGS_QUERY  = "SELECT 'ProductVersion' COLLATE DATABASE_DEFAULT, CAST(SERVERPROPERTY('ProductVersion') AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT" +
+                                                         " UNION ALL SELECT 'Edition' COLLATE DATABASE_DEFAULT, CAST(SERVERPROPERTY('Edition') AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT" +
+                                                         " UNION ALL SELECT 'MachineName' COLLATE DATABASE_DEFAULT, CAST(SERVERPROPERTY('MachineName') AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT" +
+                                                         " UNION ALL SELECT 'max_connections' COLLATE DATABASE_DEFAULT, CAST(@@MAX_CONNECTIONS AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT" +
+                                                         " UNION ALL SELECT 'database_name' COLLATE DATABASE_DEFAULT, CAST(DB_NAME() AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT";
+    private final static String CATALOG_SETTINGS_QUERY = SERVER_SETTINGS_QUERY +
+                                                         " UNION ALL SELECT ('" + CONFIGURATION_PREFIX + "' + CAST(name AS NVARCHAR(128))) COLLATE DATABASE_DEFAULT, CAST(value_in_use AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT" +
+                                                         "  FROM sys.configurations WHERE name IN ('max degree of parallelism', 'cost threshold for parallelism', 'max server memory (MB)')" +
+                                                         " UNION ALL SELECT 'snapshot_isolation_state_desc' COLLATE DATABASE_DEFAULT, CAST(snapshot_isolation_state_desc AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.databases WHERE name = DB_NAME()" +
+                                                         " UNION ALL SELECT 'is_read_committed_snapshot_on' COLLATE DATABASE_DEFAULT, CAST(is_read_committed_snapshot_on AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.databases WHERE name = DB_NAME()" +
+                                                         " UNION ALL SELECT 'is_auto_create_stats_on' COLLATE DATABASE_DEFAULT, CAST(is_auto_create_stats_on AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.databases WHERE name = DB_NAME()" +
+                                                         " UNION ALL SELECT 'is_auto_update_stats_on' COLLATE DATABASE_DEFAULT, CAST(is_auto_update_stats_on AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.databases WHERE name = DB_NAME()" +
+                                                         " UNION ALL SELECT ('" + FILE_PREFIX + "' + CAST(name AS NVARCHAR(128))) COLLATE DATABASE_DEFAULT," +
+                                                         "                  (CASE WHEN is_percent_growth = 1 THEN CAST(growth AS NVARCHAR(20)) + '%'" +
+                                                         "                        ELSE CAST(CAST(growth AS BIGINT) * 8192 AS NVARCHAR(20)) END) COLLATE DATABASE_DEFAULT FROM sys.database_files" +
+                                                         " UNION ALL SELECT 'tempdb_data_files' COLLATE DATABASE_DEFAULT, CAST(COUNT(*) AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM tempdb.sys.database_files WHERE type = 0";
+    private final static String SYS_INFO_QUERY         = CATALOG_SETTINGS_QUERY +
+                                                         " UNION ALL SELECT 'cpu_count' COLLATE DATABASE_DEFAULT, CAST(cpu_count AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.dm_os_sys_info";
+    private final static String ALL_SETTINGS_QUERY     = SYS_INFO_QUERY +
+                                                         " UNION ALL SELECT 'physical_memory_kb' COLLATE DATABASE_DEFAULT, CAST(physical_memory_kb AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.dm_os_sys_info";
+    private final static String PRE_2012_ALL_QUERY     = SYS_INFO_QUERY +
+                                                         " UNION ALL SELECT 'physical_memory_kb' COLLATE DATABASE_DEFAULT, CAST(physical_memory_in_bytes / 1024 AS NVARCHAR(128)) COLLATE DATABASE_DEFAULT FROM sys.dm_os_sys_info";
+    
+    // Performance thresholds (see performance.properties)
+    private final static int    DEFAULT_MAX_DOP                    = 8;
+    private final static int    DEFAULT_COST_THRESHOLD_MIN         = 25;
+    private final static double DEFAULT_MEMORY_RAM_MAX_RATIO       = 0.8;
+    private final static long   DEFAULT_AUTOGROWTH_MIN_MB          = 64;
 
     
     /* (non-Javadoc)
-     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection)
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection, int)
      */
-    public void validate(ValidatorCallback callback, Connection con)
+    public void validate(ValidatorCallback callback, Connection con, int plannedConnections)
     {
+        ServerSettings settings = getServerSettings(con);
+        
         validateJdbcDriverVersion(callback, con, SUPPORTED_JDBC_DRIVER_VERSION, JDBC_URI);
-        validateDatabaseVersion(callback, con);
-        validateDatabaseEdition(callback, con);
-        validateSnapshotIsolation(callback, con);
+        validateDatabaseVersion(callback, settings);
+        validateDatabaseEdition(callback, settings);
+        validateSnapshotIsolation(callback, settings);
+        validateReadCommittedSnapshot(callback, settings);
+        validateMaxDegreeOfParallelism(callback, settings);
+        validateCostThreshold(callback, settings);
+        validateMaxServerMemory(callback, settings);
+        validateAutoUpdateStatistics(callback, settings);
+        validateFileAutogrowth(callback, settings);
+        validateTempDbFiles(callback, settings);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(getServerSettings(con).getInt("max_connections"));
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#getServerSettingsQuery()
+     */
+    protected String getServerSettingsQuery()
+    {
+        return(ALL_SETTINGS_QUERY);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#loadServerSettings(java.sql.Connection)
+     */
+    protected ServerSettings loadServerSettings(final Connection con)
+        throws SQLException
+    {
+        ServerSettings result = null;
+        
+        try
+        {
+            result = loadServerSettings(con, getMajorVersion(con) < MS_SQL_SERVER_2012_MAJOR ? PRE_2012_ALL_QUERY : ALL_SETTINGS_QUERY);
+        }
+        catch (final SQLException se)
+        {
+            try
+            {
+                // No VIEW SERVER STATE - the server's cores and RAM will only be known if it's this server
+                result = loadServerSettings(con, CATALOG_SETTINGS_QUERY);
+            }
+            catch (final SQLException se2)
+            {
+                // Most likely a pre-2005 server (no sys views) - the version check will report that, and the configuration won't be known
+                result = loadServerSettings(con, SERVER_SETTINGS_QUERY);
+            }
+        }
+        
+        return(result);
     }
     
     
-    protected void validateDatabaseVersion(final ValidatorCallback callback, final Connection con)
+    /*
+     * Returns the server's major version (eg. 10 for 2008 R2), as reported when the connection was established - if it's
+     * unavailable the server is assumed to be pre-2012, as that's the only version this validator supports.
+     */
+    private int getMajorVersion(final Connection con)
+    {
+        int result = -1;
+        
+        try
+        {
+            result = con.getMetaData().getDatabaseMajorVersion();
+        }
+        catch (final SQLException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getScratchTableDdl(java.lang.String)
+     */
+    public String getScratchTableDdl(final String tableName)
+    {
+        return("CREATE TABLE " + tableName + " (ID BIGINT NOT NULL PRIMARY KEY, VERSION BIGINT NOT NULL, UUID NVARCHAR(36) NOT NULL, AUDIT_MODIFIED NVARCHAR(30), TYPE_QNAME_ID BIGINT NOT NULL)");
+    }
+    
+    
+    protected void validateDatabaseVersion(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "MS SQL Server Version");
         
@@ -78,38 +210,24 @@ public class net_sourceforge_jtds_jdbc_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT SERVERPROPERTY('ProductVersion') AS VERSION");
+            String version = settings.getValue("ProductVersion");
             
-            if (row != null)
+            if (version != null && version.trim().length() > 0)
             {
-                String version = (String)row.get("VERSION");
-                
-                if (version != null && version.trim().length() > 0)
+                if (version.startsWith(MS_SQL_SERVER_2008_R2))
                 {
-                    if (version.startsWith(MS_SQL_SERVER_2008_R2))
-                    {
-                        progress(callback, "2008R2");
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        progress(callback, version);
-                        
-                        testResult.resultType          = TestResult.FAIL;
-                        testResult.errorMessage        = "Unsupported MS SQL Server version";
-                        testResult.ramification        = "Alfresco will not function correctly on this version";
-                        testResult.remedy              = "Install MS SQL Server 2008 R2";
-                        testResult.urisMoreInformation = ALFRESCO_SPM_AND_MS_SQL_SERVER_URIS;
-                    }
+                    progress(callback, "2008R2");
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
+                    progress(callback, version);
                     
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine MS SQL Server version";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Install MS SQL Server 2008 R2";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Unsupported MS SQL Server version";
+                    testResult.ramification        = "Alfresco will not function correctly on this version";
+                    testResult.remedy              = "Install MS SQL Server 2008 R2";
+                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_MS_SQL_SERVER_URIS;
                 }
             }
             else
@@ -137,7 +255,7 @@ public class net_sourceforge_jtds_jdbc_Driver
     }
     
     
-    protected void validateDatabaseEdition(final ValidatorCallback callback, final Connection con)
+    protected void validateDatabaseEdition(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "MS SQL Server Edition");
         
@@ -145,40 +263,26 @@ public class net_sourceforge_jtds_jdbc_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT SERVERPROPERTY('Edition') AS EDITION");
+            String edition = settings.getValue("Edition");
             
-            if (row != null)
+            if (edition != null && edition.trim().length() > 0)
             {
-                String edition = (String)row.get("EDITION");
+                progress(callback, edition);
                 
-                if (edition != null && edition.trim().length() > 0)
+                if (edition.startsWith("Enterprise")  ||
+                    edition.startsWith("Standard")    ||
+                    edition.startsWith("Data Center") ||
+                    edition.startsWith("Small Business Server"))
                 {
-                    progress(callback, edition);
-                    
-                    if (edition.startsWith("Enterprise")  ||
-                        edition.startsWith("Standard")    ||
-                        edition.startsWith("Data Center") ||
-                        edition.startsWith("Small Business Server"))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.WARN;
-                        testResult.errorMessage        = "Unsupported MS SQL Server edition";
-                        testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                        testResult.remedy              = "Install MS SQL Server 2008 R2, Standard, Small Business, Enterprise or Data Center Edition";
-                        testResult.urisMoreInformation = ALFRESCO_SPM_AND_MS_SQL_SERVER_URIS;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine MS SQL Server edition";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that the MS SQL Server is Standard, Small Business, Enterprise or Data Center Edition";
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Unsupported MS SQL Server edition";
+                    testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
+                    testResult.remedy              = "Install MS SQL Server 2008 R2, Standard, Small Business, Enterprise or Data Center Edition";
+                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_MS_SQL_SERVER_URIS;
                 }
             }
             else
@@ -206,60 +310,32 @@ public class net_sourceforge_jtds_jdbc_Driver
     }
     
     
-    private void validateSnapshotIsolation(final ValidatorCallback callback, final Connection con)
+    private void validateSnapshotIsolation(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Snapshot Isolation");
         
         TestResult testResult = new TestResult();
+        String     manualSql  = "SELECT snapshot_isolation_state_desc FROM sys.databases WHERE name = DB_NAME();";
         
         try
         {
-            String databaseName = con.getCatalog();
+            String databaseName      = settings.getValue("database_name");
+            String snapshotIsolation = settings.getValue("snapshot_isolation_state_desc");
             
-            if (databaseName != null && databaseName.trim().length() > 0)
+            if (snapshotIsolation != null && snapshotIsolation.trim().length() > 0)
             {
-                Map row = singletonQuery(con, "SELECT snapshot_isolation_state_desc AS SNAPSHOT_ISOLATION FROM sys.databases WHERE name = '" + databaseName + "'");
+                progress(callback, snapshotIsolation.toLowerCase());
                 
-                if (row != null)
+                if (snapshotIsolation.trim().equalsIgnoreCase("on"))
                 {
-                    String snapshotIsolation = (String)row.get("SNAPSHOT_ISOLATION");
-                    
-                    if (snapshotIsolation != null && snapshotIsolation.trim().length() > 0)
-                    {
-                        progress(callback, snapshotIsolation.toLowerCase());
-                        
-                        if (snapshotIsolation.equalsIgnoreCase("on"))
-                        {
-                            testResult.resultType = TestResult.PASS;
-                        }
-                        else
-                        {
-                            testResult.resultType          = TestResult.FAIL;
-                            testResult.errorMessage        = "Unsupported MS SQL Server configuration - snapshot isolation must be enabled for the " + databaseName + " database";
-                            testResult.ramification        = "Alfresco will not function correctly on this database";
-                            testResult.remedy              = "Execute 'ALTER DATABASE " + databaseName + " SET ALLOW_SNAPSHOT_ISOLATION ON;' to enable snapshot isolation";
-                            testResult.urisMoreInformation = SNAPSHOT_ISOLATION_URIS;
-                        }
-                    }
-                    else
-                    {
-                        progress(callback, "unknown");
-                        
-                        testResult.resultType   = TestResult.FAIL;
-                        testResult.errorMessage = "Unable to determine snapshot isolation for database " + databaseName;
-                        testResult.ramification = "Alfresco may not function correctly";
-                        testResult.remedy       = "Manually validate that snapshot isolation is enabled by running the following query and ensuring the resulting value is 'ON':  SELECT snapshot_isolation_state_desc AS SNAPSHOT_ISOLATION FROM sys.databases WHERE name = '" + databaseName + "'";
-                        testResult.urisMoreInformation = SNAPSHOT_ISOLATION_URIS;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine snapshot isolation for database " + databaseName;
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that snapshot isolation is enabled by running the following query and ensuring the resulting value is 'ON':  SELECT snapshot_isolation_state_desc AS SNAPSHOT_ISOLATION FROM sys.databases WHERE name = '" + databaseName + "'";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Unsupported MS SQL Server configuration - snapshot isolation must be enabled for the " + databaseName + " database";
+                    testResult.ramification        = "Alfresco will not function correctly on this database";
+                    testResult.remedy              = "Execute 'ALTER DATABASE " + databaseName + " SET ALLOW_SNAPSHOT_ISOLATION ON;' to enable snapshot isolation";
                     testResult.urisMoreInformation = SNAPSHOT_ISOLATION_URIS;
                 }
             }
@@ -267,10 +343,10 @@ public class net_sourceforge_jtds_jdbc_Driver
             {
                 progress(callback, "unknown");
                 
-                testResult.resultType   = TestResult.FAIL;
-                testResult.errorMessage = "Unable to determine snapshot isolation (could not determine database name)";
-                testResult.ramification = "Alfresco may not function correctly";
-                testResult.remedy       = "Manually validate that snapshot isolation is enabled by running the following query and ensuring the resulting value is 'ON':  SELECT snapshot_isolation_state_desc AS SNAPSHOT_ISOLATION FROM sys.databases WHERE name = '" + databaseName + "'";
+                testResult.resultType          = TestResult.FAIL;
+                testResult.errorMessage        = "Unable to determine snapshot isolation" + (databaseName == null ? "" : " for database " + databaseName);
+                testResult.ramification        = "Alfresco may not function correctly";
+                testResult.remedy              = "Manually validate that snapshot isolation is enabled by running the following query and ensuring the resulting value is 'ON':  " + manualSql;
                 testResult.urisMoreInformation = SNAPSHOT_ISOLATION_URIS;
             }
         }
@@ -279,15 +355,509 @@ public class net_sourceforge_jtds_jdbc_Driver
             progress(callback, "unknown");
             
             testResult.resultType          = TestResult.FAIL;
-            testResult.errorMessage        = "Unable to determine snapshot isolation";
+            testResult.errorMessage        = "Unable to determine snapshot isolation: " + se.getMessage();
             testResult.ramification        = "Alfresco may not function correctly";
-            testResult.remedy              = "Manually validate that snapshot isolation is enabled in the Alfresco database";
+            testResult.remedy              = "Manually validate that snapshot isolation is enabled by running the following query and ensuring the resulting value is 'ON':  " + manualSql;
             testResult.urisMoreInformation = SNAPSHOT_ISOLATION_URIS;
             testResult.rootCause           = se;
         }
         
         endTest(callback, testResult);
     }
+    
+    
+    /**
+     * @return The number of CPU cores in the database server, or -1 if it's not known (ie. sys.dm_os_sys_info couldn't be read,
+     *         and SQL Server isn't running on this server).
+     */
+    private int getServerCores(final ServerSettings settings)
+    {
+        int result = -1;
+        
+        try
+        {
+            result = settings.getInt("cpu_count");
+            
+            if (result <= 0 && isLocalHostname(settings.getValue("MachineName")))
+            {
+                result = Runtime.getRuntime().availableProcessors();
+            }
+        }
+        catch (final SQLException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @return The RAM in the database server in MB, or -1 if it's not known (ie. sys.dm_os_sys_info couldn't be read, and
+     *         SQL Server isn't running on this server).
+     */
+    private long getServerRamMb(final ServerSettings settings)
+    {
+        long result = -1;
+        
+        try
+        {
+            long physicalMemoryKb = settings.getLong("physical_memory_kb");
+            
+            if (physicalMemoryKb > 0)
+            {
+                result = physicalMemoryKb / 1024;
+            }
+            else if (isLocalHostname(settings.getValue("MachineName")))
+            {
+                result = getInstalledRamMb();
+            }
+        }
+        catch (final SQLException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
+    private void validateReadCommittedSnapshot(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Read Committed Snapshot");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String readCommittedSnapshot = settings.getValue("is_read_committed_snapshot_on");
+            
+            if (readCommittedSnapshot != null && readCommittedSnapshot.trim().length() > 0)
+            {
+                boolean on = "1".equals(readCommittedSnapshot.trim());
+                
+                progress(callback, on ? "on" : "off");
+                
+                if (on)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "READ_COMMITTED_SNAPSHOT is not enabled";
+                    testResult.ramification        = "Alfresco's readers and writers will block each other, increasing response times and deadlocks under concurrent load";
+                    testResult.remedy              = "Execute 'ALTER DATABASE <database> SET READ_COMMITTED_SNAPSHOT ON;' while no other connections are open to the database";
+                    testResult.urisMoreInformation = READ_COMMITTED_SNAPSHOT_URIS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine whether READ_COMMITTED_SNAPSHOT is enabled";
+                testResult.ramification        = "Alfresco's readers and writers may block each other under concurrent load";
+                testResult.remedy              = "Manually execute the SQL statement 'SELECT is_read_committed_snapshot_on FROM sys.databases WHERE name = DB_NAME();' and ensure that the value is 1";
+                testResult.urisMoreInformation = READ_COMMITTED_SNAPSHOT_URIS;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine whether READ_COMMITTED_SNAPSHOT is enabled: " + se.getMessage();
+            testResult.ramification        = "Alfresco's readers and writers may block each other under concurrent load";
+            testResult.remedy              = "Manually execute the SQL statement 'SELECT is_read_committed_snapshot_on FROM sys.databases WHERE name = DB_NAME();' and ensure that the value is 1";
+            testResult.urisMoreInformation = READ_COMMITTED_SNAPSHOT_URIS;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateMaxDegreeOfParallelism(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Max Degree of Parallelism");
+        
+        TestResult testResult = new TestResult();
+        int        maximum    = PerformanceConfiguration.getInt("db.sqlserver.maxdop.max", DEFAULT_MAX_DOP);
+        int        cores      = getServerCores(settings);
+        
+        try
+        {
+            String maxDopStr = settings.getValue(CONFIGURATION_PREFIX + "max degree of parallelism");
+            
+            if (maxDopStr != null && maxDopStr.trim().length() > 0)
+            {
+                int maxDop = Math.max(0, settings.getInt(CONFIGURATION_PREFIX + "max degree of parallelism"));
+                
+                progress(callback, (maxDop == 0 ? "unlimited" : String.valueOf(maxDop)) + (cores > 0 ? " (" + cores + " cores)" : ""));
+                
+                if (maxDop > maximum || (maxDop == 0 && (cores <= 0 || cores > maximum)))
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Queries may run on more than " + maximum + " cores in parallel";
+                    testResult.ramification        = "A single large Alfresco query can occupy most of the server's cores, and the coordination overhead (CXPACKET waits) slows down concurrent queries";
+                    testResult.remedy              = "Set 'max degree of parallelism' to " + (cores > 0 ? Math.min(cores, maximum) : maximum) + " or less " +
+                                                     "(eg. EXEC sp_configure 'max degree of parallelism', " + maximum + "; RECONFIGURE;)";
+                    testResult.urisMoreInformation = PARALLELISM_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine max degree of parallelism";
+                testResult.ramification        = "A single large Alfresco query may occupy most of the server's cores, slowing down concurrent queries";
+                testResult.remedy              = "Manually validate that 'max degree of parallelism' is between 1 and " + maximum;
+                testResult.urisMoreInformation = PARALLELISM_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine max degree of parallelism: " + se.getMessage();
+            testResult.ramification        = "A single large Alfresco query may occupy most of the server's cores, slowing down concurrent queries";
+            testResult.remedy              = "Manually validate that 'max degree of parallelism' is between 1 and " + maximum;
+            testResult.urisMoreInformation = PARALLELISM_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateCostThreshold(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Cost Threshold");
+        
+        TestResult testResult = new TestResult();
+        int        minimum    = PerformanceConfiguration.getInt("db.sqlserver.cost.threshold.min", DEFAULT_COST_THRESHOLD_MIN);
+        
+        try
+        {
+            String costThresholdStr = settings.getValue(CONFIGURATION_PREFIX + "cost threshold for parallelism");
+            
+            if (costThresholdStr != null && costThresholdStr.trim().length() > 0)
+            {
+                int costThreshold = Math.max(0, settings.getInt(CONFIGURATION_PREFIX + "cost threshold for parallelism"));
+                
+                progress(callback, String.valueOf(costThreshold));
+                
+                if (costThreshold >= minimum)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "'cost threshold for parallelism' is less than " + minimum;
+                    testResult.ramification        = "Alfresco's many small queries will be run in parallel, adding coordination overhead (CXPACKET waits) rather than speeding them up";
+                    testResult.remedy              = "Set 'cost threshold for parallelism' to at least " + minimum + " (eg. EXEC sp_configure 'cost threshold for parallelism', " + minimum + "; RECONFIGURE;)";
+                    testResult.urisMoreInformation = PARALLELISM_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine cost threshold for parallelism";
+                testResult.ramification        = "Alfresco's many small queries may be run in parallel, adding coordination overhead";
+                testResult.remedy              = "Manually validate that 'cost threshold for parallelism' is at least " + minimum;
+                testResult.urisMoreInformation = PARALLELISM_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine cost threshold for parallelism: " + se.getMessage();
+            testResult.ramification        = "Alfresco's many small queries may be run in parallel, adding coordination overhead";
+            testResult.remedy              = "Manually validate that 'cost threshold for parallelism' is at least " + minimum;
+            testResult.urisMoreInformation = PARALLELISM_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateMaxServerMemory(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Max Server Memory");
+        
+        TestResult testResult = new TestResult();
+        double     maxRatio   = PerformanceConfiguration.getDouble("db.sqlserver.memory.ram.max.ratio", DEFAULT_MEMORY_RAM_MAX_RATIO);
+        
+        try
+        {
+            String maxServerMemory   = settings.getValue(CONFIGURATION_PREFIX + "max server memory (MB)");
+            long   maxServerMemoryMb = settings.getLong(CONFIGURATION_PREFIX + "max server memory (MB)");
+            long   ramMb             = getServerRamMb(settings);
+            
+            if (maxServerMemoryMb > 0)
+            {
+                boolean unlimited = UNLIMITED_MEMORY.equals(maxServerMemory.trim());
+                
+                progress(callback, (unlimited ? "unlimited" : maxServerMemoryMb + "MB") + (ramMb > 0 ? " (RAM " + ramMb + "MB)" : ""));
+                
+                if (unlimited || (ramMb > 0 && maxServerMemoryMb > ramMb * maxRatio))
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = unlimited ? "SQL Server's memory usage is not limited" : "SQL Server may use more than " + Math.round(maxRatio * 100) + "% of the RAM in the database server";
+                    testResult.ramification        = "SQL Server's buffer pool will grow until the OS (and any other processes on the server) are starved of memory and paged out, slowing down every database operation";
+                    testResult.remedy              = "Set 'max server memory (MB)' to " + (ramMb > 0 ? "no more than " + Math.round(ramMb * maxRatio) + "MB" : "the database server's RAM less what the OS and other processes need") +
+                                                     " (eg. EXEC sp_configure 'max server memory (MB)', <MB>; RECONFIGURE;)";
+                    testResult.urisMoreInformation = SERVER_MEMORY_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine max server memory";
+                testResult.ramification        = "SQL Server may starve the OS of memory";
+                testResult.remedy              = "Manually validate that 'max server memory (MB)' leaves enough RAM for the OS and any other processes on the database server";
+                testResult.urisMoreInformation = SERVER_MEMORY_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine max server memory: " + se.getMessage();
+            testResult.ramification        = "SQL Server may starve the OS of memory";
+            testResult.remedy              = "Manually validate that 'max server memory (MB)' leaves enough RAM for the OS and any other processes on the database server";
+            testResult.urisMoreInformation = SERVER_MEMORY_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateAutoUpdateStatistics(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Auto Update Statistics");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String autoUpdate = settings.getValue("is_auto_update_stats_on");
+            String autoCreate = settings.getValue("is_auto_create_stats_on");
+            
+            if (autoUpdate != null && autoUpdate.trim().length() > 0)
+            {
+                boolean updateOn = "1".equals(autoUpdate.trim());
+                boolean createOn = !"0".equals(autoCreate == null ? null : autoCreate.trim());
+                
+                progress(callback, updateOn ? (createOn ? "on" : "on (auto create off)") : "off");
+                
+                if (updateOn && createOn)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Automatic " + (updateOn ? "creation" : "updating") + " of statistics is disabled";
+                    testResult.ramification        = "Statistics will go stale as the repository grows, and the query optimiser will choose poor plans for Alfresco's queries";
+                    testResult.remedy              = "Execute 'ALTER DATABASE <database> SET AUTO_CREATE_STATISTICS ON;' and 'ALTER DATABASE <database> SET AUTO_UPDATE_STATISTICS ON;'";
+                    testResult.urisMoreInformation = STATISTICS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine whether statistics are updated automatically";
+                testResult.ramification        = "Statistics may go stale as the repository grows, giving poor plans for Alfresco's queries";
+                testResult.remedy              = "Manually execute the SQL statement 'SELECT is_auto_create_stats_on, is_auto_update_stats_on FROM sys.databases WHERE name = DB_NAME();' and ensure that both values are 1";
+                testResult.urisMoreInformation = STATISTICS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine whether statistics are updated automatically: " + se.getMessage();
+            testResult.ramification        = "Statistics may go stale as the repository grows, giving poor plans for Alfresco's queries";
+            testResult.remedy              = "Manually execute the SQL statement 'SELECT is_auto_create_stats_on, is_auto_update_stats_on FROM sys.databases WHERE name = DB_NAME();' and ensure that both values are 1";
+            testResult.urisMoreInformation = STATISTICS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void validateFileAutogrowth(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "File Autogrowth");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.sqlserver.autogrowth.min.mb", DEFAULT_AUTOGROWTH_MIN_MB);
+        
+        try
+        {
+            List         files    = settings.getNames(FILE_PREFIX);
+            StringBuffer percent  = new StringBuffer();
+            StringBuffer disabled = new StringBuffer();
+            StringBuffer small    = new StringBuffer();
+            
+            for (int i = 0; i < files.size(); i++)
+            {
+                String name   = (String)files.get(i);
+                String growth = settings.getValue(name);
+                String file   = name.substring(FILE_PREFIX.length());
+                
+                if (growth != null && growth.trim().endsWith("%"))
+                {
+                    append(percent, file);
+                }
+                else if ("0".equals(growth == null ? null : growth.trim()))
+                {
+                    append(disabled, file);
+                }
+                else if (settings.getLong(name) > 0 && settings.getLong(name) / BYTES_PER_MB < minimumMb)
+                {
+                    append(small, file);
+                }
+            }
+            
+            if (files.size() == 0)
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine the autogrowth settings of the database files";
+                testResult.ramification        = "Writes may stall while the database files grow";
+                testResult.remedy              = "Manually validate that each database file grows by a fixed size of at least " + minimumMb + "MB";
+                testResult.urisMoreInformation = AUTOGROWTH_URI;
+            }
+            else if (percent.length() == 0 && disabled.length() == 0 && small.length() == 0)
+            {
+                progress(callback, files.size() + " files");
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                progress(callback, files.size() + " files");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = (percent.length()  > 0 ? "Percentage growth: " + percent + ". " : "") +
+                                                 (disabled.length() > 0 ? "Autogrowth disabled: " + disabled + ". " : "") +
+                                                 (small.length()    > 0 ? "Growth smaller than " + minimumMb + "MB: " + small + "." : "");
+                testResult.ramification        = "Percentage growth makes each growth of a large file longer, and small increments make growth frequent; writes stall while a file grows " +
+                                                 "(and log files can't use instant file initialisation), and a file that can't grow will stop Alfresco writing";
+                testResult.remedy              = "Size the database files for the expected repository size up front, and set each file to grow by a fixed size of at least " + minimumMb + "MB " +
+                                                 "(eg. ALTER DATABASE <database> MODIFY FILE (NAME = <file>, FILEGROWTH = " + minimumMb + "MB);)";
+                testResult.urisMoreInformation = AUTOGROWTH_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the autogrowth settings of the database files: " + se.getMessage();
+            testResult.ramification        = "Writes may stall while the database files grow";
+            testResult.remedy              = "Manually validate that each database file grows by a fixed size of at least " + minimumMb + "MB";
+            testResult.urisMoreInformation = AUTOGROWTH_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private void append(final StringBuffer list, final String item)
+    {
+        if (list.length() > 0)
+        {
+            list.append(", ");
+        }
+        
+        list.append(item);
+    }
+    
+    
+    private void validateTempDbFiles(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "TempDB Data Files");
+        
+        TestResult testResult = new TestResult();
+        int        cores      = getServerCores(settings);
+        int        maximum    = PerformanceConfiguration.getInt("db.sqlserver.maxdop.max", DEFAULT_MAX_DOP);
+        int        required   = cores > 0 ? Math.min(cores, maximum) : 2;
+        
+        try
+        {
+            int tempDbFiles = settings.getInt("tempdb_data_files");
+            
+            if (tempDbFiles > 0)
+            {
+                progress(callback, tempDbFiles + (cores > 0 ? " (" + cores + " cores)" : ""));
+                
+                if (tempDbFiles >= required)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "tempdb has " + tempDbFiles + " data file" + (tempDbFiles == 1 ? "" : "s") + (cores > 0 ? " for " + cores + " cores" : "");
+                    testResult.ramification        = "Concurrent queries that sort, hash or use row versioning (eg. with READ_COMMITTED_SNAPSHOT) will contend for tempdb's allocation pages (PAGELATCH waits)";
+                    testResult.remedy              = "Add tempdb data files of equal size, up to one per core" + (cores > 0 ? " (" + required + ")" : "") + " to a maximum of " + maximum;
+                    testResult.urisMoreInformation = TEMPDB_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine the number of tempdb data files";
+                testResult.ramification        = "Concurrent queries may contend for tempdb's allocation pages";
+                testResult.remedy              = "Manually validate that tempdb has one data file per core, up to a maximum of " + maximum;
+                testResult.urisMoreInformation = TEMPDB_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the number of tempdb data files: " + se.getMessage();
+            testResult.ramification        = "Concurrent queries may contend for tempdb's allocation pages";
+            testResult.remedy              = "Manually validate that tempdb has one data file per core, up to a maximum of " + maximum;
+            testResult.urisMoreInformation = TEMPDB_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
 
 
 }
@@ -26,13 +26,14 @@ package org.alfresco.extension.environment.validation.validators.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Map;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.alfresco.extension.environment.validation.AbstractValidator;
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.environment.validation.validators.PerformanceConfiguration;
 import org.alfresco.extension.util.ComparablePair;
 
 
@@ -58,22 +59,110 @@ public class oracle_jdbc_OracleDriver
     private final static String[] JDBC_URI                              = { "http://www.oracle.com/technetwork/database/features/jdbc/index-091264.html" };
     private final static String[] ORACLE_CONFIGURING_CHARACTER_SETS_URI = { "http://download.oracle.com/docs/cd/B19306_01/install.102/b14317/gblsupp.htm#BCEEHABC" };
     private final static String[] ALFRESCO_SPM_AND_ORACLE_URIS          = { AbstractValidator.ALFRESCO_SUMMARY_SPM_URI_STR, ORACLE_URI_STR };
+    private final static String[] ORACLE_MEMORY_MANAGEMENT_URI          = { "http://download.oracle.com/docs/cd/E11882_01/server.112/e16638/memory.htm" };
+    private final static String[] ORACLE_INITIALIZATION_PARAMETERS_URI  = { "http://download.oracle.com/docs/cd/E11882_01/server.112/e17110/initparams.htm" };
+    private final static String[] ORACLE_CURSOR_SHARING_URI             = { "http://download.oracle.com/docs/cd/E11882_01/server.112/e17110/initparams042.htm" };
+    private final static String[] ORACLE_SEQUENCES_URI                  = { "http://download.oracle.com/docs/cd/E11882_01/server.112/e17118/statements_6015.htm" };
     
     private final static Pattern ORACLE_VERSION_NUMBER_PATTERN = Pattern.compile("([0-9\\.]+)");
     
+    // Server settings - V$PARAMETER isn't readable without SELECT_CATALOG_ROLE, so fall back on the publicly readable views without it
+    private final static String SEQUENCE_PREFIX       = "sequence.";
+    private final static String PUBLIC_SETTINGS_QUERY = "SELECT PARAMETER, VALUE FROM NLS_DATABASE_PARAMETERS" +
+                                                        " UNION ALL SELECT 'BANNER', BANNER FROM V$VERSION WHERE BANNER LIKE 'CORE%'" +
+                                                        " UNION ALL SELECT 'SERVER_HOST', SYS_CONTEXT('USERENV', 'SERVER_HOST') FROM DUAL" +
+                                                        " UNION ALL SELECT '" + SEQUENCE_PREFIX + "' || SEQUENCE_NAME, TO_CHAR(CACHE_SIZE) FROM USER_SEQUENCES";
+    private final static String ALL_SETTINGS_QUERY    = "SELECT NAME, VALUE FROM V$PARAMETER UNION ALL " + PUBLIC_SETTINGS_QUERY;
+    
+    // Performance thresholds (see performance.properties)
+    private final static long   DEFAULT_MEMORY_MIN_MB                = 2048;
+    private final static double DEFAULT_MEMORY_RAM_MAX_RATIO         = 0.8;
+    private final static int    DEFAULT_OPEN_CURSORS_MIN             = 300;
+    private final static int    DEFAULT_SESSION_CACHED_CURSORS_MIN   = 50;
+    private final static int    DEFAULT_SEQUENCE_CACHE_MIN           = 100;
+    private final static int    DEFAULT_PLANNED_DB_POOL_STATEMENTS   = 40;
+    private final static int    DEFAULT_CONNECTIONS_RESERVED         = 10;
+    
 
     /**
-     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection)
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection, int)
      */
-    public void validate(ValidatorCallback callback, Connection con)
+    public void validate(ValidatorCallback callback, Connection con, int plannedConnections)
     {
+        ServerSettings settings = getServerSettings(con);
+        
         validateJdbcDriverVersion(callback, con, SUPPORTED_JDBC_DRIVER_VERSION, JDBC_URI);
-        validateDatabaseVersion(callback, con);
-        validateEncoding(callback, con);
+        validateDatabaseVersion(callback, settings);
+        validateEncoding(callback, settings);
+        validateMemoryTargets(callback, settings);
+        validateProcesses(callback, settings, plannedConnections);
+        validateOpenCursors(callback, settings);
+        validateSessionCachedCursors(callback, settings);
+        validateCursorSharing(callback, settings);
+        validateSequenceCache(callback, settings);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getValidationQuery()
+     */
+    public String getValidationQuery()
+    {
+        return("SELECT 1 FROM DUAL");
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(getServerSettings(con).getInt("sessions"));
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#getServerSettingsQuery()
+     */
+    protected String getServerSettingsQuery()
+    {
+        return(ALL_SETTINGS_QUERY);
     }
     
     
-    private void validateDatabaseVersion(final ValidatorCallback callback, final Connection con)
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#loadServerSettings(java.sql.Connection)
+     */
+    protected ServerSettings loadServerSettings(final Connection con)
+        throws SQLException
+    {
+        ServerSettings result = null;
+        
+        try
+        {
+            result = super.loadServerSettings(con);
+        }
+        catch (final SQLException se)
+        {
+            // Most likely ORA-00942 (insufficient privileges on V$PARAMETER) - the max connections won't be known, but everything else will be
+            result = loadServerSettings(con, PUBLIC_SETTINGS_QUERY);
+        }
+        
+        return(result);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getScratchTableDdl(java.lang.String)
+     */
+    public String getScratchTableDdl(final String tableName)
+    {
+        return("CREATE TABLE " + tableName + " (ID NUMBER(19,0) NOT NULL PRIMARY KEY, VERSION NUMBER(19,0) NOT NULL, UUID VARCHAR2(36 CHAR) NOT NULL, AUDIT_MODIFIED VARCHAR2(30 CHAR), TYPE_QNAME_ID NUMBER(19,0) NOT NULL)");
+    }
+    
+    
+    private void validateDatabaseVersion(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Oracle Version");
         
@@ -81,71 +170,57 @@ public class oracle_jdbc_OracleDriver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT BANNER FROM V$VERSION WHERE BANNER LIKE 'CORE%'");
+            String banner = settings.getValue("BANNER");
             
-            if (row != null)
+            if (banner != null && banner.trim().length() > 0)
             {
-                String banner = (String)row.get("BANNER");
+                Matcher matcher = ORACLE_VERSION_NUMBER_PATTERN.matcher(banner);
                 
-                if (banner != null && banner.trim().length() > 0)
+                if (matcher.find())
                 {
-                    Matcher matcher = ORACLE_VERSION_NUMBER_PATTERN.matcher(banner);
+                    String version = matcher.group(1);
                     
-                    if (matcher.find())
+                    if (version != null && version.trim().length() > 0)
                     {
-                        String version = matcher.group(1);
+                        progress(callback, version);
                         
-                        if (version != null && version.trim().length() > 0)
+                        if (version.startsWith(ORACLE_10_2))
                         {
-                            progress(callback, version);
-                            
-                            if (version.startsWith(ORACLE_10_2))
+                            if (version.startsWith(ORACLE_10_2_0_4))
                             {
-                                if (version.startsWith(ORACLE_10_2_0_4))
-                                {
-                                    testResult.resultType = TestResult.PASS;
-                                }
-                                else
-                                {
-                                    testResult.resultType          = TestResult.WARN;
-                                    testResult.errorMessage        = "Unsupported Oracle 10g version";
-                                    testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                                    testResult.remedy              = "Install Oracle v" + ORACLE_10_2_0_4;
-                                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_ORACLE_URIS;
-                                }
+                                testResult.resultType = TestResult.PASS;
                             }
-                            else if (version.startsWith(ORACLE_11_2))
+                            else
+                            {
+                                testResult.resultType          = TestResult.WARN;
+                                testResult.errorMessage        = "Unsupported Oracle 10g version";
+                                testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
+                                testResult.remedy              = "Install Oracle v" + ORACLE_10_2_0_4;
+                                testResult.urisMoreInformation = ALFRESCO_SPM_AND_ORACLE_URIS;
+                            }
+                        }
+                        else if (version.startsWith(ORACLE_11_2))
+                        {
+                            if (version.startsWith(ORACLE_11_2_0_1_0))
                             {
-                                if (version.startsWith(ORACLE_11_2_0_1_0))
-                                {
-                                    testResult.resultType = TestResult.PASS;
-                                }
-                                else
-                                {
-                                    testResult.resultType          = TestResult.WARN;
-                                    testResult.errorMessage        = "Unsupported Oracle 11g version";
-                                    testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                                    testResult.remedy              = "Install Oracle v" + ORACLE_11_2_0_1_0;
-                                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_ORACLE_URIS;
-                                }
+                                testResult.resultType = TestResult.PASS;
                             }
                             else
                             {
-                                testResult.resultType          = TestResult.FAIL;
-                                testResult.errorMessage        = "Unsupported Oracle version";
-                                testResult.ramification        = "Alfresco will not function correctly on this version";
-                                testResult.remedy              = "Install Oracle 10g (v" + ORACLE_10_2_0_4 + ") or 11g (v" + ORACLE_11_2_0_1_0 + ")";
+                                testResult.resultType          = TestResult.WARN;
+                                testResult.errorMessage        = "Unsupported Oracle 11g version";
+                                testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
+                                testResult.remedy              = "Install Oracle v" + ORACLE_11_2_0_1_0;
                                 testResult.urisMoreInformation = ALFRESCO_SPM_AND_ORACLE_URIS;
                             }
                         }
                         else
                         {
-                            progress(callback, "unknown");
-                            
-                            testResult.resultType   = TestResult.FAIL;
-                            testResult.errorMessage = "Unable to determine Oracle version";
-                            testResult.ramification = "Alfresco may not function correctly";
-                            testResult.remedy       = "Manually validate that Oracle 10g (v" + ORACLE_10_2_0_4 + ") or 11g (v" + ORACLE_11_2_0_1_0 + ") is installed";
+                            testResult.resultType          = TestResult.FAIL;
+                            testResult.errorMessage        = "Unsupported Oracle version";
+                            testResult.ramification        = "Alfresco will not function correctly on this version";
+                            testResult.remedy              = "Install Oracle 10g (v" + ORACLE_10_2_0_4 + ") or 11g (v" + ORACLE_11_2_0_1_0 + ")";
+                            testResult.urisMoreInformation = ALFRESCO_SPM_AND_ORACLE_URIS;
                         }
                     }
                     else
@@ -193,7 +268,7 @@ public class oracle_jdbc_OracleDriver
     }
     
     
-    private final void validateEncoding(final ValidatorCallback callback, final Connection con)
+    private final void validateEncoding(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Database Encoding");
         
@@ -201,8 +276,7 @@ public class oracle_jdbc_OracleDriver
 
         try
         {
-            Map    row      = singletonQuery(con, "SELECT VALUE FROM NLS_DATABASE_PARAMETERS WHERE PARAMETER = 'NLS_CHARACTERSET'");
-            String encoding = (String)row.get("VALUE");
+            String encoding = settings.getValue("NLS_CHARACTERSET");
 
             if (encoding != null && encoding.trim().length() > 0)
             {
@@ -254,5 +328,382 @@ public class oracle_jdbc_OracleDriver
         
         endTest(callback, testResult);
     }
+    
+    
+    private final void validateMemoryTargets(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Memory Targets");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.oracle.memory.min.mb", DEFAULT_MEMORY_MIN_MB);
+        double     maxRatio   = PerformanceConfiguration.getDouble("db.oracle.memory.ram.max.ratio", DEFAULT_MEMORY_RAM_MAX_RATIO);
+        
+        try
+        {
+            if (settings.getValue("sga_target") != null)
+            {
+                long memoryTargetMb = Math.max(0, settings.getLong("memory_target"))        / BYTES_PER_MB;   // Oracle 11g and later
+                long sgaTargetMb    = Math.max(0, settings.getLong("sga_target"))           / BYTES_PER_MB;
+                long pgaTargetMb    = Math.max(0, settings.getLong("pga_aggregate_target")) / BYTES_PER_MB;
+                long totalMb        = memoryTargetMb > 0 ? memoryTargetMb : sgaTargetMb + pgaTargetMb;
+                long ramMb          = isLocalHostname(settings.getValue("SERVER_HOST")) ? getInstalledRamMb() : -1;
+                
+                progress(callback, (memoryTargetMb > 0 ? "memory_target " + memoryTargetMb + "MB" : "SGA " + sgaTargetMb + "MB, PGA " + pgaTargetMb + "MB") +
+                                   (ramMb > 0 ? " (RAM " + ramMb + "MB)" : ""));
+                
+                if (memoryTargetMb <= 0 && (sgaTargetMb <= 0 || pgaTargetMb <= 0))
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Automatic memory management is not enabled";
+                    testResult.ramification        = "The buffer cache, shared pool and work areas must be sized by hand, and won't adapt to Alfresco's workload as it changes";
+                    testResult.remedy              = "Set SGA_TARGET and PGA_AGGREGATE_TARGET (or MEMORY_TARGET on Oracle 11g) to a total of at least " + minimumMb + "MB";
+                    testResult.urisMoreInformation = ORACLE_MEMORY_MANAGEMENT_URI;
+                }
+                else if (ramMb > 0 && totalMb > ramMb * maxRatio)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Oracle's memory targets are more than " + Math.round(maxRatio * 100) + "% of the RAM in this server";
+                    testResult.ramification        = "Oracle and the other processes on this server may be paged out, dramatically slowing down every database operation";
+                    testResult.remedy              = "Reduce the memory targets to a total of no more than " + Math.round(ramMb * maxRatio) + "MB, or add RAM to this server";
+                    testResult.urisMoreInformation = ORACLE_MEMORY_MANAGEMENT_URI;
+                }
+                else if (totalMb < minimumMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Oracle's memory targets total less than " + minimumMb + "MB";
+                    testResult.ramification        = "Frequently used Alfresco tables, indexes and statements will be evicted from the SGA, increasing I/O, parsing and query times";
+                    testResult.remedy              = "Increase SGA_TARGET and PGA_AGGREGATE_TARGET (or MEMORY_TARGET on Oracle 11g) to a total of at least " + minimumMb + "MB";
+                    testResult.urisMoreInformation = ORACLE_MEMORY_MANAGEMENT_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine Oracle's memory targets (V$PARAMETER is not readable by this user)";
+                testResult.ramification        = "The SGA and PGA may be too small for Alfresco's workload, increasing I/O, parsing and query times";
+                testResult.remedy              = "Manually validate that SGA_TARGET and PGA_AGGREGATE_TARGET (or MEMORY_TARGET) total at least " + minimumMb + "MB";
+                testResult.urisMoreInformation = ORACLE_MEMORY_MANAGEMENT_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine Oracle's memory targets: " + se.getMessage();
+            testResult.ramification        = "The SGA and PGA may be too small for Alfresco's workload, increasing I/O, parsing and query times";
+            testResult.remedy              = "Manually validate that SGA_TARGET and PGA_AGGREGATE_TARGET (or MEMORY_TARGET) total at least " + minimumMb + "MB";
+            testResult.urisMoreInformation = ORACLE_MEMORY_MANAGEMENT_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateProcesses(final ValidatorCallback callback, final ServerSettings settings, final int plannedConnections)
+    {
+        startTest(callback, "Processes");
+        
+        TestResult testResult = new TestResult();
+        int        required   = plannedConnections + PerformanceConfiguration.getInt("db.connections.reserved", DEFAULT_CONNECTIONS_RESERVED);
+        
+        try
+        {
+            int processes = settings.getInt("processes");
+            
+            if (processes > 0)
+            {
+                progress(callback, processes + " (" + required + " needed)");
+                
+                if (processes >= required)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Oracle allows " + processes + " processes, but the planned Alfresco connection pools need " + required;
+                    testResult.ramification        = "Under load, connections will be refused (ORA-00020) before Alfresco's connection pools are full, and requests will fail";
+                    testResult.remedy              = "Increase PROCESSES (and SESSIONS, if set explicitly) to at least " + required + ", or reduce db.pool.max";
+                    testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine the maximum number of processes (V$PARAMETER is not readable by this user)";
+                testResult.ramification        = "Under load, connections may be refused before Alfresco's connection pools are full";
+                testResult.remedy              = "Manually validate that PROCESSES is at least " + required;
+                testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the maximum number of processes: " + se.getMessage();
+            testResult.ramification        = "Under load, connections may be refused before Alfresco's connection pools are full";
+            testResult.remedy              = "Manually validate that PROCESSES is at least " + required;
+            testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateOpenCursors(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Open Cursors");
+        
+        TestResult testResult       = new TestResult();
+        int        minimum          = PerformanceConfiguration.getInt("db.oracle.open.cursors.min", DEFAULT_OPEN_CURSORS_MIN);
+        int        cachedStatements = PerformanceConfiguration.getInt("planned.db.pool.statements.max", DEFAULT_PLANNED_DB_POOL_STATEMENTS);
+        
+        try
+        {
+            int openCursors = settings.getInt("open_cursors");
+            
+            if (openCursors > 0)
+            {
+                progress(callback, String.valueOf(openCursors));
+                
+                if (openCursors <= cachedStatements)
+                {
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "OPEN_CURSORS (" + openCursors + ") does not exceed the number of statements Alfresco caches per connection (" + cachedStatements + ")";
+                    testResult.ramification        = "Alfresco's cached statements will exhaust each session's cursors, and queries will fail with ORA-01000";
+                    testResult.remedy              = "Increase OPEN_CURSORS to at least " + Math.max(minimum, cachedStatements * 2) + ", or reduce db.pool.statements.max";
+                    testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+                }
+                else if (openCursors < minimum)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "OPEN_CURSORS is less than " + minimum;
+                    testResult.ramification        = "Alfresco's cached statements, plus the cursors of open result sets, may exhaust a session's cursors under load (ORA-01000)";
+                    testResult.remedy              = "Increase OPEN_CURSORS to at least " + minimum;
+                    testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine OPEN_CURSORS (V$PARAMETER is not readable by this user)";
+                testResult.ramification        = "Alfresco's cached statements may exhaust a session's cursors under load (ORA-01000)";
+                testResult.remedy              = "Manually validate that OPEN_CURSORS is at least " + minimum;
+                testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine OPEN_CURSORS: " + se.getMessage();
+            testResult.ramification        = "Alfresco's cached statements may exhaust a session's cursors under load (ORA-01000)";
+            testResult.remedy              = "Manually validate that OPEN_CURSORS is at least " + minimum;
+            testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateSessionCachedCursors(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Session Cached Cursors");
+        
+        TestResult testResult = new TestResult();
+        int        minimum    = PerformanceConfiguration.getInt("db.oracle.session.cached.cursors.min", DEFAULT_SESSION_CACHED_CURSORS_MIN);
+        
+        try
+        {
+            String sessionCachedCursors = settings.getValue("session_cached_cursors");
+            
+            if (sessionCachedCursors != null && sessionCachedCursors.trim().length() > 0)
+            {
+                int cachedCursors = Math.max(0, settings.getInt("session_cached_cursors"));
+                
+                progress(callback, String.valueOf(cachedCursors));
+                
+                if (cachedCursors >= minimum)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "SESSION_CACHED_CURSORS is less than " + minimum;
+                    testResult.ramification        = "Statements Alfresco executes repeatedly will be reparsed, increasing CPU usage and library cache contention under load";
+                    testResult.remedy              = "Increase SESSION_CACHED_CURSORS to at least " + minimum;
+                    testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine SESSION_CACHED_CURSORS (V$PARAMETER is not readable by this user)";
+                testResult.ramification        = "Statements Alfresco executes repeatedly may be reparsed, increasing CPU usage and library cache contention";
+                testResult.remedy              = "Manually validate that SESSION_CACHED_CURSORS is at least " + minimum;
+                testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine SESSION_CACHED_CURSORS: " + se.getMessage();
+            testResult.ramification        = "Statements Alfresco executes repeatedly may be reparsed, increasing CPU usage and library cache contention";
+            testResult.remedy              = "Manually validate that SESSION_CACHED_CURSORS is at least " + minimum;
+            testResult.urisMoreInformation = ORACLE_INITIALIZATION_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateCursorSharing(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Cursor Sharing");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String cursorSharing = settings.getValue("cursor_sharing");
+            
+            if (cursorSharing != null && cursorSharing.trim().length() > 0)
+            {
+                progress(callback, cursorSharing);
+                
+                if ("EXACT".equalsIgnoreCase(cursorSharing.trim()))
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "CURSOR_SHARING is " + cursorSharing + " rather than EXACT";
+                    testResult.ramification        = "Alfresco already uses bind variables, so literal replacement adds parsing overhead and may give Alfresco's queries unstable or sub-optimal plans";
+                    testResult.remedy              = "Set CURSOR_SHARING=EXACT";
+                    testResult.urisMoreInformation = ORACLE_CURSOR_SHARING_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine CURSOR_SHARING (V$PARAMETER is not readable by this user)";
+                testResult.ramification        = "Alfresco's queries may get unstable or sub-optimal plans";
+                testResult.remedy              = "Manually validate that CURSOR_SHARING is EXACT";
+                testResult.urisMoreInformation = ORACLE_CURSOR_SHARING_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine CURSOR_SHARING: " + se.getMessage();
+            testResult.ramification        = "Alfresco's queries may get unstable or sub-optimal plans";
+            testResult.remedy              = "Manually validate that CURSOR_SHARING is EXACT";
+            testResult.urisMoreInformation = ORACLE_CURSOR_SHARING_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateSequenceCache(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Sequence Cache");
+        
+        TestResult testResult = new TestResult();
+        int        minimum    = PerformanceConfiguration.getInt("db.oracle.sequence.cache.min", DEFAULT_SEQUENCE_CACHE_MIN);
+        
+        try
+        {
+            List         sequences      = settings.getNames(SEQUENCE_PREFIX);
+            StringBuffer smallSequences = new StringBuffer();
+            int          smallCount     = 0;
+            
+            for (int i = 0; i < sequences.size(); i++)
+            {
+                String sequence  = (String)sequences.get(i);
+                int    cacheSize = Math.max(0, settings.getInt(sequence));
+                
+                if (cacheSize < minimum)
+                {
+                    if (smallCount > 0)
+                    {
+                        smallSequences.append(", ");
+                    }
+                    
+                    smallSequences.append(sequence.substring(SEQUENCE_PREFIX.length()).toUpperCase());
+                    smallCount++;
+                }
+            }
+            
+            if (sequences.size() == 0)
+            {
+                progress(callback, "no sequences");
+                
+                testResult.resultType   = TestResult.INFO;
+                testResult.errorMessage = "The Alfresco schema has not been created yet, so its sequences can't be checked";
+                testResult.remedy       = "Rerun this test once Alfresco has been started against this database";
+            }
+            else if (smallCount == 0)
+            {
+                progress(callback, sequences.size() + " sequences");
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                progress(callback, smallCount + " of " + sequences.size() + " sequences cache fewer than " + minimum + " values");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Sequences with a cache size below " + minimum + ": " + smallSequences;
+                testResult.ramification        = "Concurrent inserts (eg. bulk imports) will contend for the sequences' data dictionary updates, limiting write throughput";
+                testResult.remedy              = "Increase each sequence's cache size (eg. ALTER SEQUENCE <name> CACHE " + minimum + ")";
+                testResult.urisMoreInformation = ORACLE_SEQUENCES_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the cache sizes of the Alfresco sequences: " + se.getMessage();
+            testResult.ramification        = "Concurrent inserts may contend for sequence updates, limiting write throughput";
+            testResult.remedy              = "Manually execute the SQL statement 'SELECT SEQUENCE_NAME, CACHE_SIZE FROM USER_SEQUENCES;' and ensure that all cache sizes are at least " + minimum;
+            testResult.urisMoreInformation = ORACLE_SEQUENCES_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
         
 }
@@ -32,6 +32,7 @@ import java.util.Map;
 
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.environment.validation.validators.PerformanceConfiguration;
 import org.alfresco.extension.util.ComparablePair;
 
 
@@ -60,22 +61,71 @@ public class org_gjt_mm_mysql_Driver
     private final static String[] MYSQL_AUTO_INCREMENT_LOCK_MODES_URI               = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/innodb-auto-increment-handling.html" };
     private final static String[] MYSQL_WAIT_TIMEOUT_URI                            = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/server-system-variables.html#sysvar_wait_timeout" };
     private final static String[] MYSQL_LOCKS_UNSAFE_URI                            = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/innodb-parameters.html#sysvar_innodb_locks_unsafe_for_binlog" };
+    private final static String[] MYSQL_INNODB_TUNING_URI                           = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/innodb-tuning.html" };
+    private final static String[] MYSQL_INNODB_PARAMETERS_URI                       = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/innodb-parameters.html" };
+    private final static String[] MYSQL_QUERY_CACHE_URI                             = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/query-cache-configuration.html" };
+    private final static String[] MYSQL_INTERNAL_TEMPORARY_TABLES_URI               = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/internal-temporary-tables.html" };
+    private final static String[] MYSQL_MAX_USER_CONNECTIONS_URI                    = { "http://dev.mysql.com/doc/refman/" + SUPPORTED_MYSQL_VERSION + "/en/server-system-variables.html#sysvar_max_user_connections" };
+    
+    // Performance thresholds (see performance.properties)
+    private final static long   DEFAULT_BUFFER_POOL_MIN_MB            = 512;
+    private final static double DEFAULT_BUFFER_POOL_RAM_MAX_RATIO     = 0.8;
+    private final static long   DEFAULT_LOG_FILE_MIN_MB               = 128;
+    private final static long   DEFAULT_QUERY_CACHE_MAX_MB            = 64;
+    private final static long   DEFAULT_TMP_TABLE_MIN_MB              = 64;
 
     /**
-     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection)
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection, int)
      */
-    public void validate(final ValidatorCallback callback, final Connection con)
+    public void validate(final ValidatorCallback callback, final Connection con, final int plannedConnections)
     {
         setupConnection(con);
         
+        ServerSettings settings = getServerSettings(con);
+        
         validateJdbcDriverVersion(callback, con, SUPPORTED_JDBC_DRIVER_VERSION, JDBC_URI);
-        validateDatabaseVersion(callback, con);
+        validateDatabaseVersion(callback, settings);
         validateEngine(callback, con);
-        validateIdentifierCaseSensitivityLevel(callback, con);
-        validateInnoDbAutoIncrementLockMode(callback, con);
-        validateWaitTimeout(callback, con);
-        validateEncoding(callback, con);
-        validateInnoDbLocksUnsafeForBinlogMode(callback, con);
+        validateIdentifierCaseSensitivityLevel(callback, settings);
+        validateInnoDbAutoIncrementLockMode(callback, settings);
+        validateWaitTimeout(callback, settings);
+        validateEncoding(callback, settings);
+        validateInnoDbLocksUnsafeForBinlogMode(callback, settings);
+        validateBufferPoolSize(callback, con, settings);
+        validateLogFileSize(callback, settings);
+        validateFlushLogAtTrxCommit(callback, settings);
+        validateFlushMethod(callback, settings);
+        validateMaxUserConnections(callback, settings, plannedConnections);
+        validateQueryCache(callback, settings);
+        validateTmpTableSize(callback, settings);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(getServerSettings(con).getInt("max_connections"));
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#getServerSettingsQuery()
+     */
+    protected String getServerSettingsQuery()
+    {
+        return("SHOW VARIABLES");  // All server variables in one round trip - the checks below read from the snapshot
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getScratchTableDdl(java.lang.String)
+     */
+    public String getScratchTableDdl(final String tableName)
+    {
+        return(super.getScratchTableDdl(tableName) + " ENGINE=InnoDB");
     }
     
     
@@ -91,7 +141,7 @@ public class org_gjt_mm_mysql_Driver
         }
     }
     
-    private void validateDatabaseVersion(final ValidatorCallback callback, final Connection con)
+    private void validateDatabaseVersion(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "MySQL Version");
         
@@ -99,75 +149,61 @@ public class org_gjt_mm_mysql_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT VERSION() AS VERSION");
+            String version = settings.getValue("version");
             
-            if (row != null)
+            if (version != null && version.trim().length() > 0)
             {
-                String version = (String)row.get("VERSION");
+                progress(callback, version);
                 
-                if (version != null && version.trim().length() > 0)
+                if (version.startsWith(SUPPORTED_MYSQL_VERSION_SIGNATURE))
                 {
-                    progress(callback, version);
+                    String[] versionComponents = version.split("\\.");
                     
-                    if (version.startsWith(SUPPORTED_MYSQL_VERSION_SIGNATURE))
+                    if (versionComponents.length >= 3 && versionComponents[2].trim().length() > 0)
                     {
-                        String[] versionComponents = version.split("\\.");
-                        
-                        if (versionComponents.length >= 3 && versionComponents[2].trim().length() > 0)
+                        try
                         {
-                            try
+                            int patchLevel = Integer.parseInt(versionComponents[2].trim());
+                            
+                            if (patchLevel >= MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL)
                             {
-                                int patchLevel = Integer.parseInt(versionComponents[2].trim());
-                                
-                                if (patchLevel >= MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL)
-                                {
-                                    testResult.resultType = TestResult.PASS;
-                                }
-                                else
-                                {
-                                    testResult.resultType          = TestResult.WARN;
-                                    testResult.errorMessage        = "Unsupported MySQL " + SUPPORTED_MYSQL_VERSION + " patchlevel (" + patchLevel + ")";
-                                    testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                                    testResult.remedy              = "Install MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL;
-                                    testResult.urisMoreInformation = MYSQL_URI;
-                                }
+                                testResult.resultType = TestResult.PASS;
                             }
-                            catch (final NumberFormatException nfe)
+                            else
                             {
                                 testResult.resultType          = TestResult.WARN;
-                                testResult.errorMessage        = "Unable to determine MySQL " + SUPPORTED_MYSQL_VERSION + " patchlevel";
+                                testResult.errorMessage        = "Unsupported MySQL " + SUPPORTED_MYSQL_VERSION + " patchlevel (" + patchLevel + ")";
                                 testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                                testResult.remedy              = "Manually validate that MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL + " is installed";
+                                testResult.remedy              = "Install MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL;
                                 testResult.urisMoreInformation = MYSQL_URI;
-                                testResult.rootCause           = nfe;
                             }
                         }
-                        else
+                        catch (final NumberFormatException nfe)
                         {
                             testResult.resultType          = TestResult.WARN;
                             testResult.errorMessage        = "Unable to determine MySQL " + SUPPORTED_MYSQL_VERSION + " patchlevel";
                             testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
                             testResult.remedy              = "Manually validate that MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL + " is installed";
                             testResult.urisMoreInformation = MYSQL_URI;
+                            testResult.rootCause           = nfe;
                         }
                     }
                     else
                     {
-                        testResult.resultType          = TestResult.FAIL;
-                        testResult.errorMessage        = "Unsupported MySQL version";
-                        testResult.ramification        = "Alfresco will not function correctly on this version";
-                        testResult.remedy              = "Install MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL;
+                        testResult.resultType          = TestResult.WARN;
+                        testResult.errorMessage        = "Unable to determine MySQL " + SUPPORTED_MYSQL_VERSION + " patchlevel";
+                        testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
+                        testResult.remedy              = "Manually validate that MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL + " is installed";
                         testResult.urisMoreInformation = MYSQL_URI;
                     }
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine MySQL version";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL + " is installed";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Unsupported MySQL version";
+                    testResult.ramification        = "Alfresco will not function correctly on this version";
+                    testResult.remedy              = "Install MySQL " + SUPPORTED_MYSQL_VERSION + " with at least patchlevel " + MINIMUM_SUPPORTED_MYSQL_PATCHLEVEL;
+                    testResult.urisMoreInformation = MYSQL_URI;
                 }
             }
             else
@@ -261,7 +297,7 @@ public class org_gjt_mm_mysql_Driver
     }
     
     
-    private final void validateIdentifierCaseSensitivityLevel(final ValidatorCallback callback, final Connection con)
+    private final void validateIdentifierCaseSensitivityLevel(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Case Sensitivity Level");
         
@@ -269,37 +305,22 @@ public class org_gjt_mm_mysql_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SHOW VARIABLES WHERE VARIABLE_NAME = 'lower_case_table_names'");
+            String identifierCaseSensitivityLevel = settings.getValue("lower_case_table_names");
             
-            if (row != null)
+            if (identifierCaseSensitivityLevel != null && identifierCaseSensitivityLevel.trim().length() > 0)
             {
-                String identifierCaseSensitivityLevel = (String)row.get("VARIABLE_VALUE");
+                progress(callback, identifierCaseSensitivityLevel);
                 
-                if (identifierCaseSensitivityLevel != null && identifierCaseSensitivityLevel.trim().length() > 0)
+                if ("1".equals(identifierCaseSensitivityLevel))
                 {
-                    progress(callback, identifierCaseSensitivityLevel);
-                    
-                    if ("1".equals(identifierCaseSensitivityLevel))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.WARN;
-                        testResult.errorMessage        = "OS-specific identifier case sensitivity level configured";
-                        testResult.ramification        = "Backups of the Alfresco database will be OS specific";
-                        testResult.remedy              = "Reconfigure MySQL to use case-insensitive identifiers; specifically, set lower_case_table_names=1 in the MySQL configuration";
-                        testResult.urisMoreInformation = MYSQL_CONFIGURING_IDENTIFIER_CASE_SENSITIVITY_URI;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
                     testResult.resultType          = TestResult.WARN;
-                    testResult.errorMessage        = "Unable to determine identifier case sensitivity level";
-                    testResult.ramification        = "Backups of the Alfresco database may be OS specific";
-                    testResult.remedy              = "Manually validate that MySQL is configured to use case-insensitive identifiers; specifically, ensure that lower_case_table_names=1 in the MySQL configuration";
+                    testResult.errorMessage        = "OS-specific identifier case sensitivity level configured";
+                    testResult.ramification        = "Backups of the Alfresco database will be OS specific";
+                    testResult.remedy              = "Reconfigure MySQL to use case-insensitive identifiers; specifically, set lower_case_table_names=1 in the MySQL configuration";
                     testResult.urisMoreInformation = MYSQL_CONFIGURING_IDENTIFIER_CASE_SENSITIVITY_URI;
                 }
             }
@@ -330,7 +351,7 @@ public class org_gjt_mm_mysql_Driver
     }
 
     
-    private final void validateInnoDbAutoIncrementLockMode(final ValidatorCallback callback, final Connection con)
+    private final void validateInnoDbAutoIncrementLockMode(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Auto-inc Lock Mode");
         
@@ -338,37 +359,22 @@ public class org_gjt_mm_mysql_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SHOW VARIABLES WHERE VARIABLE_NAME = 'innodb_autoinc_lock_mode'");
+            String identifierCaseSensitivityLevel = settings.getValue("innodb_autoinc_lock_mode");
             
-            if (row != null)
+            if (identifierCaseSensitivityLevel != null && identifierCaseSensitivityLevel.trim().length() > 0)
             {
-                String identifierCaseSensitivityLevel = (String)row.get("VARIABLE_VALUE");
+                progress(callback, identifierCaseSensitivityLevel);
                 
-                if (identifierCaseSensitivityLevel != null && identifierCaseSensitivityLevel.trim().length() > 0)
+                if ("2".equals(identifierCaseSensitivityLevel))
                 {
-                    progress(callback, identifierCaseSensitivityLevel);
-                    
-                    if ("2".equals(identifierCaseSensitivityLevel))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.WARN;
-                        testResult.errorMessage        = "Non-optimal InnoDB auto-increment lock mode configured";
-                        testResult.ramification        = "Alfresco may perform poorly under heavy write load due to excessive blocking in MySQL";
-                        testResult.remedy              = "Reconfigure MySQL with InnoDB auto-increment lock mode 2; specifically, set innodb_autoinc_lock_mode=2 in the MySQL configuration";
-                        testResult.urisMoreInformation = MYSQL_AUTO_INCREMENT_LOCK_MODES_URI;
-                    }
+                    testResult.resultType = TestResult.PASS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
                     testResult.resultType          = TestResult.WARN;
-                    testResult.errorMessage        = "Unable to determine InnoDB auto-increment lock mode";
+                    testResult.errorMessage        = "Non-optimal InnoDB auto-increment lock mode configured";
                     testResult.ramification        = "Alfresco may perform poorly under heavy write load due to excessive blocking in MySQL";
-                    testResult.remedy              = "Manually validate that MySQL is configured with InnoDB auto-increment lock mode 2; specifically, set innodb_autoinc_lock_mode=2 in the MySQL configuration";
+                    testResult.remedy              = "Reconfigure MySQL with InnoDB auto-increment lock mode 2; specifically, set innodb_autoinc_lock_mode=2 in the MySQL configuration";
                     testResult.urisMoreInformation = MYSQL_AUTO_INCREMENT_LOCK_MODES_URI;
                 }
             }
@@ -399,7 +405,7 @@ public class org_gjt_mm_mysql_Driver
     }
 
     
-    private final void validateWaitTimeout(final ValidatorCallback callback, final Connection con)
+    private final void validateWaitTimeout(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "Wait Timeout");
         
@@ -407,52 +413,37 @@ public class org_gjt_mm_mysql_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SHOW VARIABLES WHERE VARIABLE_NAME = 'wait_timeout'");
+            String waitTimeoutStr = settings.getValue("wait_timeout");
             
-            if (row != null)
+            if (waitTimeoutStr != null && waitTimeoutStr.trim().length() > 0)
             {
-                String waitTimeoutStr = (String)row.get("VARIABLE_VALUE");
+                progress(callback, waitTimeoutStr);
                 
-                if (waitTimeoutStr != null && waitTimeoutStr.trim().length() > 0)
+                try
                 {
-                    progress(callback, waitTimeoutStr);
+                    long waitTimeout = Long.valueOf(waitTimeoutStr).longValue();
                     
-                    try
+                    if (waitTimeout >= 28800)   // 28800ms (8 hours) is the default for wait_timeout, and is an appropriate value for Alfresco
                     {
-                        long waitTimeout = Long.valueOf(waitTimeoutStr).longValue();
-                        
-                        if (waitTimeout >= 28800)   // 28800ms (8 hours) is the default for wait_timeout, and is an appropriate value for Alfresco
-                        {
-                            testResult.resultType = TestResult.PASS;
-                        }
-                        else
-                        {
-                            testResult.resultType          = TestResult.WARN;
-                            testResult.errorMessage        = "Non-optimal wait timeout configured";
-                            testResult.ramification        = "Alfresco may lose connections to MySQL without further configuration of the database connection pool";
-                            testResult.remedy              = "Reconfigure MySQL back to the default wait timeout; specifically, set wait_timeout=28800 in the MySQL configuration, or remove this setting altogether";
-                            testResult.urisMoreInformation = MYSQL_WAIT_TIMEOUT_URI;
-                        }
+                        testResult.resultType = TestResult.PASS;
                     }
-                    catch (final NumberFormatException nfe)
+                    else
                     {
                         testResult.resultType          = TestResult.WARN;
-                        testResult.errorMessage        = "Unable to determine wait timeout";
-                        testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                        testResult.remedy              = "Manually validate that the wait timeout is at least 28800";
+                        testResult.errorMessage        = "Non-optimal wait timeout configured";
+                        testResult.ramification        = "Alfresco may lose connections to MySQL without further configuration of the database connection pool";
+                        testResult.remedy              = "Reconfigure MySQL back to the default wait timeout; specifically, set wait_timeout=28800 in the MySQL configuration, or remove this setting altogether";
                         testResult.urisMoreInformation = MYSQL_WAIT_TIMEOUT_URI;
-                        testResult.rootCause           = nfe;
                     }
                 }
-                else
+                catch (final NumberFormatException nfe)
                 {
-                    progress(callback, "unknown");
-                    
                     testResult.resultType          = TestResult.WARN;
                     testResult.errorMessage        = "Unable to determine wait timeout";
                     testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
                     testResult.remedy              = "Manually validate that the wait timeout is at least 28800";
                     testResult.urisMoreInformation = MYSQL_WAIT_TIMEOUT_URI;
+                    testResult.rootCause           = nfe;
                 }
             }
             else
@@ -482,22 +473,16 @@ public class org_gjt_mm_mysql_Driver
     }
 
     
-    private final void validateEncoding(final ValidatorCallback callback, final Connection con)
+    private final void validateEncoding(final ValidatorCallback callback, final ServerSettings settings)
     {
         try
         {
-            List encodings = query(con, "SHOW VARIABLES LIKE 'character\\_set\\_%'");
+            List characterSettings = settings.getNames("character_set_");
             
-            for (int i = 0; i < encodings.size(); i++)
+            for (int i = 0; i < characterSettings.size(); i++)
             {
-                Map    row              = (Map)encodings.get(i);
-                String characterSetting = (String)row.get("VARIABLE_NAME");
-                String encoding         = (String)row.get("VARIABLE_VALUE");  // MySQL 5.1
-                
-                if (encoding == null || encoding.trim().length() == 0)
-                {
-                    encoding = (String)row.get("VALUE");  // MySQL 5.0
-                }
+                String characterSetting = (String)characterSettings.get(i);
+                String encoding         = settings.getValue(characterSetting);
 
                 validateEncodingSetting(callback, characterSetting, encoding);
             }
@@ -590,22 +575,14 @@ public class org_gjt_mm_mysql_Driver
         
         return(result);
     }
-    private final void     validateInnoDbLocksUnsafeForBinlogMode(final ValidatorCallback callback, final Connection con)
+    private final void     validateInnoDbLocksUnsafeForBinlogMode(final ValidatorCallback callback, final ServerSettings settings)
     {
         try
         {  
-            List encodings = query(con, "SHOW VARIABLES LIKE 'innodb_locks_unsafe_for_binlog'");
+            String setting = settings.getValue("innodb_locks_unsafe_for_binlog");
             
-            for (int i = 0; i < encodings.size(); i++)
+            if (setting != null)
             {
-                Map    row              = (Map)encodings.get(i);
-                String setting         = (String)row.get("VARIABLE_VALUE");  // MySQL 5.1
-                
-                if (setting == null || setting.trim().length() == 0)
-                {
-                    setting = (String)row.get("VALUE");  // MySQL 5.0
-                }
-
                 validateBinlogSetting(callback, setting);
             }
         }
@@ -653,8 +630,446 @@ public class org_gjt_mm_mysql_Driver
         }
         endTest(callback, testResult);
     }
-
-   
     
+    
+    private final void validateBufferPoolSize(final ValidatorCallback callback, final Connection con, final ServerSettings settings)
+    {
+        startTest(callback, "InnoDB Buffer Pool");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.mysql.buffer.pool.min.mb", DEFAULT_BUFFER_POOL_MIN_MB);
+        double     maxRatio   = PerformanceConfiguration.getDouble("db.mysql.buffer.pool.ram.max.ratio", DEFAULT_BUFFER_POOL_RAM_MAX_RATIO);
+        
+        try
+        {
+            long bufferPoolSize = settings.getLong("innodb_buffer_pool_size");
+            
+            if (bufferPoolSize > 0)
+            {
+                long bufferPoolMb = bufferPoolSize / BYTES_PER_MB;
+                long dataSize     = getInnoDbDataSize(con);
+                long dataMb       = dataSize < 0 ? -1 : dataSize / BYTES_PER_MB;
+                long ramMb        = isLocalHostname(settings.getValue("hostname")) ? getInstalledRamMb() : -1;
+                
+                progress(callback, bufferPoolMb + "MB (data " + (dataMb < 0 ? "unknown" : dataMb + "MB") + (ramMb > 0 ? ", RAM " + ramMb + "MB)" : ")"));
+                
+                if (ramMb > 0 && bufferPoolMb > ramMb * maxRatio)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "InnoDB buffer pool is more than " + Math.round(maxRatio * 100) + "% of the RAM in this server";
+                    testResult.ramification        = "MySQL and the other processes on this server may be paged out, dramatically slowing down every database operation";
+                    testResult.remedy              = "Reduce innodb_buffer_pool_size to no more than " + Math.round(ramMb * maxRatio) + "MB, or add RAM to this server";
+                    testResult.urisMoreInformation = MYSQL_INNODB_TUNING_URI;
+                }
+                else if (bufferPoolMb < dataMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "The Alfresco database (" + dataMb + "MB) does not fit in the InnoDB buffer pool (" + bufferPoolMb + "MB)";
+                    testResult.ramification        = "Queries will read from disk rather than memory, and Alfresco performance will degrade as the repository grows";
+                    testResult.remedy              = "Increase innodb_buffer_pool_size to at least " + dataMb + "MB, allowing for the growth of the repository";
+                    testResult.urisMoreInformation = MYSQL_INNODB_TUNING_URI;
+                }
+                else if (bufferPoolMb < minimumMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "InnoDB buffer pool is smaller than " + minimumMb + "MB";
+                    testResult.ramification        = "Queries will read from disk rather than memory once the repository grows, and Alfresco performance will degrade";
+                    testResult.remedy              = "Increase innodb_buffer_pool_size to at least " + minimumMb + "MB";
+                    testResult.urisMoreInformation = MYSQL_INNODB_TUNING_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine InnoDB buffer pool size";
+                testResult.ramification        = "Alfresco performance will degrade if the database does not fit in the buffer pool";
+                testResult.remedy              = "Manually validate that innodb_buffer_pool_size is at least " + minimumMb + "MB, and larger than the Alfresco database";
+                testResult.urisMoreInformation = MYSQL_INNODB_TUNING_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine InnoDB buffer pool size: " + se.getMessage();
+            testResult.ramification        = "Alfresco performance will degrade if the database does not fit in the buffer pool";
+            testResult.remedy              = "Manually validate that innodb_buffer_pool_size is at least " + minimumMb + "MB, and larger than the Alfresco database";
+            testResult.urisMoreInformation = MYSQL_INNODB_TUNING_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    /**
+     * @return The size, in bytes, of the data and indexes of the InnoDB tables in the current database, or -1 if it can't be determined.
+     */
+    private final long getInnoDbDataSize(final Connection con)
+    {
+        long result = 0;
+        
+        try
+        {
+            Map    row   = singletonQuery(con, "SELECT SUM(DATA_LENGTH + INDEX_LENGTH) AS DATA_SIZE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND ENGINE = 'InnoDB'");
+            Object value = row == null ? null : row.get("DATA_SIZE");
+            
+            if (value instanceof Number)
+            {
+                result = ((Number)value).longValue();
+            }
+        }
+        catch (final SQLException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
+    private final void validateLogFileSize(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "InnoDB Log File Size");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.mysql.log.file.min.mb", DEFAULT_LOG_FILE_MIN_MB);
+        
+        try
+        {
+            long logFileSize = settings.getLong("innodb_log_file_size");
+            long logFiles    = settings.getLong("innodb_log_files_in_group");
+            
+            if (logFileSize > 0)
+            {
+                long logFileMb = logFileSize / BYTES_PER_MB;
+                
+                progress(callback, logFileMb + "MB" + (logFiles > 0 ? " x " + logFiles : ""));
+                
+                if (logFileMb >= minimumMb)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "InnoDB log files are smaller than " + minimumMb + "MB";
+                    testResult.ramification        = "Small log files force frequent checkpoints, which throttle write throughput when Alfresco is under heavy write load (eg. bulk imports)";
+                    testResult.remedy              = "Set innodb_log_file_size=" + minimumMb + "M in the MySQL configuration.  Note: MySQL " + SUPPORTED_MYSQL_VERSION + " " +
+                                                     "must be shut down cleanly and the existing ib_logfile* files removed before the new size takes effect";
+                    testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine InnoDB log file size";
+                testResult.ramification        = "Small log files force frequent checkpoints, which throttle write throughput when Alfresco is under heavy write load (eg. bulk imports)";
+                testResult.remedy              = "Manually validate that innodb_log_file_size is at least " + minimumMb + "M";
+                testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine InnoDB log file size: " + se.getMessage();
+            testResult.ramification        = "Small log files force frequent checkpoints, which throttle write throughput when Alfresco is under heavy write load (eg. bulk imports)";
+            testResult.remedy              = "Manually validate that innodb_log_file_size is at least " + minimumMb + "M";
+            testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateFlushLogAtTrxCommit(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Log Flush at Commit");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String flushLogAtTrxCommit = settings.getValue("innodb_flush_log_at_trx_commit");
+            
+            if (flushLogAtTrxCommit != null && flushLogAtTrxCommit.trim().length() > 0)
+            {
+                progress(callback, flushLogAtTrxCommit);
+                
+                if ("1".equals(flushLogAtTrxCommit.trim()))
+                {
+                    // Each commit waits for a disk flush - the commit time measured by the write throughput tests (-x) shows what this costs
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "InnoDB does not flush its log to disk at each commit";
+                    testResult.ramification        = "Commits are faster, but up to a second of committed transactions will be lost if " +
+                                                     ("0".equals(flushLogAtTrxCommit.trim()) ? "MySQL" : "the server") + " crashes, leaving the database " +
+                                                     "inconsistent with the Alfresco content store and indexes";
+                    testResult.remedy              = "Set innodb_flush_log_at_trx_commit=1 in the MySQL configuration, and improve commit times with a battery backed disk write cache instead";
+                    testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine InnoDB log flush policy";
+                testResult.ramification        = "Committed transactions may be lost if the server crashes";
+                testResult.remedy              = "Manually validate that innodb_flush_log_at_trx_commit=1 in the MySQL configuration";
+                testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine InnoDB log flush policy: " + se.getMessage();
+            testResult.ramification        = "Committed transactions may be lost if the server crashes";
+            testResult.remedy              = "Manually validate that innodb_flush_log_at_trx_commit=1 in the MySQL configuration";
+            testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateFlushMethod(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "InnoDB Flush Method");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String flushMethod = settings.getValue("innodb_flush_method");
+            String serverOs    = settings.getValue("version_compile_os");
+            
+            progress(callback, flushMethod == null || flushMethod.trim().length() == 0 ? "default" : flushMethod);
+            
+            if (serverOs != null && serverOs.toLowerCase().startsWith("win"))
+            {
+                // InnoDB always uses unbuffered I/O on Windows
+                testResult.resultType = TestResult.PASS;
+            }
+            else if (flushMethod != null && flushMethod.toUpperCase().startsWith("O_DIRECT"))
+            {
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "InnoDB data files are read and written through the OS page cache";
+                testResult.ramification        = "Data is cached twice (in the InnoDB buffer pool and the OS page cache), wasting memory that would be better used by the buffer pool";
+                testResult.remedy              = "Set innodb_flush_method=O_DIRECT in the MySQL configuration";
+                testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine InnoDB flush method: " + se.getMessage();
+            testResult.ramification        = "Data may be cached twice (in the InnoDB buffer pool and the OS page cache), wasting memory that would be better used by the buffer pool";
+            testResult.remedy              = "Manually validate that innodb_flush_method=O_DIRECT in the MySQL configuration (on operating systems other than Windows)";
+            testResult.urisMoreInformation = MYSQL_INNODB_PARAMETERS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateMaxUserConnections(final ValidatorCallback callback, final ServerSettings settings, final int plannedConnections)
+    {
+        startTest(callback, "Max User Connections");
+        
+        TestResult testResult = new TestResult();
+        int        required   = plannedConnections;
+        
+        try
+        {
+            String maxUserConnections = settings.getValue("max_user_connections");
+            int    limit              = settings.getInt("max_user_connections");
+            
+            if ("0".equals(maxUserConnections))
+            {
+                progress(callback, "unlimited");
+                testResult.resultType = TestResult.PASS;
+            }
+            else if (limit > 0)
+            {
+                progress(callback, limit + " (" + required + " needed)");
+                
+                if (limit >= required)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "MySQL allows each user " + limit + " connections, but the planned Alfresco connection pools need " + required;
+                    testResult.ramification        = "Under load, Alfresco will be refused database connections before its connection pool is full, and requests will fail";
+                    testResult.remedy              = "Increase max_user_connections to at least " + required + " (or set it to 0), or reduce db.pool.max";
+                    testResult.urisMoreInformation = MYSQL_MAX_USER_CONNECTIONS_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine the maximum number of connections per user";
+                testResult.ramification        = "Under load, Alfresco may be refused database connections before its connection pool is full";
+                testResult.remedy              = "Manually validate that max_user_connections is 0 or at least " + required;
+                testResult.urisMoreInformation = MYSQL_MAX_USER_CONNECTIONS_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the maximum number of connections per user: " + se.getMessage();
+            testResult.ramification        = "Under load, Alfresco may be refused database connections before its connection pool is full";
+            testResult.remedy              = "Manually validate that max_user_connections is 0 or at least " + required;
+            testResult.urisMoreInformation = MYSQL_MAX_USER_CONNECTIONS_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateQueryCache(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Query Cache");
+        
+        TestResult testResult = new TestResult();
+        long       maximumMb  = PerformanceConfiguration.getLong("db.mysql.query.cache.max.mb", DEFAULT_QUERY_CACHE_MAX_MB);
+        
+        try
+        {
+            String haveQueryCache = settings.getValue("have_query_cache");
+            String queryCacheType = settings.getValue("query_cache_type");
+            long   queryCacheSize = settings.getLong("query_cache_size");
+            
+            if ("NO".equalsIgnoreCase(haveQueryCache) || "OFF".equalsIgnoreCase(queryCacheType) || "0".equals(queryCacheType) || queryCacheSize <= 0)
+            {
+                progress(callback, "disabled");
+                testResult.resultType = TestResult.PASS;
+            }
+            else
+            {
+                long queryCacheMb = queryCacheSize / BYTES_PER_MB;
+                
+                progress(callback, queryCacheMb + "MB (" + queryCacheType + ")");
+                
+                if (queryCacheMb <= maximumMb)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Query cache is larger than " + maximumMb + "MB";
+                    testResult.ramification        = "Every write invalidates the cached queries on that table while holding the query cache's global lock, so under Alfresco's " +
+                                                     "write-heavy load a large query cache serialises queries and increases their latency";
+                    testResult.remedy              = "Reduce query_cache_size to " + maximumMb + "M or less, or disable the query cache (query_cache_type=0, query_cache_size=0)";
+                    testResult.urisMoreInformation = MYSQL_QUERY_CACHE_URI;
+                }
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine query cache configuration: " + se.getMessage();
+            testResult.ramification        = "A large query cache serialises queries under Alfresco's write-heavy load";
+            testResult.remedy              = "Manually validate that query_cache_size is " + maximumMb + "M or less, or that the query cache is disabled";
+            testResult.urisMoreInformation = MYSQL_QUERY_CACHE_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateTmpTableSize(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Temporary Tables");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.mysql.tmp.table.min.mb", DEFAULT_TMP_TABLE_MIN_MB);
+        
+        try
+        {
+            long tmpTableSize     = settings.getLong("tmp_table_size");
+            long maxHeapTableSize = settings.getLong("max_heap_table_size");
+            
+            if (tmpTableSize > 0 && maxHeapTableSize > 0)
+            {
+                // Implicit temporary tables are converted to on-disk tables when they exceed the smaller of the two limits
+                long effectiveMb = Math.min(tmpTableSize, maxHeapTableSize) / BYTES_PER_MB;
+                
+                progress(callback, effectiveMb + "MB");
+                
+                if (effectiveMb >= minimumMb)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "In-memory temporary tables are limited to " + effectiveMb + "MB";
+                    testResult.ramification        = "Queries that sort or group large result sets (eg. searches and permission checks in large repositories) will spill to disk and run slowly";
+                    testResult.remedy              = "Set both tmp_table_size and max_heap_table_size to at least " + minimumMb + "M in the MySQL configuration";
+                    testResult.urisMoreInformation = MYSQL_INTERNAL_TEMPORARY_TABLES_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine the maximum size of in-memory temporary tables";
+                testResult.ramification        = "Queries that sort or group large result sets may spill to disk and run slowly";
+                testResult.remedy              = "Manually validate that tmp_table_size and max_heap_table_size are both at least " + minimumMb + "M";
+                testResult.urisMoreInformation = MYSQL_INTERNAL_TEMPORARY_TABLES_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine the maximum size of in-memory temporary tables: " + se.getMessage();
+            testResult.ramification        = "Queries that sort or group large result sets may spill to disk and run slowly";
+            testResult.remedy              = "Manually validate that tmp_table_size and max_heap_table_size are both at least " + minimumMb + "M";
+            testResult.urisMoreInformation = MYSQL_INTERNAL_TEMPORARY_TABLES_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
 
 }
\ No newline at end of file
@@ -33,6 +33,7 @@ import java.util.Map;
 import org.alfresco.extension.environment.validation.AbstractValidator;
 import org.alfresco.extension.environment.validation.TestResult;
 import org.alfresco.extension.environment.validation.ValidatorCallback;
+import org.alfresco.extension.environment.validation.validators.PerformanceConfiguration;
 import org.alfresco.extension.util.ComparablePair;
 
 
@@ -57,20 +58,78 @@ public class org_postgresql_Driver
     private final static String[] POSTGRESQL_CONFIGURING_CHARACTER_SETS_URI = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/interactive/multibyte.html" };
     private final static String[] POSTGRESQL_TYPE_CONVERSION_URI            = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/static/typeconv.html" };
     private final static String[] ALFRESCO_SPM_AND_POSTGRESQL_URIS          = { AbstractValidator.ALFRESCO_SUMMARY_SPM_URI_STR, POSTGRESQL_URI_STR }; 
+    private final static String[] POSTGRESQL_RESOURCE_CONFIGURATION_URI     = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/static/runtime-config-resource.html" };
+    private final static String[] POSTGRESQL_QUERY_PLANNING_URI             = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/static/runtime-config-query.html" };
+    private final static String[] POSTGRESQL_WAL_CONFIGURATION_URI          = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/static/runtime-config-wal.html" };
+    private final static String[] POSTGRESQL_AUTOVACUUM_URI                 = { "http://www.postgresql.org/docs/" + DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS + "/static/routine-vacuuming.html#AUTOVACUUM" };
+    
+    // Performance thresholds (see performance.properties)
+    private final static long   DEFAULT_SHARED_BUFFERS_MIN_MB           = 256;
+    private final static double DEFAULT_SHARED_BUFFERS_RAM_MIN_RATIO    = 0.15;
+    private final static double DEFAULT_SHARED_BUFFERS_RAM_MAX_RATIO    = 0.4;
+    private final static long   DEFAULT_EFFECTIVE_CACHE_MIN_MB          = 1024;
+    private final static double DEFAULT_EFFECTIVE_CACHE_RAM_MIN_RATIO   = 0.5;
+    private final static long   DEFAULT_WORK_MEM_MIN_MB                 = 4;
+    private final static long   DEFAULT_MAINTENANCE_WORK_MEM_MIN_MB     = 128;
+    private final static double DEFAULT_RANDOM_PAGE_COST_SSD_MAX        = 2.0;
+    private final static long   DEFAULT_CHECKPOINT_WAL_MIN_MB           = 512;
+    private final static double DEFAULT_CHECKPOINT_COMPLETION_MIN       = 0.7;
+    private final static long   WAL_SEGMENT_SIZE_MB                     = 16;
     
                          
 
     /**
-     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection)
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#validate(org.alfresco.extension.environment.validation.ValidatorCallback, java.sql.Connection, int)
      */
-    public void validate(ValidatorCallback callback, Connection con)
+    public void validate(ValidatorCallback callback, Connection con, int plannedConnections)
     {
         setupConnection(con);
         
+        ServerSettings settings = getServerSettings(con);
+        
         validateJdbcDriverVersion(callback, con, SUPPORTED_JDBC_DRIVER_VERSION, JDBC_URI);
-        validateDatabaseVersion(callback, con);
-        validateEncoding(callback, con);
+        validateDatabaseVersion(callback, settings);
+        validateEncoding(callback, settings);
         validateIntToBoolCasts(callback, con);
+        
+        long ramMb = getServerRamMb(settings);
+        
+        validateSharedBuffers(callback, settings, ramMb);
+        validateEffectiveCacheSize(callback, settings, ramMb);
+        validateWorkMem(callback, settings, ramMb);
+        validateMaintenanceWorkMem(callback, settings);
+        validateRandomPageCost(callback, settings);
+        validateSynchronousCommit(callback, settings);
+        validateCheckpoints(callback, settings);
+        validateAutovacuum(callback, settings);
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.DBSpecificValidator#getMaxConnections(java.sql.Connection)
+     */
+    public int getMaxConnections(final Connection con)
+        throws SQLException
+    {
+        return(getServerSettings(con).getInt("max_connections"));
+    }
+    
+    
+    /**
+     * @see org.alfresco.extension.environment.validation.validators.database.AbstractDBSpecificValidator#getServerSettingsQuery()
+     */
+    protected String getServerSettingsQuery()
+    {
+        // All run-time parameters (as per SHOW ALL, but with memory sizes converted to bytes), plus the full version string and
+        // the server's address, in one round trip
+        return("SELECT name, CASE unit WHEN 'kB'   THEN CAST(CAST(setting AS BIGINT) * 1024     AS TEXT)" +
+               "                       WHEN '8kB'  THEN CAST(CAST(setting AS BIGINT) * 8192     AS TEXT)" +
+               "                       WHEN 'MB'   THEN CAST(CAST(setting AS BIGINT) * 1048576  AS TEXT)" +
+               "                       WHEN '16MB' THEN CAST(CAST(setting AS BIGINT) * 16777216 AS TEXT)" +
+               "                       ELSE setting END" +
+               "  FROM pg_settings" +
+               " UNION ALL SELECT 'version', VERSION()" +
+               " UNION ALL SELECT 'server_address', host(inet_server_addr())");
     }
     
     
@@ -86,7 +145,7 @@ public class org_postgresql_Driver
         }
     }
     
-    private void validateDatabaseVersion(final ValidatorCallback callback, final Connection con)
+    private void validateDatabaseVersion(final ValidatorCallback callback, final ServerSettings settings)
     {
         startTest(callback, "PostgreSQL Version");
         
@@ -94,47 +153,33 @@ public class org_postgresql_Driver
         
         try
         {
-            Map row = singletonQuery(con, "SELECT VERSION() AS VERSION");
+            String version = settings.getValue("version");
             
-            if (row != null)
+            if (version != null && version.trim().length() > 0)
             {
-                String version = (String)row.get("VERSION");
+                version = parseVersion(version);
+                
+                progress(callback, version);
                 
-                if (version != null && version.trim().length() > 0)
+                if (version.equals(SUPPORTED_POSTGRESQL_VERSION))
                 {
-                    version = parseVersion(version);
-                    
-                    progress(callback, version);
-                    
-                    if (version.equals(SUPPORTED_POSTGRESQL_VERSION))
-                    {
-                        testResult.resultType = TestResult.PASS;
-                    }
-                    else if (version.startsWith(DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS))
-                    {
-                        testResult.resultType          = TestResult.WARN;
-                        testResult.errorMessage        = "Unsupported PostgreSQL version";
-                        testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
-                        testResult.remedy              = "Install PostgreSQL " + SUPPORTED_POSTGRESQL_VERSION;
-                        testResult.urisMoreInformation = ALFRESCO_SPM_AND_POSTGRESQL_URIS;
-                    }
-                    else
-                    {
-                        testResult.resultType          = TestResult.FAIL;
-                        testResult.errorMessage        = "Unsupported PostgreSQL version";
-                        testResult.ramification        = "Alfresco will not function correctly on this version";
-                        testResult.remedy              = "Install PostgreSQL " + SUPPORTED_POSTGRESQL_VERSION;
-                        testResult.urisMoreInformation = ALFRESCO_SPM_AND_POSTGRESQL_URIS;
-                    }
+                    testResult.resultType = TestResult.PASS;
+                }
+                else if (version.startsWith(DEVELOPMENT_ONLY_POSTGRESQL_VERSIONS))
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Unsupported PostgreSQL version";
+                    testResult.ramification        = "Alfresco may function sufficiently well for development purposes but must not be used for production";
+                    testResult.remedy              = "Install PostgreSQL " + SUPPORTED_POSTGRESQL_VERSION;
+                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_POSTGRESQL_URIS;
                 }
                 else
                 {
-                    progress(callback, "unknown");
-                    
-                    testResult.resultType   = TestResult.FAIL;
-                    testResult.errorMessage = "Unable to determine PostgreSQL version";
-                    testResult.ramification = "Alfresco may not function correctly";
-                    testResult.remedy       = "Manually validate that PostgreSQL " + SUPPORTED_POSTGRESQL_VERSION + " is installed";
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "Unsupported PostgreSQL version";
+                    testResult.ramification        = "Alfresco will not function correctly on this version";
+                    testResult.remedy              = "Install PostgreSQL " + SUPPORTED_POSTGRESQL_VERSION;
+                    testResult.urisMoreInformation = ALFRESCO_SPM_AND_POSTGRESQL_URIS;
                 }
             }
             else
@@ -192,14 +237,14 @@ public class org_postgresql_Driver
     }
     
     
-    private final void validateEncoding(final ValidatorCallback callback, final Connection con)
+    private final void validateEncoding(final ValidatorCallback callback, final ServerSettings settings)
     {
-        validateEncoding(callback, con, "Client");
-        validateEncoding(callback, con, "Server");
+        validateEncoding(callback, settings, "Client");
+        validateEncoding(callback, settings, "Server");
     }
     
     
-    private final void validateEncoding(final ValidatorCallback callback, final Connection con, final String whichEncoding)
+    private final void validateEncoding(final ValidatorCallback callback, final ServerSettings settings, final String whichEncoding)
     {
         startTest(callback, whichEncoding + " Encoding");
         
@@ -209,8 +254,7 @@ public class org_postgresql_Driver
 
         try
         {
-            Map    row      = singletonQuery(con, "SHOW " + encodingVariable);
-            String encoding = (String)row.get(encodingVariable);
+            String encoding = settings.getValue(encodingVariable);
 
             if (encoding != null && encoding.trim().length() > 0)
             {
@@ -365,5 +409,555 @@ public class org_postgresql_Driver
         
         endTest(callback, testResult);
     }
+    
+    
+    /**
+     * @return The RAM installed in the database server, in MB, or -1 if it's not known (ie. PostgreSQL isn't running on this server).
+     */
+    private final long getServerRamMb(final ServerSettings settings)
+    {
+        long result = -1;
+        
+        try
+        {
+            if (isLocalAddress(settings.getValue("server_address")))
+            {
+                result = getInstalledRamMb();
+            }
+        }
+        catch (final SQLException se)
+        {
+            result = -1;
+        }
+        
+        return(result);
+    }
+    
+    
+    private final void validateSharedBuffers(final ValidatorCallback callback, final ServerSettings settings, final long ramMb)
+    {
+        startTest(callback, "Shared Buffers");
+        
+        TestResult testResult  = new TestResult();
+        long       minimumMb   = PerformanceConfiguration.getLong("db.postgresql.shared.buffers.min.mb", DEFAULT_SHARED_BUFFERS_MIN_MB);
+        double     minRamRatio = PerformanceConfiguration.getDouble("db.postgresql.shared.buffers.ram.min.ratio", DEFAULT_SHARED_BUFFERS_RAM_MIN_RATIO);
+        double     maxRamRatio = PerformanceConfiguration.getDouble("db.postgresql.shared.buffers.ram.max.ratio", DEFAULT_SHARED_BUFFERS_RAM_MAX_RATIO);
+        
+        try
+        {
+            long sharedBuffers = settings.getLong("shared_buffers");
+            
+            if (sharedBuffers > 0)
+            {
+                long sharedBuffersMb = sharedBuffers / BYTES_PER_MB;
+                
+                progress(callback, sharedBuffersMb + "MB" + (ramMb > 0 ? " (RAM " + ramMb + "MB)" : ""));
+                
+                if (ramMb > 0 && sharedBuffersMb > ramMb * maxRamRatio)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Shared buffers are more than " + Math.round(maxRamRatio * 100) + "% of the RAM in this server";
+                    testResult.ramification        = "PostgreSQL also relies on the OS page cache, so data will be cached twice and too little memory will be left for sorts and the OS page cache";
+                    testResult.remedy              = "Set shared_buffers to around 25% of RAM (" + (ramMb / 4) + "MB) in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+                }
+                else if (ramMb > 0 ? sharedBuffersMb < ramMb * minRamRatio : sharedBuffersMb < minimumMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Shared buffers are smaller than " + (ramMb > 0 ? Math.round(minRamRatio * 100) + "% of the RAM in this server" : minimumMb + "MB");
+                    testResult.ramification        = "Frequently used Alfresco tables and indexes will be evicted from the shared buffer cache, increasing I/O and query times";
+                    testResult.remedy              = "Set shared_buffers to " + (ramMb > 0 ? "around 25% of RAM (" + (ramMb / 4) + "MB)" : "at least " + minimumMb + "MB (around 25% of the database server's RAM)") +
+                                                     " in postgresql.conf - the OS shared memory limits (eg. kernel.shmmax) may also need to be raised";
+                    testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine shared buffers size";
+                testResult.ramification        = "Alfresco tables and indexes may not fit in the shared buffer cache, increasing I/O and query times";
+                testResult.remedy              = "Manually validate that shared_buffers is around 25% of the database server's RAM";
+                testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine shared buffers size: " + se.getMessage();
+            testResult.ramification        = "Alfresco tables and indexes may not fit in the shared buffer cache, increasing I/O and query times";
+            testResult.remedy              = "Manually validate that shared_buffers is around 25% of the database server's RAM";
+            testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateEffectiveCacheSize(final ValidatorCallback callback, final ServerSettings settings, final long ramMb)
+    {
+        startTest(callback, "Effective Cache Size");
+        
+        TestResult testResult  = new TestResult();
+        long       minimumMb   = PerformanceConfiguration.getLong("db.postgresql.effective.cache.min.mb", DEFAULT_EFFECTIVE_CACHE_MIN_MB);
+        double     minRamRatio = PerformanceConfiguration.getDouble("db.postgresql.effective.cache.ram.min.ratio", DEFAULT_EFFECTIVE_CACHE_RAM_MIN_RATIO);
+        long       requiredMb  = ramMb > 0 ? Math.round(ramMb * minRamRatio) : minimumMb;
+        
+        try
+        {
+            long effectiveCacheSize = settings.getLong("effective_cache_size");
+            
+            if (effectiveCacheSize > 0)
+            {
+                long effectiveCacheSizeMb = effectiveCacheSize / BYTES_PER_MB;
+                
+                progress(callback, effectiveCacheSizeMb + "MB");
+                
+                if (effectiveCacheSizeMb >= requiredMb)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Effective cache size is smaller than " + requiredMb + "MB" + (ramMb > 0 ? " (" + Math.round(minRamRatio * 100) + "% of the RAM in this server)" : "");
+                    testResult.ramification        = "The query planner will underestimate how much of the database is cached, and choose sequential scans over index scans for Alfresco's queries";
+                    testResult.remedy              = "Set effective_cache_size to the memory available for caching (shared_buffers plus the OS page cache, typically 50-75% of RAM) in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine effective cache size";
+                testResult.ramification        = "The query planner may choose sequential scans over index scans for Alfresco's queries";
+                testResult.remedy              = "Manually validate that effective_cache_size is at least " + requiredMb + "MB (typically 50-75% of the database server's RAM)";
+                testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine effective cache size: " + se.getMessage();
+            testResult.ramification        = "The query planner may choose sequential scans over index scans for Alfresco's queries";
+            testResult.remedy              = "Manually validate that effective_cache_size is at least " + requiredMb + "MB (typically 50-75% of the database server's RAM)";
+            testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateWorkMem(final ValidatorCallback callback, final ServerSettings settings, final long ramMb)
+    {
+        startTest(callback, "Work Mem");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.postgresql.work.mem.min.mb", DEFAULT_WORK_MEM_MIN_MB);
+        
+        try
+        {
+            long workMem        = settings.getLong("work_mem");
+            long maxConnections = settings.getLong("max_connections");
+            
+            if (workMem > 0)
+            {
+                long workMemMb = workMem / BYTES_PER_MB;
+                long worstCase = maxConnections > 0 ? workMem * maxConnections / BYTES_PER_MB : -1;
+                
+                progress(callback, (workMem < BYTES_PER_MB ? (workMem / 1024) + "kB" : workMemMb + "MB"));
+                
+                if (ramMb > 0 && worstCase > ramMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "work_mem x max_connections (" + worstCase + "MB) exceeds the RAM in this server";
+                    testResult.ramification        = "If many connections sort at once (eg. under heavy search load) the server will run out of memory and swap, slowing every query";
+                    testResult.remedy              = "Reduce work_mem to no more than " + (ramMb / maxConnections) + "MB, or reduce max_connections";
+                    testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+                }
+                else if (workMemMb < minimumMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "work_mem is smaller than " + minimumMb + "MB";
+                    testResult.ramification        = "Sorts and hashes in Alfresco's larger queries (eg. searches and permission checks) will spill to temporary files on disk and run slowly";
+                    testResult.remedy              = "Set work_mem to at least " + minimumMb + "MB in postgresql.conf, bearing in mind that each connection may use it several times at once";
+                    testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine work_mem";
+                testResult.ramification        = "Sorts and hashes in Alfresco's larger queries may spill to disk and run slowly";
+                testResult.remedy              = "Manually validate that work_mem is at least " + minimumMb + "MB, and that work_mem x max_connections fits in the database server's RAM";
+                testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine work_mem: " + se.getMessage();
+            testResult.ramification        = "Sorts and hashes in Alfresco's larger queries may spill to disk and run slowly";
+            testResult.remedy              = "Manually validate that work_mem is at least " + minimumMb + "MB, and that work_mem x max_connections fits in the database server's RAM";
+            testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateMaintenanceWorkMem(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Maintenance Work Mem");
+        
+        TestResult testResult = new TestResult();
+        long       minimumMb  = PerformanceConfiguration.getLong("db.postgresql.maintenance.work.mem.min.mb", DEFAULT_MAINTENANCE_WORK_MEM_MIN_MB);
+        
+        try
+        {
+            long maintenanceWorkMem = settings.getLong("maintenance_work_mem");
+            
+            if (maintenanceWorkMem > 0)
+            {
+                long maintenanceWorkMemMb = maintenanceWorkMem / BYTES_PER_MB;
+                
+                progress(callback, maintenanceWorkMemMb + "MB");
+                
+                if (maintenanceWorkMemMb >= minimumMb)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "maintenance_work_mem is smaller than " + minimumMb + "MB";
+                    testResult.ramification        = "Vacuuming Alfresco's large, frequently updated tables (eg. alf_node) and creating indexes during upgrades will take longer";
+                    testResult.remedy              = "Set maintenance_work_mem to at least " + minimumMb + "MB in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine maintenance_work_mem";
+                testResult.ramification        = "Vacuuming and index creation may take longer than necessary";
+                testResult.remedy              = "Manually validate that maintenance_work_mem is at least " + minimumMb + "MB";
+                testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine maintenance_work_mem: " + se.getMessage();
+            testResult.ramification        = "Vacuuming and index creation may take longer than necessary";
+            testResult.remedy              = "Manually validate that maintenance_work_mem is at least " + minimumMb + "MB";
+            testResult.urisMoreInformation = POSTGRESQL_RESOURCE_CONFIGURATION_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateRandomPageCost(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Random Page Cost");
+        
+        TestResult testResult = new TestResult();
+        boolean    ssd        = "ssd".equalsIgnoreCase(PerformanceConfiguration.getString("planned.db.storage", "hdd"));
+        double     ssdMaximum = PerformanceConfiguration.getDouble("db.postgresql.random.page.cost.ssd.max", DEFAULT_RANDOM_PAGE_COST_SSD_MAX);
+        
+        try
+        {
+            String randomPageCostStr = settings.getValue("random_page_cost");
+            
+            if (randomPageCostStr != null && randomPageCostStr.trim().length() > 0)
+            {
+                progress(callback, randomPageCostStr + (ssd ? " (SSD)" : ""));
+                
+                try
+                {
+                    double randomPageCost = Double.parseDouble(randomPageCostStr.trim());
+                    
+                    if (!ssd || randomPageCost <= ssdMaximum)
+                    {
+                        testResult.resultType = TestResult.PASS;
+                    }
+                    else
+                    {
+                        testResult.resultType          = TestResult.WARN;
+                        testResult.errorMessage        = "random_page_cost is tuned for spinning disks, but the database is planned to be on SSD";
+                        testResult.ramification        = "The query planner will overestimate the cost of random I/O, and choose sequential scans over index scans for Alfresco's queries";
+                        testResult.remedy              = "Set random_page_cost to between 1.1 and " + ssdMaximum + " in postgresql.conf";
+                        testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+                    }
+                }
+                catch (final NumberFormatException nfe)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Unable to determine random_page_cost";
+                    testResult.ramification        = "The query planner may choose sequential scans over index scans for Alfresco's queries";
+                    testResult.remedy              = "Manually validate that random_page_cost is " + (ssd ? "no more than " + ssdMaximum + " (SSD)" : "appropriate for the database's storage");
+                    testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+                    testResult.rootCause           = nfe;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine random_page_cost";
+                testResult.ramification        = "The query planner may choose sequential scans over index scans for Alfresco's queries";
+                testResult.remedy              = "Manually validate that random_page_cost is " + (ssd ? "no more than " + ssdMaximum + " (SSD)" : "appropriate for the database's storage");
+                testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine random_page_cost: " + se.getMessage();
+            testResult.ramification        = "The query planner may choose sequential scans over index scans for Alfresco's queries";
+            testResult.remedy              = "Manually validate that random_page_cost is " + (ssd ? "no more than " + ssdMaximum + " (SSD)" : "appropriate for the database's storage");
+            testResult.urisMoreInformation = POSTGRESQL_QUERY_PLANNING_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateSynchronousCommit(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Synchronous Commit");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String fsync             = settings.getValue("fsync");
+            String synchronousCommit = settings.getValue("synchronous_commit");
+            
+            if (synchronousCommit != null && synchronousCommit.trim().length() > 0)
+            {
+                progress(callback, synchronousCommit + ("off".equalsIgnoreCase(fsync) ? " (fsync off)" : ""));
+                
+                if ("off".equalsIgnoreCase(fsync))
+                {
+                    testResult.resultType          = TestResult.FAIL;
+                    testResult.errorMessage        = "fsync is disabled";
+                    testResult.ramification        = "Commits are faster, but the database may be corrupted beyond repair if the server crashes or loses power";
+                    testResult.remedy              = "Set fsync=on in postgresql.conf, and improve commit times with a battery backed disk write cache instead";
+                    testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+                }
+                else if ("off".equalsIgnoreCase(synchronousCommit))
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Commits do not wait for the transaction log to be flushed to disk";
+                    testResult.ramification        = "Commits are faster, but the most recently committed transactions will be lost if the server crashes, leaving the database " +
+                                                     "inconsistent with the Alfresco content store and indexes";
+                    testResult.remedy              = "Set synchronous_commit=on in postgresql.conf, and improve commit times with a battery backed disk write cache instead";
+                    testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+                }
+                else
+                {
+                    // Each commit waits for a disk flush - the commit time measured by the write throughput tests (-x) shows what this costs
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine synchronous_commit";
+                testResult.ramification        = "Committed transactions may be lost if the server crashes";
+                testResult.remedy              = "Manually validate that fsync and synchronous_commit are both on";
+                testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine synchronous_commit: " + se.getMessage();
+            testResult.ramification        = "Committed transactions may be lost if the server crashes";
+            testResult.remedy              = "Manually validate that fsync and synchronous_commit are both on";
+            testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateCheckpoints(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Checkpoints");
+        
+        TestResult testResult        = new TestResult();
+        long       minimumWalMb      = PerformanceConfiguration.getLong("db.postgresql.checkpoint.wal.min.mb", DEFAULT_CHECKPOINT_WAL_MIN_MB);
+        double     minimumCompletion = PerformanceConfiguration.getDouble("db.postgresql.checkpoint.completion.min", DEFAULT_CHECKPOINT_COMPLETION_MIN);
+        
+        try
+        {
+            long   checkpointSegments = settings.getLong("checkpoint_segments");   // PostgreSQL 9.4 and earlier
+            long   maxWalSize         = settings.getLong("max_wal_size");          // PostgreSQL 9.5 and later
+            String completionTarget   = settings.getValue("checkpoint_completion_target");
+            long   walMb              = checkpointSegments > 0 ? checkpointSegments * WAL_SEGMENT_SIZE_MB : (maxWalSize > 0 ? maxWalSize / BYTES_PER_MB : -1);
+            double completion         = -1;
+            
+            if (completionTarget != null && completionTarget.trim().length() > 0)
+            {
+                try
+                {
+                    completion = Double.parseDouble(completionTarget.trim());
+                }
+                catch (final NumberFormatException nfe)
+                {
+                    completion = -1;
+                }
+            }
+            
+            if (walMb > 0 && completion >= 0)
+            {
+                progress(callback, walMb + "MB of WAL, completion target " + completionTarget.trim());
+                
+                if (walMb < minimumWalMb)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Checkpoints are triggered after less than " + minimumWalMb + "MB of WAL";
+                    testResult.ramification        = "Frequent checkpoints (each followed by full page writes) throttle write throughput when Alfresco is under heavy write load (eg. bulk imports)";
+                    testResult.remedy              = checkpointSegments > 0 ? "Set checkpoint_segments to at least " + (minimumWalMb / WAL_SEGMENT_SIZE_MB) + " in postgresql.conf"
+                                                                            : "Set max_wal_size to at least " + minimumWalMb + "MB in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+                }
+                else if (completion < minimumCompletion)
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Checkpoint writes are spread over less than " + Math.round(minimumCompletion * 100) + "% of the checkpoint interval";
+                    testResult.ramification        = "Each checkpoint causes a burst of disk writes, during which Alfresco's queries and commits slow down";
+                    testResult.remedy              = "Set checkpoint_completion_target to 0.9 in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+                }
+                else
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine checkpoint configuration";
+                testResult.ramification        = "Frequent or bursty checkpoints may throttle write throughput under heavy write load";
+                testResult.remedy              = "Manually validate that at least " + minimumWalMb + "MB of WAL is written between checkpoints (checkpoint_segments or max_wal_size), " +
+                                                 "and that checkpoint_completion_target is at least " + minimumCompletion;
+                testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine checkpoint configuration: " + se.getMessage();
+            testResult.ramification        = "Frequent or bursty checkpoints may throttle write throughput under heavy write load";
+            testResult.remedy              = "Manually validate that at least " + minimumWalMb + "MB of WAL is written between checkpoints (checkpoint_segments or max_wal_size), " +
+                                             "and that checkpoint_completion_target is at least " + minimumCompletion;
+            testResult.urisMoreInformation = POSTGRESQL_WAL_CONFIGURATION_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
+    
+    
+    private final void validateAutovacuum(final ValidatorCallback callback, final ServerSettings settings)
+    {
+        startTest(callback, "Autovacuum");
+        
+        TestResult testResult = new TestResult();
+        
+        try
+        {
+            String autovacuum  = settings.getValue("autovacuum");
+            String trackCounts = settings.getValue("track_counts");
+            
+            if (autovacuum != null && autovacuum.trim().length() > 0)
+            {
+                boolean enabled = "on".equalsIgnoreCase(autovacuum) && !"off".equalsIgnoreCase(trackCounts);   // Autovacuum relies on the statistics collector
+                
+                progress(callback, enabled ? "enabled" : "disabled");
+                
+                if (enabled)
+                {
+                    testResult.resultType = TestResult.PASS;
+                }
+                else
+                {
+                    testResult.resultType          = TestResult.WARN;
+                    testResult.errorMessage        = "Autovacuum is disabled" + ("off".equalsIgnoreCase(trackCounts) ? " (track_counts is off)" : "");
+                    testResult.ramification        = "Dead rows left by Alfresco's frequent updates will not be reclaimed and statistics will go stale, so tables and indexes " +
+                                                     "will bloat and queries will slow down over time";
+                    testResult.remedy              = "Set autovacuum=on and track_counts=on in postgresql.conf";
+                    testResult.urisMoreInformation = POSTGRESQL_AUTOVACUUM_URI;
+                }
+            }
+            else
+            {
+                progress(callback, "unknown");
+                
+                testResult.resultType          = TestResult.WARN;
+                testResult.errorMessage        = "Unable to determine whether autovacuum is enabled";
+                testResult.ramification        = "Tables and indexes may bloat and queries slow down over time";
+                testResult.remedy              = "Manually validate that autovacuum and track_counts are both on";
+                testResult.urisMoreInformation = POSTGRESQL_AUTOVACUUM_URI;
+            }
+        }
+        catch (final SQLException se)
+        {
+            progress(callback, "unknown");
+            
+            testResult.resultType          = TestResult.WARN;
+            testResult.errorMessage        = "Unable to determine whether autovacuum is enabled: " + se.getMessage();
+            testResult.ramification        = "Tables and indexes may bloat and queries slow down over time";
+            testResult.remedy              = "Manually validate that autovacuum and track_counts are both on";
+            testResult.urisMoreInformation = POSTGRESQL_AUTOVACUUM_URI;
+            testResult.rootCause           = se;
+        }
+        
+        endTest(callback, testResult);
+    }
         
 }
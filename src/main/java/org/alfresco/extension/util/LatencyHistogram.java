@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+
+package org.alfresco.extension.util;
+
+
+/**
+ * Utility class that accumulates latency samples (in ms) into a fixed set of logarithmic buckets, so that
+ * long running samplers use constant memory.  Percentiles are estimated as the upper bound of the bucket
+ * the percentile falls in; the exact minimum, maximum, mean and jitter (the mean difference between
+ * consecutive samples) are tracked alongside.  This class is thread safe.
+ *
+ * @version $Id$
+ */
+public final class LatencyHistogram
+{
+    // Upper bounds (ms) of each bucket - the last bucket is unbounded
+    private final static double[] BUCKET_BOUNDS = { 0.1, 0.2, 0.5, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+    private final long[] buckets  = new long[BUCKET_BOUNDS.length + 1];
+    private long         count    = 0;
+    private double       sum      = 0.0;
+    private double       min      = Double.MAX_VALUE;
+    private double       max      = 0.0;
+    private double       previous = -1.0;
+    private double       jitter   = 0.0;
+
+
+    /**
+     * Adds a sample.
+     *
+     * @param latencyMs The sample, in milliseconds.
+     */
+    public synchronized void add(final double latencyMs)
+    {
+        int bucket = 0;
+
+        while (bucket < BUCKET_BOUNDS.length && latencyMs > BUCKET_BOUNDS[bucket])
+        {
+            bucket++;
+        }
+
+        buckets[bucket]++;
+        sum += latencyMs;
+        min  = Math.min(min, latencyMs);
+        max  = Math.max(max, latencyMs);
+
+        if (previous >= 0.0)
+        {
+            jitter += Math.abs(latencyMs - previous);
+        }
+
+        previous = latencyMs;
+        count++;
+    }
+
+
+    public synchronized long getCount()
+    {
+        return(count);
+    }
+
+
+    public synchronized double getMin()
+    {
+        return(count == 0 ? 0.0 : min);
+    }
+
+
+    public synchronized double getMax()
+    {
+        return(max);
+    }
+
+
+    public synchronized double getAverage()
+    {
+        return(count == 0 ? 0.0 : sum / count);
+    }
+
+
+    /**
+     * @return The mean absolute difference between consecutive samples, in ms.
+     */
+    public synchronized double getJitter()
+    {
+        return(count < 2 ? 0.0 : jitter / (count - 1));
+    }
+
+
+    /**
+     * @param percentile The percentile to estimate (0.0 - 100.0).
+     * @return An upper bound for the given percentile, in ms (never more than the maximum sample).
+     */
+    public synchronized double getPercentile(final double percentile)
+    {
+        double result = 0.0;
+
+        if (count > 0)
+        {
+            long target     = (long)Math.ceil(percentile / 100.0 * count);
+            long cumulative = 0;
+            int  bucket     = 0;
+
+            while (bucket < buckets.length - 1 && cumulative + buckets[bucket] < target)
+            {
+                cumulative += buckets[bucket];
+                bucket++;
+            }
+
+            result = bucket < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[bucket], max) : max;
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return A one line rendering of the non-empty buckets, eg. "<=0.5ms: 120, <=1ms: 3".
+     */
+    public synchronized String toString()
+    {
+        StringBuffer result = new StringBuffer();
+
+        for (int i = 0; i < buckets.length; i++)
+        {
+            if (buckets[i] > 0)
+            {
+                result.append(result.length() == 0 ? "" : ", ");
+                result.append(i < BUCKET_BOUNDS.length ? "<=" + LatencyStatistics.format(BUCKET_BOUNDS[i]) : ">" + LatencyStatistics.format(BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1]));
+                result.append("ms: " + buckets[i]);
+            }
+        }
+
+        return(result.toString());
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.util;
+
+import java.util.Arrays;
+
+
+/**
+ * Utility class that accumulates latency samples (in ms) and summarises their distribution.  Samples are
+ * kept in the order they were added, so that jitter (the variation between consecutive samples) can be
+ * computed as well as the usual order statistics.  This class is thread safe.
+ *
+ * @version $Id$
+ */
+public final class LatencyStatistics
+{
+    private double[] samples;
+    private int      count;
+
+
+    /**
+     * Make a new, empty, one.
+     */
+    public LatencyStatistics()
+    {
+        this(64);
+    }
+
+
+    /**
+     * Make a new, empty, one.
+     *
+     * @param expectedSamples The number of samples that are expected to be added (used to size internal storage).
+     */
+    public LatencyStatistics(final int expectedSamples)
+    {
+        this.samples = new double[Math.max(expectedSamples, 1)];
+        this.count   = 0;
+    }
+
+
+    /**
+     * Adds a sample.
+     *
+     * @param latencyMs The sample, in milliseconds.
+     */
+    public synchronized void add(final double latencyMs)
+    {
+        if (count == samples.length)
+        {
+            double[] temp = new double[samples.length * 2];
+
+            System.arraycopy(samples, 0, temp, 0, count);
+            samples = temp;
+        }
+
+        samples[count++] = latencyMs;
+    }
+
+
+    /**
+     * Adds a sample measured with System.nanoTime().
+     *
+     * @param startNanos The start time, in ns.
+     * @param endNanos   The end time, in ns.
+     */
+    public void addNanos(final long startNanos, final long endNanos)
+    {
+        add((endNanos - startNanos) / 1000000.0);
+    }
+
+
+    /**
+     * Adds all of the samples from another instance.
+     *
+     * @param other The other instance <i>(may be null)</i>.
+     */
+    public void addAll(final LatencyStatistics other)
+    {
+        if (other != null)
+        {
+            double[] otherSamples = other.getSamples();
+
+            for (int i = 0; i < otherSamples.length; i++)
+            {
+                add(otherSamples[i]);
+            }
+        }
+    }
+
+
+    public synchronized int getCount()
+    {
+        return(count);
+    }
+
+
+    public synchronized double getMin()
+    {
+        double result = count == 0 ? 0.0 : Double.MAX_VALUE;
+
+        for (int i = 0; i < count; i++)
+        {
+            result = Math.min(result, samples[i]);
+        }
+
+        return(result);
+    }
+
+
+    public synchronized double getMax()
+    {
+        double result = 0.0;
+
+        for (int i = 0; i < count; i++)
+        {
+            result = Math.max(result, samples[i]);
+        }
+
+        return(result);
+    }
+
+
+    public synchronized double getAverage()
+    {
+        double total = 0.0;
+
+        for (int i = 0; i < count; i++)
+        {
+            total += samples[i];
+        }
+
+        return(count == 0 ? 0.0 : total / count);
+    }
+
+
+    public synchronized double getStdDev()
+    {
+        double result = 0.0;
+
+        if (count > 1)
+        {
+            double average = getAverage();
+            double total   = 0.0;
+
+            for (int i = 0; i < count; i++)
+            {
+                total += (samples[i] - average) * (samples[i] - average);
+            }
+
+            result = Math.sqrt(total / (count - 1));
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @param percentile The percentile to return (eg. 95.0) <i>(must be between 0 and 100)</i>.
+     * @return The sample at that percentile (nearest rank), or 0 if there are no samples.
+     */
+    public synchronized double getPercentile(final double percentile)
+    {
+        double result = 0.0;
+
+        if (count > 0)
+        {
+            double[] sorted = getSamples();
+            int      rank   = (int)Math.ceil(percentile / 100.0 * count);
+
+            Arrays.sort(sorted);
+            result = sorted[Math.min(Math.max(rank, 1), count) - 1];
+        }
+
+        return(result);
+    }
+
+
+    /**
+     * @return The mean absolute difference between consecutive samples, in ms.
+     */
+    public synchronized double getJitter()
+    {
+        double total = 0.0;
+
+        for (int i = 1; i < count; i++)
+        {
+            total += Math.abs(samples[i] - samples[i - 1]);
+        }
+
+        return(count < 2 ? 0.0 : total / (count - 1));
+    }
+
+
+    /**
+     * @return A copy of the samples, in the order they were added.
+     */
+    public synchronized double[] getSamples()
+    {
+        double[] result = new double[count];
+
+        System.arraycopy(samples, 0, result, 0, count);
+
+        return(result);
+    }
+
+
+    /**
+     * Formats a latency for display.
+     *
+     * @param latencyMs The latency, in ms.
+     * @return The latency, to at most 2 decimal places.
+     */
+    public static String format(final double latencyMs)
+    {
+        return(String.valueOf(Math.round(latencyMs * 100) / 100.0));
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return("min/avg/p95/p99/max = " + format(getMin())            + "/" +
+                                          format(getAverage())        + "/" +
+                                          format(getPercentile(95.0)) + "/" +
+                                          format(getPercentile(99.0)) + "/" +
+                                          format(getMax())            + "ms");
+    }
+
+}
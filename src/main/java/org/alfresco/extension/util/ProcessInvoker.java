@@ -108,6 +108,12 @@ public class ProcessInvoker
             // hmmm......the process was still running so attempt to whack it
             process.destroy();  // Note: with OpenOffice running in headless mode on Linux, this doesn't appear to actually kill the process
         }
+        else
+        {
+            // Give the catchers a chance to drain whatever output is still buffered, otherwise long outputs get truncated
+            stdoutCatcher.join(POLL_INTERVAL * 4);
+            stderrCatcher.join(POLL_INTERVAL * 4);
+        }
         
         stdoutCatcher.interrupt();
         stderrCatcher.interrupt();
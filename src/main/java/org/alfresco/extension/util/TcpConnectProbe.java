@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2005-2011 Alfresco Software Limited.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+
+ * As a special exception to the terms and conditions of version 2.0 of
+ * the GPL, you may redistribute this Program in connection with Free/Libre
+ * and Open Source Software ("FLOSS") applications as described in Alfresco's
+ * FLOSS exception.  You should have received a copy of the text describing
+ * the FLOSS exception, and it is also available here:
+ * http://www.alfresco.com/legal/licensing"
+ */
+
+package org.alfresco.extension.util;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+
+/**
+ * Utility class that measures network round trip time by timing TCP connection establishment (SYN / SYN-ACK)
+ * to a listening port.  Unlike ping this needs no forked process, works where ICMP is blocked, and measures
+ * the path that application traffic actually takes.
+ * <p>
+ * Connections are made one at a time, in bursts separated by a pause, so that the probe never has more than
+ * one connection outstanding and doesn't trip connection rate limits on the target.
+ *
+ * @version $Id$
+ */
+public final class TcpConnectProbe
+{
+    private final InetSocketAddress address;
+    private final int               timeoutMs;
+
+
+    /**
+     * Make a new one.
+     *
+     * @param hostname  The host to probe <i>(must not be null)</i>.
+     * @param port      The TCP port to probe <i>(must be a port the host is listening on)</i>.
+     * @param timeoutMs The time after which a connection attempt is considered to have failed, in ms.
+     */
+    public TcpConnectProbe(final String hostname, final int port, final int timeoutMs)
+    {
+        this.address   = new InetSocketAddress(hostname, port);
+        this.timeoutMs = timeoutMs;
+    }
+
+
+    /**
+     * @return True if the host name resolved to an address.
+     */
+    public boolean isResolved()
+    {
+        return(!address.isUnresolved());
+    }
+
+
+    /**
+     * Probes the port.
+     *
+     * @param samples   The total number of connections to make.
+     * @param burstSize The number of connections made back to back in each burst.
+     * @param pauseMs   The pause between bursts, in ms.
+     * @return Pair, containing:
+     *            LatencyStatistics: the time taken by each successful connection
+     *            Integer: the number of connection attempts that failed (refused or timed out)
+     * @throws InterruptedException If the calling thread is interrupted while pausing between bursts.
+     */
+    public Pair probe(final int samples, final int burstSize, final long pauseMs)
+        throws InterruptedException
+    {
+        LatencyStatistics latencies = new LatencyStatistics(samples);
+        int               failures  = 0;
+
+        for (int i = 0; i < samples; i++)
+        {
+            if (i > 0 && burstSize > 0 && i % burstSize == 0)
+            {
+                Thread.sleep(pauseMs);
+            }
+
+            long elapsed = connect();
+
+            if (elapsed >= 0)
+            {
+                latencies.add(elapsed / 1000000.0);
+            }
+            else
+            {
+                failures++;
+            }
+        }
+
+        return(new Pair(latencies, new Integer(failures)));
+    }
+
+
+    /**
+     * @return The time taken to connect, in ns, or -1 if the connection failed.
+     */
+    public long connect()
+    {
+        long   result = -1;
+        Socket socket = new Socket();
+
+        try
+        {
+            socket.setTcpNoDelay(true);
+            socket.setSoLinger(true, 0);   // Reset rather than close, so that probes don't leave sockets in TIME_WAIT
+
+            long startTime = System.nanoTime();
+
+            socket.connect(address, timeoutMs);
+            result = System.nanoTime() - startTime;
+        }
+        catch (IOException ioe)
+        {
+            result = -1;
+        }
+        finally
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Ignore it and move on
+            }
+        }
+
+        return(result);
+    }
+
+}